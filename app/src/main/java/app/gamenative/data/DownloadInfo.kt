@@ -1,13 +1,18 @@
 package app.gamenative.data
 
+import app.gamenative.service.DownloadProgressPersister
 import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.withTimeoutOrNull
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.StateFlow
-import timber.log.Timber
-import java.io.File
 import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+import java.util.concurrent.atomic.LongAdder
 
 data class DownloadInfo(
     val jobCount: Int = 1,
@@ -15,23 +20,35 @@ data class DownloadInfo(
     var downloadingAppIds: CopyOnWriteArrayList<Int>,
 ) {
     private var downloadJob: Job? = null
-    private val downloadProgressListeners = mutableListOf<((Float) -> Unit)>()
+    private val downloadProgressListeners = CopyOnWriteArrayList<((Float) -> Unit)>()
     private val progresses: Array<Float> = Array(jobCount) { 0f }
 
     private val weights    = FloatArray(jobCount) { 1f }     // ⇐ new
     private var weightSum  = jobCount.toFloat()
 
     // === Bytes / speed tracking for more stable ETA ===
+    // Updated for every buffer read by many download workers at once, so the count is striped
+    // and speed is kept in a fixed ring of time buckets: each update costs the same however
+    // long the download runs.
+    @Volatile
     private var totalExpectedBytes: Long = 0L
-    private var bytesDownloaded: Long = 0L
+    private val bytesDownloaded = LongAdder()
+    @Volatile
     private var persistencePath: String? = null
+    private val bytesSource: () -> Long = { getBytesDownloaded() }
 
-    private data class SpeedSample(val timeMs: Long, val bytes: Long)
-
-    private val speedSamples = CopyOnWriteArrayList<SpeedSample>()
+    // Each slot packs the bucket's epoch (timestamp / SPEED_BUCKET_MS) above the bytes seen in it
+    private val speedBuckets = AtomicLongArray(SPEED_BUCKET_COUNT)
+    @Volatile
     private var emaSpeedBytesPerSec: Double = 0.0
+    @Volatile
     private var hasEmaSpeed: Boolean = false
+    @Volatile
     private var isActive: Boolean = true
+    private val lastEmitNanos = AtomicLong(System.nanoTime() - EMIT_INTERVAL_NS)
+    // Set when a throttled update has not reached the listeners yet
+    private val emitPending = AtomicBoolean()
+    private val trailingEmitScheduled = AtomicBoolean()
     private val statusMessage = MutableStateFlow<String?>(null)
 
     fun cancel() {
@@ -43,8 +60,9 @@ data class DownloadInfo(
     }
 
     fun cancel(message: String) {
-        // Persist the most recent progress so a resume can pick up where it left off.
-        persistProgressSnapshot()
+        // Persist the most recent progress so a resume can pick up where it left off. Cancel
+        // is called from the UI thread, so the synced write happens in the background.
+        persistencePath?.let { DownloadProgressPersister.shared.flushAsync(it, bytesSource) }
         // Mark as inactive and clear speed tracking so a future resume
         // does not use stale samples.
         setActive(false)
@@ -62,8 +80,9 @@ data class DownloadInfo(
 
     fun getProgress(): Float {
         // Always use bytes-based progress when available for accuracy
+        val totalExpectedBytes = totalExpectedBytes
         if (totalExpectedBytes > 0L) {
-            val bytesProgress = (bytesDownloaded.toFloat() / totalExpectedBytes.toFloat()).coerceIn(0f, 1f)
+            val bytesProgress = (getBytesDownloaded().toFloat() / totalExpectedBytes.toFloat()).coerceIn(0f, 1f)
             return bytesProgress
         }
 
@@ -78,7 +97,7 @@ data class DownloadInfo(
 
     fun setProgress(amount: Float, jobIndex: Int = 0) {
         progresses[jobIndex] = amount
-        emitProgressChange()
+        emitProgressChange(force = amount < 0f || amount >= 1f)
     }
 
     fun setWeight(jobIndex: Int, weightBytes: Long) {        // tiny helper
@@ -96,7 +115,8 @@ data class DownloadInfo(
      * Initialize bytesDownloaded with a persisted value (used on resume).
      */
     fun initializeBytesDownloaded(value: Long) {
-        bytesDownloaded = if (value < 0L) 0L else value
+        bytesDownloaded.reset()
+        bytesDownloaded.add(if (value < 0L) 0L else value)
     }
 
     /**
@@ -107,7 +127,19 @@ data class DownloadInfo(
         persistencePath = appDirPath
     }
 
+    /**
+     * Asks for the progress to be saved for resume. Cheap enough to call per chunk: snapshots
+     * are coalesced and written in the background by [DownloadProgressPersister].
+     */
     fun persistProgressSnapshot() {
+        persistencePath?.let { DownloadProgressPersister.shared.snapshot(it, bytesSource) }
+    }
+
+    /**
+     * Saves the progress for resume before returning. Use when the download stops, since
+     * pending background snapshots may never run.
+     */
+    fun flushProgressSnapshot() {
         persistencePath?.let { persistBytesDownloaded(it) }
     }
 
@@ -116,21 +148,12 @@ data class DownloadInfo(
         timestampMs: Long = System.currentTimeMillis(),
         trackSpeed: Boolean = true,
     ) {
-        if (!isActive) return
-        if (deltaBytes <= 0L) {
-            // Still record a sample to advance the time window, but do not change the count.
-            if (trackSpeed) {
-                addSpeedSample(timestampMs)
-            }
-            return
-        }
+        // The speed window moves with the clock, so empty updates need no sample
+        if (!isActive || deltaBytes <= 0L) return
 
-        bytesDownloaded += deltaBytes
-        if (bytesDownloaded < 0L) {
-            bytesDownloaded = 0L
-        }
+        bytesDownloaded.add(deltaBytes)
         if (trackSpeed) {
-            addSpeedSample(timestampMs)
+            addSpeedSample(deltaBytes, timestampMs)
         }
     }
 
@@ -140,20 +163,55 @@ data class DownloadInfo(
 
     fun getStatusMessageFlow(): StateFlow<String?> = statusMessage
 
-    private fun addSpeedSample(timestampMs: Long) {
-        speedSamples.add(SpeedSample(timestampMs, bytesDownloaded))
-        trimOldSamples(timestampMs)
+    private fun addSpeedSample(deltaBytes: Long, timestampMs: Long) {
+        val epoch = (timestampMs / SPEED_BUCKET_MS) and EPOCH_MASK
+        val slot = (epoch % SPEED_BUCKET_COUNT).toInt()
+        while (true) {
+            val current = speedBuckets.get(slot)
+            val currentEpoch = current ushr BYTES_BITS
+            val updated = when {
+                current == 0L || currentEpoch == epoch -> {
+                    (epoch shl BYTES_BITS) or ((current and BYTES_MASK) + deltaBytes).coerceAtMost(BYTES_MASK)
+                }
+                // The slot still holds a bucket from a previous lap of the ring: start over
+                ((epoch - currentEpoch) and EPOCH_MASK) < EPOCH_HALF_RANGE -> {
+                    (epoch shl BYTES_BITS) or deltaBytes.coerceAtMost(BYTES_MASK)
+                }
+                // The sample is older than the whole ring, it no longer counts towards the speed
+                else -> return
+            }
+            if (speedBuckets.compareAndSet(slot, current, updated)) return
+        }
     }
 
-    private fun trimOldSamples(nowMs: Long, windowMs: Long = 30_000L) {
-        val cutoff = nowMs - windowMs
-        while (speedSamples.isNotEmpty() && speedSamples.first().timeMs < cutoff) {
-            speedSamples.removeAt(0)
+    /**
+     * Returns the average download speed in bytes per second over the last [windowSeconds]
+     * (at most 30), or null until downloaded data spans more than one time bucket.
+     */
+    fun getDownloadSpeed(windowSeconds: Int = 30, nowMs: Long = System.currentTimeMillis()): Double? {
+        val windowBuckets = (windowSeconds * 1000L / SPEED_BUCKET_MS).coerceIn(1L, SPEED_BUCKET_COUNT.toLong())
+        val nowEpoch = (nowMs / SPEED_BUCKET_MS) and EPOCH_MASK
+        var bytes = 0L
+        var oldestAge = -1L
+        for (slot in 0 until SPEED_BUCKET_COUNT) {
+            val bucket = speedBuckets.get(slot)
+            if (bucket == 0L) continue
+            val age = (nowEpoch - (bucket ushr BYTES_BITS)) and EPOCH_MASK
+            if (age >= windowBuckets) continue
+            bytes += bucket and BYTES_MASK
+            if (age > oldestAge) oldestAge = age
         }
+        if (oldestAge < 1L || bytes <= 0L) return null
+
+        // From the start of the oldest bucket up to now
+        val elapsedMs = oldestAge * SPEED_BUCKET_MS + nowMs % SPEED_BUCKET_MS
+        return bytes.toDouble() / (elapsedMs.toDouble() / 1000.0)
     }
 
     fun resetSpeedTracking() {
-        speedSamples.clear()
+        for (slot in 0 until SPEED_BUCKET_COUNT) {
+            speedBuckets.set(slot, 0L)
+        }
         emaSpeedBytesPerSec = 0.0
         hasEmaSpeed = false
     }
@@ -175,15 +233,16 @@ data class DownloadInfo(
     /**
      * Returns the cumulative bytes downloaded so far.
      */
-    fun getBytesDownloaded(): Long = bytesDownloaded
+    fun getBytesDownloaded(): Long = bytesDownloaded.sum().coerceAtLeast(0L)
 
     /**
      * Returns a pair of (downloaded bytes, total expected bytes).
      * Returns (0, 0) if total expected bytes is 0 or not yet set.
      */
     fun getBytesProgress(): Pair<Long, Long> {
+        val totalExpectedBytes = totalExpectedBytes
         return if (totalExpectedBytes > 0L) {
-            bytesDownloaded.coerceAtMost(totalExpectedBytes) to totalExpectedBytes
+            getBytesDownloaded().coerceAtMost(totalExpectedBytes) to totalExpectedBytes
         } else {
             0L to 0L
         }
@@ -193,25 +252,14 @@ data class DownloadInfo(
      * Returns an ETA in milliseconds based on recent download speed, or null if
      * there is not enough information yet (e.g. just started) or download is inactive.
      */
-    fun getEstimatedTimeRemaining(windowSeconds: Int = 30): Long? {
+    fun getEstimatedTimeRemaining(windowSeconds: Int = 30, nowMs: Long = System.currentTimeMillis()): Long? {
         if (!isActive) return null
+        val totalExpectedBytes = totalExpectedBytes
         if (totalExpectedBytes <= 0L) return null
+        val bytesDownloaded = getBytesDownloaded()
         if (bytesDownloaded >= totalExpectedBytes) return null
 
-        val now = System.currentTimeMillis()
-        trimOldSamples(now, windowSeconds * 1000L)
-
-        if (speedSamples.size < 2) return null
-
-        val first = speedSamples.first()
-        val last = speedSamples.last()
-        val elapsedMs = last.timeMs - first.timeMs
-        if (elapsedMs <= 0L) return null
-
-        val bytesDelta = last.bytes - first.bytes
-        if (bytesDelta <= 0L) return null
-
-        val currentSpeedBytesPerSec = bytesDelta.toDouble() / (elapsedMs.toDouble() / 1000.0)
+        val currentSpeedBytesPerSec = getDownloadSpeed(windowSeconds, nowMs) ?: return null
         if (currentSpeedBytesPerSec <= 0.0) return null
 
         // Exponential moving average to smooth fluctuations.
@@ -244,64 +292,85 @@ data class DownloadInfo(
         downloadProgressListeners.remove(listener)
     }
 
+    /**
+     * Notifies the listeners of the current progress, at most once per 100 ms
+     * however many workers report. A skipped update is delivered when the interval is over,
+     * so the last one of a burst is never lost. Completion, failure and cancellation always
+     * get through at once.
+     */
     fun emitProgressChange() {
+        emitProgressChange(force = false)
+    }
+
+    private fun emitProgressChange(force: Boolean) {
+        val progress = getProgress()
+        if (!force && isActive && progress >= 0f && progress < 1f) {
+            val now = System.nanoTime()
+            val last = lastEmitNanos.get()
+            // Whoever wins the CAS emits for this interval, the others leave it to the trailing emit
+            if (now - last < EMIT_INTERVAL_NS || !lastEmitNanos.compareAndSet(last, now)) {
+                emitPending.set(true)
+                scheduleTrailingEmit(last + EMIT_INTERVAL_NS - now)
+                return
+            }
+        }
+        else {
+            lastEmitNanos.set(System.nanoTime())
+        }
+        // Cleared before the progress is read again, so an update skipped meanwhile is either
+        // part of this emit or left pending for the trailing one
+        emitPending.set(false)
+        val latest = getProgress()
         for (listener in downloadProgressListeners) {
-            listener(getProgress())
+            listener(latest)
         }
     }
 
-    // --- Persistence helpers ---
+    private fun scheduleTrailingEmit(delayNanos: Long) {
+        if (!trailingEmitScheduled.compareAndSet(false, true)) return
+        emitScheduler.schedule(
+            {
+                trailingEmitScheduled.set(false)
+                if (emitPending.get()) emitProgressChange(force = false)
+            },
+            delayNanos.coerceAtLeast(0L),
+            TimeUnit.NANOSECONDS,
+        )
+    }
 
     companion object {
-        private const val PERSISTENCE_DIR = ".DownloadInfo"
-        private const val PERSISTENCE_FILE = "bytes_downloaded.txt"
+        private const val EMIT_INTERVAL_NS = 100_000_000L
+        private val emitScheduler = Executors.newSingleThreadScheduledExecutor { runnable ->
+            Thread(runnable, "DownloadProgressEmitter").apply { isDaemon = true }
+        }
+        private const val SPEED_BUCKET_MS = 100L
+        private const val SPEED_BUCKET_COUNT = 300 // 30 s
+        private const val BYTES_BITS = 40
+        private const val BYTES_MASK = (1L shl BYTES_BITS) - 1
+        private const val EPOCH_MASK = (1L shl (64 - BYTES_BITS)) - 1
+        private const val EPOCH_HALF_RANGE = 1L shl (63 - BYTES_BITS)
     }
 
+    // --- Persistence helpers ---
+
     /**
      * Persist bytesDownloaded to a file in the app directory.
      */
     fun persistBytesDownloaded(appDirPath: String) {
-        try {
-            val dir = File(appDirPath, PERSISTENCE_DIR)
-            if (!dir.exists()) {
-                dir.mkdirs()
-            }
-            val file = File(dir, PERSISTENCE_FILE)
-            file.writeText(bytesDownloaded.toString())
-        } catch (e: Exception) {
-            Timber.e(e, "Failed to persist bytes downloaded to $appDirPath")
-        }
+        DownloadProgressPersister.shared.flush(appDirPath, bytesSource)
     }
 
     /**
      * Load persisted bytesDownloaded from file, returns 0 if file doesn't exist or is unreadable.
      */
     fun loadPersistedBytesDownloaded(appDirPath: String): Long {
-        return try {
-            val file = File(File(appDirPath, PERSISTENCE_DIR), PERSISTENCE_FILE)
-            if (file.exists() && file.canRead()) {
-                val content = file.readText().trim()
-                content.toLongOrNull() ?: 0L
-            } else {
-                0L
-            }
-        } catch (e: Exception) {
-            Timber.e(e, "Failed to load persisted bytes downloaded from $appDirPath")
-            0L
-        }
+        return DownloadProgressPersister.shared.load(appDirPath)
     }
 
     /**
      * Delete the persisted bytes file (called on download completion).
      */
     fun clearPersistedBytesDownloaded(appDirPath: String) {
-        try {
-            val file = File(File(appDirPath, PERSISTENCE_DIR), PERSISTENCE_FILE)
-            if (file.exists()) {
-                file.delete()
-            }
-        } catch (e: Exception) {
-            Timber.e(e, "Failed to clear persisted bytes downloaded from $appDirPath")
-        }
+        DownloadProgressPersister.shared.clear(appDirPath)
     }
 }
@@ -0,0 +1,41 @@
+package app.gamenative.data
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+import androidx.room.PrimaryKey
+
+/**
+ * Cached SHA-1 of a local file. The hash is only trusted while the file still has the
+ * recorded [size] and [lastModified] time; any change to either means it is rehashed.
+ *
+ * @param lastModified the value in milliseconds, since the epoch (1970-01-01T00:00:00Z)
+ */
+@Entity("file_hash_cache")
+data class FileHash(
+    @PrimaryKey
+    @ColumnInfo("path")
+    val path: String,
+
+    @ColumnInfo("size")
+    val size: Long,
+
+    @ColumnInfo("last_modified")
+    val lastModified: Long,
+
+    @ColumnInfo("sha")
+    val sha: ByteArray,
+) {
+    override fun equals(other: Any?): Boolean {
+        if (this === other) return true
+        if (other !is FileHash) return false
+        return path == other.path && size == other.size && lastModified == other.lastModified && sha.contentEquals(other.sha)
+    }
+
+    override fun hashCode(): Int {
+        var result = path.hashCode()
+        result = 31 * result + size.hashCode()
+        result = 31 * result + lastModified.hashCode()
+        result = 31 * result + sha.contentHashCode()
+        return result
+    }
+}
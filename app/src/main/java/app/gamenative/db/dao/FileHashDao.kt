@@ -0,0 +1,22 @@
+package app.gamenative.db.dao
+
+import androidx.room.Dao
+import androidx.room.Insert
+import androidx.room.OnConflictStrategy
+import androidx.room.Query
+import app.gamenative.data.FileHash
+
+@Dao
+interface FileHashDao {
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    suspend fun insertAll(hashes: List<FileHash>)
+
+    @Query("SELECT * FROM file_hash_cache WHERE path IN (:paths)")
+    suspend fun getByPaths(paths: List<String>): List<FileHash>
+
+    @Query("SELECT path FROM file_hash_cache WHERE path LIKE :prefix || '%'")
+    suspend fun getPathsStartingWith(prefix: String): List<String>
+
+    @Query("DELETE FROM file_hash_cache WHERE path IN (:paths)")
+    suspend fun deleteByPaths(paths: List<String>)
+}
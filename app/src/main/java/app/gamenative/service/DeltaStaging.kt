@@ -0,0 +1,61 @@
+package app.gamenative.service
+
+import java.io.File
+import java.io.IOException
+import java.nio.file.AtomicMoveNotSupportedException
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+
+/**
+ * Staging directory of a delta update, named [name] inside [installDir].
+ *
+ * A store's patcher assembles the new versions of changed files under [dir] at their install
+ * paths while the installed files stay untouched, and [commit] swaps them in once they are
+ * complete.
+ */
+class DeltaStaging(private val installDir: File, name: String) {
+    val dir = File(installDir, name)
+
+    /** Where the new version of the file at [path] is assembled. */
+    fun stagedFile(path: String): File = File(dir, path)
+
+    /**
+     * Moves the staged files at [patched] over the installed ones and deletes the installed
+     * files at [removed], then drops the staging directory. A removed path that matches one
+     * of [kept] apart from case is left alone: shared storage is case-insensitive, so it is
+     * the same file under its new name.
+     */
+    fun commit(patched: List<String>, kept: Collection<String>, removed: List<String>): Result<Unit> {
+        try {
+            for (path in patched) {
+                if (!stagedFile(path).isFile) return Result.failure(IOException("Patched file $path was not assembled"))
+            }
+            for (path in patched) {
+                val target = File(installDir, path)
+                target.parentFile?.mkdirs()
+                move(stagedFile(path), target)
+            }
+            val keptLowercase = (patched + kept).mapTo(HashSet()) { it.lowercase() }
+            for (path in removed) {
+                if (path.lowercase() !in keptLowercase) File(installDir, path).delete()
+            }
+        } catch (e: IOException) {
+            return Result.failure(e)
+        }
+        discard()
+        return Result.success(Unit)
+    }
+
+    /** Drops everything staged so far. */
+    fun discard() {
+        dir.deleteRecursively()
+    }
+
+    private fun move(source: File, target: File) {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING)
+        } catch (e: AtomicMoveNotSupportedException) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING)
+        }
+    }
+}
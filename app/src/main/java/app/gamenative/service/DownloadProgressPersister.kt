@@ -0,0 +1,172 @@
+package app.gamenative.service
+
+import java.io.File
+import java.io.FileOutputStream
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import timber.log.Timber
+
+/**
+ * Keeps the downloaded byte count of each install directory on disk so an interrupted
+ * download can resume its progress.
+ *
+ * Download workers request a [snapshot] as often as they like; requests are coalesced and
+ * written from one background thread, at most every [minIntervalMs] per directory, or
+ * sooner once [minBytes] more have been downloaded since the last write. The count is read
+ * when the write happens, so it is always the latest one. Each write goes to a temporary
+ * file that is synced and renamed over the previous snapshot, so a crash leaves either the
+ * old or the new value on disk, never a torn one. [flush] writes synchronously and is meant
+ * for shutdown; [flushAsync] is the variant for callers on the main thread, like cancel.
+ * Nothing is written for an install directory that no longer exists.
+ *
+ * [beforeCommit] runs between writing the temporary file and renaming it; tests throw from
+ * it to crash a write halfway.
+ */
+class DownloadProgressPersister(
+    private val minIntervalMs: Long = 2_000L,
+    private val minBytes: Long = 64L * 1024 * 1024,
+    private val beforeCommit: () -> Unit = {},
+) {
+    private class Entry(val appDirPath: String, @Volatile var bytes: () -> Long) {
+        val queued = AtomicBoolean()
+        val urgent = AtomicBoolean()
+        @Volatile
+        var writtenBytes = -1L
+        @Volatile
+        var writtenAtMs = 0L
+        // Guarded by the entry itself, like the write
+        var cleared = false
+    }
+
+    private val entries = ConcurrentHashMap<String, Entry>()
+    private val executor = Executors.newSingleThreadScheduledExecutor { runnable ->
+        Thread(runnable, "DownloadProgressPersister").apply { isDaemon = true }
+    }
+    private val writes = AtomicInteger()
+
+    /** Number of snapshot files written so far. */
+    val writeCount: Int
+        get() = writes.get()
+
+    /** Schedules a write of [bytes] for [appDirPath] unless one is already pending. Cheap enough to call per chunk. */
+    fun snapshot(appDirPath: String, bytes: () -> Long) {
+        val entry = entryFor(appDirPath, bytes)
+        if (entry.queued.compareAndSet(false, true)) {
+            val delayMs = if (bytes() - entry.writtenBytes >= minBytes) {
+                0L
+            } else {
+                (entry.writtenAtMs + minIntervalMs - System.currentTimeMillis()).coerceIn(0L, minIntervalMs)
+            }
+            executor.schedule({ write(entry, fromQueue = true) }, delayMs, TimeUnit.MILLISECONDS)
+        } else if (bytes() - entry.writtenBytes >= minBytes && entry.urgent.compareAndSet(false, true)) {
+            // A fast download should not lose a whole interval's worth of bytes on a crash
+            executor.execute { write(entry, fromQueue = true) }
+        }
+    }
+
+    /** Writes the current count for [appDirPath] before returning. */
+    fun flush(appDirPath: String, bytes: () -> Long) {
+        write(entryFor(appDirPath, bytes), fromQueue = false)
+    }
+
+    /** Writes the current count for [appDirPath] on the background thread, ahead of any delayed snapshot. */
+    fun flushAsync(appDirPath: String, bytes: () -> Long): Future<*> {
+        val entry = entryFor(appDirPath, bytes)
+        return executor.submit { write(entry, fromQueue = false) }
+    }
+
+    /** Forgets [appDirPath] and deletes its snapshot; writes still pending for it are dropped. */
+    fun clear(appDirPath: String) {
+        entries.remove(appDirPath)?.let { entry ->
+            synchronized(entry) { entry.cleared = true }
+        }
+        try {
+            val dir = File(appDirPath, PERSISTENCE_DIR)
+            File(dir, PERSISTENCE_FILE).delete()
+            File(dir, TEMP_FILE).delete()
+        } catch (e: Exception) {
+            Timber.e(e, "Failed to clear persisted bytes downloaded from $appDirPath")
+        }
+    }
+
+    /**
+     * Persisted count for [appDirPath], 0 if there is none or it is unreadable. Waits for
+     * writes already handed to the background thread, so a resume right after a cancel
+     * sees the count the cancel saved.
+     */
+    fun load(appDirPath: String): Long {
+        try {
+            executor.submit {}.get()
+        } catch (e: Exception) {
+            Timber.w(e, "Failed to wait for pending writes to $appDirPath")
+        }
+        return try {
+            val file = File(File(appDirPath, PERSISTENCE_DIR), PERSISTENCE_FILE)
+            if (file.exists() && file.canRead()) {
+                file.readText().trim().toLongOrNull()?.coerceAtLeast(0L) ?: 0L
+            } else {
+                0L
+            }
+        } catch (e: Exception) {
+            Timber.e(e, "Failed to load persisted bytes downloaded from $appDirPath")
+            0L
+        }
+    }
+
+    private fun entryFor(appDirPath: String, bytes: () -> Long): Entry {
+        val entry = entries.computeIfAbsent(appDirPath) { Entry(it, bytes) }
+        entry.bytes = bytes
+        return entry
+    }
+
+    private fun write(entry: Entry, fromQueue: Boolean) {
+        if (fromQueue) {
+            // Requests arriving from here on need a write that reads a newer count
+            entry.queued.set(false)
+            entry.urgent.set(false)
+        }
+        synchronized(entry) {
+            if (entry.cleared) return
+            val bytes = entry.bytes()
+            if (bytes == entry.writtenBytes) return
+            // The install was deleted meanwhile; recreating the directory would bring part of it back
+            if (!File(entry.appDirPath).isDirectory) return
+            try {
+                val dir = File(entry.appDirPath, PERSISTENCE_DIR)
+                if (!dir.isDirectory) dir.mkdirs()
+                val tempFile = File(dir, TEMP_FILE)
+                FileOutputStream(tempFile).use { output ->
+                    output.write(bytes.toString().toByteArray())
+                    output.fd.sync()
+                }
+                beforeCommit()
+                Files.move(
+                    tempFile.toPath(),
+                    File(dir, PERSISTENCE_FILE).toPath(),
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING,
+                )
+                entry.writtenBytes = bytes
+                entry.writtenAtMs = System.currentTimeMillis()
+                writes.incrementAndGet()
+            } catch (e: Exception) {
+                Timber.e(e, "Failed to persist bytes downloaded to ${entry.appDirPath}")
+            }
+        }
+    }
+
+    companion object {
+        const val PERSISTENCE_DIR = ".DownloadInfo"
+        const val PERSISTENCE_FILE = "bytes_downloaded.txt"
+        private const val TEMP_FILE = "$PERSISTENCE_FILE.tmp"
+
+        /** Shared by all downloads of the process. */
+        val shared = DownloadProgressPersister()
+    }
+}
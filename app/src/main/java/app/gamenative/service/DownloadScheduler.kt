@@ -0,0 +1,205 @@
+package app.gamenative.service
+
+import kotlin.coroutines.cancellation.CancellationException
+import kotlinx.coroutines.cancelChildren
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import timber.log.Timber
+
+/**
+ * Bounded-concurrency work queue shared by the store download managers.
+ *
+ * A new item is started the moment any running one finishes, so a slow chunk only holds
+ * its own slot instead of stalling a whole batch. Items are taken in priority order
+ * (lower first, ties keep list order) while respecting a per-host connection limit; each
+ * item's host is resolved once and pending items wait in one queue per host, so picking
+ * the next item only looks at the head of each queue. The
+ * number of slots starts at [initialConcurrency] and, when [bytesTransferred] is given,
+ * is tuned between [minConcurrency] and [maxConcurrency] by [ConcurrencyTuner].
+ *
+ * All bookkeeping happens on the coordinating coroutine; workers only report back
+ * through a channel, so the work lambdas are the only code that runs concurrently.
+ */
+class DownloadScheduler(
+    private val maxConcurrency: Int,
+    private val initialConcurrency: Int = maxConcurrency,
+    private val minConcurrency: Int = 1,
+    private val maxPerHost: Int = maxConcurrency,
+    private val bytesTransferred: (() -> Long)? = null,
+    private val tag: String = "Download",
+) {
+    private class Completion<T>(val item: T, val host: String?, val result: Result<*>)
+
+    private class Pending<T>(val item: T, val host: String?, val sequence: Int)
+
+    /** Highest number of items that were in flight at once during the last [runAll]. */
+    var peakConcurrency = 0
+        private set
+
+    /** Concurrency limit at the end of the last [runAll]. */
+    var concurrencyLimit = initialConcurrency.coerceIn(minConcurrency, maxConcurrency)
+        private set
+
+    /**
+     * Runs [work] for every item and returns the first failure, or success once all items
+     * completed. After a failure or once [isCancelled] returns true no new items are
+     * started and the ones in flight are cancelled; cancellation is reported as a
+     * [CancellationException] failure.
+     */
+    suspend fun <T> runAll(
+        items: List<T>,
+        hostOf: (T) -> String? = { null },
+        priorityOf: (T) -> Long = { 0L },
+        isCancelled: () -> Boolean = { false },
+        onItemComplete: (item: T, completed: Int, total: Int) -> Unit = { _, _, _ -> },
+        work: suspend (T) -> Result<*>,
+    ): Result<Unit> = coroutineScope {
+        val pendingByHost = LinkedHashMap<String?, ArrayDeque<Pending<T>>>()
+        items.sortedBy(priorityOf).forEachIndexed { sequence, item ->
+            val host = hostOf(item)
+            pendingByHost.getOrPut(host) { ArrayDeque() }.addLast(Pending(item, host, sequence))
+        }
+        val completions = Channel<Completion<T>>(Channel.UNLIMITED)
+        val runningPerHost = HashMap<String, Int>()
+        val tuner = bytesTransferred?.let { ConcurrencyTuner(concurrencyLimit, minConcurrency, maxConcurrency) }
+        var running = 0
+        var completed = 0
+        peakConcurrency = 0
+
+        fun takeNext(): Pending<T>? {
+            var next: ArrayDeque<Pending<T>>? = null
+            for ((host, queue) in pendingByHost) {
+                if (host != null && (runningPerHost[host] ?: 0) >= maxPerHost) continue
+                if (next == null || queue.first().sequence < next.first().sequence) next = queue
+            }
+            val queue = next ?: return null
+            val pending = queue.removeFirst()
+            if (queue.isEmpty()) pendingByHost.remove(pending.host)
+            return pending
+        }
+
+        fun startEligible() {
+            while (running < concurrencyLimit) {
+                val pending = takeNext() ?: return
+                val item = pending.item
+                val host = pending.host
+                running++
+                if (host != null) runningPerHost[host] = (runningPerHost[host] ?: 0) + 1
+                peakConcurrency = maxOf(peakConcurrency, running)
+                launch {
+                    val result = try {
+                        work(item)
+                    } catch (e: CancellationException) {
+                        // Our own cancellation propagates; one raised inside the work, such as a timeout, is its failure
+                        if (!isActive) throw e
+                        Result.failure<Unit>(e)
+                    } catch (e: Exception) {
+                        Result.failure<Unit>(e)
+                    }
+                    completions.send(Completion(item, host, result))
+                }
+            }
+        }
+
+        tuner?.start(bytesTransferred!!.invoke(), System.nanoTime())
+        if (!isCancelled()) startEligible()
+
+        while (running > 0) {
+            val completion = completions.receive()
+            running--
+            completion.host?.let { host -> runningPerHost[host] = (runningPerHost[host] ?: 1) - 1 }
+
+            completion.result.exceptionOrNull()?.let { error ->
+                coroutineContext.cancelChildren()
+                return@coroutineScope Result.failure(error)
+            }
+
+            completed++
+            onItemComplete(completion.item, completed, items.size)
+
+            if (isCancelled()) {
+                Timber.tag(tag).w("Download cancelled by user")
+                coroutineContext.cancelChildren()
+                return@coroutineScope Result.failure(CancellationException("Download cancelled"))
+            }
+
+            tuner?.let {
+                val limit = it.sample(bytesTransferred!!.invoke(), System.nanoTime())
+                if (limit != concurrencyLimit) {
+                    Timber.tag(tag).d("Adjusting download concurrency $concurrencyLimit -> $limit")
+                    concurrencyLimit = limit
+                }
+            }
+            startEligible()
+        }
+
+        if (completed < items.size) {
+            Timber.tag(tag).w("Download cancelled by user")
+            return@coroutineScope Result.failure(CancellationException("Download cancelled"))
+        }
+        Result.success(Unit)
+    }
+}
+
+/**
+ * Hill-climbing concurrency controller. Throughput is measured over windows of at least
+ * [windowNanos]. The first window probes one step up; after that the limit keeps moving
+ * in the same direction while throughput improves and reverses when it drops noticeably.
+ * Changes within [tolerance] leave the limit alone so network noise does not make it
+ * oscillate.
+ */
+class ConcurrencyTuner(
+    initialLimit: Int,
+    private val minLimit: Int,
+    private val maxLimit: Int,
+    private val windowNanos: Long = 2_000_000_000L,
+    private val tolerance: Double = 0.05,
+) {
+    var limit = initialLimit.coerceIn(minLimit, maxLimit)
+        private set
+
+    private var direction = 1
+    private var windowStartBytes = 0L
+    private var windowStartNanos = 0L
+    private var lastThroughput = -1.0
+
+    fun start(bytes: Long, nowNanos: Long) {
+        windowStartBytes = bytes
+        windowStartNanos = nowNanos
+        lastThroughput = -1.0
+    }
+
+    /** Feeds the running byte counter and returns the limit to use from now on. */
+    fun sample(bytes: Long, nowNanos: Long): Int {
+        val elapsed = nowNanos - windowStartNanos
+        if (elapsed < windowNanos) return limit
+
+        val throughput = (bytes - windowStartBytes).toDouble() / elapsed
+        windowStartBytes = bytes
+        windowStartNanos = nowNanos
+
+        if (lastThroughput >= 0) {
+            if (throughput < lastThroughput * (1 - tolerance)) {
+                direction = -direction
+                step()
+            } else if (throughput > lastThroughput * (1 + tolerance)) {
+                step()
+            }
+        } else {
+            step()
+        }
+        lastThroughput = throughput
+        return limit
+    }
+
+    private fun step() {
+        val next = limit + direction
+        if (next < minLimit || next > maxLimit) {
+            direction = -direction
+            return
+        }
+        limit = next
+    }
+}
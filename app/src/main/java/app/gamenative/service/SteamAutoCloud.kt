@@ -12,13 +12,13 @@ import app.gamenative.enums.SaveLocation
 import app.gamenative.enums.SyncResult
 import app.gamenative.service.SteamService.Companion.FileChanges
 import app.gamenative.service.SteamService.Companion.getAppDirPath
+import app.gamenative.utils.CachedFileHasher
 import app.gamenative.utils.FileUtils
 import app.gamenative.utils.SteamUtils
 import `in`.dragonbra.javasteam.enums.EResult
 import `in`.dragonbra.javasteam.steam.handlers.steamcloud.AppFileChangeList
 import `in`.dragonbra.javasteam.steam.handlers.steamcloud.AppFileInfo
 import `in`.dragonbra.javasteam.steam.handlers.steamcloud.SteamCloud
-import `in`.dragonbra.javasteam.util.crypto.CryptoHelper
 import java.io.FileOutputStream
 import java.io.InputStream
 import java.io.RandomAccessFile
@@ -212,7 +212,9 @@ object SteamAutoCloud {
                 }
             }
 
-        val getLocalUserFilesAsPrefixMap: () -> Map<String, List<UserFileInfo>> = {
+        val fileHasher = CachedFileHasher(steamInstance.db.fileHashDao())
+
+        val getLocalUserFilesAsPrefixMap: suspend () -> Map<String, List<UserFileInfo>> = {
             val savePatterns = appInfo.ufs.saveFilePatterns.filter { userFile -> userFile.root.isWindows }
 
             if (savePatterns.isNotEmpty()) {
@@ -223,19 +225,24 @@ object SteamAutoCloud {
 
                     Timber.i("Looking for saves in $basePath with pattern ${userFile.pattern} (prefix ${userFile.prefix})")
 
-                    val files = FileUtils.findFilesRecursive(
+                    val paths = FileUtils.findFilesRecursive(
                         rootPath = basePath,
                         pattern = userFile.pattern,
                         maxDepth = 5,
-                    ).map {
-                        val sha = CryptoHelper.shaHash(Files.readAllBytes(it))
+                    ).collect(Collectors.toList())
+                    val hashes = fileHasher.hashAll(paths)
+                    fileHasher.pruneMissing(basePath)
+
+                    val files = paths.map {
+                        val hash = hashes.getValue(it)
+                        val sha = hash.sha
 
                         Timber.i("Found ${it.pathString}\n\tin ${userFile.prefix}\n\twith sha [${sha.joinToString(", ")}]")
 
                         val relativePath = basePath.relativize(it).pathString
 
-                        UserFileInfo(userFile.root, userFile.substitutedPath, relativePath, Files.getLastModifiedTime(it).toMillis(), sha)
-                    }.collect(Collectors.toList())
+                        UserFileInfo(userFile.root, userFile.substitutedPath, relativePath, hash.lastModified, sha)
+                    }
 
                     Timber.i("Found ${files.size} file(s) in $basePath for pattern ${userFile.pattern}")
 
@@ -251,20 +258,25 @@ object SteamAutoCloud {
 
                 Timber.i("No UFS patterns; scanning $basePath recursively (depth 5) under ${rootType.name}")
 
-                val files = FileUtils.findFilesRecursive(
+                val paths = FileUtils.findFilesRecursive(
                     rootPath = basePath,
                     pattern = "*",
                     maxDepth = 5,
-                ).map {
-                    val sha = CryptoHelper.shaHash(Files.readAllBytes(it))
+                ).collect(Collectors.toList())
+                val hashes = fileHasher.hashAll(paths)
+                fileHasher.pruneMissing(basePath)
+
+                val files = paths.map {
+                    val hash = hashes.getValue(it)
+                    val sha = hash.sha
 
                     val relativePath = basePath.relativize(it).pathString
 
                     Timber.i("Found ${it.pathString}\n\tin %${rootType.name}%\n\twith sha [${sha.joinToString(", ")}]")
 
                     // Store relative path in filename; empty path component
-                    UserFileInfo(rootType, "", relativePath, Files.getLastModifiedTime(it).toMillis(), sha)
-                }.collect(Collectors.toList())
+                    UserFileInfo(rootType, "", relativePath, hash.lastModified, sha)
+                }
 
                 Timber.i("Found ${files.size} file(s) in $basePath for fallback recursive scan")
 
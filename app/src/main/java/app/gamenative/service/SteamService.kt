@@ -46,6 +46,7 @@ import app.gamenative.enums.SaveLocation
 import app.gamenative.enums.SyncResult
 import app.gamenative.events.AndroidEvent
 import app.gamenative.events.SteamEvent
+import app.gamenative.utils.CachedFileHasher
 import app.gamenative.utils.ContainerUtils
 import app.gamenative.utils.LicenseSerializer
 import app.gamenative.utils.MarkerUtils
@@ -983,7 +984,12 @@ class SteamService : Service(), IChallengeUrlChanged {
 
             val appDirPath = getAppDirPath(appId)
 
-            return File(appDirPath).deleteRecursively()
+            val deleted = File(appDirPath).deleteRecursively()
+            // Saves kept inside the install went with it, so their cached hashes go too
+            instance?.let { service ->
+                service.scope.launch { CachedFileHasher(service.db.fileHashDao()).pruneMissing() }
+            }
+            return deleted
         }
 
         fun downloadApp(appId: Int): DownloadInfo? {
@@ -1724,7 +1730,7 @@ class SteamService : Service(), IChallengeUrlChanged {
                         }
                     } catch (e: Exception) {
                         Timber.e(e, "Download failed for app $appId")
-                        di.persistProgressSnapshot()
+                        di.flushProgressSnapshot()
                         // Mark all depots as failed
                         selectedDepots.keys.sorted().forEachIndexed { idx, _ ->
                             di.setWeight(idx, 0)
@@ -2766,7 +2772,7 @@ class SteamService : Service(), IChallengeUrlChanged {
         // Persist download progress for all active downloads
         // This is a safety net for OS kills (unlikely but possible)
         downloadJobs.values.forEach { downloadInfo ->
-            downloadInfo.persistProgressSnapshot()
+            downloadInfo.flushProgressSnapshot()
         }
 
         stopForeground(STOP_FOREGROUND_REMOVE)
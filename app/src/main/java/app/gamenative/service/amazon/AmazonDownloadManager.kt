@@ -4,6 +4,7 @@ import android.content.Context
 import app.gamenative.data.AmazonGame
 import app.gamenative.data.DownloadInfo
 import app.gamenative.enums.Marker
+import app.gamenative.service.DownloadScheduler
 import app.gamenative.utils.MarkerUtils
 import java.io.File
 import java.security.MessageDigest
@@ -12,8 +13,6 @@ import javax.inject.Inject
 import javax.inject.Singleton
 import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.async
-import kotlinx.coroutines.awaitAll
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.withContext
 import okhttp3.OkHttpClient
@@ -34,6 +33,7 @@ class AmazonDownloadManager @Inject constructor(
 
     companion object {
         private const val MAX_PARALLEL_DOWNLOADS = 6
+        private const val MAX_PARALLEL_DOWNLOADS_CEILING = 12 // Upper bound when tuning to measured throughput
         private const val MAX_RETRIES = 3
         private const val RETRY_DELAY_MS = 1000L
         private const val PROGRESS_EMIT_INTERVAL = 512 * 1024L // Emit UI progress every 512 KB
@@ -112,41 +112,42 @@ class AmazonDownloadManager @Inject constructor(
             downloadInfo.setProgress(0f)
             downloadInfo.emitProgressChange()
 
-            // ── 5. Download files in parallel batches ────────────────────────
+            // ── 5. Download files in parallel ────────────────────────────────
             val installDir = File(installPath)
             val baseUrl = spec.downloadUrl
-            var completedFiles = 0
             val totalFiles = files.size
 
-            for (batch in files.chunked(MAX_PARALLEL_DOWNLOADS)) {
-                if (!downloadInfo.isActive()) {
-                    Timber.tag(TAG).w("Download cancelled by user")
-                    throw CancellationException("Download cancelled")
-                }
-
-                val results = batch.map { file ->
-                    async {
-                        downloadFileWithRetry(
-                            baseUrl = baseUrl,
-                            file = file,
-                            installDir = installDir,
-                            downloadInfo = downloadInfo,
-                        )
+            // Largest files first so a big file never starts last and becomes the long tail
+            val scheduler = DownloadScheduler(
+                maxConcurrency = MAX_PARALLEL_DOWNLOADS_CEILING,
+                initialConcurrency = MAX_PARALLEL_DOWNLOADS,
+                bytesTransferred = downloadInfo::getBytesDownloaded,
+                tag = TAG,
+            )
+            val downloadResult = scheduler.runAll(
+                items = files,
+                priorityOf = { file -> -file.size },
+                isCancelled = { !downloadInfo.isActive() },
+                onItemComplete = { _, completedFiles, _ ->
+                    downloadInfo.updateStatusMessage("Downloading ($completedFiles/$totalFiles files)…")
+                    downloadInfo.emitProgressChange()
+                    if (completedFiles % MAX_PARALLEL_DOWNLOADS == 0 || completedFiles == totalFiles) {
+                        downloadInfo.persistProgressSnapshot()
                     }
-                }.awaitAll()
-
-                val failure = results.firstOrNull { it.isFailure }
-                if (failure != null) {
-                    MarkerUtils.removeMarker(installPath, Marker.DOWNLOAD_IN_PROGRESS_MARKER)
-                    return@withContext Result.failure(
-                        failure.exceptionOrNull() ?: Exception("File download failed")
-                    )
-                }
+                },
+            ) { file ->
+                downloadFileWithRetry(
+                    baseUrl = baseUrl,
+                    file = file,
+                    installDir = installDir,
+                    downloadInfo = downloadInfo,
+                )
+            }
 
-                completedFiles += batch.size
-                downloadInfo.updateStatusMessage("Downloading ($completedFiles/$totalFiles files)…")
-                downloadInfo.emitProgressChange()
-                downloadInfo.persistProgressSnapshot()
+            downloadResult.exceptionOrNull()?.let { failure ->
+                if (failure is CancellationException) throw failure
+                MarkerUtils.removeMarker(installPath, Marker.DOWNLOAD_IN_PROGRESS_MARKER)
+                return@withContext Result.failure(failure)
             }
 
             // ── 6. Cache manifest ────────────────────────────────────────
@@ -181,7 +182,7 @@ class AmazonDownloadManager @Inject constructor(
         } catch (e: Exception) {
             if (e is CancellationException) {
                 MarkerUtils.removeMarker(installPath, Marker.DOWNLOAD_IN_PROGRESS_MARKER)
-                downloadInfo.persistProgressSnapshot()
+                downloadInfo.flushProgressSnapshot()
                 downloadInfo.setActive(false)
                 throw e
             }
@@ -0,0 +1,165 @@
+package app.gamenative.service.epic
+
+import app.gamenative.service.epic.manifest.ChunkInfo
+import app.gamenative.service.epic.manifest.ChunkPart
+import app.gamenative.service.epic.manifest.FileManifest
+import java.io.Closeable
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.StandardOpenOption
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Writes decompressed Epic chunk data straight into the installed files.
+ *
+ * Every [ChunkPart] referencing a chunk is resolved up front, so while a chunk streams in
+ * its bytes are written with positional writes to all destination offsets at once and
+ * nothing is staged in a `.chunks` directory. Each file keeps a count of parts still
+ * pending; a chunk is released as soon as it has been written everywhere it is used, so
+ * the only chunk data held at any time is the window currently being decompressed.
+ *
+ * Completed chunk GUIDs are appended to [journalFile] so an interrupted install can
+ * resume without downloading them again. The journal starts with [journalKey], which
+ * identifies the manifest the GUIDs were written for: a journal left by another manifest
+ * may map the same chunks to other files or offsets, so it is discarded.
+ */
+class EpicChunkWriter(
+    private val installDir: File,
+    private val files: List<FileManifest>,
+    private val journalFile: File? = null,
+    private val journalKey: String = "",
+) {
+    private class Destination(val file: FileManifest, val part: ChunkPart)
+
+    private val destinations = HashMap<String, MutableList<Destination>>()
+    private val pendingParts = HashMap<String, AtomicInteger>()
+    private val completedChunks = HashSet<String>()
+    private val journalHeader = "manifest $journalKey"
+
+    init {
+        for (file in files) {
+            pendingParts[file.filename] = AtomicInteger(file.chunkParts.size)
+            for (part in file.chunkParts) {
+                destinations.getOrPut(part.guidStr) { mutableListOf() }.add(Destination(file, part))
+            }
+        }
+    }
+
+    val pendingFileCount: Int
+        get() = pendingParts.values.count { it.get() > 0 }
+
+    /**
+     * Creates every destination file at its final size so chunks can land in any order.
+     * Existing data is kept, which is what makes resuming from the journal possible.
+     */
+    fun prepareFiles() {
+        for (file in files) {
+            val outputFile = File(installDir, file.filename)
+            outputFile.parentFile?.mkdirs()
+            RandomAccessFile(outputFile, "rw").use { raf ->
+                if (raf.length() != file.fileSize) raf.setLength(file.fileSize)
+            }
+        }
+    }
+
+    /**
+     * Orders chunks by the first file position that needs them and drops chunks no file
+     * references, so files complete roughly in manifest order.
+     */
+    fun orderByFirstUse(chunks: List<ChunkInfo>): List<ChunkInfo> {
+        val chunksByGuid = chunks.associateBy { it.guidStr }
+        val ordered = LinkedHashMap<String, ChunkInfo>()
+        for (file in files) {
+            for (part in file.chunkParts) {
+                if (!ordered.containsKey(part.guidStr)) chunksByGuid[part.guidStr]?.let { ordered[part.guidStr] = it }
+            }
+        }
+        return ordered.values.toList()
+    }
+
+    /**
+     * Replays the journal of a previous attempt and returns the GUIDs already written.
+     */
+    fun loadJournal(): Set<String> {
+        val journal = journalFile ?: return emptySet()
+        if (!journal.exists()) return emptySet()
+        val lines = journal.readLines()
+        if (lines.firstOrNull() != journalHeader) {
+            journal.delete()
+            return emptySet()
+        }
+        val written = lines.drop(1).filter { it.isNotBlank() && destinations.containsKey(it) }.toSet()
+        written.forEach { releaseChunk(it) }
+        return written
+    }
+
+    fun openChunk(guidStr: String): ChunkSink = ChunkSink(guidStr)
+
+    /**
+     * Marks a chunk as written to all of its destinations and returns the files that
+     * have no pending parts left.
+     */
+    fun completeChunk(guidStr: String): List<FileManifest> {
+        val finished = releaseChunk(guidStr)
+        journalFile?.let { journal ->
+            synchronized(this) {
+                if (!journal.exists()) journal.writeText("$journalHeader\n")
+                journal.appendText("$guidStr\n")
+            }
+        }
+        return finished
+    }
+
+    fun deleteJournal() {
+        journalFile?.delete()
+    }
+
+    private fun releaseChunk(guidStr: String): List<FileManifest> {
+        val targets = destinations[guidStr] ?: return emptyList()
+        synchronized(completedChunks) {
+            if (!completedChunks.add(guidStr)) return emptyList()
+        }
+        val finished = mutableListOf<FileManifest>()
+        for (target in targets) {
+            if (pendingParts.getValue(target.file.filename).decrementAndGet() == 0) finished.add(target.file)
+        }
+        return finished
+    }
+
+    /**
+     * Receives a chunk's decompressed bytes in order and copies every byte range that a
+     * file part references to that file's offset.
+     */
+    inner class ChunkSink internal constructor(guidStr: String) : Closeable {
+        private val targets = destinations[guidStr].orEmpty()
+        private val channels = HashMap<String, FileChannel>()
+        private var chunkOffset = 0L
+
+        fun write(buffer: ByteArray, offset: Int, length: Int) {
+            val start = chunkOffset
+            val end = start + length
+            for (target in targets) {
+                val partStart = target.part.offset.toLong()
+                val partEnd = partStart + target.part.size
+                val from = maxOf(start, partStart)
+                val to = minOf(end, partEnd)
+                if (from >= to) continue
+
+                val channel = channels.getOrPut(target.file.filename) {
+                    FileChannel.open(File(installDir, target.file.filename).toPath(), StandardOpenOption.WRITE)
+                }
+                val src = ByteBuffer.wrap(buffer, offset + (from - start).toInt(), (to - from).toInt())
+                var position = target.part.fileOffset + (from - partStart)
+                while (src.hasRemaining()) position += channel.write(src, position)
+            }
+            chunkOffset = end
+        }
+
+        override fun close() {
+            channels.values.forEach { it.close() }
+            channels.clear()
+        }
+    }
+}
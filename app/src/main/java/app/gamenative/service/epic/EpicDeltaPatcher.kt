@@ -0,0 +1,123 @@
+package app.gamenative.service.epic
+
+import app.gamenative.service.DeltaStaging
+import app.gamenative.service.epic.manifest.EpicDeltaPlan
+import app.gamenative.service.epic.manifest.FileManifest
+import java.io.File
+import java.io.FileInputStream
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.channels.FileChannel
+import java.nio.file.NoSuchFileException
+import java.nio.file.StandardOpenOption
+import java.security.MessageDigest
+
+/**
+ * Applies an [EpicDeltaPlan] to an installed game.
+ *
+ * Added and modified files are assembled under a staging directory: the ranges the plan
+ * reuses are copied from the installed files, and [stagedFiles] hands the remaining parts
+ * to [EpicChunkWriter] for download. Installed files stay untouched until [commit], which
+ * verifies the staged files against the manifest hashes, moves them into place and deletes
+ * files the new version dropped. An interrupted update can simply be started again.
+ *
+ * Installed files that no longer hold what the plan copies from them are reported as a
+ * [VerificationException]; only then is the plan itself wrong and the update has to fall
+ * back to a full download.
+ */
+class EpicDeltaPatcher(
+    private val installDir: File,
+    private val plan: EpicDeltaPlan,
+) {
+    private val staging = DeltaStaging(installDir, STAGING_DIR)
+
+    /**
+     * The patched files as the chunk writer sees them: placed in the staging directory and
+     * limited to the parts that have to be downloaded.
+     */
+    val stagedFiles: List<FileManifest> = plan.patchedFiles.map { patch ->
+        patch.file.copy(filename = "$STAGING_DIR/${patch.file.filename}", chunkParts = patch.downloadParts.toMutableList())
+    }
+
+    /** Creates the staged files at their final size and fills in every reused range. */
+    fun copyReusedRanges() {
+        val sources = HashMap<String, FileChannel>()
+        try {
+            for (patch in plan.patchedFiles) {
+                val stagedFile = staging.stagedFile(patch.file.filename)
+                stagedFile.parentFile?.mkdirs()
+                RandomAccessFile(stagedFile, "rw").use { raf ->
+                    if (raf.length() != patch.file.fileSize) raf.setLength(patch.file.fileSize)
+                    val target = raf.channel
+                    for (range in patch.reused) {
+                        val source = sources.getOrPut(range.sourceFile) {
+                            try {
+                                FileChannel.open(File(installDir, range.sourceFile).toPath(), StandardOpenOption.READ)
+                            } catch (e: NoSuchFileException) {
+                                throw VerificationException("${range.sourceFile} is missing from the install")
+                            }
+                        }
+                        var copied = 0L
+                        while (copied < range.size) {
+                            val count = source.transferTo(range.sourceOffset + copied, range.size - copied, target.position(range.fileOffset + copied))
+                            if (count <= 0L) throw VerificationException("${range.sourceFile} is shorter than the installed manifest says")
+                            copied += count
+                        }
+                    }
+                }
+            }
+        } finally {
+            sources.values.forEach { it.close() }
+        }
+    }
+
+    /**
+     * Checks every staged file against its manifest hash, then replaces the installed files
+     * and removes the ones the new version no longer has.
+     */
+    fun commit(): Result<Unit> {
+        for (patch in plan.patchedFiles) {
+            val file = patch.file
+            val stagedFile = staging.stagedFile(file.filename)
+            if (!stagedFile.isFile) continue
+            if (file.hash.all { it == 0.toByte() }) continue
+            if (!sha1(stagedFile).contentEquals(file.hash)) {
+                return Result.failure(VerificationException("Hash mismatch for patched file ${file.filename}"))
+            }
+        }
+        return staging.commit(
+            patched = plan.patchedFiles.map { it.file.filename },
+            kept = plan.unchangedFiles.map { it.filename },
+            removed = plan.removedFiles.map { it.filename },
+        )
+    }
+
+    /** Drops everything staged so far. */
+    fun discard() {
+        staging.discard()
+    }
+
+    /** The install no longer holds what the plan was made from. */
+    class VerificationException(message: String) : IOException(message)
+
+    companion object {
+        const val STAGING_DIR = ".delta"
+
+        /** Whether [file] is in [installDir] exactly as the manifest describes it. */
+        fun isIntact(installDir: File, file: FileManifest): Boolean {
+            val onDisk = File(installDir, file.filename)
+            if (!onDisk.isFile || onDisk.length() != file.fileSize) return false
+            return file.hash.all { it == 0.toByte() } || sha1(onDisk).contentEquals(file.hash)
+        }
+
+        private fun sha1(file: File): ByteArray {
+            val digest = MessageDigest.getInstance("SHA-1")
+            FileInputStream(file).use { input ->
+                val buffer = ByteArray(256 * 1024)
+                var read: Int
+                while (input.read(buffer).also { read = it } != -1) digest.update(buffer, 0, read)
+            }
+            return digest.digest()
+        }
+    }
+}
@@ -4,11 +4,19 @@ import android.content.Context
 import android.util.Log
 import app.gamenative.data.DownloadInfo
 import app.gamenative.enums.Marker
+import app.gamenative.service.DownloadScheduler
 import app.gamenative.utils.MarkerUtils
 import app.gamenative.data.EpicGame
+import app.gamenative.service.epic.manifest.ChunkInfo
+import app.gamenative.service.epic.manifest.EpicDeltaPlan
+import app.gamenative.service.epic.manifest.EpicDeltaPlanner
 import app.gamenative.service.epic.manifest.EpicManifest
+import app.gamenative.service.epic.manifest.FileManifest
+import app.gamenative.service.epic.manifest.ManifestUtils
 import java.io.ByteArrayInputStream
 import java.io.File
+import java.io.FilterInputStream
+import java.io.InputStream
 import java.nio.ByteBuffer
 import java.nio.ByteOrder
 import java.security.MessageDigest
@@ -16,9 +24,8 @@ import java.util.concurrent.TimeUnit
 import java.util.zip.Inflater
 import javax.inject.Inject
 import javax.inject.Singleton
+import kotlin.coroutines.cancellation.CancellationException
 import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.async
-import kotlinx.coroutines.awaitAll
 import kotlinx.coroutines.withContext
 import okhttp3.OkHttpClient
 import okhttp3.Request
@@ -49,7 +56,9 @@ class EpicDownloadManager @Inject constructor(
 
     companion object {
         private const val MAX_PARALLEL_DOWNLOADS = 6
+        private const val MAX_PARALLEL_DOWNLOADS_CEILING = 12 // Upper bound when tuning to measured throughput
         private const val CHUNK_BUFFER_SIZE = 1024 * 1024 // 1MB buffer for decompression
+        private const val CHUNK_STREAM_BUFFER_SIZE = 64 * 1024 // 64KB buffer for the chunk response body
         private const val MAX_CHUNK_RETRIES = 3 // Maximum retries per chunk
         private const val RETRY_DELAY_MS = 1000L // Initial retry delay in milliseconds
     }
@@ -136,14 +145,18 @@ class EpicDownloadManager @Inject constructor(
             val chunks = chunkDataList.elements
             val files = fileManifestList.elements
             val chunkDir = manifest.getChunkDir()
+            val installDir = File(installPath)
+
+            // An installed game only fetches what its new version does not already have on disk
+            val deltaPlan = if (game.isInstalled) planDeltaUpdate(context, game.appName, manifest, installDir) else null
 
             // Calculate total download size including DLCs (use compressed size for download tracking)
-            var totalDownloadSize = chunks.sumOf { it.fileSize }
+            var totalDownloadSize = deltaPlan?.downloadSize ?: chunks.sumOf { it.fileSize }
             var totalInstalledSize = chunks.sumOf { it.windowSize.toLong() }
             val baseGameSize = totalDownloadSize
 
             // Fetch DLC manifests to get their sizes for accurate progress tracking
-            val dlcManifestData = mutableListOf<Pair<EpicGame, EpicManager.ManifestResult>>()
+            val dlcManifestData = mutableListOf<Triple<EpicGame, EpicManager.ManifestResult, EpicDeltaPlan?>>()
             if (dlcsToDownload.isNotEmpty()) {
                 downloadInfo.updateStatusMessage("Calculating DLC sizes...")
                 for (dlc in dlcsToDownload) {
@@ -157,11 +170,13 @@ class EpicDownloadManager @Inject constructor(
                         if (dlcManifestResult.isSuccess) {
                             val dlcManifest = dlcManifestResult.getOrNull()!!
                             val dlcParsed = EpicManifest.readAll(dlcManifest.manifestBytes)
-                            val dlcDownloadSize = dlcParsed.chunkDataList?.elements?.sumOf { it.fileSize } ?: 0L
+                            val dlcDeltaPlan = if (dlc.isInstalled) planDeltaUpdate(context, dlc.appName, dlcParsed, installDir) else null
+                            val dlcDownloadSize = dlcDeltaPlan?.downloadSize
+                                ?: dlcParsed.chunkDataList?.elements?.sumOf { it.fileSize } ?: 0L
                             val dlcInstalledSize = dlcParsed.chunkDataList?.elements?.sumOf { it.windowSize.toLong() } ?: 0L
                             totalDownloadSize += dlcDownloadSize
                             totalInstalledSize += dlcInstalledSize
-                            dlcManifestData.add(dlc to dlcManifest)
+                            dlcManifestData.add(Triple(dlc, dlcManifest, dlcDeltaPlan))
                             Timber.tag("Epic").i("DLC ${dlc.title} size: ${dlcDownloadSize / 1_000_000} MB")
                         } else {
                             Timber.tag("Epic").w("Failed to fetch manifest for DLC ${dlc.title}, will skip")
@@ -191,9 +206,9 @@ class EpicDownloadManager @Inject constructor(
             downloadInfo.setTotalExpectedBytes(totalDownloadSize)
             downloadInfo.updateStatusMessage("Downloading base game...")
 
-            // Download chunks in parallel
-            val chunkCacheDir = File(installPath, ".chunks")
-            chunkCacheDir.mkdirs()
+            // Chunks are written straight into the install files, so there is no staging directory.
+            // Drop one left behind by an interrupted download from an older build.
+            File(installPath, ".chunks").deleteRecursively()
 
             Timber.tag("Epic").d(
                 """
@@ -206,36 +221,20 @@ class EpicDownloadManager @Inject constructor(
                 """.trimMargin(),
             )
 
-            // Download chunks in batches to avoid overwhelming the system
-            var downloadedChunks = 0
-            val totalChunks = chunks.size
-
             // Initialize progress tracking
             downloadInfo.setProgress(0.0f)
             downloadInfo.emitProgressChange()
 
-            chunks.chunked(MAX_PARALLEL_DOWNLOADS).forEach { chunkBatch ->
-                if (!downloadInfo.isActive()) {
-                    Timber.tag("Epic").w("Download cancelled by user")
-                    return@withContext Result.failure(Exception("Download cancelled"))
-                }
-
-                // Download batch in parallel
-                val results = chunkBatch.map { chunk ->
-                    async {
-                        downloadChunkWithRetry(chunk, chunkCacheDir, chunkDir, cdnUrls, downloadInfo)
-                    }
-                }.awaitAll()
-
-                // Check if any download failed
-                results.firstOrNull { it.isFailure }?.let { failedResult ->
-                    return@withContext Result.failure(
-                        failedResult.exceptionOrNull() ?: Exception("Failed to download chunk"),
-                    )
-                }
-
-                // Update progress after each batch completes
-                downloadedChunks += chunkBatch.size
+            val writeResult = installManifest(
+                context = context,
+                game = game,
+                manifestBytes = manifestData.manifestBytes,
+                manifest = manifest,
+                deltaPlan = deltaPlan,
+                cdnUrls = cdnUrls,
+                installDir = installDir,
+                downloadInfo = downloadInfo,
+            ) { downloadedChunks, totalChunks ->
                 val progress = downloadedChunks.toFloat() / totalChunks
                 downloadInfo.setProgress(progress)
                 val statusMsg = if (dlcManifestData.isNotEmpty()) {
@@ -248,40 +247,10 @@ class EpicDownloadManager @Inject constructor(
 
                 Timber.tag("Epic").d("Download progress: $downloadedChunks/$totalChunks chunks (${(progress * 100).toInt()}%)")
             }
-
-            downloadInfo.updateStatusMessage("Assembling files...")
-
-            // Assemble files from chunks in parallel batches
-            val installDir = File(installPath)
-            installDir.mkdirs()
-
-            var assembledFiles = 0
-            val totalFiles = files.size
-
-            // Process files in batches for better parallelism
-            files.chunked(4).forEach { fileBatch ->
-                val assembleResults = fileBatch.map { fileManifest ->
-                    async {
-                        assembleFile(fileManifest, chunkCacheDir, installDir)
-                    }
-                }.awaitAll()
-
-                // Check if any assembly failed
-                assembleResults.firstOrNull { it.isFailure }?.let { failedResult ->
-                    return@withContext Result.failure(
-                        failedResult.exceptionOrNull() ?: Exception("Failed to assemble file"),
-                    )
-                }
-
-                assembledFiles += fileBatch.size
-                val assemblyProgress = assembledFiles.toFloat() / totalFiles
-                downloadInfo.updateStatusMessage("Assembling files ($assembledFiles/$totalFiles)")
-                Timber.tag("Epic").d("File assembly progress: $assembledFiles/$totalFiles (${(assemblyProgress * 100).toInt()}%)")
+            if (writeResult.isFailure) {
+                return@withContext writeResult
             }
 
-            // Cleanup chunk directory
-            chunkCacheDir.deleteRecursively()
-
             // Log final directory structure
             Timber.tag("Epic").i("Download completed successfully for ${game.title}")
             logDirectoryStructure(installDir)
@@ -291,7 +260,7 @@ class EpicDownloadManager @Inject constructor(
                 try {
                     Timber.tag("Epic").i("Downloading ${dlcManifestData.size} DLC(s) for ${game.title}")
 
-                    dlcManifestData.forEachIndexed { index, (dlc, manifestData) ->
+                    dlcManifestData.forEachIndexed { index, (dlc, manifestData, dlcDeltaPlan) ->
                         try {
                             Timber.tag("Epic").i("Downloading DLC ${index + 1}/${dlcManifestData.size}: ${dlc.title}")
                             downloadInfo.updateStatusMessage("Downloading DLC: ${dlc.title} (${index + 1}/${dlcManifestData.size})")
@@ -301,6 +270,7 @@ class EpicDownloadManager @Inject constructor(
                                 context = context,
                                 game = dlc,
                                 manifestData = manifestData,
+                                deltaPlan = dlcDeltaPlan,
                                 installPath = installPath,
                                 downloadInfo = downloadInfo,
                             )
@@ -373,12 +343,14 @@ class EpicDownloadManager @Inject constructor(
     }
 
     /**
-     * Download game using an already-fetched manifest (used for DLCs)
+     * Download game using an already-fetched manifest (used for DLCs), updating it through
+     * [deltaPlan] when it is already installed
      */
     private suspend fun downloadGameWithManifest(
         context: Context,
         game: EpicGame,
         manifestData: EpicManager.ManifestResult,
+        deltaPlan: EpicDeltaPlan?,
         installPath: String,
         downloadInfo: DownloadInfo,
     ): Result<Unit> = withContext(Dispatchers.IO) {
@@ -389,64 +361,29 @@ class EpicDownloadManager @Inject constructor(
             val cdnUrls = manifestData.cdnUrls.filter { !it.baseUrl.startsWith("https://cloudflare.epicgamescdn.com") }
             val manifest = EpicManifest.readAll(manifestData.manifestBytes)
 
-            val chunkDataList = manifest.chunkDataList
-                ?: return@withContext Result.failure(Exception("No chunk data in manifest"))
-            val fileManifestList = manifest.fileManifestList
-                ?: return@withContext Result.failure(Exception("No file manifest in manifest"))
-
-            val chunks = chunkDataList.elements
-            val files = fileManifestList.elements
-            val chunkDir = manifest.getChunkDir()
-
-            // Download chunks
-            val chunkCacheDir = File(installPath, ".chunks")
-            chunkCacheDir.mkdirs()
-
-            var downloadedChunks = 0
-            val totalChunks = chunks.size
-
-            chunks.chunked(MAX_PARALLEL_DOWNLOADS).forEach { chunkBatch ->
-                if (!downloadInfo.isActive()) {
-                    Timber.tag("Epic").w("Download cancelled by user")
-                    return@withContext Result.failure(Exception("Download cancelled"))
-                }
-
-                val results = chunkBatch.map { chunk ->
-                    async {
-                        downloadChunkWithRetry(chunk, chunkCacheDir, chunkDir, cdnUrls, downloadInfo)
-                    }
-                }.awaitAll()
-
-                results.firstOrNull { it.isFailure }?.let { failedResult ->
-                    return@withContext Result.failure(
-                        failedResult.exceptionOrNull() ?: Exception("Failed to download chunk"),
-                    )
-                }
-
-                downloadedChunks += chunkBatch.size
+            if (manifest.chunkDataList == null) {
+                return@withContext Result.failure(Exception("No chunk data in manifest"))
+            }
+            if (manifest.fileManifestList == null) {
+                return@withContext Result.failure(Exception("No file manifest in manifest"))
             }
 
-            // Assemble files
             val installDir = File(installPath)
-            installDir.mkdirs()
 
-            files.chunked(4).forEach { fileBatch ->
-                val assembleResults = fileBatch.map { fileManifest ->
-                    async {
-                        assembleFile(fileManifest, chunkCacheDir, installDir)
-                    }
-                }.awaitAll()
-
-                assembleResults.firstOrNull { it.isFailure }?.let { failedResult ->
-                    return@withContext Result.failure(
-                        failedResult.exceptionOrNull() ?: Exception("Failed to assemble file"),
-                    )
-                }
+            val writeResult = installManifest(
+                context = context,
+                game = game,
+                manifestBytes = manifestData.manifestBytes,
+                manifest = manifest,
+                deltaPlan = deltaPlan,
+                cdnUrls = cdnUrls,
+                installDir = installDir,
+                downloadInfo = downloadInfo,
+            )
+            if (writeResult.isFailure) {
+                return@withContext writeResult
             }
 
-            // Cleanup
-            chunkCacheDir.deleteRecursively()
-
             // Update database
             try {
                 epicManager.updateGame(game.copy(isInstalled = true, installPath = installPath))
@@ -462,20 +399,213 @@ class EpicDownloadManager @Inject constructor(
         }
     }
 
+    /**
+     * Where the manifest a game was last installed or updated with is kept, as the base for delta updates.
+     */
+    private fun installedManifestFile(context: Context, appName: String): File {
+        return File(context.filesDir, "manifests/epic/$appName.manifest")
+    }
+
+    /**
+     * Plans an update of the game installed in [installDir] to [manifest], or returns null
+     * when there is no record of the installed version to diff against. Only a manifest this
+     * app installed is on record, so games installed before that get one full download first.
+     * Installed files are hashed, since one modified without changing its size would
+     * otherwise be kept or copied from as if it still matched.
+     */
+    private fun planDeltaUpdate(context: Context, appName: String, manifest: EpicManifest, installDir: File): EpicDeltaPlan? {
+        val manifestFile = installedManifestFile(context, appName)
+        if (!manifestFile.isFile || !installDir.isDirectory) return null
+        return try {
+            val installedManifest = EpicManifest.readAll(manifestFile.readBytes())
+            val plan = EpicDeltaPlanner.plan(installedManifest, manifest) { file ->
+                EpicDeltaPatcher.isIntact(installDir, file)
+            }
+            Timber.tag("Epic").i("Update for $appName:\n$plan")
+            plan
+        } catch (e: Exception) {
+            Timber.tag("Epic").w(e, "Could not diff the installed manifest of $appName, downloading everything")
+            null
+        }
+    }
+
+    /**
+     * Brings the files of [manifest] into [installDir], through [deltaPlan] when there is one,
+     * and remembers [manifestBytes] as the installed version afterwards. A delta update falls
+     * back to a full download only when the install turns out not to hold what the plan copies
+     * from it; any other failure, like a network error, is returned with the staged files and
+     * the delta journal kept, so starting the update again resumes it.
+     */
+    private suspend fun installManifest(
+        context: Context,
+        game: EpicGame,
+        manifestBytes: ByteArray,
+        manifest: EpicManifest,
+        deltaPlan: EpicDeltaPlan?,
+        cdnUrls: List<EpicManager.CdnUrl>,
+        installDir: File,
+        downloadInfo: DownloadInfo,
+        onProgress: (downloadedChunks: Int, totalChunks: Int) -> Unit = { _, _ -> },
+    ): Result<Unit> {
+        val chunks = manifest.chunkDataList?.elements.orEmpty()
+        val files = manifest.fileManifestList?.elements.orEmpty()
+        val chunkDir = manifest.getChunkDir()
+        val manifestHash = MessageDigest.getInstance("SHA-1").digest(manifestBytes).joinToString("") { "%02x".format(it) }
+
+        var result = if (deltaPlan != null) {
+            applyDeltaUpdate(game.appName, deltaPlan, chunkDir, cdnUrls, installDir, manifestHash, downloadInfo, onProgress)
+        } else {
+            null
+        }
+        if (result != null && result.exceptionOrNull() is EpicDeltaPatcher.VerificationException && downloadInfo.isActive()) {
+            Timber.tag("Epic").w(result.exceptionOrNull(), "Delta update of ${game.appName} failed, downloading everything")
+            EpicDeltaPatcher(installDir, deltaPlan!!).discard()
+            File(installDir, ".chunks_done_delta_${game.appName}").delete()
+            downloadInfo.setTotalExpectedBytes(downloadInfo.getTotalExpectedBytes() + ManifestUtils.getTotalDownloadSize(manifest))
+            result = null
+        }
+        if (result == null) {
+            result = downloadChunksToFiles(
+                chunks = chunks,
+                files = files,
+                chunkDir = chunkDir,
+                cdnUrls = cdnUrls,
+                installDir = installDir,
+                journalFile = File(installDir, ".chunks_done_${game.appName}"),
+                journalKey = manifestHash,
+                downloadInfo = downloadInfo,
+                onProgress = onProgress,
+            )
+        }
+
+        if (result.isSuccess) {
+            try {
+                val manifestFile = installedManifestFile(context, game.appName)
+                manifestFile.parentFile?.mkdirs()
+                manifestFile.writeBytes(manifestBytes)
+            } catch (e: Exception) {
+                Timber.tag("Epic").w(e, "Failed to keep the installed manifest of ${game.appName} (non-fatal)")
+            }
+        }
+        return result
+    }
+
+    /**
+     * Updates an installed game following [plan]: reusable ranges are copied from the installed
+     * files, only the remaining chunks are downloaded, and nothing is replaced until every
+     * patched file has been verified.
+     */
+    private suspend fun applyDeltaUpdate(
+        appName: String,
+        plan: EpicDeltaPlan,
+        chunkDir: String,
+        cdnUrls: List<EpicManager.CdnUrl>,
+        installDir: File,
+        manifestHash: String,
+        downloadInfo: DownloadInfo,
+        onProgress: (downloadedChunks: Int, totalChunks: Int) -> Unit,
+    ): Result<Unit> = withContext(Dispatchers.IO) {
+        try {
+            val patcher = EpicDeltaPatcher(installDir, plan)
+            downloadInfo.updateStatusMessage("Reusing installed files...")
+            patcher.copyReusedRanges()
+
+            val downloadResult = downloadChunksToFiles(
+                chunks = plan.downloadChunks,
+                files = patcher.stagedFiles,
+                chunkDir = chunkDir,
+                cdnUrls = cdnUrls,
+                installDir = installDir,
+                journalFile = File(installDir, ".chunks_done_delta_$appName"),
+                journalKey = manifestHash,
+                downloadInfo = downloadInfo,
+                onProgress = onProgress,
+            )
+            if (downloadResult.isFailure) return@withContext downloadResult
+
+            patcher.commit().onSuccess {
+                Timber.tag("Epic").i("Updated $appName, ${ManifestUtils.formatBytes(plan.savedDownloadBytes)} not downloaded again")
+            }
+        } catch (e: CancellationException) {
+            throw e
+        } catch (e: Exception) {
+            Result.failure(e)
+        }
+    }
+
+    /**
+     * Download every chunk referenced by [files] and write it directly into the install files.
+     * Chunks recorded in [journalFile] by an interrupted attempt of the same manifest, identified
+     * by [journalKey], are not downloaded again.
+     */
+    private suspend fun downloadChunksToFiles(
+        chunks: List<ChunkInfo>,
+        files: List<FileManifest>,
+        chunkDir: String,
+        cdnUrls: List<EpicManager.CdnUrl>,
+        installDir: File,
+        journalFile: File,
+        journalKey: String,
+        downloadInfo: DownloadInfo,
+        onProgress: (downloadedChunks: Int, totalChunks: Int) -> Unit = { _, _ -> },
+    ): Result<Unit> = withContext(Dispatchers.IO) {
+        installDir.mkdirs()
+        val writer = EpicChunkWriter(installDir, files, journalFile, journalKey)
+        writer.prepareFiles()
+
+        val orderedChunks = writer.orderByFirstUse(chunks)
+        val writtenChunks = writer.loadJournal()
+        val pendingChunks = orderedChunks.filter { it.guidStr !in writtenChunks }
+        if (writtenChunks.isNotEmpty()) {
+            Timber.tag("Epic").i("Resuming download: ${writtenChunks.size}/${orderedChunks.size} chunks already written")
+            downloadInfo.updateBytesDownloaded(orderedChunks.filter { it.guidStr in writtenChunks }.sumOf { it.fileSize })
+        }
+
+        val resumedChunks = orderedChunks.size - pendingChunks.size
+        val totalChunks = orderedChunks.size
+
+        // Chunks are already in first-use order, so the default priority keeps files completing in order
+        val scheduler = DownloadScheduler(
+            maxConcurrency = MAX_PARALLEL_DOWNLOADS_CEILING,
+            initialConcurrency = MAX_PARALLEL_DOWNLOADS,
+            bytesTransferred = downloadInfo::getBytesDownloaded,
+            tag = "Epic",
+        )
+        val downloadResult = scheduler.runAll(
+            items = pendingChunks,
+            isCancelled = { !downloadInfo.isActive() },
+            onItemComplete = { _, completed, _ -> onProgress(resumedChunks + completed, totalChunks) },
+        ) { chunk ->
+            downloadChunkWithRetry(chunk, writer, chunkDir, cdnUrls, downloadInfo)
+        }
+        if (downloadResult.isFailure) {
+            return@withContext downloadResult
+        }
+
+        if (writer.pendingFileCount > 0) {
+            return@withContext Result.failure(
+                Exception("${writer.pendingFileCount} file(s) reference chunks missing from the manifest"),
+            )
+        }
+
+        writer.deleteJournal()
+        Result.success(Unit)
+    }
+
     /**
      * Download a single chunk with retry logic
      */
     private suspend fun downloadChunkWithRetry(
-        chunk: app.gamenative.service.epic.manifest.ChunkInfo,
-        chunkCacheDir: File,
+        chunk: ChunkInfo,
+        writer: EpicChunkWriter,
         chunkDir: String,
         cdnUrls: List<EpicManager.CdnUrl>,
         downloadInfo: DownloadInfo,
-    ): Result<File> = withContext(Dispatchers.IO) {
+    ): Result<Unit> = withContext(Dispatchers.IO) {
         var lastException: Exception? = null
 
         repeat(MAX_CHUNK_RETRIES) { attempt ->
-            val result = downloadChunk(chunk, chunkCacheDir, chunkDir, cdnUrls, downloadInfo)
+            val result = downloadChunk(chunk, writer, chunkDir, cdnUrls, downloadInfo)
 
             if (result.isSuccess) {
                 if (attempt > 0) {
@@ -498,32 +628,17 @@ class EpicDownloadManager @Inject constructor(
     }
 
     /**
-     * Download a single chunk from Epic CDN with decompression
+     * Download a single chunk from Epic CDN, decompressing it into every file range that uses it.
+     * A failed attempt may leave partial data behind; the retry simply rewrites the same ranges.
      */
     private suspend fun downloadChunk(
-        chunk: app.gamenative.service.epic.manifest.ChunkInfo,
-        chunkCacheDir: File,
+        chunk: ChunkInfo,
+        writer: EpicChunkWriter,
         chunkDir: String,
         cdnUrls: List<EpicManager.CdnUrl>,
         downloadInfo: DownloadInfo,
-    ): Result<File> = withContext(Dispatchers.IO) {
+    ): Result<Unit> = withContext(Dispatchers.IO) {
         try {
-            val chunkFile = File(chunkCacheDir, "${chunk.guidStr}.chunk")
-            val decompressedFile = File(chunkCacheDir, chunk.guidStr)
-
-            // Skip if already downloaded and decompressed
-            if (decompressedFile.exists() && decompressedFile.length() == chunk.windowSize.toLong()) {
-                // Quick verification - only verify if size matches
-                if (verifyChunkHashBytes(decompressedFile.readBytes(), chunk.shaHash)) {
-                    Timber.tag("Epic").d("Chunk ${chunk.guidStr} already exists and verified, skipping")
-                    downloadInfo.updateBytesDownloaded(chunk.fileSize)
-                    return@withContext Result.success(decompressedFile)
-                } else {
-                    Timber.tag("Epic").w("Chunk ${chunk.guidStr} exists but failed verification, re-downloading")
-                    decompressedFile.delete()
-                }
-            }
-
             // Get chunk path for downloading
             val chunkPath = chunk.getPath(chunkDir)
 
@@ -546,31 +661,18 @@ class EpicDownloadManager @Inject constructor(
                             return@use // Exit use block, response will be closed automatically
                         }
 
-                        // Download and decompress Epic chunk file using streaming to avoid OOM exceptions
-                        val responseBody = response.body!!
-                        val tempChunkFile = File(chunkCacheDir, "${chunk.guidStr}.tmp")
-
-                        try {
-                            // Stream download to temp file
-                            responseBody.byteStream().use { input ->
-                                tempChunkFile.outputStream().use { output ->
-                                    val buffer = ByteArray(8192)
-                                    var bytesRead: Int
-                                    while (input.read(buffer).also { bytesRead = it } != -1) {
-                                        output.write(buffer, 0, bytesRead)
-                                        downloadInfo.updateBytesDownloaded(bytesRead.toLong())
-                                    }
-                                }
+                        // Decompress while the body streams in, hashing and writing as we go
+                        val input = CountingInputStream(response.body!!.byteStream())
+                        writer.openChunk(chunk.guidStr).use { sink ->
+                            input.buffered(CHUNK_STREAM_BUFFER_SIZE).use {
+                                decompressChunkStream(it, chunk.windowSize.toLong(), chunk.shaHash, sink::write)
                             }
-
-                            // Decompress from temp file directly to output file with streaming hash calculation
-                            // This avoids allocating 1.5GB in memory
-                            decompressStreamingChunkToFile(tempChunkFile, decompressedFile, chunk.windowSize.toLong(), chunk.shaHash)
-                        } finally {
-                            tempChunkFile.delete()
                         }
+                        writer.completeChunk(chunk.guidStr)
+                        // Counted once the chunk is written, so failed attempts do not inflate progress
+                        downloadInfo.updateBytesDownloaded(input.bytesRead)
 
-                        return@withContext Result.success(decompressedFile)
+                        return@withContext Result.success(Unit)
                     }
 
                     // If we get here, response was unsuccessful, try next CDN
@@ -594,231 +696,158 @@ class EpicDownloadManager @Inject constructor(
     }
 
     /**
-     * Read and decompress an Epic Chunk file
-     * Epic chunks have their own format with header + optional compression
-     *
-     * Format (from legendary/models/chunk.py):
-     * - Magic: 0xB1FE3AA2 (4 bytes)
-     * - Header version: 3 (4 bytes)
-     * - Header size: 66 (4 bytes)
-     * - Compressed size (4 bytes)
-     * - GUID (16 bytes)
-     * - Hash (8 bytes)
-     * - Stored as flags (1 byte) - bit 0 = compressed
-     * - SHA hash (20 bytes)
-     * - Hash type (1 byte)
-     * - Uncompressed size (4 bytes)
-     * - Data (compressed_size bytes)
+     * Decompress an Epic chunk stream into [sink] with streaming hash verification
+     * This avoids allocating huge ByteArrays (1.5GB) in memory or staging the chunk on disk
      */
-    private fun readEpicChunk(chunkBytes: ByteArray): ByteArray {
-        val buffer = ByteBuffer.wrap(chunkBytes).order(ByteOrder.LITTLE_ENDIAN)
-
-        // Read header
-        val magic = buffer.int
-        if (magic != 0xB1FE3AA2.toInt()) {
-            throw Exception("Invalid chunk magic: 0x${magic.toString(16)}")
-        }
-
-        val headerVersion = buffer.int
-        val headerSize = buffer.int
-        val compressedSize = buffer.int
-
-        // Skip GUID (16 bytes), hash (8 bytes)
-        buffer.position(buffer.position() + 24)
-
-        // Read stored_as flag
-        val storedAs = buffer.get().toInt() and 0xFF
-        val isCompressed = (storedAs and 0x1) == 0x1
-
-        // Skip SHA hash (20 bytes), hash type (1 byte)
-        buffer.position(buffer.position() + 21)
-
-        // Read uncompressed size (4 bytes)
-        val uncompressedSize = buffer.int
-
-        // Read chunk data starting from header end
-        val dataStart = headerSize
-        //! Note: This may require adjustments if we see chunks bigger than 2GB - Unlikely but worth Observing
-        val dataBytes = chunkBytes.copyOfRange(dataStart, dataStart + compressedSize)
-
-        return if (isCompressed) {
-            // Decompress using zlib
-            val inflater = Inflater()
-            try {
-                inflater.setInput(dataBytes)
-                val result = ByteArray(uncompressedSize)
-                val resultLength = inflater.inflate(result)
-                if (resultLength != uncompressedSize) {
-                    throw IllegalStateException("Decompressed chunk size mismatch: expected $uncompressedSize, got $resultLength")
-                }
-                result
-            } finally {
-                inflater.end()
-            }
-        } else {
-            // Already uncompressed
-            dataBytes
-        }
-    }
-
-    /**
-     * Decompress an Epic chunk file directly to output file with streaming hash verification
-     * This avoids allocating huge ByteArrays (1.5GB) in memory
-     */
-    private fun decompressStreamingChunkToFile(
-        chunkFile: File,
-        outputFile: File,
+    private fun decompressChunkStream(
+        input: InputStream,
         expectedSize: Long,
-        expectedHash: ByteArray
+        expectedHash: ByteArray,
+        sink: (ByteArray, Int, Int) -> Unit,
     ) {
         val digest = MessageDigest.getInstance("SHA-1")
         var totalBytesWritten = 0L
 
-        chunkFile.inputStream().buffered().use { input ->
-            // Read the entire header - determine size dynamically
-            val headerStart = ByteArray(12)
-            if (input.read(headerStart) != 12) {
-                throw Exception("Failed to read chunk header start")
-            }
+        // Read the entire header - determine size dynamically
+        val headerStart = ByteArray(12)
+        if (readFully(input, headerStart) != 12) {
+            throw Exception("Failed to read chunk header start")
+        }
 
-            val startBuffer = ByteBuffer.wrap(headerStart).order(ByteOrder.LITTLE_ENDIAN)
-            val magic = startBuffer.int
-            if (magic != 0xB1FE3AA2.toInt()) {
-                throw Exception("Invalid chunk magic: 0x${magic.toString(16)}")
-            }
+        val startBuffer = ByteBuffer.wrap(headerStart).order(ByteOrder.LITTLE_ENDIAN)
+        val magic = startBuffer.int
+        if (magic != 0xB1FE3AA2.toInt()) {
+            throw Exception("Invalid chunk magic: 0x${magic.toString(16)}")
+        }
 
-            val headerVersion = startBuffer.int
-            val headerSize = startBuffer.int
+        val headerVersion = startBuffer.int
+        val headerSize = startBuffer.int
 
-            // Epic chunks can have different header sizes (62 or 66 bytes)
-            // Minimum viable header is 62 bytes
-            if (headerSize < 62 || headerSize > 66) {
-                throw Exception("Invalid header size: $headerSize (expected 62-66 bytes)")
-            }
+        // Epic chunks can have different header sizes (62 or 66 bytes)
+        // Minimum viable header is 62 bytes
+        if (headerSize < 62 || headerSize > 66) {
+            throw Exception("Invalid header size: $headerSize (expected 62-66 bytes)")
+        }
 
-            // Read the remaining header bytes
-            val remainingSize = headerSize - 12
-            val remainingBytes = ByteArray(remainingSize)
-            if (input.read(remainingBytes) != remainingSize) {
-                throw Exception("Failed to read remaining header: expected $remainingSize bytes")
-            }
+        // Read the remaining header bytes
+        val remainingSize = headerSize - 12
+        val remainingBytes = ByteArray(remainingSize)
+        if (readFully(input, remainingBytes) != remainingSize) {
+            throw Exception("Failed to read remaining header: expected $remainingSize bytes")
+        }
 
-            // Parse the header fields from the remaining bytes sequentially
-            // This matches the format in legendary/models/chunk.py
-            val buffer = ByteBuffer.wrap(remainingBytes).order(ByteOrder.LITTLE_ENDIAN)
-
-            // Chunk header format (after magic/version/headerSize):
-            // compressedSize: 4 bytes (file offset 12-15)
-            // GUID: 16 bytes (file offset 16-31)
-            // hash: 8 bytes (file offset 32-39)
-            // storedAs: 1 byte (file offset 40)
-            // SHA hash: 20 bytes (file offset 41-60)
-            // For 66-byte headers:
-            //   hash type: 1 byte (file offset 61)
-            //   uncompressedSize: 4 bytes (file offset 62-65)
-            // For 62-byte headers (older format):
-            //   uncompressedSize: 4 bytes (file offset 58-61) - replaces hash type + padding
-
-            // Ensure we have minimum required fields (up to SHA hash)
-            if (buffer.remaining() < 50) {
-                throw Exception("Buffer underflow: only ${buffer.remaining()} bytes available, need at least 50")
-            }
+        // Parse the header fields from the remaining bytes sequentially
+        // This matches the format in legendary/models/chunk.py
+        val buffer = ByteBuffer.wrap(remainingBytes).order(ByteOrder.LITTLE_ENDIAN)
+
+        // Chunk header format (after magic/version/headerSize):
+        // compressedSize: 4 bytes (file offset 12-15)
+        // GUID: 16 bytes (file offset 16-31)
+        // hash: 8 bytes (file offset 32-39)
+        // storedAs: 1 byte (file offset 40)
+        // SHA hash: 20 bytes (file offset 41-60)
+        // For 66-byte headers:
+        //   hash type: 1 byte (file offset 61)
+        //   uncompressedSize: 4 bytes (file offset 62-65)
+        // For 62-byte headers (older format):
+        //   uncompressedSize: 4 bytes (file offset 58-61) - replaces hash type + padding
+
+        // Ensure we have minimum required fields (up to SHA hash)
+        if (buffer.remaining() < 50) {
+            throw Exception("Buffer underflow: only ${buffer.remaining()} bytes available, need at least 50")
+        }
 
-            val compressedSize = buffer.int  // Read compressed size
-            buffer.position(buffer.position() + 16)  // Skip GUID (16 bytes)
-            buffer.position(buffer.position() + 8)   // Skip hash (8 bytes)
-            val storedAs = buffer.get().toInt() and 0xFF  // Read storedAs flag
-            val isCompressed = (storedAs and 0x1) == 0x1
-
-            // Version Check to understand header spacing
-            // Header version 2: includes sha_hash (20 bytes) + hash_type (1 byte) = 62 total bytes
-            // Header version 3: adds uncompressed_size (4 bytes) = 66 total bytes
-            if (headerVersion >= 2) {
-                buffer.position(buffer.position() + 20)  // Skip SHA hash (20 bytes)
-                if (buffer.remaining() >= 1) {
-                    buffer.position(buffer.position() + 1)   // Skip hash type (1 byte)
-                }
-            }
+        val compressedSize = buffer.int  // Read compressed size
+        buffer.position(buffer.position() + 16)  // Skip GUID (16 bytes)
+        buffer.position(buffer.position() + 8)   // Skip hash (8 bytes)
+        val storedAs = buffer.get().toInt() and 0xFF  // Read storedAs flag
+        val isCompressed = (storedAs and 0x1) == 0x1
 
-            val uncompressedSize = if (headerVersion >= 3 && buffer.remaining() >= 4) {
-                // Version 3+: uncompressedSize field is present (4 bytes)
-                buffer.int
-            } else {
-                // Version 2 or no uncompressedSize field: use expectedSize parameter
-                Timber.tag("Epic").d("Header version $headerVersion doesn't include uncompressedSize field, using expectedSize=$expectedSize")
-                expectedSize.toInt()
+        // Version Check to understand header spacing
+        // Header version 2: includes sha_hash (20 bytes) + hash_type (1 byte) = 62 total bytes
+        // Header version 3: adds uncompressed_size (4 bytes) = 66 total bytes
+        if (headerVersion >= 2) {
+            buffer.position(buffer.position() + 20)  // Skip SHA hash (20 bytes)
+            if (buffer.remaining() >= 1) {
+                buffer.position(buffer.position() + 1)   // Skip hash type (1 byte)
             }
+        }
 
-            Timber.tag("Epic").d("Chunk header: magic=0x${magic.toString(16)}, headerVersion=$headerVersion, headerSize=$headerSize, compressedSize=$compressedSize, uncompressedSize=$uncompressedSize, storedAs=0x${storedAs.toString(16)}, isCompressed=$isCompressed, expectedSize=$expectedSize")
+        val uncompressedSize = if (headerVersion >= 3 && buffer.remaining() >= 4) {
+            // Version 3+: uncompressedSize field is present (4 bytes)
+            buffer.int
+        } else {
+            // Version 2 or no uncompressedSize field: use expectedSize parameter
+            Timber.tag("Epic").d("Header version $headerVersion doesn't include uncompressedSize field, using expectedSize=$expectedSize")
+            expectedSize.toInt()
+        }
 
-            outputFile.outputStream().buffered().use { output ->
-                if (isCompressed) {
-                    // Streaming decompression
-                    val inflater = Inflater()
-                    try {
-                        val inputBuffer = ByteArray(65536) // 64KB compressed read buffer
-                        val outputBuffer = ByteArray(65536) // 64KB decompressed write buffer
-                        var endOfStream = false
-                        var firstRead = true
-
-                        while (totalBytesWritten < uncompressedSize && !endOfStream) {
-                            // Feed more input if needed
-                            if (inflater.needsInput() && !endOfStream) {
-                                val bytesRead = input.read(inputBuffer)
-                                if (bytesRead == -1) {
-                                    endOfStream = true
-                                    Timber.tag("Epic").d("Unexpected end of stream: read=$totalBytesWritten, expected=$uncompressedSize")
-                                } else {
-                                    if (firstRead) {
-                                        Log.d("Epic", "First compressed data bytes: ${inputBuffer.take(16).joinToString(" ") { "%02x".format(it) }}")
-                                        firstRead = false
-                                    }
-                                    inflater.setInput(inputBuffer, 0, bytesRead)
-                                }
-                            }
+        Timber.tag("Epic").d("Chunk header: magic=0x${magic.toString(16)}, headerVersion=$headerVersion, headerSize=$headerSize, compressedSize=$compressedSize, uncompressedSize=$uncompressedSize, storedAs=0x${storedAs.toString(16)}, isCompressed=$isCompressed, expectedSize=$expectedSize")
 
-                            // Try to decompress
-                            try {
-                                val decompressed = inflater.inflate(outputBuffer)
-                                if (decompressed > 0) {
-                                    output.write(outputBuffer, 0, decompressed)
-                                    digest.update(outputBuffer, 0, decompressed)
-                                    totalBytesWritten += decompressed
-                                } else if (inflater.finished() || endOfStream) {
-                                    // No more data available
-                                    break
-                                }
-                            } catch (e: java.util.zip.DataFormatException) {
-                                Timber.tag("Epic").d("DataFormatException during inflate: ${e.message}")
-                                Timber.tag("Epic").d("  totalBytesWritten=$totalBytesWritten, expectedSize=$uncompressedSize")
-                                Timber.tag("Epic").d("  inflater: finished=${inflater.finished()}, needsInput=${inflater.needsInput()}")
-                                throw Exception("Failed to decompress chunk: ${e.message}", e)
+        if (isCompressed) {
+            // Streaming decompression
+            val inflater = Inflater()
+            try {
+                val inputBuffer = ByteArray(65536) // 64KB compressed read buffer
+                val outputBuffer = ByteArray(65536) // 64KB decompressed write buffer
+                var endOfStream = false
+                var firstRead = true
+
+                while (totalBytesWritten < uncompressedSize && !endOfStream) {
+                    // Feed more input if needed
+                    if (inflater.needsInput() && !endOfStream) {
+                        val bytesRead = input.read(inputBuffer)
+                        if (bytesRead == -1) {
+                            endOfStream = true
+                            Timber.tag("Epic").d("Unexpected end of stream: read=$totalBytesWritten, expected=$uncompressedSize")
+                        } else {
+                            if (firstRead) {
+                                Log.d("Epic", "First compressed data bytes: ${inputBuffer.take(16).joinToString(" ") { "%02x".format(it) }}")
+                                firstRead = false
                             }
+                            inflater.setInput(inputBuffer, 0, bytesRead)
                         }
-                    } finally {
-                        inflater.end()
                     }
-                } else {
-                    // Already uncompressed - stream directly
-                    val buffer = ByteArray(65536)
-                    var remaining = compressedSize
-                    while (remaining > 0) {
-                        val toRead = minOf(remaining, buffer.size)
-                        val bytesRead = input.read(buffer, 0, toRead)
-                        if (bytesRead == -1) break
-                        output.write(buffer, 0, bytesRead)
-                        digest.update(buffer, 0, bytesRead)
-                        totalBytesWritten += bytesRead
-                        remaining -= bytesRead
+
+                    // Try to decompress
+                    try {
+                        val decompressed = inflater.inflate(outputBuffer)
+                        if (decompressed > 0) {
+                            sink(outputBuffer, 0, decompressed)
+                            digest.update(outputBuffer, 0, decompressed)
+                            totalBytesWritten += decompressed
+                        } else if (inflater.finished() || endOfStream) {
+                            // No more data available
+                            break
+                        }
+                    } catch (e: java.util.zip.DataFormatException) {
+                        Timber.tag("Epic").d("DataFormatException during inflate: ${e.message}")
+                        Timber.tag("Epic").d("  totalBytesWritten=$totalBytesWritten, expectedSize=$uncompressedSize")
+                        Timber.tag("Epic").d("  inflater: finished=${inflater.finished()}, needsInput=${inflater.needsInput()}")
+                        throw Exception("Failed to decompress chunk: ${e.message}", e)
                     }
                 }
+            } finally {
+                inflater.end()
+            }
+        } else {
+            // Already uncompressed - stream directly
+            val buffer = ByteArray(65536)
+            var remaining = compressedSize
+            while (remaining > 0) {
+                val toRead = minOf(remaining, buffer.size)
+                val bytesRead = input.read(buffer, 0, toRead)
+                if (bytesRead == -1) break
+                sink(buffer, 0, bytesRead)
+                digest.update(buffer, 0, bytesRead)
+                totalBytesWritten += bytesRead
+                remaining -= bytesRead
             }
         }
 
         // Verify size
         if (totalBytesWritten != expectedSize) {
             Timber.tag("Epic").d("Size mismatch: expected=$expectedSize, actual=$totalBytesWritten, diff=${expectedSize - totalBytesWritten}")
-            outputFile.delete()
             throw Exception("Decompressed size mismatch: expected $expectedSize, got $totalBytesWritten")
         }
 
@@ -827,164 +856,18 @@ class EpicDownloadManager @Inject constructor(
         if (!actualHash.contentEquals(expectedHash)) {
             val expectedHex = expectedHash.joinToString("") { "%02x".format(it) }
             val actualHex = actualHash.joinToString("") { "%02x".format(it) }
-            outputFile.delete()
             throw Exception("Chunk hash verification failed: expected $expectedHex, got $actualHex")
         }
     }
 
-    /**
-     * Read and decompress an Epic Chunk file from disk using streaming to avoid OOM
-     * This version reads from a file input stream and decompresses in chunks
-     */
-    private fun readEpicChunkFromFile(chunkFile: File, expectedSize: Long): ByteArray {
-        chunkFile.inputStream().buffered().use { input ->
-            // Read header (66 bytes)
-            val headerBytes = ByteArray(66)
-            val headerRead = input.read(headerBytes)
-            if (headerRead != 66) {
-                throw Exception("Failed to read chunk header")
-            }
-
-            val buffer = ByteBuffer.wrap(headerBytes).order(ByteOrder.LITTLE_ENDIAN)
-
-            // Parse header
-            val magic = buffer.int
-            if (magic != 0xB1FE3AA2.toInt()) {
-                throw Exception("Invalid chunk magic: 0x${magic.toString(16)}")
-            }
-
-            val headerVersion = buffer.int
-            val headerSize = buffer.int
-            val compressedSize = buffer.int
-
-            // Skip GUID (16 bytes), hash (8 bytes)
-            buffer.position(buffer.position() + 24)
-
-            // Read stored_as flag
-            val storedAs = buffer.get().toInt() and 0xFF
-            val isCompressed = (storedAs and 0x1) == 0x1
-
-            // Skip SHA hash (20 bytes), hash type (1 byte)
-            buffer.position(buffer.position() + 21)
-
-            // Read uncompressed size (4 bytes)
-            val uncompressedSize = buffer.int
-
-            // Skip to data start if header is larger than 66 bytes
-            if (headerSize > 66) {
-                input.skip((headerSize - 66).toLong())
-            }
-
-            return if (isCompressed) {
-                // Decompress using streaming to avoid loading entire compressed data into memory
-                val inflater = Inflater()
-                try {
-                    val result = ByteArray(uncompressedSize)
-                    var resultOffset = 0
-                    val inputBuffer = ByteArray(65536) // 64KB buffer for reading compressed data
-
-                    while (resultOffset < uncompressedSize) {
-                        if (inflater.needsInput()) {
-                            val bytesRead = input.read(inputBuffer)
-                            if (bytesRead == -1) break
-                            inflater.setInput(inputBuffer, 0, bytesRead)
-                        }
-
-                        val decompressed = inflater.inflate(result, resultOffset, uncompressedSize - resultOffset)
-                        resultOffset += decompressed
-
-                        if (inflater.finished()) break
-                    }
-
-                    if (resultOffset != uncompressedSize) {
-                        throw IllegalStateException("Decompressed chunk size mismatch: expected $uncompressedSize, got $resultOffset")
-                    }
-                    result
-                } finally {
-                    inflater.end()
-                }
-            } else {
-                // Already uncompressed - read directly
-                val result = ByteArray(compressedSize)
-                var totalRead = 0
-                while (totalRead < compressedSize) {
-                    val bytesRead = input.read(result, totalRead, compressedSize - totalRead)
-                    if (bytesRead == -1) break
-                    totalRead += bytesRead
-                }
-                result
-            }
-        }
-    }
-
-    /**
-     * Verify chunk SHA-1 hash from byte array
-     */
-    private fun verifyChunkHashBytes(data: ByteArray, expectedHash: ByteArray): Boolean {
-        return try {
-            val digest = MessageDigest.getInstance("SHA-1")
-            digest.update(data)
-            val actualHash = digest.digest()
-            val matches = actualHash.contentEquals(expectedHash)
-
-            if (!matches) {
-                val expectedHex = expectedHash.joinToString("") { "%02x".format(it) }
-                val actualHex = actualHash.joinToString("") { "%02x".format(it) }
-                Timber.tag("Epic").e("Hash mismatch: expected $expectedHex, got $actualHex")
-            }
-
-            matches
-        } catch (e: Exception) {
-            Timber.tag("Epic").e(e, "Hash verification failed")
-            false
-        }
-    }
-
-    /**
-     * Assemble a file from its chunks
-     */
-    private suspend fun assembleFile(
-        fileManifest: app.gamenative.service.epic.manifest.FileManifest,
-        chunkCacheDir: File,
-        installDir: File,
-    ): Result<File> = withContext(Dispatchers.IO) {
-        try {
-            val outputFile = File(installDir, fileManifest.filename)
-            outputFile.parentFile?.mkdirs()
-
-            outputFile.outputStream().use { output ->
-                for (chunkPart in fileManifest.chunkParts) {
-                    val chunkFile = File(chunkCacheDir, chunkPart.guidStr)
-
-                    if (!chunkFile.exists()) {
-                        return@withContext Result.failure(Exception("Chunk file missing: ${chunkPart.guidStr}"))
-                    }
-
-                    // Read chunk data at specified offset
-                    chunkFile.inputStream().use { input ->
-                        input.skip(chunkPart.offset.toLong())
-
-                        val buffer = ByteArray(65536) // Increased to 64KB for better I/O performance
-                        var remaining = chunkPart.size.toLong()
-
-                        while (remaining > 0) {
-                            val toRead = minOf(remaining, buffer.size.toLong()).toInt()
-                            val bytesRead = input.read(buffer, 0, toRead)
-
-                            if (bytesRead == -1) break
-
-                            output.write(buffer, 0, bytesRead)
-                            remaining -= bytesRead
-                        }
-                    }
-                }
-            }
-
-            Result.success(outputFile)
-        } catch (e: Exception) {
-            Timber.tag("Epic").e(e, "Failed to assemble file ${fileManifest.filename}")
-            Result.failure(e)
+    private fun readFully(input: InputStream, buffer: ByteArray): Int {
+        var total = 0
+        while (total < buffer.size) {
+            val bytesRead = input.read(buffer, total, buffer.size - total)
+            if (bytesRead == -1) break
+            total += bytesRead
         }
+        return total
     }
 
     /**
@@ -1062,3 +945,24 @@ class EpicDownloadManager @Inject constructor(
         return dir.listFiles()?.sumOf { countFiles(it) } ?: 0
     }
 }
+
+/**
+ * Counts the bytes read from the wrapped stream, used to track compressed chunk bytes as
+ * they arrive over the network.
+ */
+private class CountingInputStream(input: InputStream) : FilterInputStream(input) {
+    var bytesRead = 0L
+        private set
+
+    override fun read(): Int {
+        val value = super.read()
+        if (value != -1) bytesRead++
+        return value
+    }
+
+    override fun read(b: ByteArray, off: Int, len: Int): Int {
+        val count = super.read(b, off, len)
+        if (count > 0) bytesRead += count
+        return count
+    }
+}
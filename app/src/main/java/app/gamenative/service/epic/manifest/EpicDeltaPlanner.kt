@@ -0,0 +1,138 @@
+package app.gamenative.service.epic.manifest
+
+/**
+ * Plans the update of an installed game from the manifest it was installed with to a new one.
+ *
+ * Files whose hash did not change are left alone. Every other file of the new manifest is
+ * rebuilt part by part: a part whose chunk window is already on disk, because an installed
+ * file holds that byte range of the same chunk GUID, is copied from there; only chunks with
+ * at least one window that cannot be found locally are downloaded.
+ */
+object EpicDeltaPlanner {
+
+    private class InstalledPart(val file: FileManifest, val part: ChunkPart)
+
+    /**
+     * @param isInstalledIntact whether a file of [oldManifest] is still on disk as installed;
+     * files that are not are neither kept nor used as a source
+     */
+    fun plan(
+        oldManifest: EpicManifest,
+        newManifest: EpicManifest,
+        isInstalledIntact: (FileManifest) -> Boolean = { true },
+    ): EpicDeltaPlan {
+        val oldFiles = oldManifest.fileManifestList?.elements.orEmpty()
+        val newFiles = newManifest.fileManifestList?.elements.orEmpty()
+        val intactOldFiles = oldFiles.filter(isInstalledIntact)
+        val intactByName = intactOldFiles.associateBy { it.filename }
+
+        // Where each chunk's windows can be read from the current install
+        val installedParts = HashMap<String, MutableList<InstalledPart>>()
+        for (file in intactOldFiles) {
+            for (part in file.chunkParts) {
+                installedParts.getOrPut(part.guidStr) { mutableListOf() }.add(InstalledPart(file, part))
+            }
+        }
+
+        val unchanged = mutableListOf<FileManifest>()
+        val patched = mutableListOf<FilePatch>()
+        val downloadGuids = LinkedHashSet<String>()
+        for (file in newFiles) {
+            val installed = intactByName[file.filename]
+            if (installed != null && installed.fileSize == file.fileSize && installed.hash.contentEquals(file.hash)) {
+                unchanged.add(file)
+                continue
+            }
+
+            val reused = mutableListOf<ReusedRange>()
+            val downloadParts = mutableListOf<ChunkPart>()
+            for (part in file.chunkParts) {
+                val source = installedParts[part.guidStr]?.firstOrNull { covers(it.part, part) }
+                if (source == null) {
+                    downloadParts.add(part)
+                    downloadGuids.add(part.guidStr)
+                    continue
+                }
+                val sourceOffset = source.part.fileOffset + (part.offset - source.part.offset)
+                val last = reused.lastOrNull()
+                // Consecutive windows of one source file become a single copy
+                if (last != null && last.sourceFile == source.file.filename &&
+                    last.sourceOffset + last.size == sourceOffset && last.fileOffset + last.size == part.fileOffset
+                ) {
+                    reused[reused.size - 1] = last.copy(size = last.size + part.size)
+                } else {
+                    reused.add(ReusedRange(source.file.filename, sourceOffset, part.fileOffset, part.size.toLong()))
+                }
+            }
+            patched.add(FilePatch(file, reused, downloadParts))
+        }
+
+        val newNames = newFiles.mapTo(HashSet()) { it.filename }
+        val removed = oldFiles.filter { it.filename !in newNames }
+        val chunkDataList = newManifest.chunkDataList
+        val downloadChunks = downloadGuids.mapNotNull { chunkDataList?.getChunkByGuid(it) }
+
+        return EpicDeltaPlan(
+            unchangedFiles = unchanged,
+            patchedFiles = patched,
+            removedFiles = removed,
+            downloadChunks = downloadChunks,
+            fullDownloadSize = ManifestUtils.getTotalDownloadSize(newManifest),
+        )
+    }
+
+    private fun covers(installed: ChunkPart, needed: ChunkPart): Boolean {
+        return installed.offset <= needed.offset &&
+            needed.offset.toLong() + needed.size <= installed.offset.toLong() + installed.size
+    }
+}
+
+/**
+ * [size] bytes at [sourceOffset] of the installed [sourceFile] that belong at [fileOffset]
+ * of the updated file.
+ */
+data class ReusedRange(
+    val sourceFile: String,
+    val sourceOffset: Long,
+    val fileOffset: Long,
+    val size: Long,
+)
+
+/**
+ * How to build an added or modified [file]: copy the [reused] ranges from the install and
+ * download the chunks behind [downloadParts].
+ */
+data class FilePatch(
+    val file: FileManifest,
+    val reused: List<ReusedRange>,
+    val downloadParts: List<ChunkPart>,
+) {
+    val reusedBytes: Long get() = reused.sumOf { it.size }
+}
+
+/**
+ * Result of [EpicDeltaPlanner.plan]
+ */
+data class EpicDeltaPlan(
+    val unchangedFiles: List<FileManifest>,
+    val patchedFiles: List<FilePatch>,
+    val removedFiles: List<FileManifest>,
+    val downloadChunks: List<ChunkInfo>,
+    val fullDownloadSize: Long,
+) {
+    val downloadSize: Long get() = downloadChunks.sumOf { it.fileSize }
+    val savedDownloadBytes: Long get() = fullDownloadSize - downloadSize
+    val unchangedBytes: Long get() = unchangedFiles.sumOf { it.fileSize }
+    val reusedBytes: Long get() = patchedFiles.sumOf { it.reusedBytes }
+
+    override fun toString(): String {
+        return buildString {
+            appendLine("Delta Plan:")
+            appendLine("  Unchanged: ${unchangedFiles.size} files (${ManifestUtils.formatBytes(unchangedBytes)})")
+            appendLine("  Patched: ${patchedFiles.size} files, ${ManifestUtils.formatBytes(reusedBytes)} reused from the install")
+            appendLine("  Removed: ${removedFiles.size} files")
+            appendLine("  Download: ${downloadChunks.size} chunks (${ManifestUtils.formatBytes(downloadSize)})")
+            appendLine("  Saved: ${ManifestUtils.formatBytes(savedDownloadBytes)} of ${ManifestUtils.formatBytes(fullDownloadSize)}")
+        }
+    }
+}
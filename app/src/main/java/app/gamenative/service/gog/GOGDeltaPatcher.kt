@@ -0,0 +1,88 @@
+package app.gamenative.service.gog
+
+import app.gamenative.service.DeltaStaging
+import app.gamenative.service.gog.api.FileChunk
+import app.gamenative.service.gog.api.GOGDeltaPlan
+import app.gamenative.service.gog.api.GOGFilePatch
+import java.io.File
+import java.io.RandomAccessFile
+import java.security.MessageDigest
+
+/**
+ * Applies a [GOGDeltaPlan] to an installed game.
+ *
+ * Added and modified files are assembled under a staging directory from the chunks the plan
+ * copies out of installed files and the ones that were downloaded. Every copied chunk is
+ * checked against its MD5 on the way, so a source changed behind our back is caught without
+ * rehashing whole files. Installed files stay untouched until [commit], which moves the staged
+ * files into place and deletes the files the new build dropped.
+ */
+class GOGDeltaPatcher(
+    private val installDir: File,
+    private val plan: GOGDeltaPlan,
+) {
+    private val staging = DeltaStaging(installDir, STAGING_DIR)
+
+    /**
+     * Writes the staged version of [patch]. [downloadedChunk] returns the verified, decompressed
+     * data of a downloaded chunk.
+     *
+     * @return the reused chunks whose source no longer matched; they were left out and have to
+     * be downloaded before the file is assembled again
+     */
+    fun assemble(patch: GOGFilePatch, downloadedChunk: (FileChunk) -> ByteArray): List<FileChunk> {
+        val stale = mutableListOf<FileChunk>()
+        val stagedFile = staging.stagedFile(patch.file.path)
+        stagedFile.parentFile?.mkdirs()
+        val sources = HashMap<String, RandomAccessFile>()
+        try {
+            stagedFile.outputStream().buffered().use { output ->
+                for (planned in patch.chunks) {
+                    val sourceFile = planned.sourceFile
+                    if (sourceFile == null) {
+                        output.write(downloadedChunk(planned.chunk))
+                        continue
+                    }
+                    val source = sources.getOrPut(sourceFile) { RandomAccessFile(File(installDir, sourceFile), "r") }
+                    val data = ByteArray(planned.chunk.size.toInt())
+                    if (source.length() < planned.sourceOffset + data.size) {
+                        stale.add(planned.chunk)
+                        continue
+                    }
+                    source.seek(planned.sourceOffset)
+                    source.readFully(data)
+                    if (!md5(data).equals(planned.chunk.md5, ignoreCase = true)) {
+                        stale.add(planned.chunk)
+                        continue
+                    }
+                    output.write(data)
+                }
+            }
+        } finally {
+            sources.values.forEach { it.close() }
+        }
+        return stale
+    }
+
+    /** Replaces the installed files with the staged ones and removes the files the new build no longer has. */
+    fun commit(): Result<Unit> {
+        return staging.commit(
+            patched = plan.patchedFiles.map { it.file.path },
+            kept = plan.unchangedFiles.map { it.path },
+            removed = plan.removedFiles.map { it.path },
+        )
+    }
+
+    /** Drops everything staged so far. */
+    fun discard() {
+        staging.discard()
+    }
+
+    private fun md5(data: ByteArray): String {
+        return MessageDigest.getInstance("MD5").digest(data).joinToString("") { "%02x".format(it) }
+    }
+
+    companion object {
+        const val STAGING_DIR = ".gog_delta"
+    }
+}
@@ -2,9 +2,12 @@ package app.gamenative.service.gog
 
 import android.content.Context
 import app.gamenative.data.DownloadInfo
+import app.gamenative.service.DownloadScheduler
 import app.gamenative.service.gog.api.DepotFile
 import app.gamenative.service.gog.api.FileChunk
 import app.gamenative.service.gog.api.GOGApiClient
+import app.gamenative.service.gog.api.GOGDeltaPlan
+import app.gamenative.service.gog.api.GOGDeltaPlanner
 import app.gamenative.service.gog.api.GOGManifestMeta
 import app.gamenative.service.gog.api.GOGManifestParser
 import app.gamenative.service.gog.api.V1DepotFile
@@ -20,12 +23,15 @@ import java.security.DigestOutputStream
 import java.security.MessageDigest
 import java.util.zip.Inflater
 import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicReference
 import javax.inject.Inject
 import javax.inject.Singleton
 import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.async
-import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
 import kotlinx.coroutines.withContext
+import okhttp3.HttpUrl.Companion.toHttpUrlOrNull
 import okhttp3.Request
 import timber.log.Timber
 
@@ -74,6 +80,8 @@ class GOGDownloadManager @Inject constructor(
 
     companion object {
         private const val MAX_PARALLEL_DOWNLOADS = 4
+        private const val MAX_PARALLEL_DOWNLOADS_CEILING = 8 // Upper bound when tuning to measured throughput
+        private const val MAX_CONNECTIONS_PER_HOST = 6 // Secure links for different products may point at different CDN hosts
         private const val CHUNK_BUFFER_SIZE = 1024 * 1024 // 1MB buffer
         private const val MAX_CHUNK_RETRIES = 3 // Maximum retries per chunk
         private const val RETRY_DELAY_MS = 1000L // Initial retry delay in milliseconds
@@ -251,13 +259,25 @@ class GOGDownloadManager @Inject constructor(
             val filesToDownload = if (withDlcs) baseFiles + dlcFiles else baseFiles
             var (gameFiles, supportFiles) = parser.separateSupportFiles(filesToDownload)
 
-            // Filter out files that already exist with correct size (incremental download)
             val gameInstallDir = installPath
+            val selectedGameFiles = gameFiles
             val beforeCount = gameFiles.size
-            gameFiles = gameFiles.filter { file ->
-                val outputFile = File(gameInstallDir, file.path)
-                val expectedSize = file.chunks.sumOf { it.size }
-                !fileExistsWithCorrectSize(outputFile, expectedSize, file.md5)
+            // An install recorded by an earlier download is updated from the chunk lists alone;
+            // otherwise skip files that already exist with the correct content (incremental download)
+            val installedFiles = GOGManifestUtils.readInstalledFiles(gameInstallDir)
+            val deltaPlan = installedFiles?.let { installed ->
+                val intactPaths = installed.filter { it.isIntact(gameInstallDir) }.mapTo(HashSet()) { it.file.path }
+                GOGDeltaPlanner.plan(installed.map { it.file }, gameFiles) { it.path in intactPaths }
+            }
+            if (deltaPlan != null) {
+                Timber.tag("GOG").i("Updating $gameId from installed files: $deltaPlan")
+                gameFiles = deltaPlan.patchedFiles.map { it.file }
+            } else {
+                gameFiles = gameFiles.filter { file ->
+                    val outputFile = File(gameInstallDir, file.path)
+                    val expectedSize = file.chunks.sumOf { it.size }
+                    !fileExistsWithCorrectSize(outputFile, expectedSize, file.md5)
+                }
             }
             Timber.tag("GOG").d("Skipping ${beforeCount - gameFiles.size} existing file(s), downloading ${gameFiles.size}")
 
@@ -285,8 +305,8 @@ class GOGDownloadManager @Inject constructor(
             )
 
             // Step 6: Calculate sizes and extract chunk hashes
-            val totalSize = parser.calculateTotalSize(gameFiles)
-            val chunkHashes = parser.extractChunkHashes(gameFiles)
+            val totalSize = deltaPlan?.downloadSize ?: parser.calculateTotalSize(gameFiles)
+            val chunkHashes = deltaPlan?.downloadChunks?.map { it.compressedMd5 } ?: parser.extractChunkHashes(gameFiles)
 
             Timber.tag("GOG").d(
                 """
@@ -400,10 +420,25 @@ class GOGDownloadManager @Inject constructor(
             // Use installPath directly since it already includes the game-specific folder
             gameInstallDir.mkdirs()
 
-            val assembleResult = assembleFiles(gameFiles, chunkCacheDir, gameInstallDir, downloadInfo)
+            val assembleResult = if (deltaPlan != null) {
+                applyDeltaUpdate(deltaPlan, chunkCacheDir, gameInstallDir, downloadInfo) { staleChunks ->
+                    val staleHashes = staleChunks.map { it.compressedMd5 }.distinct()
+                    downloadChunks(
+                        chunkUrlMap = parser.buildChunkUrlMapWithProducts(staleHashes, chunkToProductMap, productUrlMap),
+                        chunkCacheDir = chunkCacheDir,
+                        downloadInfo = downloadInfo,
+                        chunkHashes = staleHashes,
+                        secureLinkContext = secureLinkContext,
+                        chunkToProductMap = chunkToProductMap,
+                    )
+                }
+            } else {
+                assembleFiles(gameFiles, chunkCacheDir, gameInstallDir, downloadInfo)
+            }
             if (assembleResult.isFailure) {
                 return@withContext assembleResult
             }
+            GOGManifestUtils.writeInstalledFiles(gameInstallDir, selectedGameFiles)
 
             // Download Dependencies (They will either go to root or supportDir depending on )
             if (supportDir != null && dependencies.isNotEmpty()) {
@@ -728,10 +763,11 @@ class GOGDownloadManager @Inject constructor(
         chunkToProductMap: Map<String, String>,
     ): Result<Unit> = withContext(Dispatchers.IO) {
         try {
-            var currentChunkUrlMap = chunkUrlMap
-            val chunks = chunkUrlMap.entries.toList()
+            val currentChunkUrlMap = AtomicReference(chunkUrlMap)
+            val linkGeneration = AtomicInteger(0)
+            val refreshMutex = Mutex()
+            val chunks = chunkUrlMap.keys.toList()
             val totalChunks = chunks.size
-            var downloadedChunks = 0
 
             Timber.tag("GOG").d("Downloading $totalChunks chunks...")
 
@@ -740,86 +776,64 @@ class GOGDownloadManager @Inject constructor(
             downloadInfo.setActive(true)
             downloadInfo.emitProgressChange()
 
-            // Download in batches to avoid overwhelming the system
-            chunks.chunked(MAX_PARALLEL_DOWNLOADS).forEach { chunkBatch ->
-                if (!downloadInfo.isActive()) {
-                    Timber.tag("GOG").w("Download cancelled by user")
-                    return@withContext Result.failure(Exception("Download cancelled"))
-                }
-
-                // Download batch in parallel with retry logic
-                val results = chunkBatch.map { (chunkMd5, _) ->
-                    async {
-                        // Use current URL map in case it was refreshed
-                        val url = currentChunkUrlMap[chunkMd5] ?: return@async Result.failure<File>(
-                            Exception("No URL found for chunk $chunkMd5"),
-                        )
-                        downloadChunkWithRetry(chunkMd5, url, chunkCacheDir, downloadInfo)
-                    }
-                }.awaitAll()
-
-                // Check if any download failed due to expired links (401/403/404)
-                val expiredLinkFailures = results.zip(chunkBatch).filter { (result, _) ->
-                    val exception = result.exceptionOrNull()
-                    exception is HttpStatusException && exception.statusCode in listOf(401, 403, 404)
+            val scheduler = DownloadScheduler(
+                maxConcurrency = MAX_PARALLEL_DOWNLOADS_CEILING,
+                initialConcurrency = MAX_PARALLEL_DOWNLOADS,
+                maxPerHost = MAX_CONNECTIONS_PER_HOST,
+                bytesTransferred = downloadInfo::getBytesDownloaded,
+                tag = "GOG",
+            )
+            val downloadResult = scheduler.runAll(
+                items = chunks,
+                hostOf = { chunkMd5 -> currentChunkUrlMap.get()[chunkMd5]?.toHttpUrlOrNull()?.host },
+                isCancelled = { !downloadInfo.isActive() },
+                onItemComplete = { _, downloadedChunks, _ ->
+                    val progress = downloadedChunks.toFloat() / totalChunks
+                    downloadInfo.setProgress(progress)
+                    downloadInfo.updateStatusMessage("Downloading chunks ($downloadedChunks/$totalChunks)")
+                    downloadInfo.emitProgressChange()
+
+                    Timber.tag("GOG").d("Progress: ${(progress * 100).toInt()}% ($downloadedChunks/$totalChunks chunks)")
+                },
+            ) { chunkMd5 ->
+                // Remember which set of links this attempt used so concurrent failures refresh only once
+                val generation = linkGeneration.get()
+                val url = currentChunkUrlMap.get()[chunkMd5]
+                    ?: return@runAll Result.failure<File>(Exception("No URL found for chunk $chunkMd5"))
+                val result = downloadChunkWithRetry(chunkMd5, url, chunkCacheDir, downloadInfo)
+
+                // Retry with fresh secure links if this one expired (401/403/404)
+                val exception = result.exceptionOrNull()
+                if (exception !is HttpStatusException || exception.statusCode !in listOf(401, 403, 404)) {
+                    return@runAll result
                 }
 
-                if (expiredLinkFailures.isNotEmpty()) {
-                    Timber.tag("GOG").w("Detected ${expiredLinkFailures.size} expired secure link(s), refreshing...")
+                val productId = chunkToProductMap[chunkMd5]
+                Timber.tag("GOG").w("Chunk $chunkMd5 belongs to product $productId: ${exception.message}")
 
-                    // Log which products the failing chunks belong to
-                    expiredLinkFailures.forEach { (result, chunk) ->
-                        val chunkMd5 = chunk.key
-                        val productId = chunkToProductMap[chunkMd5]
-                        Timber.tag("GOG").w("Chunk $chunkMd5 belongs to product $productId: ${result.exceptionOrNull()?.message}")
-                    }
-
-                    // Refresh secure links
+                val refreshFailure = refreshMutex.withLock {
+                    if (linkGeneration.get() != generation) return@withLock null
+                    Timber.tag("GOG").w("Detected expired secure link, refreshing...")
                     val refreshResult = refreshSecureLinks(secureLinkContext, chunkHashes)
-                    if (refreshResult.isSuccess) {
-                        currentChunkUrlMap = refreshResult.getOrThrow()
-                        Timber.tag("GOG").i("Secure links refreshed successfully, retrying failed chunks")
-
-                        // Retry the failed chunks with new URLs
-                        val retryResults = chunkBatch.map { (chunkMd5, _) ->
-                            async {
-                                val url = currentChunkUrlMap[chunkMd5] ?: return@async Result.failure<File>(
-                                    Exception("No URL found for chunk $chunkMd5 after refresh"),
-                                )
-                                downloadChunkWithRetry(chunkMd5, url, chunkCacheDir, downloadInfo)
-                            }
-                        }.awaitAll()
-
-                        // Check retry results
-                        retryResults.firstOrNull { it.isFailure }?.let { failedResult ->
-                            return@withContext Result.failure(
-                                failedResult.exceptionOrNull() ?: Exception("Failed to download chunk after link refresh"),
-                            )
-                        }
-                    } else {
+                    if (refreshResult.isFailure) {
                         Timber.tag("GOG").e("Failed to refresh secure links: ${refreshResult.exceptionOrNull()?.message}")
-                        return@withContext Result.failure(
-                            refreshResult.exceptionOrNull() ?: Exception("Failed to refresh secure links"),
-                        )
-                    }
-                } else {
-                    // Check if any download failed for other reasons
-                    results.firstOrNull { it.isFailure }?.let { failedResult ->
-                        return@withContext Result.failure(
-                            failedResult.exceptionOrNull() ?: Exception("Failed to download chunk"),
-                        )
+                        return@withLock refreshResult.exceptionOrNull() ?: Exception("Failed to refresh secure links")
                     }
+                    currentChunkUrlMap.set(refreshResult.getOrThrow())
+                    linkGeneration.incrementAndGet()
+                    Timber.tag("GOG").i("Secure links refreshed successfully, retrying failed chunks")
+                    null
+                }
+                if (refreshFailure != null) {
+                    return@runAll Result.failure<File>(refreshFailure)
                 }
 
-                downloadedChunks += chunkBatch.size
-
-                // Update progress with smooth interpolation
-                val progress = downloadedChunks.toFloat() / totalChunks
-                downloadInfo.setProgress(progress)
-                downloadInfo.updateStatusMessage("Downloading chunks ($downloadedChunks/$totalChunks)")
-                downloadInfo.emitProgressChange()
-
-                Timber.tag("GOG").d("Progress: ${(progress * 100).toInt()}% ($downloadedChunks/$totalChunks chunks)")
+                val refreshedUrl = currentChunkUrlMap.get()[chunkMd5]
+                    ?: return@runAll Result.failure<File>(Exception("No URL found for chunk $chunkMd5 after refresh"))
+                downloadChunkWithRetry(chunkMd5, refreshedUrl, chunkCacheDir, downloadInfo)
+            }
+            if (downloadResult.isFailure) {
+                return@withContext downloadResult
             }
 
             Timber.tag("GOG").i("All $totalChunks chunks downloaded successfully")
@@ -1054,25 +1068,10 @@ class GOGDownloadManager @Inject constructor(
         downloadInfo: DownloadInfo,
     ): Result<Unit> = withContext(Dispatchers.IO) {
         try {
-            val chunks = chunkUrlMap.entries.toList()
-
-            // Download in batches
-            chunks.chunked(MAX_PARALLEL_DOWNLOADS).forEach { chunkBatch ->
-                val results = chunkBatch.map { (chunkMd5, url) ->
-                    async {
-                        downloadChunk(chunkMd5, url, chunkCacheDir, downloadInfo)
-                    }
-                }.awaitAll()
-
-                // Check if any download failed
-                results.firstOrNull { it.isFailure }?.let { failedResult ->
-                    return@withContext Result.failure(
-                        failedResult.exceptionOrNull() ?: Exception("Failed to download chunk"),
-                    )
+            DownloadScheduler(maxConcurrency = MAX_PARALLEL_DOWNLOADS, tag = "GOG")
+                .runAll(chunkUrlMap.entries.toList()) { (chunkMd5, url) ->
+                    downloadChunk(chunkMd5, url, chunkCacheDir, downloadInfo)
                 }
-            }
-
-            Result.success(Unit)
         } catch (e: Exception) {
             Timber.tag("GOG").e(e, "Failed to download dependency chunks")
             Result.failure(e)
@@ -1267,6 +1266,85 @@ class GOGDownloadManager @Inject constructor(
         }
     }
 
+    /**
+     * Apply a delta update: assemble the patched files of [plan] in a staging directory from
+     * installed chunks and downloaded ones, then swap them in. Copied chunks whose source no
+     * longer matches are fetched with [downloadStaleChunks] and their files assembled again.
+     *
+     * @param plan Delta plan for the update
+     * @param chunkCacheDir Directory containing downloaded chunks
+     * @param installDir Installation directory being updated
+     * @param downloadInfo Progress tracker
+     * @param downloadStaleChunks Downloads chunks into [chunkCacheDir]
+     */
+    private suspend fun applyDeltaUpdate(
+        plan: GOGDeltaPlan,
+        chunkCacheDir: File,
+        installDir: File,
+        downloadInfo: DownloadInfo,
+        downloadStaleChunks: suspend (List<FileChunk>) -> Result<Unit>,
+    ): Result<Unit> = withContext(Dispatchers.IO) {
+        var patcher = GOGDeltaPatcher(installDir, plan)
+        try {
+            val staleChunks = mutableListOf<FileChunk>()
+            for ((index, patch) in plan.patchedFiles.withIndex()) {
+                if (!downloadInfo.isActive()) {
+                    patcher.discard()
+                    return@withContext Result.failure(Exception("Download cancelled"))
+                }
+                downloadInfo.updateStatusMessage("Patching ${index + 1}/${plan.patchedFiles.size}: ${patch.file.path}")
+                staleChunks += patcher.assemble(patch) { chunk -> readCachedChunk(chunk, chunkCacheDir) }
+            }
+
+            if (staleChunks.isNotEmpty()) {
+                Timber.tag("GOG").w("${staleChunks.size} installed chunk(s) changed on disk, downloading them instead")
+                val downloadResult = downloadStaleChunks(staleChunks)
+                if (downloadResult.isFailure) {
+                    patcher.discard()
+                    return@withContext downloadResult
+                }
+                val updatedPlan = plan.withDownloads(staleChunks)
+                patcher = GOGDeltaPatcher(installDir, updatedPlan)
+                val staleMd5s = staleChunks.mapTo(HashSet()) { it.compressedMd5 }
+                for (patch in updatedPlan.patchedFiles) {
+                    if (patch.chunks.none { it.chunk.compressedMd5 in staleMd5s }) continue
+                    val stillStale = patcher.assemble(patch) { chunk -> readCachedChunk(chunk, chunkCacheDir) }
+                    if (stillStale.isNotEmpty()) {
+                        throw Exception("Installed chunks of ${patch.file.path} changed during the update")
+                    }
+                }
+            }
+
+            val commitResult = patcher.commit()
+            if (commitResult.isFailure) {
+                patcher.discard()
+                return@withContext commitResult
+            }
+            Timber.tag("GOG").i("Patched ${plan.patchedFiles.size} file(s), removed ${plan.removedFiles.size}")
+            Result.success(Unit)
+        } catch (e: Exception) {
+            Timber.tag("GOG").e(e, "Failed to apply delta update")
+            patcher.discard()
+            Result.failure(e)
+        }
+    }
+
+    /**
+     * Read, decompress and verify a downloaded chunk
+     */
+    private fun readCachedChunk(chunk: FileChunk, chunkCacheDir: File): ByteArray {
+        val chunkFile = File(chunkCacheDir, "${chunk.compressedMd5}.chunk")
+        if (!chunkFile.exists()) {
+            throw Exception("Chunk file missing: ${chunk.compressedMd5}")
+        }
+        val data = decompressChunk(chunkFile.readBytes(), chunk).getOrThrow()
+        val actualMd5 = calculateMd5(data)
+        if (actualMd5 != chunk.md5) {
+            throw Exception("Decompressed MD5 mismatch for chunk: expected ${chunk.md5}, got $actualMd5")
+        }
+        return data
+    }
+
     /**
      * Assemble a single file from its chunks
      *
@@ -1,11 +1,16 @@
 package app.gamenative.service.gog
 
+import app.gamenative.service.gog.api.DepotFile
+import org.json.JSONArray
 import org.json.JSONObject
 import timber.log.Timber
 import java.io.File
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
 
 object GOGManifestUtils {
     const val MANIFEST_FILE_NAME = "_gog_manifest.json"
+    const val INSTALLED_FILES_FILE_NAME = "_gog_installed_files.json"
     private const val KEY_SCRIPT_INTERPRETER = "scriptInterpreter"
 
     fun readLocalManifest(installDir: File): JSONObject? {
@@ -23,4 +28,77 @@ object GOGManifestUtils {
         val root = readLocalManifest(installDir) ?: return false
         return root.optBoolean(KEY_SCRIPT_INTERPRETER, false)
     }
+
+    /**
+     * A depot file as it was installed, with the size and modification time it had on disk
+     * right after. A file still matching both is taken to be intact without rehashing it.
+     */
+    data class InstalledFile(val file: DepotFile, val size: Long, val lastModified: Long) {
+        fun isIntact(installDir: File): Boolean {
+            val onDisk = File(installDir, file.path)
+            return onDisk.isFile && onDisk.length() == size && onDisk.lastModified() == lastModified
+        }
+    }
+
+    /** Files recorded by the last Gen 2 install into [installDir], or null if there is no record. */
+    fun readInstalledFiles(installDir: File): List<InstalledFile>? {
+        val stateFile = File(installDir, INSTALLED_FILES_FILE_NAME)
+        if (!stateFile.exists()) return null
+        return try {
+            val files = JSONObject(stateFile.readText()).getJSONArray("files")
+            (0 until files.length()).map { i ->
+                val json = files.getJSONObject(i)
+                InstalledFile(DepotFile.fromJson(json), json.getLong("installedSize"), json.getLong("installedModified"))
+            }
+        } catch (e: Exception) {
+            Timber.tag("GOG").w(e, "Failed to parse $INSTALLED_FILES_FILE_NAME")
+            null
+        }
+    }
+
+    /**
+     * Records [files] as installed into [installDir] together with their current size and
+     * modification time, so the next update can tell what changed from the chunk lists alone.
+     * Files missing from disk are left out.
+     */
+    fun writeInstalledFiles(installDir: File, files: List<DepotFile>) {
+        try {
+            val array = JSONArray()
+            for (file in files) {
+                val onDisk = File(installDir, file.path)
+                if (!onDisk.isFile) continue
+                val chunks = JSONArray()
+                file.chunks.forEach { chunk ->
+                    chunks.put(
+                        JSONObject().apply {
+                            put("compressedMd5", chunk.compressedMd5)
+                            put("md5", chunk.md5)
+                            put("size", chunk.size)
+                            chunk.compressedSize?.let { put("compressedSize", it) }
+                        },
+                    )
+                }
+                array.put(
+                    JSONObject().apply {
+                        put("path", file.path)
+                        file.md5?.let { put("md5", it) }
+                        file.productId?.let { put("productId", it) }
+                        put("chunks", chunks)
+                        put("installedSize", onDisk.length())
+                        put("installedModified", onDisk.lastModified())
+                    },
+                )
+            }
+            val tempFile = File(installDir, "$INSTALLED_FILES_FILE_NAME.tmp")
+            tempFile.writeText(JSONObject().put("files", array).toString())
+            Files.move(
+                tempFile.toPath(),
+                File(installDir, INSTALLED_FILES_FILE_NAME).toPath(),
+                StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING,
+            )
+        } catch (e: Exception) {
+            Timber.tag("GOG").w(e, "Failed to save $INSTALLED_FILES_FILE_NAME")
+        }
+    }
 }
@@ -0,0 +1,134 @@
+package app.gamenative.service.gog.api
+
+/**
+ * Plans the update of an installed Gen 2 game from the depot files it was installed with to
+ * the files of a new build.
+ *
+ * Files whose chunk list did not change are left alone without reading them. Every other
+ * file is rebuilt chunk by chunk: a chunk whose content (uncompressed MD5 and size) is already
+ * held by an installed file is copied from there, and only the remaining chunks are downloaded.
+ */
+object GOGDeltaPlanner {
+
+    private class InstalledChunk(val file: DepotFile, val offset: Long)
+
+    /**
+     * @param isInstalledIntact whether an installed file is still on disk as it was installed;
+     * files that are not are neither kept nor used as a source
+     */
+    fun plan(
+        installedFiles: List<DepotFile>,
+        newFiles: List<DepotFile>,
+        isInstalledIntact: (DepotFile) -> Boolean = { true },
+    ): GOGDeltaPlan {
+        val intactFiles = installedFiles.filter(isInstalledIntact)
+        val intactByPath = intactFiles.associateBy { it.path }
+
+        // Where each chunk's content can be read from the current install
+        val installedChunks = HashMap<String, InstalledChunk>()
+        for (file in intactFiles) {
+            var offset = 0L
+            for (chunk in file.chunks) {
+                installedChunks.putIfAbsent(contentKey(chunk), InstalledChunk(file, offset))
+                offset += chunk.size
+            }
+        }
+
+        val unchanged = mutableListOf<DepotFile>()
+        val patched = mutableListOf<GOGFilePatch>()
+        val downloadChunks = LinkedHashMap<String, FileChunk>()
+        for (file in newFiles) {
+            val installed = intactByPath[file.path]
+            if (installed != null && sameContent(installed, file)) {
+                unchanged.add(file)
+                continue
+            }
+
+            var fileOffset = 0L
+            val chunks = file.chunks.map { chunk ->
+                val source = installedChunks[contentKey(chunk)]
+                if (source == null) downloadChunks.putIfAbsent(chunk.compressedMd5, chunk)
+                PlannedChunk(chunk, fileOffset, source?.file?.path, source?.offset ?: 0L).also { fileOffset += chunk.size }
+            }
+            patched.add(GOGFilePatch(file, chunks))
+        }
+
+        val newPaths = newFiles.mapTo(HashSet()) { it.path }
+        val removed = installedFiles.filter { it.path !in newPaths }
+
+        return GOGDeltaPlan(
+            unchangedFiles = unchanged,
+            patchedFiles = patched,
+            removedFiles = removed,
+            downloadChunks = downloadChunks.values.toList(),
+            fullDownloadSize = newFiles.flatMap { it.chunks }.distinctBy { it.compressedMd5 }.sumOf { downloadSize(it) },
+        )
+    }
+
+    private fun sameContent(installed: DepotFile, file: DepotFile): Boolean {
+        if (installed.md5 != null && file.md5 != null && !installed.md5.equals(file.md5, ignoreCase = true)) return false
+        return installed.chunks.size == file.chunks.size &&
+            installed.chunks.zip(file.chunks).all { (a, b) -> contentKey(a) == contentKey(b) }
+    }
+
+    private fun contentKey(chunk: FileChunk) = "${chunk.md5.lowercase()}:${chunk.size}"
+
+    internal fun downloadSize(chunk: FileChunk) = chunk.compressedSize ?: chunk.size
+}
+
+/**
+ * One chunk of a patched file at [fileOffset], copied from [sourceOffset] of the installed
+ * [sourceFile], or downloaded when [sourceFile] is null.
+ */
+data class PlannedChunk(
+    val chunk: FileChunk,
+    val fileOffset: Long,
+    val sourceFile: String?,
+    val sourceOffset: Long,
+) {
+    val isReused: Boolean get() = sourceFile != null
+}
+
+/**
+ * How to build an added or modified [file], chunk by chunk.
+ */
+data class GOGFilePatch(
+    val file: DepotFile,
+    val chunks: List<PlannedChunk>,
+) {
+    val reusedBytes: Long get() = chunks.filter { it.isReused }.sumOf { it.chunk.size }
+}
+
+/**
+ * Result of [GOGDeltaPlanner.plan]
+ */
+data class GOGDeltaPlan(
+    val unchangedFiles: List<DepotFile>,
+    val patchedFiles: List<GOGFilePatch>,
+    val removedFiles: List<DepotFile>,
+    val downloadChunks: List<FileChunk>,
+    val fullDownloadSize: Long,
+) {
+    val downloadSize: Long get() = downloadChunks.sumOf { GOGDeltaPlanner.downloadSize(it) }
+    val savedDownloadBytes: Long get() = fullDownloadSize - downloadSize
+    val reusedBytes: Long get() = patchedFiles.sumOf { it.reusedBytes }
+
+    /**
+     * The same plan with [chunks] downloaded instead of copied, for when their installed
+     * source turned out not to hold them any more.
+     */
+    fun withDownloads(chunks: Collection<FileChunk>): GOGDeltaPlan {
+        val md5s = chunks.mapTo(HashSet()) { it.compressedMd5 }
+        val patched = patchedFiles.map { patch ->
+            patch.copy(chunks = patch.chunks.map { if (it.chunk.compressedMd5 in md5s) it.copy(sourceFile = null, sourceOffset = 0L) else it })
+        }
+        val added = chunks.filter { chunk -> downloadChunks.none { it.compressedMd5 == chunk.compressedMd5 } }
+        return copy(patchedFiles = patched, downloadChunks = downloadChunks + added.distinctBy { it.compressedMd5 })
+    }
+
+    override fun toString(): String {
+        return "${unchangedFiles.size} files unchanged, ${patchedFiles.size} patched, ${removedFiles.size} removed; " +
+            "${downloadChunks.size} chunks to download (${downloadSize / 1_000_000.0} of ${fullDownloadSize / 1_000_000.0} MB), " +
+            "${reusedBytes / 1_000_000.0} MB copied from the install"
+    }
+}
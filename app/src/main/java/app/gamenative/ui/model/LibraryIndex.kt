@@ -0,0 +1,407 @@
+package app.gamenative.ui.model
+
+import app.gamenative.data.AmazonGame
+import app.gamenative.data.EpicGame
+import app.gamenative.data.GOGGame
+import app.gamenative.data.GameSource
+import app.gamenative.data.LibraryItem
+import app.gamenative.data.SteamApp
+import app.gamenative.enums.AppType
+import app.gamenative.service.SteamService
+import app.gamenative.ui.enums.SortOption
+import java.util.BitSet
+import java.util.EnumMap
+
+/**
+ * In-memory index over every library source shown by [LibraryViewModel].
+ *
+ * Each source keeps its entries in arrays that are pre-sorted for every [SortOption],
+ * along with a trigram index over the lowercase names, so answering a query is one pass
+ * over an already ordered array per source followed by a merge of the first page. No
+ * names are lowercased, sizes summed or directories resolved while filtering.
+ *
+ * A source is rebuilt only when its own rows change, reusing the entries of rows that
+ * are still equal. Steam install state is a bitmap that is recomputed only when the set
+ * of download directories changes. Every update publishes new immutable snapshots, so
+ * queries never take a lock.
+ */
+internal class LibraryIndex {
+
+    /** Filter, sort and page parameters for [query]. */
+    data class Query(
+        val searchQuery: String = "",
+        val sortOption: SortOption = SortOption.INSTALLED_FIRST,
+        /** Sources that make up the returned list; counts are reported for every source. */
+        val sources: Set<GameSource> = GameSource.entries.toSet(),
+        val installedOnly: Boolean = false,
+        val steamTypes: Set<AppType> = setOf(AppType.game),
+        /** Steam apps must be owned by one of these accounts; empty disables the check. */
+        val steamOwners: List<Int> = emptyList(),
+        val includeShared: Boolean = true,
+        val steamUserAccountId: Int = 0,
+        val includeCustomGames: Boolean = true,
+        /** Number of items to return from the start of the sorted list. */
+        val limit: Int = Int.MAX_VALUE,
+    )
+
+    class Result(
+        /** The first [Query.limit] items, indexed from zero. */
+        val items: List<LibraryItem>,
+        /** Number of matches across the sources of [Query.sources]. */
+        val total: Int,
+        /** Matches per source before the source selection is applied. */
+        val counts: Map<GameSource, Int>,
+        val installedCounts: Map<GameSource, Int>,
+    )
+
+    private class Entry(
+        val id: Any,
+        val row: Any,
+        val item: LibraryItem,
+        val key: String,
+        val sizeBytes: Long,
+        val installed: Boolean,
+        val type: AppType? = null,
+        val ownerAccountIds: List<Int> = emptyList(),
+        val dirName: String? = null,
+    )
+
+    private class SourceIndex(
+        val entries: Array<Entry>,
+        val byName: IntArray,
+        val byNameDesc: IntArray,
+        val bySizeAsc: IntArray,
+        val bySizeDesc: IntArray,
+        val trigrams: Map<Long, IntArray>,
+        val installed: BitSet,
+    ) {
+        fun withInstalled(installed: BitSet) =
+            SourceIndex(entries, byName, byNameDesc, bySizeAsc, bySizeDesc, trigrams, installed)
+    }
+
+    private val lock = Any()
+
+    @Volatile
+    private var sources: Map<GameSource, SourceIndex> = emptyMap()
+
+    @Volatile
+    private var installedDirs: Set<String> = emptySet()
+
+    fun updateSteamApps(apps: List<SteamApp>): Boolean = replaceSource(GameSource.STEAM, apps, { it.id }) { app ->
+        // Calculate total size from all depot manifests (use "public" branch as default)
+        val sizeBytes = app.depots.values.sumOf { depot ->
+            depot.manifests["public"]?.size ?: depot.manifests.values.firstOrNull()?.size ?: 0L
+        }
+        Entry(
+            id = app.id,
+            row = app,
+            item = LibraryItem(
+                appId = "${GameSource.STEAM.name}_${app.id}",
+                name = app.name,
+                iconHash = app.clientIconHash,
+                capsuleImageUrl = app.getCapsuleUrl(),
+                headerImageUrl = app.headerUrl,
+                heroImageUrl = app.getHeroUrl(),
+                sizeBytes = sizeBytes,
+            ),
+            key = app.name.lowercase(),
+            sizeBytes = sizeBytes,
+            installed = false,
+            type = app.type,
+            ownerAccountIds = app.ownerAccountId,
+            dirName = SteamService.getAppDirName(app),
+        )
+    }
+
+    fun updateGogGames(games: List<GOGGame>): Boolean = replaceSource(GameSource.GOG, games, { it.id }) { game ->
+        storeEntry(
+            id = game.id,
+            row = game,
+            installed = game.isInstalled,
+            item = LibraryItem(
+                appId = "${GameSource.GOG.name}_${game.id}",
+                name = game.title,
+                iconHash = game.imageUrl.ifEmpty { game.iconUrl },
+                gameSource = GameSource.GOG,
+            ),
+        )
+    }
+
+    fun updateEpicGames(games: List<EpicGame>): Boolean = replaceSource(GameSource.EPIC, games, { it.id }) { game ->
+        storeEntry(
+            id = game.id,
+            row = game,
+            installed = game.isInstalled,
+            item = LibraryItem(
+                appId = "${GameSource.EPIC.name}_${game.id}",
+                name = game.title,
+                iconHash = game.artCover,
+                gameSource = GameSource.EPIC,
+            ),
+        )
+    }
+
+    fun updateAmazonGames(games: List<AmazonGame>): Boolean = replaceSource(GameSource.AMAZON, games, { it.appId }) { game ->
+        storeEntry(
+            id = game.appId,
+            row = game,
+            installed = game.isInstalled,
+            item = LibraryItem(
+                appId = "AMAZON_${game.appId}",
+                name = game.title,
+                iconHash = game.artUrl,
+                gameSource = GameSource.AMAZON,
+            ),
+        )
+    }
+
+    /** Custom games are always installed; their items come straight from the scanner. */
+    fun updateCustomGames(items: List<LibraryItem>): Boolean =
+        replaceSource(GameSource.CUSTOM_GAME, items, { it.appId }) { item ->
+            storeEntry(id = item.appId, row = item, installed = true, item = item.copy(index = 0))
+        }
+
+    /**
+     * Updates which Steam apps count as installed, given the directory names found in the
+     * install locations. Returns false without touching the index when the set is unchanged.
+     */
+    fun updateInstalledDirs(dirs: Collection<String>): Boolean {
+        val newDirs = dirs.toHashSet()
+        synchronized(lock) {
+            if (newDirs == installedDirs) return false
+            installedDirs = newDirs
+            val steam = sources[GameSource.STEAM] ?: return true
+            publish(GameSource.STEAM, steam.withInstalled(installedBits(GameSource.STEAM, steam.entries)))
+        }
+        return true
+    }
+
+    fun query(query: Query): Result {
+        val snapshot = sources
+        val needle = query.searchQuery.lowercase()
+        val heads = ArrayList<Pair<SourceIndex, IntArray>>(snapshot.size)
+        val headSources = ArrayList<GameSource>(snapshot.size)
+        val counts = EnumMap<GameSource, Int>(GameSource::class.java)
+        val installedCounts = EnumMap<GameSource, Int>(GameSource::class.java)
+        var total = 0
+
+        for (source in GameSource.entries) {
+            counts[source] = 0
+            installedCounts[source] = 0
+            val index = snapshot[source] ?: continue
+            if (source == GameSource.CUSTOM_GAME && !query.includeCustomGames) continue
+
+            // The custom game scanner has always matched on the trimmed query
+            val sourceNeedle = if (source == GameSource.CUSTOM_GAME) needle.trim() else needle
+            val candidates = candidates(index, sourceNeedle)
+            val selected = source in query.sources
+            val picked = IntArray(if (selected) minOf(query.limit, index.entries.size) else 0)
+            var pickedCount = 0
+            var count = 0
+            var installedCount = 0
+
+            fun visit(position: Int, installed: Boolean) {
+                val entry = index.entries[position]
+                if (candidates != null) {
+                    if (!candidates.get(position)) return
+                } else if (sourceNeedle.isNotEmpty() && !entry.key.contains(sourceNeedle)) {
+                    return
+                }
+                if (query.installedOnly && !installed) return
+                if (source == GameSource.STEAM && !acceptSteam(entry, query)) return
+
+                count++
+                if (installed) installedCount++
+                if (pickedCount < picked.size) picked[pickedCount++] = position
+            }
+
+            when (query.sortOption) {
+                SortOption.INSTALLED_FIRST, SortOption.RECENTLY_PLAYED -> {
+                    for (position in index.byName) if (index.installed.get(position)) visit(position, true)
+                    if (!query.installedOnly) {
+                        for (position in index.byName) if (!index.installed.get(position)) visit(position, false)
+                    }
+                }
+                SortOption.NAME_ASC -> for (position in index.byName) visit(position, index.installed.get(position))
+                SortOption.NAME_DESC -> for (position in index.byNameDesc) visit(position, index.installed.get(position))
+                SortOption.SIZE_SMALLEST -> for (position in index.bySizeAsc) visit(position, index.installed.get(position))
+                SortOption.SIZE_LARGEST -> for (position in index.bySizeDesc) visit(position, index.installed.get(position))
+            }
+
+            counts[source] = count
+            installedCounts[source] = installedCount
+            if (selected) {
+                total += count
+                heads.add(index to picked.copyOf(pickedCount))
+                headSources.add(source)
+            }
+        }
+
+        return Result(merge(heads, headSources, query), total, counts, installedCounts)
+    }
+
+    private fun acceptSteam(entry: Entry, query: Query): Boolean {
+        if (query.steamOwners.isNotEmpty() && query.steamOwners.none { entry.ownerAccountIds.contains(it) }) return false
+        if (entry.type !in query.steamTypes) return false
+        if (!query.includeShared && query.steamUserAccountId != 0 && !entry.ownerAccountIds.contains(query.steamUserAccountId)) {
+            return false
+        }
+        return true
+    }
+
+    /**
+     * Positions whose key contains [needle], looked up through the rarest trigram of the
+     * needle, or null when the needle is too short for the trigram index.
+     */
+    private fun candidates(index: SourceIndex, needle: String): BitSet? {
+        if (needle.length < 3) return null
+        var rarest: IntArray? = null
+        for (i in 0..needle.length - 3) {
+            val postings = index.trigrams[trigram(needle, i)] ?: return BitSet()
+            if (rarest == null || postings.size < rarest.size) rarest = postings
+        }
+        val matches = BitSet(index.entries.size)
+        for (position in rarest!!) {
+            if (index.entries[position].key.contains(needle)) matches.set(position)
+        }
+        return matches
+    }
+
+    /**
+     * Merges the per-source results, which are each already in [Query.sortOption] order,
+     * into the first [Query.limit] items. Ties go to the earlier source, matching the
+     * order the sources were concatenated in before sorting.
+     */
+    private fun merge(heads: List<Pair<SourceIndex, IntArray>>, headSources: List<GameSource>, query: Query): List<LibraryItem> {
+        val cursors = IntArray(heads.size)
+        val size = minOf(query.limit, heads.sumOf { it.second.size })
+        val items = ArrayList<LibraryItem>(size)
+
+        while (items.size < size) {
+            var best = -1
+            for (h in heads.indices) {
+                val (index, picked) = heads[h]
+                if (cursors[h] >= picked.size) continue
+                if (best < 0) {
+                    best = h
+                    continue
+                }
+                val (bestIndex, bestPicked) = heads[best]
+                val a = picked[cursors[h]]
+                val b = bestPicked[cursors[best]]
+                if (compare(index, a, bestIndex, b, query.sortOption) < 0) best = h
+            }
+
+            val (index, picked) = heads[best]
+            val position = picked[cursors[best]++]
+            val entry = index.entries[position]
+            val isShared = headSources[best] == GameSource.STEAM &&
+                query.steamUserAccountId != 0 && !entry.ownerAccountIds.contains(query.steamUserAccountId)
+            items.add(entry.item.copy(index = items.size, isInstalled = index.installed.get(position), isShared = isShared))
+        }
+        return items
+    }
+
+    private fun compare(aIndex: SourceIndex, a: Int, bIndex: SourceIndex, b: Int, sortOption: SortOption): Int {
+        val aEntry = aIndex.entries[a]
+        val bEntry = bIndex.entries[b]
+        return when (sortOption) {
+            SortOption.INSTALLED_FIRST, SortOption.RECENTLY_PLAYED -> {
+                val installed = bIndex.installed.get(b).compareTo(aIndex.installed.get(a))
+                if (installed != 0) installed else aEntry.key.compareTo(bEntry.key)
+            }
+            SortOption.NAME_ASC -> aEntry.key.compareTo(bEntry.key)
+            SortOption.NAME_DESC -> bEntry.key.compareTo(aEntry.key)
+            SortOption.SIZE_SMALLEST -> {
+                val size = aEntry.sizeBytes.compareTo(bEntry.sizeBytes)
+                if (size != 0) size else aEntry.key.compareTo(bEntry.key)
+            }
+            SortOption.SIZE_LARGEST -> {
+                val size = bEntry.sizeBytes.compareTo(aEntry.sizeBytes)
+                if (size != 0) size else aEntry.key.compareTo(bEntry.key)
+            }
+        }
+    }
+
+    private fun storeEntry(id: Any, row: Any, installed: Boolean, item: LibraryItem) = Entry(
+        id = id,
+        row = row,
+        item = item,
+        key = item.name.lowercase(),
+        sizeBytes = item.sizeBytes,
+        installed = installed,
+    )
+
+    /**
+     * Replaces the rows of one source. Entries of rows that are still equal are reused,
+     * and when nothing changed at all the published index is left as it is.
+     */
+    private fun <T : Any> replaceSource(source: GameSource, rows: List<T>, idOf: (T) -> Any, build: (T) -> Entry): Boolean {
+        synchronized(lock) {
+            val old = sources[source]
+            val previous = old?.entries?.associateBy { it.id }
+            var changed = old == null || old.entries.size != rows.size
+
+            val entries = Array(rows.size) { i ->
+                val row = rows[i]
+                val reused = previous?.get(idOf(row))?.takeIf { it.row == row }
+                if (reused == null || old?.entries?.getOrNull(i) !== reused) changed = true
+                reused ?: build(row)
+            }
+            if (!changed) return false
+
+            publish(source, buildSource(source, entries))
+            return true
+        }
+    }
+
+    private fun publish(source: GameSource, index: SourceIndex) {
+        val updated = EnumMap<GameSource, SourceIndex>(GameSource::class.java)
+        updated.putAll(sources)
+        updated[source] = index
+        sources = updated
+    }
+
+    private fun installedBits(source: GameSource, entries: Array<Entry>): BitSet {
+        val bits = BitSet(entries.size)
+        val dirs = installedDirs
+        entries.forEachIndexed { position, entry ->
+            val installed = if (source == GameSource.STEAM) entry.dirName in dirs else entry.installed
+            if (installed) bits.set(position)
+        }
+        return bits
+    }
+
+    private fun buildSource(source: GameSource, entries: Array<Entry>): SourceIndex {
+        val positions = entries.indices
+        val byName = positions.sortedWith(compareBy { entries[it].key }).toIntArray()
+        // Not byName reversed: equal names keep their row order, as the stable sort did before
+        val byNameDesc = positions.sortedWith(compareByDescending { entries[it].key }).toIntArray()
+        val bySizeAsc = positions.sortedWith(
+            compareBy<Int> { entries[it].sizeBytes }.thenBy { entries[it].key },
+        ).toIntArray()
+        val bySizeDesc = positions.sortedWith(
+            compareByDescending<Int> { entries[it].sizeBytes }.thenBy { entries[it].key },
+        ).toIntArray()
+
+        val postings = HashMap<Long, MutableList<Int>>()
+        val seen = HashSet<Long>()
+        entries.forEachIndexed { position, entry ->
+            val key = entry.key
+            seen.clear()
+            for (i in 0..key.length - 3) {
+                val gram = trigram(key, i)
+                if (seen.add(gram)) {
+                    postings.getOrPut(gram) { ArrayList(4) }.add(position)
+                }
+            }
+        }
+        val trigrams = HashMap<Long, IntArray>(postings.size * 2)
+        postings.forEach { (gram, list) -> trigrams[gram] = list.toIntArray() }
+
+        return SourceIndex(entries, byName, byNameDesc, bySizeAsc, bySizeDesc, trigrams, installedBits(source, entries))
+    }
+
+    private fun trigram(text: String, start: Int): Long =
+        (text[start].code.toLong() shl 32) or (text[start + 1].code.toLong() shl 16) or text[start + 2].code.toLong()
+}
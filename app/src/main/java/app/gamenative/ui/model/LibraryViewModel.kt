@@ -11,12 +11,7 @@ import app.gamenative.PluviaApp
 import app.gamenative.PrefManager
 import app.gamenative.data.GameCompatibilityStatus
 import app.gamenative.data.GameSource
-import app.gamenative.data.LibraryItem
-import app.gamenative.data.SteamApp
 import app.gamenative.events.AndroidEvent
-import app.gamenative.data.GOGGame
-import app.gamenative.data.EpicGame
-import app.gamenative.data.AmazonGame
 import app.gamenative.db.dao.SteamAppDao
 import app.gamenative.db.dao.GOGGameDao
 import app.gamenative.db.dao.EpicGameDao
@@ -67,7 +62,7 @@ class LibraryViewModel @Inject constructor(
     var listState: LazyGridState by mutableStateOf(LazyGridState(0, 0))
 
     private val onInstallStatusChanged: (AndroidEvent.LibraryInstallStatusChanged) -> Unit = {
-        onFilterApps(paginationCurrentPage)
+        onFilterApps(paginationCurrentPage, rescanCustomGames = true)
     }
 
     private val onCustomGameImagesFetched: (AndroidEvent.CustomGameImagesFetched) -> Unit = {
@@ -80,11 +75,12 @@ class LibraryViewModel @Inject constructor(
     @Volatile private var paginationCurrentPage: Int = 0
     @Volatile private var lastPageInCurrentFilter: Int = 0
 
-    // Complete and unfiltered app list
-    private var appList: List<SteamApp> = emptyList()
-    private var gogGameList: List<GOGGame> = emptyList()
-    private var epicGameList: List<EpicGame> = emptyList()
-    private var amazonGameList: List<AmazonGame> = emptyList()
+    // Complete and unfiltered library of every source, kept up to date from the DAO flows
+    private val libraryIndex = LibraryIndex()
+
+    // Custom games come from a filesystem scan, so they are only rescanned when the folder
+    // list changed or a refresh asked for it, never on a search keystroke
+    @Volatile private var scannedCustomGameFolders: Set<String>? = null
 
     // Track if this is the first load to apply minimum load time
     private var isFirstLoad = true
@@ -116,9 +112,8 @@ class LibraryViewModel @Inject constructor(
                 // ownerIds = SteamService.familyMembers.ifEmpty { listOf(SteamService.userSteamId!!.accountID.toInt()) },
             ).collect { apps ->
                 Timber.tag("LibraryViewModel").d("Collecting ${apps.size} apps")
-                // Check if the list has actually changed before triggering a re-filter
-                if (appList.size != apps.size) {
-                    appList = apps
+                // Only re-filter when the index actually changed
+                if (libraryIndex.updateSteamApps(apps)) {
                     onFilterApps(paginationCurrentPage)
                 }
             }
@@ -128,9 +123,7 @@ class LibraryViewModel @Inject constructor(
         viewModelScope.launch(Dispatchers.IO) {
             gogGameDao.getAll().collect { games ->
                 Timber.tag("LibraryViewModel").d("Collecting ${games.size} GOG games")
-                // Check if the list has actually changed before triggering a re-filter
-                if (gogGameList != games) {
-                    gogGameList = games
+                if (libraryIndex.updateGogGames(games)) {
                     onFilterApps(paginationCurrentPage)
                 }
             }
@@ -139,11 +132,7 @@ class LibraryViewModel @Inject constructor(
         viewModelScope.launch(Dispatchers.IO) {
             epicGameDao.getAll().collect { games ->
                 Timber.tag("LibraryViewModel").d("Collecting ${games.size} Epic games")
-
-                val hasChanges = epicGameList.size != games.size || epicGameList != games
-                epicGameList = games
-
-                if (hasChanges) {
+                if (libraryIndex.updateEpicGames(games)) {
                     onFilterApps(paginationCurrentPage)
                 }
             }
@@ -152,9 +141,7 @@ class LibraryViewModel @Inject constructor(
         viewModelScope.launch(Dispatchers.IO) {
             amazonGameDao.getAll().collect { games ->
                 Timber.tag("LibraryViewModel").d("Collecting ${games.size} Amazon games")
-                val hasChanges = amazonGameList.size != games.size || amazonGameList != games
-                amazonGameList = games
-                if (hasChanges) {
+                if (libraryIndex.updateAmazonGames(games)) {
                     onFilterApps(paginationCurrentPage)
                 }
             }
@@ -314,7 +301,7 @@ class LibraryViewModel @Inject constructor(
             } catch (e: Exception) {
                 Timber.tag("LibraryViewModel").e(e, "Failed to refresh owned games from server")
             } finally {
-                onFilterApps(0).join()
+                onFilterApps(0, rescanCustomGames = true).join()
                 // Fetch compatibility for current page after refresh
                 val currentPageGames = _state.value.appInfoList.map { it.name }
                 if (currentPageGames.isNotEmpty()) {
@@ -341,229 +328,26 @@ class LibraryViewModel @Inject constructor(
             }
 
             CustomGameScanner.invalidateCache()
-            onFilterApps(paginationCurrentPage)
+            onFilterApps(paginationCurrentPage, rescanCustomGames = true)
         }
     }
 
-    private fun onFilterApps(paginationPage: Int = 0): Job {
-        Timber.tag("LibraryViewModel").d("onFilterApps - appList.size: ${appList.size}, isFirstLoad: $isFirstLoad")
+    private fun onFilterApps(paginationPage: Int = 0, rescanCustomGames: Boolean = false): Job {
+        Timber.tag("LibraryViewModel").d("onFilterApps - page: $paginationPage, isFirstLoad: $isFirstLoad")
         return viewModelScope.launch(Dispatchers.IO) {
             _state.update { it.copy(isLoading = true) }
 
-            val currentState = _state.value
-            val currentFilter = AppFilter.getAppType(currentState.appInfoSortType)
-
-            // Fetch download directory apps once on IO thread and cache as a HashSet for O(1) lookups
-            val downloadDirectoryApps = DownloadService.getDownloadDirectoryApps()
-            val downloadDirectorySet = downloadDirectoryApps.toHashSet()
-
-            // Filter Steam apps first (no pagination yet)
-            // Note: Don't sort individual lists - we'll sort the combined list for consistent ordering
-            val filteredSteamApps: List<SteamApp> = appList
-                .asSequence()
-                .filter { item ->
-                    SteamService.familyMembers.ifEmpty {
-                        // Handle the case where userSteamId might be null
-                        SteamService.userSteamId?.let { steamId ->
-                            listOf(steamId.accountID.toInt())
-                        } ?: emptyList()
-                    }.let { owners ->
-                        if (owners.isEmpty()) {
-                            true // no owner info ⇒ don’t filter the item out
-                        } else {
-                            owners.any { item.ownerAccountId.contains(it) }
-                        }
-                    }
-                }
-                .filter { item ->
-                    currentFilter.any { item.type == it }
-                }
-                .filter { item ->
-                    if (currentState.appInfoSortType.contains(AppFilter.SHARED)) {
-                        true
-                    } else {
-                        item.ownerAccountId.contains(PrefManager.steamUserAccountId) || PrefManager.steamUserAccountId == 0
-                    }
-                }
-                .filter { item ->
-                    if (currentState.searchQuery.isNotEmpty()) {
-                        item.name.contains(currentState.searchQuery, ignoreCase = true)
-                    } else {
-                        true
-                    }
-                }
-                .filter { item ->
-                    val installedOnly = currentState.currentTab.installedOnly ||
-                        currentState.appInfoSortType.contains(AppFilter.INSTALLED)
-                    if (installedOnly) {
-                        downloadDirectorySet.contains(SteamService.getAppDirName(item))
-                    } else {
-                        true
-                    }
-                }
-                .sortedWith(
-                    compareByDescending<SteamApp> {
-                        downloadDirectorySet.contains(SteamService.getAppDirName(it))
-                    }.thenBy { it.name.lowercase() },
-                )
-                .toList()
-
-            // Map Steam apps to UI items
-            data class LibraryEntry(val item: LibraryItem, val isInstalled: Boolean)
-            val steamEntries: List<LibraryEntry> = filteredSteamApps.map { item ->
-                val isInstalled = downloadDirectorySet.contains(SteamService.getAppDirName(item))
-                // Calculate total size from all depot manifests (use "public" branch as default)
-                val totalSizeBytes = item.depots.values.sumOf { depot ->
-                    depot.manifests["public"]?.size ?: depot.manifests.values.firstOrNull()?.size ?: 0L
-                }
-                LibraryEntry(
-                    item = LibraryItem(
-                        index = 0, // temporary, will be re-indexed after combining and paginating
-                        appId = "${GameSource.STEAM.name}_${item.id}",
-                        name = item.name,
-                        iconHash = item.clientIconHash,
-                        capsuleImageUrl = item.getCapsuleUrl(),
-                        headerImageUrl = item.headerUrl,
-                        heroImageUrl = item.getHeroUrl(),
-                        isShared = (PrefManager.steamUserAccountId != 0 && !item.ownerAccountId.contains(PrefManager.steamUserAccountId)),
-                        sizeBytes = totalSizeBytes,
-                    ),
-                    isInstalled = isInstalled,
-                )
+            val customGameFolders = PrefManager.customGameManualFolders
+            if (rescanCustomGames || customGameFolders != scannedCustomGameFolders) {
+                libraryIndex.updateCustomGames(CustomGameScanner.scanAsLibraryItems())
+                scannedCustomGameFolders = customGameFolders
             }
 
-            // Scan Custom Games roots and create UI items (filtered by search query inside scanner)
-            // Only include custom games if GAME filter is selected
-            val customGameItems = if (currentState.appInfoSortType.contains(AppFilter.GAME)) {
-                CustomGameScanner.scanAsLibraryItems(
-                    query = currentState.searchQuery,
-                )
-            } else {
-                emptyList()
-            }
-            val customEntries = customGameItems.map { LibraryEntry(it, true) }
-
-            // Filter GOG games
-            val filteredGOGGames = gogGameList
-                .asSequence()
-                .filter { game ->
-                    if (currentState.searchQuery.isNotEmpty()) {
-                        game.title.contains(currentState.searchQuery, ignoreCase = true)
-                    } else {
-                        true
-                    }
-                }
-                .filter { game ->
-                    val installedOnly = currentState.currentTab.installedOnly ||
-                        currentState.appInfoSortType.contains(AppFilter.INSTALLED)
-                    if (installedOnly) {
-                        game.isInstalled
-                    } else {
-                        true
-                    }
-                }
-                .toList()
-
-            val gogEntries = filteredGOGGames.map { game ->
-                LibraryEntry(
-                    item = LibraryItem(
-                        index = 0,
-                        appId = "${GameSource.GOG.name}_${game.id}",
-                        name = game.title,
-                        iconHash = game.imageUrl.ifEmpty { game.iconUrl },
-                        isShared = false,
-                        gameSource = GameSource.GOG,
-                    ),
-                    isInstalled = game.isInstalled,
-                )
-            }
+            // The download directory listing is cached by DownloadService; the index only
+            // recomputes Steam install state when the set of directories changed
+            libraryIndex.updateInstalledDirs(DownloadService.getDownloadDirectoryApps())
 
-            // Filter Epic games
-            val filteredEpicGames = epicGameList
-                .asSequence()
-                .filter { game ->
-                    if (currentState.searchQuery.isNotEmpty()) {
-                        game.title.contains(currentState.searchQuery, ignoreCase = true)
-                    } else {
-                        true
-                    }
-                }
-                .filter { game ->
-                    val installedOnly = currentState.currentTab.installedOnly ||
-                        currentState.appInfoSortType.contains(AppFilter.INSTALLED)
-                    if (installedOnly) {
-                        game.isInstalled
-                    } else {
-                        true
-                    }
-                }
-                .toList()
-
-            val epicEntries = filteredEpicGames.map { game ->
-                LibraryEntry(
-                    item = LibraryItem(
-                        index = 0,
-                        appId = "${GameSource.EPIC.name}_${game.id}",
-                        name = game.title,
-                        iconHash = game.artCover,
-                        isShared = false,
-                        gameSource = GameSource.EPIC,
-                    ),
-                    isInstalled = game.isInstalled,
-                )
-            }
-
-            // Amazon games
-            val filteredAmazonGames = amazonGameList
-                .asSequence()
-                .filter { game ->
-                    if (currentState.searchQuery.isNotEmpty()) {
-                        game.title.contains(currentState.searchQuery, ignoreCase = true)
-                    } else {
-                        true
-                    }
-                }
-                .filter { game ->
-                    val installedOnly = currentState.currentTab.installedOnly ||
-                        currentState.appInfoSortType.contains(AppFilter.INSTALLED)
-                    if (installedOnly) {
-                        game.isInstalled
-                    } else {
-                        true
-                    }
-                }
-                .toList()
-
-            val amazonEntries = filteredAmazonGames.map { game ->
-                LibraryEntry(
-                    item = LibraryItem(
-                        index = 0,
-                        appId = "AMAZON_${game.appId}",
-                        name = game.title,
-                        iconHash = game.artUrl,
-                        isShared = false,
-                        gameSource = GameSource.AMAZON,
-                    ),
-                    isInstalled = game.isInstalled,
-                )
-            }
-
-            // Calculate installed counts
-            val gogInstalledCount = filteredGOGGames.count { it.isInstalled }
-            val epicInstalledCount = filteredEpicGames.count { it.isInstalled }
-            val amazonInstalledCount = filteredAmazonGames.count { it.isInstalled }
-            // Save game counts for skeleton loaders (only when not searching, to get accurate counts)
-            // This needs to happen before filtering by source, so we save the total counts
-            if (currentState.searchQuery.isEmpty()) {
-                PrefManager.customGamesCount = customGameItems.size
-                PrefManager.steamGamesCount = filteredSteamApps.size
-                PrefManager.gogGamesCount = filteredGOGGames.size
-                PrefManager.gogInstalledGamesCount = gogInstalledCount
-                PrefManager.epicGamesCount = filteredEpicGames.size
-                PrefManager.epicInstalledGamesCount = epicInstalledCount
-                PrefManager.amazonInstalledGamesCount = amazonInstalledCount
-                Timber.tag("LibraryViewModel").d("Saved counts - Custom: ${customGameItems.size}, Steam: ${filteredSteamApps.size}, GOG: ${filteredGOGGames.size}, GOG installed: $gogInstalledCount, Epic: ${filteredEpicGames.size}, Epic installed: $epicInstalledCount, Amazon installed: $amazonInstalledCount")
-            }
+            val currentState = _state.value
 
             // Compute effective source filters based on current tab
             // ALL tab uses user preferences, other tabs override with their presets
@@ -598,48 +382,67 @@ class LibraryViewModel @Inject constructor(
                 currentTab.showAmazon
             }
 
-            // Combine both lists and apply sort option
-            val sortComparator: Comparator<LibraryEntry> = when (currentState.currentSortOption) {
-                SortOption.INSTALLED_FIRST -> compareBy<LibraryEntry> { entry ->
-                    if (entry.isInstalled) 0 else 1
-                }.thenBy { it.item.name.lowercase() }
-
-                SortOption.NAME_ASC -> compareBy { it.item.name.lowercase() }
-
-                SortOption.NAME_DESC -> compareByDescending { it.item.name.lowercase() }
-
-                SortOption.RECENTLY_PLAYED -> compareBy<LibraryEntry> { entry ->
-                    if (entry.isInstalled) 0 else 1
-                }.thenBy { it.item.name.lowercase() }
-
-                SortOption.SIZE_SMALLEST -> compareBy<LibraryEntry> { it.item.sizeBytes }
-                    .thenBy { it.item.name.lowercase() }
-
-                SortOption.SIZE_LARGEST -> compareByDescending<LibraryEntry> { it.item.sizeBytes }
-                    .thenBy { it.item.name.lowercase() }
+            val includedSources = EnumSet.noneOf(GameSource::class.java).apply {
+                if (includeSteam) add(GameSource.STEAM)
+                if (includeOpen) add(GameSource.CUSTOM_GAME)
+                if (includeGOG) add(GameSource.GOG)
+                if (includeEpic) add(GameSource.EPIC)
+                if (includeAmazon) add(GameSource.AMAZON)
             }
 
-            val combined = buildList {
-                if (includeSteam) addAll(steamEntries)
-                if (includeOpen) addAll(customEntries)
-                if (includeGOG) addAll(gogEntries)
-                if (includeEpic) addAll(epicEntries)
-                if (includeAmazon) addAll(amazonEntries)
-            }.sortedWith(sortComparator).mapIndexed { idx, entry ->
-                entry.item.copy(index = idx, isInstalled = entry.isInstalled)
+            val pageSize = PrefManager.itemsPerPage
+            val result = libraryIndex.query(
+                LibraryIndex.Query(
+                    searchQuery = currentState.searchQuery,
+                    sortOption = currentState.currentSortOption,
+                    sources = includedSources,
+                    installedOnly = currentState.currentTab.installedOnly ||
+                        currentState.appInfoSortType.contains(AppFilter.INSTALLED),
+                    steamTypes = AppFilter.getAppType(currentState.appInfoSortType),
+                    steamOwners = SteamService.familyMembers.ifEmpty {
+                        // Handle the case where userSteamId might be null
+                        SteamService.userSteamId?.let { steamId ->
+                            listOf(steamId.accountID.toInt())
+                        } ?: emptyList()
+                    },
+                    includeShared = currentState.appInfoSortType.contains(AppFilter.SHARED),
+                    steamUserAccountId = PrefManager.steamUserAccountId,
+                    // Only include custom games if GAME filter is selected
+                    includeCustomGames = currentState.appInfoSortType.contains(AppFilter.GAME),
+                    // Calculate how many items to show: (pagesLoaded * pageSize)
+                    limit = (paginationPage + 1) * pageSize,
+                ),
+            )
+
+            val customCount = result.counts.getValue(GameSource.CUSTOM_GAME)
+            val steamCount = result.counts.getValue(GameSource.STEAM)
+            val gogCount = result.counts.getValue(GameSource.GOG)
+            val epicCount = result.counts.getValue(GameSource.EPIC)
+            val amazonCount = result.counts.getValue(GameSource.AMAZON)
+
+            // Save game counts for skeleton loaders (only when not searching, to get accurate counts)
+            // These are the totals before filtering by source
+            if (currentState.searchQuery.isEmpty()) {
+                val gogInstalledCount = result.installedCounts.getValue(GameSource.GOG)
+                val epicInstalledCount = result.installedCounts.getValue(GameSource.EPIC)
+                val amazonInstalledCount = result.installedCounts.getValue(GameSource.AMAZON)
+                PrefManager.customGamesCount = customCount
+                PrefManager.steamGamesCount = steamCount
+                PrefManager.gogGamesCount = gogCount
+                PrefManager.gogInstalledGamesCount = gogInstalledCount
+                PrefManager.epicGamesCount = epicCount
+                PrefManager.epicInstalledGamesCount = epicInstalledCount
+                PrefManager.amazonInstalledGamesCount = amazonInstalledCount
+                Timber.tag("LibraryViewModel").d("Saved counts - Custom: $customCount, Steam: $steamCount, GOG: $gogCount, GOG installed: $gogInstalledCount, Epic: $epicCount, Epic installed: $epicInstalledCount, Amazon installed: $amazonInstalledCount")
             }
 
             // Total count for the current filter
-            val totalFound = combined.size
+            val totalFound = result.total
 
-            // Determine how many pages and slice the list for incremental loading
-            val pageSize = PrefManager.itemsPerPage
             // Update internal pagination state
             paginationCurrentPage = paginationPage
             lastPageInCurrentFilter = if (totalFound == 0) 0 else (totalFound - 1) / pageSize
-            // Calculate how many items to show: (pagesLoaded * pageSize)
-            val endIndex = min((paginationPage + 1) * pageSize, totalFound)
-            val pagedList = combined.take(endIndex)
+            val pagedList = result.items
 
             Timber.tag("LibraryViewModel").d("Filtered list size (with Custom Games): $totalFound")
 
@@ -658,12 +461,12 @@ class LibraryViewModel @Inject constructor(
                     totalAppsInFilter = totalFound,
                     isLoading = false, // Loading complete
                     // Per-source counts for tab badges (pre-source-filter totals)
-                    allCount = steamEntries.size + customEntries.size + gogEntries.size + epicEntries.size + amazonEntries.size,
-                    steamCount = steamEntries.size,
-                    gogCount = gogEntries.size,
-                    epicCount = epicEntries.size,
-                    amazonCount = amazonEntries.size,
-                    localCount = customEntries.size,
+                    allCount = steamCount + customCount + gogCount + epicCount + amazonCount,
+                    steamCount = steamCount,
+                    gogCount = gogCount,
+                    epicCount = epicCount,
+                    amazonCount = amazonCount,
+                    localCount = customCount,
                 )
             }
         }
@@ -508,9 +508,27 @@ class EpicAppScreen : BaseAppScreen() {
 
     override fun onUpdateClick(context: Context, libraryItem: LibraryItem) {
         Timber.tag(TAG).i("onUpdateClick: appId=${libraryItem.appId}")
-        // TODO: Implement update for Epic games
-        // Check Epic for newer version and download if available
-        Timber.tag(TAG).d("Update clicked for Epic game: ${libraryItem.appId}")
+        // Downloading an installed game diffs the Live manifest against the installed one and
+        // only fetches what changed, for the base game and its installed DLCs alike
+        CoroutineScope(Dispatchers.IO).launch {
+            val installPath = EpicService.getInstallPath(libraryItem.gameId)
+            if (installPath == null) {
+                Timber.tag(TAG).w("Update clicked for Epic game that is not installed: ${libraryItem.appId}")
+                return@launch
+            }
+            val dlcIds = EpicService.getDLCForGame(libraryItem.gameId).filter { it.isInstalled }.map { it.id }
+            val result = EpicService.downloadGame(context, libraryItem.gameId, dlcIds, installPath)
+            if (result.isFailure) {
+                Timber.e("Failed to start Epic game update: ${libraryItem.gameId} - ${result.exceptionOrNull()?.message}")
+                withContext(Dispatchers.Main) {
+                    android.widget.Toast.makeText(
+                        context,
+                        context.getString(R.string.epic_download_failed, result.exceptionOrNull()?.message ?: ""),
+                        android.widget.Toast.LENGTH_LONG,
+                    ).show()
+                }
+            }
+        }
     }
 
     override fun getExportFileExtension(): String = ".epic"
@@ -161,7 +161,9 @@ import kotlin.text.lowercase
 import com.winlator.PrefManager as WinlatorPrefManager
 
 // Always re-extract drivers and DXVK on every launch to handle cases of container corruption
-// where games randomly stop working. Set to false once corruption issues are resolved.
+// where games randomly stop working. Extraction goes through the per-directory extraction
+// ledger, so files that are still intact only cost a stat. Set to false once corruption
+// issues are resolved.
 private const val ALWAYS_REEXTRACT = true
 
 // Guard to prevent duplicate game_exited events when multiple exit triggers fire simultaneously
@@ -1174,6 +1176,7 @@ fun XServerScreen(
             }
             frameRating = FrameRating(context)
             frameRating?.setVisibility(View.GONE)
+            frameRating?.setFrameTimeRecorders(xServerView.getxServer().renderFrameTimes, xServerView.getxServer().presentFrameTimes)
 
             if (container.isShowFPS()) {
                 Timber.i("Attempting to show FPS")
@@ -2520,6 +2523,11 @@ private fun exit(winHandler: WinHandler?, environment: XEnvironment?, frameRatin
     frameRating?.let { rating ->
         container.putSessionMetadata("avg_fps", rating.avgFPS)
         container.putSessionMetadata("session_length_sec", rating.sessionLengthSec.toInt())
+        rating.frameTimeSnapshot?.takeIf { it.frameCount > 0 }?.let { frameTimes ->
+            container.putSessionMetadata("p99_frame_time_ms", frameTimes.getPercentileMs(99.0))
+            container.putSessionMetadata("low_1_fps", frameTimes.getLowFPS(1.0))
+            container.putSessionMetadata("stutter_count", frameTimes.stutterCount)
+        }
         container.saveData()
     }
 
@@ -3054,15 +3062,15 @@ private fun applyGeneralPatches(
         val downloaded = File(imageFs.getFilesDir(), "imagefs_patches_gamenative.tzst")
         Timber.i("Extracting imagefs_patches_gamenative.tzst")
         if (Arrays.asList<String?>(*context.getAssets().list("")).contains("imagefs_patches_gamenative.tzst") == true) {
-            TarCompressorUtils.extract(
+            TarCompressorUtils.extractIncremental(
                 TarCompressorUtils.Type.ZSTD,
-                context.assets,
+                context,
                 "imagefs_patches_gamenative.tzst",
                 rootDir,
                 onExtractFileListener,
             )
         } else if (downloaded.exists()){
-            TarCompressorUtils.extract(
+            TarCompressorUtils.extractIncremental(
                 TarCompressorUtils.Type.ZSTD,
                 downloaded,
                 rootDir,
@@ -3071,7 +3079,7 @@ private fun applyGeneralPatches(
         }
     } else {
         Timber.i("Extracting container_pattern_common.tzst")
-        TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, context.assets, "container_pattern_common.tzst", rootDir);
+        TarCompressorUtils.extractIncremental(TarCompressorUtils.Type.ZSTD, context, "container_pattern_common.tzst", rootDir, null);
         Timber.i("Attempting to extract _container_pattern.tzst with wine version " + container.wineVersion)
     }
     containerManager.extractContainerPatternFile(container.getWineVersion(), contentsManager, container.rootDir, null)
@@ -3083,7 +3091,7 @@ private fun applyGeneralPatches(
 }
 
 private fun refreshComponentsFiles(context: Context) {
-    TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, context.assets, "pulseaudio-gamenative.tzst", File(context.filesDir, "pulseaudio"))
+    TarCompressorUtils.extractIncremental(TarCompressorUtils.Type.ZSTD, context, "pulseaudio-gamenative.tzst", File(context.filesDir, "pulseaudio"), null)
 }
 
 private fun extractDXWrapperFiles(
@@ -3125,8 +3133,8 @@ private fun extractDXWrapperFiles(
             val shadersDir = File(rootDir, ImageFs.WINEPREFIX + "/drive_c/ProgramData/cnc-ddraw/Shaders")
             FileUtils.delete(shadersDir)
             FileUtils.copy(context, "$assetDir/Shaders", shadersDir)
-            TarCompressorUtils.extract(
-                TarCompressorUtils.Type.ZSTD, context.assets,
+            TarCompressorUtils.extractIncremental(
+                TarCompressorUtils.Type.ZSTD, context,
                 "$assetDir/ddraw.tzst", windowsDir, onExtractFileListener,
             )
         }
@@ -3137,8 +3145,8 @@ private fun extractDXWrapperFiles(
             val vortekLike = container.graphicsDriver == "vortek" || container.graphicsDriver == "adreno" || container.graphicsDriver == "sd-8-elite"
             val dxvkVersionForVkd3d = if (vortekLike && GPUHelper.vkGetApiVersionSafe() < GPUHelper.vkMakeVersion(1, 3, 0)) "1.10.3" else "2.4.1"
             Timber.i("Extracting VKD3D DX version for dxwrapper: $dxvkVersionForVkd3d")
-            TarCompressorUtils.extract(
-                TarCompressorUtils.Type.ZSTD, context.assets,
+            TarCompressorUtils.extractIncremental(
+                TarCompressorUtils.Type.ZSTD, context,
                 "dxwrapper/dxvk-${dxvkVersionForVkd3d}.tzst", windowsDir, onExtractFileListener,
             )
             if (profile != null) {
@@ -3148,9 +3156,9 @@ private fun extractDXWrapperFiles(
                 // Determine VKD3D version from state config
                 Timber.i("Extracting VKD3D D3D12 DLLs version: $dxwrapper")
 
-                TarCompressorUtils.extract(
+                TarCompressorUtils.extractIncremental(
                     TarCompressorUtils.Type.ZSTD,
-                    context.assets,
+                    context,
                     "dxwrapper/$dxwrapper.tzst",
                     windowsDir,
                     onExtractFileListener,
@@ -3166,14 +3174,14 @@ private fun extractDXWrapperFiles(
                 Timber.d("Applying user-defined DXVK content profile: " + dxwrapper)
                 contentsManager.applyContent(profile);
             } else {
-                TarCompressorUtils.extract(
-                    TarCompressorUtils.Type.ZSTD, context.assets,
+                TarCompressorUtils.extractIncremental(
+                    TarCompressorUtils.Type.ZSTD, context,
                     "dxwrapper/$dxwrapper.tzst", windowsDir, onExtractFileListener,
                 )
             }
-            TarCompressorUtils.extract(
+            TarCompressorUtils.extractIncremental(
                 TarCompressorUtils.Type.ZSTD,
-                context.assets,
+                context,
                 "dxwrapper/d8vk-${DefaultVersion.D8VK}.tzst",
                 windowsDir,
                 onExtractFileListener,
@@ -3307,8 +3315,8 @@ private fun extractWinComponentFiles(
             if (!container.wineVersion.contains("arm64ec") && identifier.contains("opengl") && useNative) continue
 
             if (useNative) {
-                TarCompressorUtils.extract(
-                    TarCompressorUtils.Type.ZSTD, context.assets,
+                TarCompressorUtils.extractIncremental(
+                    TarCompressorUtils.Type.ZSTD, context,
                     "wincomponents/$identifier.tzst", windowsDir, onExtractFileListener,
                 )
             } else {
@@ -3369,12 +3377,15 @@ private fun extractGraphicsDriverFiles(
         val configDir = imageFs.configDir
         val sentinel = File(configDir, ".current_graphics_driver")   // lives in shared tree
         val onDiskId = sentinel.takeIf { it.exists() }?.readText() ?: ""
-        val changed = ALWAYS_REEXTRACT || cacheId != container.getExtra("graphicsDriver") || cacheId != onDiskId
-        Timber.i("Changed is " + changed + " will re-extract drivers accordingly.")
+        val driverChanged = cacheId != container.getExtra("graphicsDriver") || cacheId != onDiskId
+        val changed = ALWAYS_REEXTRACT || driverChanged
+        Timber.i("Changed is " + changed + " (driver changed: " + driverChanged + ") will re-extract drivers accordingly.")
         val rootDir = imageFs.rootDir
         envVars.put("vblank_mode", "0")
 
-        if (changed) {
+        // Files of the previous driver only need clearing out when switching drivers; an
+        // unchanged driver is repaired file by file by the incremental extraction below
+        if (driverChanged) {
             FileUtils.delete(File(imageFs.lib32Dir, "libvulkan_freedreno.so"))
             FileUtils.delete(File(imageFs.lib64Dir, "libvulkan_freedreno.so"))
             FileUtils.delete(File(imageFs.lib64Dir, "libvulkan_vortek.so"))
@@ -3412,17 +3423,19 @@ private fun extractGraphicsDriverFiles(
             }
 
             if (changed) {
-                TarCompressorUtils.extract(
+                TarCompressorUtils.extractIncremental(
                     TarCompressorUtils.Type.ZSTD,
-                    context.assets,
+                    context,
                     "graphics_driver/turnip-${turnipVersion}.tzst",
                     rootDir,
+                    null,
                 )
-                TarCompressorUtils.extract(
+                TarCompressorUtils.extractIncremental(
                     TarCompressorUtils.Type.ZSTD,
-                    context.assets,
+                    context,
                     "graphics_driver/zink-${zinkVersion}.tzst",
                     rootDir,
+                    null,
                 )
             }
         } else if (graphicsDriver == "virgl") {
@@ -3433,9 +3446,10 @@ private fun extractGraphicsDriverFiles(
             envVars.put("MESA_GL_VERSION_OVERRIDE", "3.1")
             envVars.put("vblank_mode", "0")
             if (changed) {
-                TarCompressorUtils.extract(
-                    TarCompressorUtils.Type.ZSTD, context.assets,
+                TarCompressorUtils.extractIncremental(
+                    TarCompressorUtils.Type.ZSTD, context,
                     "graphics_driver/virgl-${virglVersion}.tzst", rootDir,
+                    null,
                 )
             }
         } else if (graphicsDriver == "vortek") {
@@ -3450,8 +3464,8 @@ private fun extractGraphicsDriverFiles(
                 envVars.put("WINE_D3D_CONFIG", "renderer=gdi")
             }
             if (changed) {
-                TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, context.assets, "graphics_driver/vortek-2.1.tzst", rootDir)
-                TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, context.assets, "graphics_driver/zink-22.2.5.tzst", rootDir)
+                TarCompressorUtils.extractIncremental(TarCompressorUtils.Type.ZSTD, context, "graphics_driver/vortek-2.1.tzst", rootDir, null)
+                TarCompressorUtils.extractIncremental(TarCompressorUtils.Type.ZSTD, context, "graphics_driver/zink-22.2.5.tzst", rootDir, null)
             }
         } else if (graphicsDriver == "adreno" || graphicsDriver == "sd-8-elite") {
             val assetZip = if (graphicsDriver == "adreno") "Adreno_${adrenoVersion}_adpkg.zip" else "SD8Elite_${sd8EliteVersion}.zip"
@@ -3492,8 +3506,8 @@ private fun extractGraphicsDriverFiles(
                 envVars.put("WINE_D3D_CONFIG", "renderer=gdi")
             }
             if (changed) {
-                TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, context.assets, "graphics_driver/vortek-2.1.tzst", rootDir)
-                TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, context.assets, "graphics_driver/zink-22.2.5.tzst", rootDir)
+                TarCompressorUtils.extractIncremental(TarCompressorUtils.Type.ZSTD, context, "graphics_driver/vortek-2.1.tzst", rootDir, null)
+                TarCompressorUtils.extractIncremental(TarCompressorUtils.Type.ZSTD, context, "graphics_driver/zink-22.2.5.tzst", rootDir, null)
             }
         }
     } else {
@@ -3548,26 +3562,28 @@ private fun extractGraphicsDriverFiles(
             if (mainWrapperSelection.lowercase(Locale.getDefault()).startsWith("wrapper")) {
                 val assetPath = "graphics_driver/" + mainWrapperSelection.lowercase(Locale.getDefault()) + ".tzst"
                 Log.d("GraphicsDriverExtraction", "WRAPPER selection changed or first boot. Extracting: " + assetPath)
-                val success: Boolean = TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, context.getAssets(), assetPath, rootDir)
+                val success: Boolean = TarCompressorUtils.extractIncremental(TarCompressorUtils.Type.ZSTD, context, assetPath, rootDir, null)
                 if (success) {
                     // After success, save the new version so we don't re-extract next time.
                     container.putExtra("lastInstalledMainWrapper", mainWrapperSelection)
                     container.saveData()
                 }
                 Log.d("XServerDisplayActivity", "First time container boot, extracting extra_libs.tzst")
-                TarCompressorUtils.extract(
+                TarCompressorUtils.extractIncremental(
                     TarCompressorUtils.Type.ZSTD,
-                    context.getAssets(),
+                    context,
                     "graphics_driver/extra_libs.tzst",
                     rootDir,
+                    null,
                 )
                 val renderer = GPUInformation.getRenderer(null, null)
                 if (container.wineVersion.contains("arm64ec") && renderer?.contains("Mali") != true) {
-                    TarCompressorUtils.extract(
+                    TarCompressorUtils.extractIncremental(
                         TarCompressorUtils.Type.ZSTD,
-                        context.assets,
+                        context,
                         "graphics_driver/zink_dlls" + ".tzst",
                         File(rootDir, ImageFs.WINEPREFIX + "/drive_c/windows"),
+                        null,
                     )
                 }
             }
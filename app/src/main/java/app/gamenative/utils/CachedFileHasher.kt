@@ -0,0 +1,100 @@
+package app.gamenative.utils
+
+import app.gamenative.data.FileHash
+import app.gamenative.db.dao.FileHashDao
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.nio.file.attribute.BasicFileAttributes
+import java.security.MessageDigest
+import kotlin.io.path.pathString
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.withContext
+
+/**
+ * SHA-1 hashing for save files backed by the `file_hash_cache` table.
+ *
+ * A file whose size and modification time still match its cached row is not read at
+ * all. Everything else is streamed through a fixed buffer, spread over up to
+ * [parallelism] threads, and the new hashes are written back in a single insert.
+ */
+class CachedFileHasher(
+    private val dao: FileHashDao,
+    private val parallelism: Int = Runtime.getRuntime().availableProcessors(),
+) {
+    companion object {
+        private const val BUFFER_SIZE = 64 * 1024
+
+        // Stays below SQLite's default limit of 999 bound parameters per statement
+        private const val QUERY_BATCH_SIZE = 500
+
+        fun sha1(path: Path): ByteArray {
+            val digest = MessageDigest.getInstance("SHA-1")
+            val buffer = ByteArray(BUFFER_SIZE)
+            Files.newInputStream(path).use { input ->
+                while (true) {
+                    val read = input.read(buffer)
+                    if (read < 0) break
+                    digest.update(buffer, 0, read)
+                }
+            }
+            return digest.digest()
+        }
+    }
+
+    /** Number of files that were actually read by the last [hashAll] call. */
+    @Volatile
+    var lastHashedCount = 0
+        private set
+
+    /**
+     * Returns the current [FileHash] of every path, keyed by the path as passed in.
+     */
+    suspend fun hashAll(paths: List<Path>): Map<Path, FileHash> = withContext(Dispatchers.IO) {
+        if (paths.isEmpty()) {
+            lastHashedCount = 0
+            return@withContext emptyMap()
+        }
+
+        val keys = paths.map { it.toAbsolutePath().normalize().pathString }
+        val cached = keys.distinct()
+            .chunked(QUERY_BATCH_SIZE)
+            .flatMap { dao.getByPaths(it) }
+            .associateBy { it.path }
+
+        val hashDispatcher = Dispatchers.IO.limitedParallelism(parallelism.coerceAtLeast(1))
+        val hashes = paths.indices.map { index ->
+            async(hashDispatcher) {
+                // Attributes are read before the contents so a write racing with the hash
+                // leaves a stale time behind and the file is hashed again next time.
+                val attributes = Files.readAttributes(paths[index], BasicFileAttributes::class.java)
+                val size = attributes.size()
+                val lastModified = attributes.lastModifiedTime().toMillis()
+
+                cached[keys[index]]?.takeIf { it.size == size && it.lastModified == lastModified }
+                    ?: FileHash(keys[index], size, lastModified, sha1(paths[index]))
+            }
+        }.awaitAll()
+
+        val updated = hashes.filterIndexed { index, hash -> cached[keys[index]] !== hash }
+        if (updated.isNotEmpty()) {
+            dao.insertAll(updated)
+        }
+        lastHashedCount = updated.size
+
+        paths.zip(hashes).toMap()
+    }
+
+    /**
+     * Drops the cached hashes of files under [root], or anywhere when it is null, that no
+     * longer exist, so rows of deleted saves and uninstalled games do not pile up.
+     */
+    suspend fun pruneMissing(root: Path? = null) = withContext(Dispatchers.IO) {
+        val prefix = root?.toAbsolutePath()?.normalize()?.pathString.orEmpty()
+        // LIKE also matches other cases and wildcards in the prefix, but only missing files are removed
+        val missing = dao.getPathsStartingWith(prefix).filter { !Files.exists(Paths.get(it)) }
+        missing.chunked(QUERY_BATCH_SIZE).forEach { dao.deleteByPaths(it) }
+    }
+}
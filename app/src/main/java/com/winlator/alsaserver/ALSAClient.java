@@ -1,10 +1,7 @@
 package com.winlator.alsaserver;
 
 import android.content.Context;
-import android.media.AudioFormat;
 import android.media.AudioManager;
-import android.media.AudioTrack;
-import android.util.Log;
 
 import com.winlator.container.Container;
 import com.winlator.core.KeyValueSet;
@@ -14,21 +11,25 @@ import com.winlator.xenvironment.ImageFs;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 public class ALSAClient {
     private static short framesPerBuffer = 256;
+    private static final long WRITE_RETRY_NANOS = TimeUnit.MICROSECONDS.toNanos(250);
     private ByteBuffer auxBuffer;
-    private int bufferCapacity;
     private int bufferSize;
     private byte frameBytes;
     protected final Options options;
-    private int position;
     private ByteBuffer sharedBuffer;
     private DataType dataType = DataType.U8;
-    private AudioTrack audioTrack = null;
+    private AudioSink.Factory sinkFactory = AudioTrackSink.FACTORY;
+    private ALSAMixer mixer = null;
+    private PCMRingBuffer ringBuffer = null;
+    private PCMOutput output = null;
     private byte channels = 2;
     private int sampleRate = 0;
-    private short previousUnderrunCount = 0;
+    private int droppedBytes = 0;
     private String containerVariant = null;
 
     public enum DataType {
@@ -49,6 +50,7 @@ public class ALSAClient {
         public short latencyMillis = 40;
         public byte performanceMode = 0;
         public float volume = 1.0f;
+        public boolean mixer = false;
 
         public static Options fromKeyValueSet(KeyValueSet config) {
             Options options;
@@ -69,6 +71,7 @@ public class ALSAClient {
             }
             options.volume = config.getFloat("volume", 1.0f);
             options.latencyMillis = (short) config.getInt("latencyMillis", 40);
+            options.mixer = config.getBoolean("mixer", false);
             return options;
         }
     }
@@ -84,13 +87,12 @@ public class ALSAClient {
             SysVSharedMemory.unmapSHMSegment(byteBuffer, byteBuffer.capacity());
             this.sharedBuffer = null;
         }
-        AudioTrack audioTrack = this.audioTrack;
-        if (audioTrack != null) {
-            audioTrack.pause();
-            this.audioTrack.flush();
-            this.audioTrack.release();
-            this.audioTrack = null;
+        PCMOutput output = this.output;
+        if (output != null) {
+            output.release();
+            this.output = null;
         }
+        this.ringBuffer = null;
     }
 
     public static int getPCMEncoding(DataType dataType) {
@@ -118,95 +120,117 @@ public class ALSAClient {
     }
 
     public void prepare() {
-        this.position = 0;
-        this.previousUnderrunCount = (short) 0;
+        this.droppedBytes = 0;
         this.frameBytes = (byte) (this.channels * this.dataType.byteCount);
         release();
         if (isValidBufferSize()) {
-            AudioFormat format = new AudioFormat.Builder().setEncoding(getPCMEncoding(this.dataType)).setSampleRate(this.sampleRate).setChannelMask(getChannelConfig(this.channels)).build();
-            AudioTrack build = new AudioTrack.Builder().setPerformanceMode(this.options.performanceMode).setAudioFormat(format).setBufferSizeInBytes(getBufferSizeInBytes()).build();
-            this.audioTrack = build;
-            this.bufferCapacity = build.getBufferCapacityInFrames();
-            float f = this.options.volume;
-            if (f != 1.0f) {
-                this.audioTrack.setVolume(f);
+            int bufferSizeInBytes = getBufferSizeInBytes();
+            // Twice the ALSA buffer, so a client that keeps to the reported pointer never has to wait
+            this.ringBuffer = new PCMRingBuffer(bufferSizeInBytes * 2);
+            if (this.mixer != null) {
+                this.output = this.mixer.addStream(this.ringBuffer, this.dataType, this.channels, this.sampleRate, this.options.volume);
             }
-            this.audioTrack.play();
+            else {
+                AudioSink sink = sinkFactory.create(this.dataType, this.channels, this.sampleRate, bufferSizeInBytes, this.options);
+                AudioOutputThread outputThread = new AudioOutputThread(this.ringBuffer, sink, this.frameBytes, framesPerBuffer);
+                outputThread.start();
+                this.output = outputThread;
+            }
+            this.output.play();
         }
     }
 
     public void start() {
-        AudioTrack audioTrack = this.audioTrack;
-        if (audioTrack != null && audioTrack.getPlayState() != 3) {
-            this.audioTrack.play();
+        PCMOutput output = this.output;
+        if (output != null) {
+            output.play();
         }
     }
 
     public void stop() {
-        AudioTrack audioTrack = this.audioTrack;
-        if (audioTrack != null) {
-            audioTrack.stop();
-            this.audioTrack.flush();
+        PCMOutput output = this.output;
+        if (output != null) {
+            output.drop();
         }
     }
 
     public void pause() {
-        AudioTrack audioTrack = this.audioTrack;
-        if (audioTrack != null) {
-            audioTrack.pause();
+        PCMOutput output = this.output;
+        if (output != null) {
+            output.pause();
         }
     }
 
+    /**
+     * Waits until everything written so far was played, like snd_pcm_drain. The wait is
+     * capped at the play time of the pending frames plus one buffer period, so a paused
+     * stream or a stalled sink cannot hold up the client for good.
+     */
     public void drain() {
-        AudioTrack audioTrack = this.audioTrack;
-        if (audioTrack != null) {
-            audioTrack.flush();
+        PCMRingBuffer ringBuffer = this.ringBuffer;
+        PCMOutput output = this.output;
+        if (ringBuffer == null || output == null || this.sampleRate <= 0) return;
+
+        long endFrames = ringBuffer.getWritePosition() / this.frameBytes;
+        long pendingFrames = endFrames - output.getPosition();
+        if (pendingFrames <= 0) return;
+        output.signal();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(pendingFrames + this.bufferSize) / this.sampleRate;
+        while (output.getPosition() < endFrames && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(WRITE_RETRY_NANOS);
         }
     }
 
+    /**
+     * Queues the data for the output thread without waiting for the sink. Only when the
+     * client writes past the reported pointer and the ring is full does this wait, for at
+     * most one buffer period, before the excess is dropped.
+     */
     public void writeDataToTrack(ByteBuffer data) {
-        DataType dataType = this.dataType;
-        if (dataType == DataType.S16LE || dataType == DataType.FLOATLE) {
-            data.order(ByteOrder.LITTLE_ENDIAN);
-        } else if (dataType == DataType.S16BE || dataType == DataType.FLOATBE) {
-            data.order(ByteOrder.BIG_ENDIAN);
-        }
-        if (this.audioTrack != null) {
+        PCMRingBuffer ringBuffer = this.ringBuffer;
+        if (ringBuffer != null) {
             data.position(0);
-            do {
-                try {
-                    int bytesWritten = this.audioTrack.write(data, data.remaining(), 0);
-                    if (bytesWritten < 0) {
-                        break;
-                    } else {
-                        increaseBufferSizeIfUnderrunOccurs();
-                    }
-                } catch (Exception e) {
+            long deadline = 0;
+            while (true) {
+                if (ringBuffer.write(data) > 0) this.output.signal();
+                if (!data.hasRemaining()) break;
+
+                long now = System.nanoTime();
+                if (deadline == 0) {
+                    deadline = now + TimeUnit.SECONDS.toNanos(this.bufferSize) / Math.max(1, this.sampleRate);
+                }
+                else if (now >= deadline) {
+                    this.droppedBytes += data.remaining();
+                    break;
                 }
-            } while (data.position() != data.limit());
-            this.position += data.position();
+                LockSupport.parkNanos(WRITE_RETRY_NANOS);
+            }
             data.rewind();
         }
     }
 
-    private void increaseBufferSizeIfUnderrunOccurs() {
-        int i;
-        int underrunCount = this.audioTrack.getUnderrunCount();
-        if (underrunCount > this.previousUnderrunCount && (i = this.bufferSize) < this.bufferCapacity) {
-            this.previousUnderrunCount = (short) underrunCount;
-            int i2 = i + framesPerBuffer;
-            this.bufferSize = i2;
-            this.audioTrack.setBufferSizeInFrames(i2);
-        }
-    }
-
     public int pointer() {
-        if (this.audioTrack != null) {
-            return this.position / this.frameBytes;
+        PCMOutput output = this.output;
+        if (output != null) {
+            return (int) output.getPosition();
         }
         return 0;
     }
 
+    /** Bytes dropped because the client wrote more than the ring could hold. */
+    public int getDroppedBytes() {
+        return this.droppedBytes;
+    }
+
+    public void setSinkFactory(AudioSink.Factory sinkFactory) {
+        this.sinkFactory = sinkFactory;
+    }
+
+    /** Streams prepared afterwards are played through the mixer instead of their own sink. */
+    public void setMixer(ALSAMixer mixer) {
+        this.mixer = mixer;
+    }
+
     public void setDataType(DataType dataType) {
         this.dataType = dataType;
     }
@@ -270,6 +294,10 @@ public class ALSAClient {
         return i % this.frameBytes == 0 && i > 0;
     }
 
+    public static short getFramesPerBuffer() {
+        return framesPerBuffer;
+    }
+
     public static void assignFramesPerBuffer(Context context) {
         try {
             AudioManager am = (AudioManager) context.getSystemService("audio");
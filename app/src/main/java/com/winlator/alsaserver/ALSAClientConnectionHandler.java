@@ -6,16 +6,24 @@ import com.winlator.xconnector.ConnectionHandler;
 public class ALSAClientConnectionHandler implements ConnectionHandler {
     private final ALSAClient.Options options;
     private final String containerVariant;
+    private final ALSAMixer mixer;
 
     public ALSAClientConnectionHandler(ALSAClient.Options options, String containerVariant) {
+        this(options, containerVariant, null);
+    }
+
+    public ALSAClientConnectionHandler(ALSAClient.Options options, String containerVariant, ALSAMixer mixer) {
         this.options = options;
         this.containerVariant = containerVariant;
+        this.mixer = mixer;
     }
 
     @Override
     public void handleNewConnection(Client client) {
         client.createIOStreams();
-        client.setTag(new ALSAClient(this.options, this.containerVariant));
+        ALSAClient alsaClient = new ALSAClient(this.options, this.containerVariant);
+        alsaClient.setMixer(this.mixer);
+        client.setTag(alsaClient);
     }
 
     @Override
@@ -0,0 +1,148 @@
+package com.winlator.alsaserver;
+
+import android.content.Context;
+import android.media.AudioManager;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays every ALSA stream through one stereo float sink instead of one AudioTrack per
+ * stream. A mixer thread mixes blocks of {@link #BLOCK_MILLIS} from all playing streams
+ * and is paced by the blocking writes to the sink.
+ */
+public class ALSAMixer {
+    public static final int CHANNELS = 2;
+    public static final int BLOCK_MILLIS = 10;
+    private static final long IDLE_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    private final int sampleRate;
+    private final int blockFrames;
+    private final AudioSink sink;
+    private final CopyOnWriteArrayList<MixerStream> streams = new CopyOnWriteArrayList<>();
+    private final float[] bus;
+    private final ByteBuffer outBuffer;
+    private final FloatBuffer outFloats;
+    private Thread thread;
+    private volatile boolean running = false;
+    private boolean sinkPlaying = false;
+    private long writtenFrames = 0;
+
+    public ALSAMixer(int sampleRate, ALSAClient.Options options, AudioSink.Factory sinkFactory) {
+        this.sampleRate = sampleRate;
+        this.blockFrames = sampleRate * BLOCK_MILLIS / 1000;
+        this.bus = new float[blockFrames * CHANNELS];
+        this.outBuffer = ByteBuffer.allocateDirect(bus.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        this.outFloats = outBuffer.asFloatBuffer();
+
+        // Stream volumes are applied while mixing
+        ALSAClient.Options sinkOptions = new ALSAClient.Options();
+        sinkOptions.performanceMode = options.performanceMode;
+        sinkOptions.latencyMillis = options.latencyMillis;
+        int bufferSizeInBytes = ALSAClient.latencyMillisToBufferSize(options.latencyMillis, CHANNELS, ALSAClient.DataType.FLOATLE, sampleRate);
+        this.sink = sinkFactory.create(ALSAClient.DataType.FLOATLE, CHANNELS, sampleRate, Math.max(bufferSizeInBytes, outBuffer.capacity() * 2), sinkOptions);
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getBlockFrames() {
+        return blockFrames;
+    }
+
+    public MixerStream addStream(PCMRingBuffer ringBuffer, ALSAClient.DataType dataType, int channels, int sampleRate, float volume) {
+        MixerStream stream = new MixerStream(this, ringBuffer, dataType, channels, sampleRate, volume);
+        streams.add(stream);
+        return stream;
+    }
+
+    void removeStream(MixerStream stream) {
+        streams.remove(stream);
+    }
+
+    void wakeUp() {
+        Thread thread = this.thread;
+        if (thread != null) LockSupport.unpark(thread);
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        thread = new Thread(this::run, "ALSAMixer");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        if (!running) return;
+        running = false;
+        sink.pause();
+        sink.flush();
+        try {
+            thread.join(100);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+        sink.release();
+    }
+
+    private void run() {
+        while (running) {
+            if (!hasPlayingStream()) {
+                if (sinkPlaying) {
+                    sink.pause();
+                    sinkPlaying = false;
+                }
+                LockSupport.parkNanos(this, IDLE_WAIT_NANOS);
+                continue;
+            }
+            if (!sinkPlaying) {
+                sink.play();
+                sinkPlaying = true;
+            }
+
+            mix(bus, blockFrames);
+            int sampleCount = blockFrames * CHANNELS;
+            for (int i = 0; i < sampleCount; i++) bus[i] = Math.max(-1.0f, Math.min(1.0f, bus[i]));
+            outFloats.clear();
+            outFloats.put(bus, 0, sampleCount);
+            outBuffer.position(0).limit(sampleCount * 4);
+
+            int bytesWritten = sink.write(outBuffer, sampleCount * 4);
+            if (bytesWritten > 0) writtenFrames += bytesWritten / (CHANNELS * 4);
+        }
+    }
+
+    private boolean hasPlayingStream() {
+        for (MixerStream stream : streams) {
+            if (stream.isPlaying()) return true;
+        }
+        return false;
+    }
+
+    /** Mixes {@code frames} frames of all playing streams into the interleaved stereo {@code bus}. */
+    public void mix(float[] bus, int frames) {
+        Arrays.fill(bus, 0, frames * CHANNELS, 0.0f);
+        long queuedFrames = Math.max(0, writtenFrames - sink.getPlaybackFramePosition());
+        for (MixerStream stream : streams) stream.mixInto(bus, frames, queuedFrames);
+    }
+
+    public static int getNativeSampleRate(Context context) {
+        try {
+            AudioManager am = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
+            int sampleRate = Integer.parseInt(am.getProperty(AudioManager.PROPERTY_OUTPUT_SAMPLE_RATE));
+            return sampleRate > 0 ? sampleRate : 48000;
+        }
+        catch (Exception e) {
+            return 48000;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.winlator.alsaserver;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drains the ring buffer of one ALSA stream into its sink, so blocking sink writes never
+ * hold up the request handler. The stream position is derived from what the sink reports
+ * as played, capped by what was actually handed to it.
+ */
+public class AudioOutputThread extends Thread implements PCMOutput {
+    private static final long IDLE_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+    private final PCMRingBuffer ringBuffer;
+    private final AudioSink sink;
+    private final int frameBytes;
+    private final ByteBuffer chunk;
+    private volatile boolean running = true;
+    private final AtomicLong flushPosition = new AtomicLong(-1);
+    private volatile long consumedBytes = 0;
+    private volatile long playedBaseFrames = 0;
+
+    public AudioOutputThread(PCMRingBuffer ringBuffer, AudioSink sink, int frameBytes, int chunkFrames) {
+        super("ALSAOutput");
+        this.ringBuffer = ringBuffer;
+        this.sink = sink;
+        this.frameBytes = frameBytes;
+        this.chunk = ByteBuffer.allocate(Math.max(1, chunkFrames) * frameBytes);
+        this.chunk.limit(0);
+        setDaemon(true);
+        setPriority(Thread.MAX_PRIORITY);
+    }
+
+    @Override
+    public void run() {
+        byte[] array = chunk.array();
+        while (running) {
+            long flushTo = flushPosition.get();
+            if (flushTo >= 0) {
+                ringBuffer.discardUpTo(flushTo);
+                chunk.limit(0);
+                sink.flush();
+                playedBaseFrames = ringBuffer.getReadPosition() / frameBytes;
+                consumedBytes = ringBuffer.getReadPosition();
+                flushPosition.compareAndSet(flushTo, -1);
+            }
+
+            if (!chunk.hasRemaining()) {
+                int available = ringBuffer.available();
+                int length = Math.min(available - available % frameBytes, array.length);
+                if (length == 0) {
+                    LockSupport.parkNanos(this, IDLE_WAIT_NANOS);
+                    continue;
+                }
+                chunk.position(0);
+                chunk.limit(ringBuffer.read(array, 0, length));
+            }
+
+            int bytesWritten = sink.write(chunk, chunk.remaining());
+            if (bytesWritten < 0) {
+                chunk.limit(0);
+                continue;
+            }
+            consumedBytes += bytesWritten;
+            // Nothing was taken, e.g. while paused: avoid spinning until the state changes
+            if (bytesWritten == 0) LockSupport.parkNanos(this, IDLE_WAIT_NANOS);
+        }
+    }
+
+    @Override
+    public void signal() {
+        LockSupport.unpark(this);
+    }
+
+    @Override
+    public void play() {
+        sink.play();
+    }
+
+    @Override
+    public void pause() {
+        sink.pause();
+    }
+
+    @Override
+    public void drop() {
+        sink.stop();
+        flushPosition.set(ringBuffer.getWritePosition());
+        signal();
+    }
+
+    @Override
+    public long getPosition() {
+        long pendingFlush = flushPosition.get();
+        if (pendingFlush >= 0) return pendingFlush / frameBytes;
+        long playedFrames = playedBaseFrames + sink.getPlaybackFramePosition();
+        return Math.min(consumedBytes / frameBytes, playedFrames);
+    }
+
+    @Override
+    public void release() {
+        running = false;
+        signal();
+        // Pausing and flushing returns a blocked write, so the thread can exit
+        sink.pause();
+        sink.flush();
+        try {
+            join(100);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sink.release();
+    }
+}
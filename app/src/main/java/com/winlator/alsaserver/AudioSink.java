@@ -0,0 +1,36 @@
+package com.winlator.alsaserver;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Destination of the PCM data of one ALSA stream. Only the stream's output thread writes
+ * to a sink; the playback controls may be called from the request handler thread.
+ */
+public interface AudioSink {
+    interface Factory {
+        AudioSink create(ALSAClient.DataType dataType, int channels, int sampleRate, int bufferSizeInBytes, ALSAClient.Options options);
+    }
+
+    /**
+     * Blocks until {@code size} bytes from the buffer position were queued, advancing the
+     * position past them. Returns the count, which is short when playback was paused or
+     * flushed meanwhile, or a negative error.
+     */
+    int write(ByteBuffer data, int size);
+
+    void play();
+
+    void pause();
+
+    void stop();
+
+    /** Drops data queued but not played yet; only effective while paused or stopped. */
+    void flush();
+
+    void release();
+
+    /** Frames played since the sink was created or last flushed. */
+    long getPlaybackFramePosition();
+
+    int getUnderrunCount();
+}
@@ -0,0 +1,92 @@
+package com.winlator.alsaserver;
+
+import android.media.AudioFormat;
+import android.media.AudioTrack;
+
+import java.nio.ByteBuffer;
+
+public class AudioTrackSink implements AudioSink {
+    public static final Factory FACTORY = AudioTrackSink::new;
+    private final AudioTrack audioTrack;
+    private final int bufferCapacity;
+    private final short framesPerBuffer;
+    private int bufferSize;
+    private int previousUnderrunCount = 0;
+
+    public AudioTrackSink(ALSAClient.DataType dataType, int channels, int sampleRate, int bufferSizeInBytes, ALSAClient.Options options) {
+        AudioFormat format = new AudioFormat.Builder()
+            .setEncoding(ALSAClient.getPCMEncoding(dataType))
+            .setSampleRate(sampleRate)
+            .setChannelMask(ALSAClient.getChannelConfig(channels))
+            .build();
+        audioTrack = new AudioTrack.Builder()
+            .setPerformanceMode(options.performanceMode)
+            .setAudioFormat(format)
+            .setBufferSizeInBytes(bufferSizeInBytes)
+            .build();
+        bufferCapacity = audioTrack.getBufferCapacityInFrames();
+        bufferSize = bufferSizeInBytes / (channels * dataType.byteCount);
+        framesPerBuffer = ALSAClient.getFramesPerBuffer();
+        if (options.volume != 1.0f) audioTrack.setVolume(options.volume);
+    }
+
+    @Override
+    public int write(ByteBuffer data, int size) {
+        int total = 0;
+        while (total < size) {
+            int bytesWritten = audioTrack.write(data, size - total, AudioTrack.WRITE_BLOCKING);
+            if (bytesWritten < 0) return total > 0 ? total : bytesWritten;
+            // A paused or flushed track returns early without taking anything
+            if (bytesWritten == 0) break;
+            total += bytesWritten;
+            increaseBufferSizeIfUnderrunOccurs();
+        }
+        return total;
+    }
+
+    private void increaseBufferSizeIfUnderrunOccurs() {
+        int underrunCount = audioTrack.getUnderrunCount();
+        if (underrunCount > previousUnderrunCount && bufferSize < bufferCapacity) {
+            previousUnderrunCount = underrunCount;
+            bufferSize += framesPerBuffer;
+            audioTrack.setBufferSizeInFrames(bufferSize);
+        }
+    }
+
+    @Override
+    public void play() {
+        if (audioTrack.getPlayState() != AudioTrack.PLAYSTATE_PLAYING) audioTrack.play();
+    }
+
+    @Override
+    public void pause() {
+        audioTrack.pause();
+    }
+
+    @Override
+    public void stop() {
+        audioTrack.stop();
+    }
+
+    @Override
+    public void flush() {
+        audioTrack.flush();
+    }
+
+    @Override
+    public void release() {
+        audioTrack.pause();
+        audioTrack.flush();
+        audioTrack.release();
+    }
+
+    @Override
+    public long getPlaybackFramePosition() {
+        return audioTrack.getPlaybackHeadPosition() & 0xffffffffL;
+    }
+
+    @Override
+    public int getUnderrunCount() {
+        return audioTrack.getUnderrunCount();
+    }
+}
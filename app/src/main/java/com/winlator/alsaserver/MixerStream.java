@@ -0,0 +1,219 @@
+package com.winlator.alsaserver;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One ALSA stream played through the {@link ALSAMixer}. The mixer thread pulls PCM from
+ * the stream's ring buffer, converts it to interleaved stereo float, resamples it to the
+ * mixer rate by linear interpolation and adds it to the mix bus.
+ */
+public class MixerStream implements PCMOutput {
+    private static final float U8_SCALE = 1.0f / 128.0f;
+    private static final float S16_SCALE = 1.0f / 32768.0f;
+    private final ALSAMixer mixer;
+    private final PCMRingBuffer ringBuffer;
+    private final ALSAClient.DataType dataType;
+    private final int channels;
+    private final int frameBytes;
+    /** Input frames consumed per output frame. */
+    private final double step;
+    private final boolean sameRate;
+    private volatile float volume;
+    private volatile boolean playing = false;
+    private final AtomicLong dropPosition = new AtomicLong(-1);
+    private volatile long position = 0;
+    private volatile int underrunCount = 0;
+
+    // Only touched by the mixer thread
+    private byte[] rawBuffer = new byte[0];
+    private short[] shortBuffer = new short[0];
+    private float[] floatBuffer = new float[0];
+    private float[] samples = new float[0];
+    private int bufferedFrames = 0;
+    private double phase = 0;
+    private long readFrames = 0;
+    private long minPosition = 0;
+
+    MixerStream(ALSAMixer mixer, PCMRingBuffer ringBuffer, ALSAClient.DataType dataType, int channels, int sampleRate, float volume) {
+        this.mixer = mixer;
+        this.ringBuffer = ringBuffer;
+        this.dataType = dataType;
+        this.channels = channels;
+        this.frameBytes = channels * dataType.byteCount;
+        this.step = (double) sampleRate / mixer.getSampleRate();
+        this.sameRate = sampleRate == mixer.getSampleRate();
+        this.volume = volume;
+    }
+
+    public void setVolume(float volume) {
+        this.volume = volume;
+    }
+
+    public float getVolume() {
+        return volume;
+    }
+
+    public int getUnderrunCount() {
+        return underrunCount;
+    }
+
+    boolean isPlaying() {
+        return playing || dropPosition.get() >= 0;
+    }
+
+    @Override
+    public void signal() {}
+
+    @Override
+    public void play() {
+        playing = true;
+        mixer.wakeUp();
+    }
+
+    @Override
+    public void pause() {
+        playing = false;
+    }
+
+    @Override
+    public void drop() {
+        playing = false;
+        dropPosition.set(ringBuffer.getWritePosition());
+        mixer.wakeUp();
+    }
+
+    @Override
+    public long getPosition() {
+        long pendingDrop = dropPosition.get();
+        return pendingDrop >= 0 ? pendingDrop / frameBytes : position;
+    }
+
+    @Override
+    public void release() {
+        mixer.removeStream(this);
+    }
+
+    /**
+     * Adds up to {@code frames} frames of this stream to the interleaved stereo
+     * {@code bus}. {@code queuedFrames} is what the mixer has written to its sink but not
+     * played yet, used to report the position of what is actually audible.
+     */
+    void mixInto(float[] bus, int frames, long queuedFrames) {
+        long dropTo = dropPosition.get();
+        if (dropTo >= 0) {
+            ringBuffer.discardUpTo(dropTo);
+            bufferedFrames = 0;
+            phase = 0;
+            readFrames = ringBuffer.getReadPosition() / frameBytes;
+            minPosition = readFrames;
+            position = readFrames;
+            dropPosition.compareAndSet(dropTo, -1);
+        }
+        if (!playing) return;
+
+        int neededFrames = sameRate ? frames : (int)(phase + (frames - 1) * step) + 2;
+        fill(neededFrames);
+
+        int produced;
+        int consumed;
+        float volume = this.volume;
+        if (sameRate) {
+            produced = Math.min(frames, bufferedFrames);
+            int sampleCount = produced * 2;
+            for (int i = 0; i < sampleCount; i++) bus[i] += samples[i] * volume;
+            consumed = produced;
+        }
+        else {
+            produced = 0;
+            double pos = phase;
+            while (produced < frames) {
+                int index = (int) pos;
+                if (index + 1 >= bufferedFrames) break;
+                float fraction = (float)(pos - index);
+                int in = index * 2;
+                int out = produced * 2;
+                float left = samples[in] + (samples[in + 2] - samples[in]) * fraction;
+                float right = samples[in + 1] + (samples[in + 3] - samples[in + 1]) * fraction;
+                bus[out] += left * volume;
+                bus[out + 1] += right * volume;
+                produced++;
+                pos += step;
+            }
+            consumed = Math.min((int) pos, bufferedFrames);
+            phase = pos - consumed;
+        }
+
+        if (produced < frames) underrunCount++;
+        if (consumed > 0) {
+            System.arraycopy(samples, consumed * 2, samples, 0, (bufferedFrames - consumed) * 2);
+            bufferedFrames -= consumed;
+        }
+
+        long mixedFrames = readFrames - bufferedFrames;
+        long audibleFrames = Math.max(minPosition, mixedFrames - (long)(queuedFrames * step));
+        if (audibleFrames > position) position = audibleFrames;
+    }
+
+    /** Reads and converts input until {@code frames} frames are buffered or the ring is empty. */
+    private void fill(int frames) {
+        int missing = Math.min(frames - bufferedFrames, ringBuffer.available() / frameBytes);
+        if (missing <= 0) return;
+
+        int byteCount = missing * frameBytes;
+        if (rawBuffer.length < byteCount) rawBuffer = new byte[byteCount];
+        ringBuffer.read(rawBuffer, 0, byteCount);
+        readFrames += missing;
+
+        int sampleCount = missing * channels;
+        if (floatBuffer.length < sampleCount) floatBuffer = new float[sampleCount];
+        convertToFloat(rawBuffer, sampleCount);
+
+        if (samples.length < (bufferedFrames + missing) * 2) {
+            float[] newSamples = new float[(bufferedFrames + missing) * 2];
+            System.arraycopy(samples, 0, newSamples, 0, bufferedFrames * 2);
+            samples = newSamples;
+        }
+
+        int out = bufferedFrames * 2;
+        if (channels == 2) {
+            System.arraycopy(floatBuffer, 0, samples, out, sampleCount);
+        }
+        else if (channels == 1) {
+            for (int i = 0; i < missing; i++) {
+                float sample = floatBuffer[i];
+                samples[out + i * 2] = sample;
+                samples[out + i * 2 + 1] = sample;
+            }
+        }
+        else {
+            // Keep front left and right of wider layouts
+            for (int i = 0; i < missing; i++) {
+                samples[out + i * 2] = floatBuffer[i * channels];
+                samples[out + i * 2 + 1] = floatBuffer[i * channels + 1];
+            }
+        }
+        bufferedFrames += missing;
+    }
+
+    private void convertToFloat(byte[] raw, int sampleCount) {
+        switch (dataType) {
+            case U8:
+                for (int i = 0; i < sampleCount; i++) floatBuffer[i] = ((raw[i] & 0xff) - 128) * U8_SCALE;
+                break;
+            case S16LE:
+            case S16BE:
+                if (shortBuffer.length < sampleCount) shortBuffer = new short[sampleCount];
+                ByteBuffer.wrap(raw, 0, sampleCount * 2).order(dataType == ALSAClient.DataType.S16LE ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN)
+                    .asShortBuffer().get(shortBuffer, 0, sampleCount);
+                for (int i = 0; i < sampleCount; i++) floatBuffer[i] = shortBuffer[i] * S16_SCALE;
+                break;
+            case FLOATLE:
+            case FLOATBE:
+                ByteBuffer.wrap(raw, 0, sampleCount * 4).order(dataType == ALSAClient.DataType.FLOATLE ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN)
+                    .asFloatBuffer().get(floatBuffer, 0, sampleCount);
+                break;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.winlator.alsaserver;
+
+/**
+ * Consumer side of the ring buffer of one prepared ALSA stream: either a dedicated
+ * {@link AudioOutputThread} with its own sink, or a stream of the shared {@link ALSAMixer}.
+ */
+public interface PCMOutput {
+    /** Called after new data was written to the ring buffer. */
+    void signal();
+
+    void play();
+
+    void pause();
+
+    /** Stops playback and discards everything written so far, like snd_pcm_drop. */
+    void drop();
+
+    /** Frames of the stream that were played, counting dropped frames as played. */
+    long getPosition();
+
+    void release();
+}
@@ -0,0 +1,74 @@
+package com.winlator.alsaserver;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Lock-free single-producer/single-consumer byte ring for PCM data. The request handler
+ * thread is the only writer and the stream's output thread the only reader; positions
+ * only grow, so {@code writePosition - readPosition} is always the amount buffered.
+ */
+public class PCMRingBuffer {
+    private final byte[] data;
+    private final int mask;
+    private volatile long writePosition = 0;
+    private volatile long readPosition = 0;
+
+    public PCMRingBuffer(int minCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(minCapacity, 2) - 1) << 1;
+        this.data = new byte[capacity];
+        this.mask = capacity - 1;
+    }
+
+    public int capacity() {
+        return data.length;
+    }
+
+    public int available() {
+        return (int)(writePosition - readPosition);
+    }
+
+    public int free() {
+        return data.length - available();
+    }
+
+    public long getWritePosition() {
+        return writePosition;
+    }
+
+    public long getReadPosition() {
+        return readPosition;
+    }
+
+    /** Producer only: copies as much of {@code src} as fits and returns the byte count. */
+    public int write(ByteBuffer src) {
+        long writePosition = this.writePosition;
+        int length = Math.min(src.remaining(), data.length - (int)(writePosition - readPosition));
+        if (length <= 0) return 0;
+
+        int offset = (int)(writePosition & mask);
+        int firstPart = Math.min(length, data.length - offset);
+        src.get(data, offset, firstPart);
+        if (firstPart < length) src.get(data, 0, length - firstPart);
+        this.writePosition = writePosition + length;
+        return length;
+    }
+
+    /** Consumer only: copies up to {@code length} buffered bytes into {@code dst}. */
+    public int read(byte[] dst, int dstOffset, int length) {
+        long readPosition = this.readPosition;
+        length = Math.min(length, (int)(writePosition - readPosition));
+        if (length <= 0) return 0;
+
+        int offset = (int)(readPosition & mask);
+        int firstPart = Math.min(length, data.length - offset);
+        System.arraycopy(data, offset, dst, dstOffset, firstPart);
+        if (firstPart < length) System.arraycopy(data, 0, dst, dstOffset + firstPart, length - firstPart);
+        this.readPosition = readPosition + length;
+        return length;
+    }
+
+    /** Consumer only: drops everything written before {@code position}. */
+    public void discardUpTo(long position) {
+        if (position > readPosition) readPosition = Math.min(position, writePosition);
+    }
+}
@@ -11,8 +11,10 @@ import android.util.Log;
 import app.gamenative.R;
 import com.winlator.box86_64.Box86_64Preset;
 import com.winlator.contents.ContentsManager;
+import com.winlator.core.BlobStore;
 import com.winlator.core.Callback;
 import com.winlator.core.FileUtils;
+import com.winlator.core.HardlinkCopier;
 import com.winlator.core.OnExtractFileListener;
 import com.winlator.core.TarCompressorUtils;
 import com.winlator.core.WineInfo;
@@ -28,19 +30,34 @@ import org.json.JSONObject;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 public class ContainerManager {
+    public enum DuplicationMode {COPY, SHARE_SYSTEM_FILES}
+    /**
+     * Files under drive_c/windows/Fonts that containers of one Wine build carry byte for byte.
+     * Wine only reads them. The DLLs and executables in system32 and syswow64 are not shared:
+     * wineboot and installers overwrite those in place, which would write through the link
+     * into every container sharing it.
+     */
+    private static final Set<String> SHAREABLE_EXTENSIONS = new HashSet<>(Arrays.asList("ttf", "ttc", "otf", "fon"));
     private final ArrayList<Container> containers = new ArrayList<>();
     private final File homeDir;
     private final Context context;
+    private final BlobStore blobStore;
 
     public ContainerManager(Context context) {
         this.context = context;
         File rootDir = ImageFs.find(context).getRootDir();
         homeDir = new File(rootDir, "home");
+        blobStore = new BlobStore(new File(context.getFilesDir(), "blobs"));
         loadContainers();
     }
 
@@ -147,10 +164,15 @@ public class ContainerManager {
     }
 
     public void duplicateContainerAsync(Container container, Runnable callback) {
+        duplicateContainerAsync(container, DuplicationMode.COPY, (report) -> callback.run());
+    }
+
+    /** Duplicates the container and reports how much of it ended up shared with the original. */
+    public void duplicateContainerAsync(Container container, DuplicationMode mode, Callback<HardlinkCopier.Report> callback) {
         final Handler handler = new Handler();
         Executors.newSingleThreadExecutor().execute(() -> {
-            duplicateContainer(container);
-            handler.post(callback);
+            HardlinkCopier.Report report = duplicateContainer(container, mode);
+            handler.post(() -> callback.call(report));
         });
     }
 
@@ -193,18 +215,22 @@ public class ContainerManager {
         return null;
     }
 
-    private void duplicateContainer(Container srcContainer) {
+    private HardlinkCopier.Report duplicateContainer(Container srcContainer, DuplicationMode mode) {
         // Generate a unique ID by appending (1), (2), etc. to the original ID
         String baseId = srcContainer.id;
         String newId = generateUniqueContainerId(baseId);
 
         File dstDir = new File(homeDir, ImageFs.USER+"-"+newId);
-        if (!dstDir.mkdirs()) return;
+        if (!dstDir.mkdirs()) return null;
 
-        if (!FileUtils.copy(srcContainer.getRootDir(), dstDir, (file) -> FileUtils.chmod(file, 0771))) {
+        HardlinkCopier copier = new HardlinkCopier(mode == DuplicationMode.SHARE_SYSTEM_FILES ? ContainerManager::isShareableFile : (file) -> false,
+            (file) -> FileUtils.chmod(file, 0771));
+        if (!copier.copy(srcContainer.getRootDir(), dstDir)) {
             FileUtils.delete(dstDir);
-            return;
+            return null;
         }
+        HardlinkCopier.Report report = copier.getReport();
+        Log.i("ContainerManager", "Duplicated container " + srcContainer.id + " as " + newId + ": " + report);
 
         Container dstContainer = new Container(newId);
         dstContainer.setRootDir(dstDir);
@@ -232,6 +258,15 @@ public class ContainerManager {
         dstContainer.saveData();
 
         containers.add(dstContainer);
+        return report;
+    }
+
+    private static boolean isShareableFile(File file) {
+        String path = file.getPath().toLowerCase(Locale.ENGLISH);
+        if (!path.contains("/drive_c/windows/fonts/")) return false;
+        String name = file.getName();
+        int index = name.lastIndexOf('.');
+        return index != -1 && SHAREABLE_EXTENSIONS.contains(name.substring(index + 1).toLowerCase(Locale.ENGLISH));
     }
 
     private String generateUniqueContainerId(String baseId) {
@@ -252,7 +287,15 @@ public class ContainerManager {
     }
 
     private void removeContainer(Container container) {
-        if (FileUtils.delete(container.getRootDir())) containers.remove(container);
+        if (FileUtils.delete(container.getRootDir())) {
+            containers.remove(container);
+            BlobStore.GcReport report = blobStore.gc();
+            Log.d("ContainerManager", "Blob store: removed " + report.removedBlobs + " unused blobs (" + report.removedBytes + " bytes), " + report.keptBlobs + " in use");
+        }
+    }
+
+    public BlobStore getBlobStore() {
+        return blobStore;
     }
 
     public ArrayList<Shortcut> loadShortcuts() {
@@ -368,10 +411,27 @@ public class ContainerManager {
     }
 
     public boolean extractContainerPatternFile(String wineVersion, ContentsManager contentsManager, File containerDir, OnExtractFileListener onExtractFileListener) {
+        // Fonts of the pattern are moved into the blob store and linked from there; the DLLs
+        // next to them are rewritten by Wine and stay private copies, as do the common DLLs
+        List<File> shareableFiles = new ArrayList<>();
+        OnExtractFileListener patternListener = (file, size) -> {
+            if (onExtractFileListener != null) file = onExtractFileListener.onExtractFile(file, size);
+            if (file != null && isShareableFile(file)) shareableFiles.add(file);
+            return file;
+        };
+        boolean result = extractContainerPatternFile(wineVersion, contentsManager, containerDir, patternListener, onExtractFileListener);
+        if (result && !shareableFiles.isEmpty()) {
+            int count = blobStore.dedupe(shareableFiles);
+            Log.d("Extraction", "shared " + count + " of " + shareableFiles.size() + " pattern fonts through the blob store");
+        }
+        return result;
+    }
+
+    private boolean extractContainerPatternFile(String wineVersion, ContentsManager contentsManager, File containerDir, OnExtractFileListener patternListener, OnExtractFileListener onExtractFileListener) {
         WineInfo wineInfo = WineInfo.fromIdentifier(context, contentsManager, wineVersion);
         if (WineInfo.isMainWineVersion(wineVersion)) {
             Log.d("Extraction", "extracting container_pattern_gamenative.tzst");
-            boolean result = TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, context.getAssets(), "container_pattern_gamenative.tzst", containerDir, onExtractFileListener);
+            boolean result = TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, context.getAssets(), "container_pattern_gamenative.tzst", containerDir, patternListener);
 
             if (result) {
                 try {
@@ -397,7 +457,7 @@ public class ContainerManager {
             }
             String containerPattern = wineVersion + "_container_pattern.tzst";
             Log.d("Extraction", "exctracting " + containerPattern);
-            boolean result = TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, context, containerPattern, containerDir, onExtractFileListener);
+            boolean result = TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, context, containerPattern, containerDir, patternListener);
             if (!result) {
                 result = extractPrefixPack(wineInfo.path, containerDir);
             }
@@ -0,0 +1,289 @@
+package com.winlator.core;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Content-addressed store for files that many containers carry byte for byte, like the
+ * fonts of the container pattern. Each distinct content is kept once as
+ * objects/xx/&lt;sha-256&gt; and containers get hardlinks to it. Only files Wine never writes
+ * belong here: a write in place would go through the link into every container.
+ *
+ * The refcount of a blob is its link count minus the store's own entry, so it always
+ * matches the containers that really use it: deleting a container, or detaching a file
+ * before rewriting it (see {@link FileUtils#detachHardlink(File)}), releases the reference
+ * without any bookkeeping that could drift. {@link #gc()} deletes blobs nobody links to.
+ * Blobs keep the permissions of the files they came from.
+ */
+public class BlobStore {
+    private static final String TAG = "BlobStore";
+    private final File objectsDir;
+    private final File tmpDir;
+    /** Installs share the lock, gc() takes it exclusively so it never deletes a blob being linked. */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    /** Hashes of source files by path, size and modification time, to avoid rehashing them per container. */
+    private final ConcurrentHashMap<String, String> sourceHashes = new ConcurrentHashMap<>();
+
+    public static class GcReport {
+        public int removedBlobs;
+        public long removedBytes;
+        public int keptBlobs;
+        public long keptBytes;
+    }
+
+    public BlobStore(File rootDir) {
+        objectsDir = new File(rootDir, "objects");
+        tmpDir = new File(rootDir, "tmp");
+    }
+
+    public File getBlobFile(String hash) {
+        return new File(objectsDir, hash.substring(0, 2)+"/"+hash);
+    }
+
+    public boolean contains(String hash) {
+        return getBlobFile(hash).isFile();
+    }
+
+    /** Containers linking to the blob, -1 if it is not stored or its link count cannot be read. */
+    public int getRefCount(String hash) {
+        File blobFile = getBlobFile(hash);
+        int linkCount = blobFile.isFile() ? FileUtils.getLinkCount(blobFile) : -1;
+        return linkCount > 0 ? linkCount - 1 : -1;
+    }
+
+    /** Stores a copy of {@code srcFile} and returns its hash. */
+    public String put(File srcFile) throws IOException {
+        lock.readLock().lock();
+        try {
+            return putLocked(srcFile, false);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Places the content of {@code srcFile} at {@code dstFile} as a link to its blob, copying
+     * it where linking is not possible. {@code srcFile} itself is left alone.
+     */
+    public boolean install(File srcFile, File dstFile) {
+        if (!srcFile.isFile()) return false;
+        lock.readLock().lock();
+        try {
+            String hash = putLocked(srcFile, false);
+            return link(hash, dstFile);
+        }
+        catch (IOException e) {
+            Log.w(TAG, "Failed to install " + srcFile + " from the store: " + e);
+            return FileUtils.copy(srcFile, dstFile);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces freshly written files with links to their blobs; content the store does not
+     * have yet is taken over by linking the file itself into it. Returns how many files are
+     * now shared.
+     */
+    public int dedupe(Collection<File> files) {
+        int count = 0;
+        lock.readLock().lock();
+        try {
+            for (File file : files) {
+                if (!file.isFile() || FileUtils.isSymlink(file) || FileUtils.getLinkCount(file) != 1) continue;
+                try {
+                    String hash = putLocked(file, true);
+                    if (link(hash, file)) count++;
+                }
+                catch (IOException e) {
+                    Log.w(TAG, "Failed to dedupe " + file + ": " + e);
+                }
+            }
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+        return count;
+    }
+
+    private String putLocked(File srcFile, boolean adopt) throws IOException {
+        String sourceKey = srcFile.getAbsolutePath()+"\t"+srcFile.length()+"\t"+srcFile.lastModified();
+        String hash = adopt ? hash(srcFile) : sourceHashes.get(sourceKey);
+        if (hash == null) hash = hash(srcFile);
+        File blobFile = getBlobFile(hash);
+
+        if (!blobFile.isFile()) {
+            File parent = blobFile.getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) throw new IOException("Cannot create " + parent);
+
+            File stagedFile = srcFile;
+            if (!adopt) {
+                if (!tmpDir.isDirectory()) tmpDir.mkdirs();
+                stagedFile = FileUtils.createTempFile(tmpDir, "blob");
+                String stagedHash;
+                try (InputStream inStream = new FileInputStream(srcFile);
+                     OutputStream outStream = new FileOutputStream(stagedFile)) {
+                    stagedHash = hash(inStream, outStream);
+                }
+                // Never store content under the name of what the file held a moment ago
+                if (!hash.equals(stagedHash)) {
+                    stagedFile.delete();
+                    throw new IOException(srcFile + " changed while being stored");
+                }
+            }
+
+            try {
+                // link() fails if another thread stored the same content first, rename() would replace it
+                Files.createLink(blobFile.toPath(), stagedFile.toPath());
+            }
+            catch (FileAlreadyExistsException e) {}
+            finally {
+                if (!adopt) stagedFile.delete();
+            }
+        }
+
+        if (!adopt) sourceHashes.put(sourceKey, hash);
+        return hash;
+    }
+
+    private boolean link(String hash, File dstFile) throws IOException {
+        File blobFile = getBlobFile(hash);
+        // rename() between two links of one inode is a no-op that would leave the temp link behind
+        if (dstFile.exists() && Files.isSameFile(dstFile.toPath(), blobFile.toPath())) return true;
+        File parent = dstFile.getParentFile();
+        if (parent != null && !parent.isDirectory()) parent.mkdirs();
+
+        // Link next to the target and rename over it, so the target is never missing
+        File tempFile = FileUtils.createTempFile(parent, dstFile.getName());
+        try {
+            Files.createLink(tempFile.toPath(), blobFile.toPath());
+        }
+        catch (IOException | UnsupportedOperationException e) {
+            return FileUtils.copy(blobFile, dstFile);
+        }
+        if (!tempFile.renameTo(dstFile)) {
+            tempFile.delete();
+            return false;
+        }
+        return true;
+    }
+
+    /** Deletes blobs that no container links to any more, and leftovers of interrupted stores. */
+    public GcReport gc() {
+        GcReport report = new GcReport();
+        lock.writeLock().lock();
+        try {
+            FileUtils.clear(tmpDir);
+            File[] buckets = objectsDir.listFiles();
+            if (buckets == null) return report;
+            for (File bucket : buckets) {
+                File[] blobFiles = bucket.listFiles();
+                if (blobFiles == null) continue;
+                for (File blobFile : blobFiles) {
+                    long length = blobFile.length();
+                    int linkCount = FileUtils.getLinkCount(blobFile);
+                    // A blob whose references cannot be counted may still be in use
+                    if (linkCount < 1) Log.w(TAG, "Keeping " + blobFile.getName() + ", its link count cannot be read");
+                    if (linkCount == 1 && blobFile.delete()) {
+                        report.removedBlobs++;
+                        report.removedBytes += length;
+                    }
+                    else {
+                        report.keptBlobs++;
+                        report.keptBytes += length;
+                    }
+                }
+                String[] remaining = bucket.list();
+                if (remaining != null && remaining.length == 0) bucket.delete();
+            }
+            sourceHashes.clear();
+            return report;
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rehashes every blob and evicts the ones whose content no longer matches their name,
+     * e.g. because something wrote through a link. Containers keep their current files;
+     * later installs store the content afresh. Returns the evicted hashes.
+     */
+    public List<String> verify() {
+        List<String> corrupted = new ArrayList<>();
+        lock.writeLock().lock();
+        try {
+            File[] buckets = objectsDir.listFiles();
+            if (buckets == null) return corrupted;
+            for (File bucket : buckets) {
+                File[] blobFiles = bucket.listFiles();
+                if (blobFiles == null) continue;
+                for (File blobFile : blobFiles) {
+                    String hash = blobFile.getName();
+                    boolean valid;
+                    try {
+                        valid = hash.equals(hash(blobFile));
+                    }
+                    catch (IOException e) {
+                        valid = false;
+                    }
+                    if (!valid) {
+                        Log.w(TAG, "Evicting corrupted blob " + hash);
+                        blobFile.delete();
+                        corrupted.add(hash);
+                    }
+                }
+            }
+            if (!corrupted.isEmpty()) sourceHashes.clear();
+            return corrupted;
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public static String hash(File file) throws IOException {
+        try (InputStream inStream = new FileInputStream(file)) {
+            return hash(inStream, null);
+        }
+    }
+
+    /** SHA-256 of the stream as hex, copying it to {@code outStream} on the way if one is given. */
+    private static String hash(InputStream inStream, OutputStream outStream) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+
+        byte[] buffer = new byte[StreamUtils.BUFFER_SIZE];
+        int amountRead;
+        while ((amountRead = inStream.read(buffer)) != -1) {
+            digest.update(buffer, 0, amountRead);
+            if (outStream != null) outStream.write(buffer, 0, amountRead);
+        }
+
+        StringBuilder sb = new StringBuilder(64);
+        for (byte b : digest.digest()) sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        return sb.toString();
+    }
+}
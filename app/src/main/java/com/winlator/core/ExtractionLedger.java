@@ -0,0 +1,251 @@
+package com.winlator.core;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Remembers what each archive extracted into a directory so extracting the same archive
+ * again only needs a stat pass over its files instead of rewriting all of them.
+ *
+ * The ledger is stored in the destination directory itself. Every archive has a record
+ * tagged with an identity string, and a record is only trusted while that identity still
+ * matches. Files are compared by size and modification time; only when the time moved
+ * but the size did not is the content checksummed again, to tell a touch from a change.
+ */
+public class ExtractionLedger {
+    public static final String FILE_NAME = ".extraction_ledger";
+    private static final String ARCHIVE_PREFIX = "#archive\t";
+    private static final Map<String, Object> locks = new ConcurrentHashMap<>();
+
+    public static class Entry {
+        public static final char TYPE_FILE = 'f';
+        public static final char TYPE_DIRECTORY = 'd';
+        public static final char TYPE_SYMLINK = 'l';
+
+        public final char type;
+        public final String path;
+        public final long size;
+        public long lastModified;
+        public final long crc;
+        public final String linkTarget;
+
+        private Entry(char type, String path, long size, long lastModified, long crc, String linkTarget) {
+            this.type = type;
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.crc = crc;
+            this.linkTarget = linkTarget;
+        }
+
+        public static Entry file(String path, long size, long lastModified, long crc) {
+            return new Entry(TYPE_FILE, path, size, lastModified, crc, null);
+        }
+
+        public static Entry directory(String path) {
+            return new Entry(TYPE_DIRECTORY, path, 0, 0, 0, null);
+        }
+
+        public static Entry symlink(String path, String linkTarget) {
+            return new Entry(TYPE_SYMLINK, path, 0, 0, 0, linkTarget);
+        }
+    }
+
+    public static class Record {
+        public final String identity;
+        /** How long the last full extraction took, used to report the time a verification saved. */
+        public long extractMillis;
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+
+        public Record(String identity) {
+            this.identity = identity;
+        }
+
+        public void put(Entry entry) {
+            entries.put(entry.path, entry);
+        }
+
+        public Collection<Entry> getEntries() {
+            return entries.values();
+        }
+    }
+
+    private final File destination;
+    private final File ledgerFile;
+    private final LinkedHashMap<String, Record> records = new LinkedHashMap<>();
+    private boolean modified;
+
+    private ExtractionLedger(File destination) {
+        this.destination = destination;
+        this.ledgerFile = new File(destination, FILE_NAME);
+    }
+
+    /** Lock that serializes extractions into the same destination directory. */
+    public static Object lockFor(File destination) {
+        return locks.computeIfAbsent(destination.getAbsolutePath(), (path) -> new Object());
+    }
+
+    public static ExtractionLedger load(File destination) {
+        ExtractionLedger ledger = new ExtractionLedger(destination);
+        if (!ledger.ledgerFile.isFile()) return ledger;
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(ledger.ledgerFile))) {
+            Record record = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(ARCHIVE_PREFIX)) {
+                    String[] parts = line.substring(ARCHIVE_PREFIX.length()).split("\t", 3);
+                    record = new Record(parts[2]);
+                    record.extractMillis = Long.parseLong(parts[1]);
+                    ledger.records.put(parts[0], record);
+                }
+                else if (record != null && !line.isEmpty()) {
+                    String[] parts = line.split("\t");
+                    switch (parts[0].charAt(0)) {
+                        case Entry.TYPE_FILE:
+                            record.put(Entry.file(parts[4], Long.parseLong(parts[1]), Long.parseLong(parts[2]), Long.parseLong(parts[3], 16)));
+                            break;
+                        case Entry.TYPE_DIRECTORY:
+                            record.put(Entry.directory(parts[1]));
+                            break;
+                        case Entry.TYPE_SYMLINK:
+                            record.put(Entry.symlink(parts[2], parts[1]));
+                            break;
+                    }
+                }
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            // A damaged ledger only costs a full extraction
+            ledger.records.clear();
+        }
+        return ledger;
+    }
+
+    /** Returns the record of the archive, or null if there is none for this identity. */
+    public Record getRecord(String archiveKey, String identity) {
+        Record record = records.get(archiveKey);
+        return record != null && record.identity.equals(identity) ? record : null;
+    }
+
+    public void putRecord(String archiveKey, Record record) {
+        records.put(archiveKey, record);
+        modified = true;
+    }
+
+    public void removeRecord(String archiveKey) {
+        if (records.remove(archiveKey) != null) modified = true;
+    }
+
+    /** Path stored in the ledger: relative to the destination when inside it, absolute otherwise. */
+    public String pathOf(File file) {
+        String root = destination.getAbsolutePath() + File.separator;
+        String path = file.getAbsolutePath();
+        return path.startsWith(root) ? path.substring(root.length()) : path;
+    }
+
+    public File resolve(String path) {
+        File file = new File(path);
+        return file.isAbsolute() ? file : new File(destination, path);
+    }
+
+    /**
+     * Stats every entry of the record and returns the paths that are missing or differ
+     * from what was extracted. Files that were only touched get their new time recorded.
+     */
+    public Set<String> findDivergent(Record record) {
+        Set<String> divergent = new HashSet<>();
+        for (Entry entry : record.getEntries()) {
+            File file = resolve(entry.path);
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                switch (entry.type) {
+                    case Entry.TYPE_DIRECTORY:
+                        if (!attributes.isDirectory()) divergent.add(entry.path);
+                        break;
+                    case Entry.TYPE_SYMLINK:
+                        if (!attributes.isSymbolicLink() || !entry.linkTarget.equals(Files.readSymbolicLink(file.toPath()).toString())) {
+                            divergent.add(entry.path);
+                        }
+                        break;
+                    default:
+                        long lastModified = attributes.lastModifiedTime().toMillis();
+                        if (!attributes.isRegularFile() || attributes.size() != entry.size) {
+                            divergent.add(entry.path);
+                        }
+                        else if (lastModified != entry.lastModified) {
+                            if (crc32(file) == entry.crc) {
+                                entry.lastModified = lastModified;
+                                modified = true;
+                            }
+                            else divergent.add(entry.path);
+                        }
+                        break;
+                }
+            }
+            catch (IOException e) {
+                divergent.add(entry.path);
+            }
+        }
+        return divergent;
+    }
+
+    public void save() {
+        if (!modified) return;
+        File tempFile = new File(destination, FILE_NAME + ".tmp");
+        try {
+            try (BufferedWriter writer = new BufferedWriter(new FileWriter(tempFile))) {
+                for (Map.Entry<String, Record> archive : records.entrySet()) {
+                    Record record = archive.getValue();
+                    writer.write(ARCHIVE_PREFIX + archive.getKey() + "\t" + record.extractMillis + "\t" + record.identity + "\n");
+                    for (Entry entry : record.getEntries()) {
+                        switch (entry.type) {
+                            case Entry.TYPE_FILE:
+                                writer.write(entry.type + "\t" + entry.size + "\t" + entry.lastModified + "\t" + Long.toHexString(entry.crc) + "\t" + entry.path + "\n");
+                                break;
+                            case Entry.TYPE_DIRECTORY:
+                                writer.write(entry.type + "\t" + entry.path + "\n");
+                                break;
+                            case Entry.TYPE_SYMLINK:
+                                writer.write(entry.type + "\t" + entry.linkTarget + "\t" + entry.path + "\n");
+                                break;
+                        }
+                    }
+                }
+            }
+            Files.move(tempFile.toPath(), ledgerFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            modified = false;
+        }
+        catch (IOException e) {
+            tempFile.delete();
+            ledgerFile.delete();
+        }
+    }
+
+    public static long crc32(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[StreamUtils.BUFFER_SIZE];
+        try (InputStream inStream = new FileInputStream(file)) {
+            int amountRead;
+            while ((amountRead = inStream.read(buffer)) != -1) crc.update(buffer, 0, amountRead);
+        }
+        return crc.getValue();
+    }
+}
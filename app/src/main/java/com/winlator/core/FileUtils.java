@@ -26,6 +26,7 @@ import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
@@ -78,6 +79,7 @@ public abstract class FileUtils {
     }
 
     public static boolean write(File file, byte[] data) {
+        detachHardlink(file);
         try (OutputStream os = new FileOutputStream(file)) {
             os.write(data, 0, data.length);
             return true;
@@ -149,6 +151,49 @@ public abstract class FileUtils {
         return Files.isSymbolicLink(file.toPath());
     }
 
+    /**
+     * Number of directory entries sharing the file's inode, or -1 if it cannot be told.
+     * Callers treat -1 like a shared file.
+     */
+    public static int getLinkCount(File file) {
+        try {
+            return (int)Os.lstat(file.getPath()).st_nlink;
+        }
+        catch (ErrnoException e) {
+            return -1;
+        }
+        catch (RuntimeException e) {
+            // android.system.Os is only a stub off the device, as in JVM unit tests
+            try {
+                return (Integer)Files.getAttribute(file.toPath(), "unix:nlink", LinkOption.NOFOLLOW_LINKS);
+            }
+            catch (IOException | RuntimeException e2) {
+                return -1;
+            }
+        }
+    }
+
+    /** Unlinks a hardlink shared with another tree before the file is written anew, leaving the other copy intact. */
+    public static void detachHardlink(File file) {
+        if (file.isFile() && getLinkCount(file) != 1) file.delete();
+    }
+
+    /** Gives a shared hardlink a private copy of its data before it is modified in place. */
+    public static boolean unshare(File file) {
+        if (!file.isFile() || getLinkCount(file) == 1) return true;
+        File tempFile = createTempFile(file.getParentFile(), file.getName());
+        try {
+            Files.copy(file.toPath(), tempFile.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        }
+        catch (IOException e) {
+            tempFile.delete();
+            Log.e("FileUtils", "Failed to unshare " + file.getAbsolutePath() + ": " + e);
+            return false;
+        }
+    }
+
     public static boolean delete(File targetFile) {
         if (targetFile == null) return false;
         if (targetFile.isDirectory()) {
@@ -202,6 +247,7 @@ public abstract class FileUtils {
             File parent = dstFile.getParentFile();
             if (!srcFile.exists() || (parent != null && !parent.exists() && !parent.mkdirs())) return false;
 
+            detachHardlink(dstFile);
             try {
                 FileChannel inChannel = (new FileInputStream(srcFile)).getChannel();
                 FileChannel outChannel = (new FileOutputStream(dstFile)).getChannel();
@@ -282,10 +328,8 @@ public abstract class FileUtils {
     }
 
     public static void chmod(File file, int mode) {
-        Log.d("FileUtils", "Attempting to chmod " + file.getAbsolutePath());
         try {
             Os.chmod(file.getAbsolutePath(), mode);
-            Log.d("FileUtils", "Successfully chmod-ed " + file.getAbsolutePath());
         }
         catch (ErrnoException e) {
             Log.e("FileUtils", "Failed to chmod " + file.getAbsolutePath() + ": " + e);
@@ -475,6 +519,7 @@ public abstract class FileUtils {
     }
 
     public static boolean writeToBinaryFile(String filename, int position, int data) {
+        if (!unshare(new File(filename))) return false;
         try (RandomAccessFile file = new RandomAccessFile(filename, "rw")) {
             file.seek(position);
             file.write(data);
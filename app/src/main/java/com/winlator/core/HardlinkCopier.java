@@ -0,0 +1,124 @@
+package com.winlator.core;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Locale;
+
+/**
+ * Copies a directory tree like {@link FileUtils#copy(File, File, Callback)}, but files
+ * accepted by the filter are hardlinked to the source instead of copied, so both trees share
+ * one inode and the data is stored once. Our own writers that change them in place call
+ * {@link FileUtils#unshare(File)} first, and full rewrites go through
+ * {@link FileUtils#detachHardlink(File)}. Wine and the installers it runs write in place
+ * behind our back, so the filter must only accept files they never write. Where a link
+ * cannot be created (another filesystem, no permission) the file is copied.
+ */
+public class HardlinkCopier {
+    private final FileFilter shareableFilter;
+    private final Callback<File> callback;
+    private final Report report = new Report();
+
+    public static class Report {
+        public int linkedFiles;
+        public long linkedBytes;
+        public int copiedFiles;
+        public long copiedBytes;
+        public int failedLinks;
+
+        public long getTotalBytes() {
+            return linkedBytes + copiedBytes;
+        }
+
+        /** Share of the bytes that is stored only once. */
+        public float getDedupRatio() {
+            long totalBytes = getTotalBytes();
+            return totalBytes > 0 ? (float)linkedBytes / totalBytes : 0;
+        }
+
+        public String toJson() {
+            return String.format(Locale.ENGLISH,
+                "{\"linked_files\": %d, \"linked_bytes\": %d, \"copied_files\": %d, \"copied_bytes\": %d, \"failed_links\": %d, \"dedup_ratio\": %.3f}",
+                linkedFiles, linkedBytes, copiedFiles, copiedBytes, failedLinks, getDedupRatio());
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ENGLISH, "%d files shared (%s), %d copied (%s), %d links failed",
+                linkedFiles, StringUtils.formatBytes(linkedBytes), copiedFiles, StringUtils.formatBytes(copiedBytes), failedLinks);
+        }
+    }
+
+    /**
+     * @param shareableFilter accepts the regular files to hardlink
+     * @param callback called for every created directory and copied file, not for links
+     */
+    public HardlinkCopier(FileFilter shareableFilter, Callback<File> callback) {
+        this.shareableFilter = shareableFilter;
+        this.callback = callback;
+    }
+
+    public Report getReport() {
+        return report;
+    }
+
+    public boolean copy(File srcFile, File dstFile) {
+        if (FileUtils.isSymlink(srcFile)) return true;
+        if (srcFile.isDirectory()) {
+            if (!dstFile.exists() && !dstFile.mkdirs()) return false;
+            if (callback != null) callback.call(dstFile);
+
+            String[] filenames = srcFile.list();
+            if (filenames != null) {
+                for (String filename : filenames) {
+                    if (!copy(new File(srcFile, filename), new File(dstFile, filename))) return false;
+                }
+            }
+            return true;
+        }
+
+        long length = srcFile.length();
+        if (shareableFilter.accept(srcFile)) {
+            try {
+                Files.createLink(dstFile.toPath(), srcFile.toPath());
+                report.linkedFiles++;
+                report.linkedBytes += length;
+                return true;
+            }
+            catch (IOException | UnsupportedOperationException | SecurityException e) {
+                report.failedLinks++;
+            }
+        }
+
+        if (!FileUtils.copy(srcFile, dstFile, callback)) return false;
+        report.copiedFiles++;
+        report.copiedBytes += length;
+        return true;
+    }
+
+    /** Reports how much of an existing tree is shared with other trees through hardlinks. */
+    public static Report scan(File dir) {
+        Report report = new Report();
+        scan(dir, report);
+        return report;
+    }
+
+    private static void scan(File file, Report report) {
+        if (FileUtils.isSymlink(file)) return;
+        if (file.isDirectory()) {
+            File[] files = file.listFiles();
+            if (files != null) {
+                for (File child : files) scan(child, report);
+            }
+        }
+        else if (FileUtils.getLinkCount(file) != 1) {
+            report.linkedFiles++;
+            report.linkedBytes += file.length();
+        }
+        else {
+            report.copiedFiles++;
+            report.copiedBytes += file.length();
+        }
+    }
+}
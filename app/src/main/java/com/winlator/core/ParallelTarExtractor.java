@@ -0,0 +1,424 @@
+package com.winlator.core;
+
+import android.util.Log;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * Tar extraction engine used by {@link TarCompressorUtils}.
+ *
+ * The thread calling {@link #extract} only decompresses and parses the archive; creating,
+ * writing and chmod-ing regular files is handed to a shared pool of writer threads. Small
+ * files are read whole into pooled buffers and written by a single task, larger ones are
+ * split into chunks written at their offsets, so writer tasks never wait on the reader.
+ * Independent archives can be extracted side by side through {@link #submit}.
+ */
+public class ParallelTarExtractor {
+    private static final String TAG = "TarCompressorUtils";
+    /** Files up to this size are buffered completely and written by one task. */
+    private static final int SMALL_FILE_LIMIT = 16 * StreamUtils.BUFFER_SIZE;
+    /** Buffers a single extraction may have in flight; bounds memory and gives back-pressure. */
+    private static final int BUFFERS_PER_ARCHIVE = 48;
+    private static final Set<PosixFilePermission> FILE_PERMISSIONS = PosixFilePermissions.fromString("rwxrwx--x");
+
+    private final int archiveParallelism;
+    private final int writerThreads;
+    private final ExecutorService archiveExecutor;
+    private final ExecutorService writerExecutor;
+    private final ArrayBlockingQueue<byte[]> spareBuffers;
+
+    /**
+     * @param archiveParallelism how many archives {@link #submit} extracts at the same time
+     * @param writerThreads threads writing files; 0 writes on the extracting thread itself
+     */
+    public ParallelTarExtractor(int archiveParallelism, int writerThreads) {
+        this.archiveParallelism = Math.max(1, archiveParallelism);
+        this.writerThreads = Math.max(0, writerThreads);
+        archiveExecutor = Executors.newFixedThreadPool(this.archiveParallelism, daemonThreads("tar-extract"));
+        writerExecutor = this.writerThreads > 0 ? Executors.newFixedThreadPool(this.writerThreads, daemonThreads("tar-writer")) : null;
+        spareBuffers = new ArrayBlockingQueue<>(this.archiveParallelism * BUFFERS_PER_ARCHIVE);
+    }
+
+    public static ParallelTarExtractor createDefault() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        return new ParallelTarExtractor(Math.max(1, Math.min(3, processors / 2)), Math.max(2, Math.min(4, processors - 1)));
+    }
+
+    public int getArchiveParallelism() {
+        return archiveParallelism;
+    }
+
+    public int getWriterThreads() {
+        return writerThreads;
+    }
+
+    /** Runs an extraction on one of the archive threads. */
+    public Future<Boolean> submit(Callable<Boolean> extraction) {
+        return archiveExecutor.submit(extraction);
+    }
+
+    public void shutdown() {
+        archiveExecutor.shutdown();
+        if (writerExecutor != null) writerExecutor.shutdown();
+    }
+
+    public boolean extract(TarCompressorUtils.Type type, InputStream source, File destination, OnExtractFileListener onExtractFileListener) {
+        return extract(type, source, destination, onExtractFileListener, null, null, null);
+    }
+
+    /**
+     * Extracts the archive, recording every written entry in {@code record} when one is
+     * given. With {@code onlyPaths} set, entries whose ledger path is not in it are skipped.
+     */
+    boolean extract(TarCompressorUtils.Type type, InputStream source, File destination, OnExtractFileListener onExtractFileListener,
+                    ExtractionLedger ledger, ExtractionLedger.Record record, Set<String> onlyPaths) {
+        if (source == null) return false;
+        Batch batch = new Batch();
+        try (InputStream inStream = TarCompressorUtils.getCompressorInputStream(type, source);
+             TarArchiveInputStream tar = new TarArchiveInputStream(inStream)) {
+            Set<String> seenPaths = new HashSet<>();
+            TarArchiveEntry entry;
+            while ((entry = tar.getNextEntry()) != null) {
+                batch.throwIfFailed();
+                if (!tar.canReadEntryData(entry)) continue;
+
+                // Skip macOS metadata files (._{filename}) and __MACOSX directories
+                String entryName = entry.getName();
+                String fileName = new File(entryName).getName();
+                if (isMacPrefixFile(entryName, fileName)) continue;
+
+                File file = new File(destination, entryName);
+
+                if (onExtractFileListener != null) {
+                    file = onExtractFileListener.onExtractFile(file, entry.getSize());
+                    if (file == null) continue;
+                }
+
+                String ledgerPath = ledger != null ? ledger.pathOf(file) : null;
+                if (onlyPaths != null && !onlyPaths.contains(ledgerPath)) continue;
+
+                if (entry.isDirectory()) {
+                    if (!file.isDirectory()) file.mkdirs();
+                    chmod(file);
+                    if (record != null) putEntry(record, ExtractionLedger.Entry.directory(ledgerPath));
+                    continue;
+                }
+
+                // A later entry for the same path must not race the write of an earlier one
+                if (!seenPaths.add(file.getPath())) batch.awaitAll();
+
+                if (onlyPaths != null) {
+                    File parent = file.getParentFile();
+                    if (parent != null && !parent.isDirectory()) parent.mkdirs();
+                }
+
+                if (entry.isSymbolicLink()) {
+                    FileUtils.symlink(entry.getLinkName(), file.getAbsolutePath());
+                    chmod(file);
+                    if (record != null) putEntry(record, ExtractionLedger.Entry.symlink(ledgerPath, entry.getLinkName()));
+                }
+                else if (entry.getSize() <= SMALL_FILE_LIMIT) {
+                    readSmallFile(tar, batch, file, record, ledgerPath);
+                }
+                else readLargeFile(tar, batch, file, record, ledgerPath);
+            }
+
+            batch.awaitAll();
+            batch.throwIfFailed();
+            return true;
+        }
+        catch (IOException e) {
+            Log.e(TAG, "Failed to extract into " + destination + ": " + e);
+            try {
+                batch.awaitAll();
+            }
+            catch (InterruptedIOException ignored) {}
+            return false;
+        }
+        finally {
+            batch.recycleBuffers();
+        }
+    }
+
+    private void readSmallFile(TarArchiveInputStream tar, Batch batch, File file, ExtractionLedger.Record record, String ledgerPath) throws IOException {
+        List<byte[]> chunks = new ArrayList<>();
+        int lastLength = 0;
+        try {
+            while (true) {
+                byte[] buffer = batch.takeBuffer();
+                chunks.add(buffer);
+                lastLength = readFully(tar, buffer);
+                if (lastLength < buffer.length) break;
+            }
+        }
+        catch (IOException e) {
+            for (byte[] buffer : chunks) batch.releaseBuffer(buffer);
+            throw e;
+        }
+
+        final int finalLength = lastLength;
+        batch.run(() -> {
+            CRC32 crc = new CRC32();
+            long size = 0;
+            FileUtils.detachHardlink(file);
+            try (FileOutputStream outStream = new FileOutputStream(file)) {
+                for (int i = 0; i < chunks.size(); i++) {
+                    byte[] buffer = chunks.get(i);
+                    int length = i == chunks.size() - 1 ? finalLength : buffer.length;
+                    outStream.write(buffer, 0, length);
+                    if (record != null) crc.update(buffer, 0, length);
+                    size += length;
+                }
+            }
+            finally {
+                for (byte[] buffer : chunks) batch.releaseBuffer(buffer);
+            }
+            chmod(file);
+            if (record != null) putEntry(record, ExtractionLedger.Entry.file(ledgerPath, size, file.lastModified(), crc.getValue()));
+        });
+    }
+
+    private void readLargeFile(TarArchiveInputStream tar, Batch batch, File file, ExtractionLedger.Record record, String ledgerPath) throws IOException {
+        LargeFile largeFile = new LargeFile(batch, file, record, ledgerPath);
+        try {
+            CRC32 crc = new CRC32();
+            long position = 0;
+            while (true) {
+                byte[] buffer = batch.takeBuffer();
+                int length;
+                try {
+                    length = readFully(tar, buffer);
+                }
+                catch (IOException e) {
+                    batch.releaseBuffer(buffer);
+                    throw e;
+                }
+                if (length == 0) {
+                    batch.releaseBuffer(buffer);
+                    break;
+                }
+
+                if (record != null) crc.update(buffer, 0, length);
+                largeFile.write(buffer, length, position);
+                position += length;
+                if (length < buffer.length) break;
+            }
+            largeFile.size = position;
+            largeFile.crc = crc.getValue();
+        }
+        finally {
+            largeFile.release();
+        }
+    }
+
+    private static int readFully(InputStream inStream, byte[] buffer) throws IOException {
+        int offset = 0;
+        while (offset < buffer.length) {
+            int amountRead = inStream.read(buffer, offset, buffer.length - offset);
+            if (amountRead == -1) break;
+            offset += amountRead;
+        }
+        return offset;
+    }
+
+    private static void putEntry(ExtractionLedger.Record record, ExtractionLedger.Entry entry) {
+        synchronized (record) {
+            record.put(entry);
+        }
+    }
+
+    private static void chmod(File file) {
+        try {
+            Files.setPosixFilePermissions(file.toPath(), FILE_PERMISSIONS);
+        }
+        catch (IOException | UnsupportedOperationException e) {
+            Log.e(TAG, "Failed to chmod " + file.getAbsolutePath() + ": " + e);
+        }
+    }
+
+    //! Detects Mac Prefixes - Some builds are done with Macs and it trips up extraction algorithm
+    private static boolean isMacPrefixFile(String entryName, String fileName) {
+        return fileName.startsWith("._") || entryName.contains("__MACOSX/");
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return (runnable) -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private interface WriteTask {
+        void run() throws IOException;
+    }
+
+    /** Writer tasks and buffers of one extraction. */
+    private class Batch {
+        private final ArrayBlockingQueue<byte[]> freeBuffers = new ArrayBlockingQueue<>(BUFFERS_PER_ARCHIVE);
+        private final AtomicInteger pending = new AtomicInteger();
+        private int allocatedBuffers;
+        private volatile IOException failure;
+
+        byte[] takeBuffer() throws InterruptedIOException {
+            byte[] buffer = freeBuffers.poll();
+            if (buffer != null) return buffer;
+
+            if (allocatedBuffers < BUFFERS_PER_ARCHIVE) {
+                allocatedBuffers++;
+                buffer = spareBuffers.poll();
+                return buffer != null ? buffer : new byte[StreamUtils.BUFFER_SIZE];
+            }
+
+            try {
+                return freeBuffers.take();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+
+        void releaseBuffer(byte[] buffer) {
+            freeBuffers.offer(buffer);
+        }
+
+        /** Hands the buffers of a finished extraction back for the next one. */
+        void recycleBuffers() {
+            byte[] buffer;
+            while ((buffer = freeBuffers.poll()) != null) spareBuffers.offer(buffer);
+        }
+
+        void run(WriteTask task) {
+            if (writerExecutor == null) {
+                runTask(task);
+                return;
+            }
+
+            pending.incrementAndGet();
+            try {
+                writerExecutor.execute(() -> {
+                    try {
+                        runTask(task);
+                    }
+                    finally {
+                        taskDone();
+                    }
+                });
+            }
+            catch (RejectedExecutionException e) {
+                // The extractor was shut down while this archive was still being extracted
+                runTask(task);
+                taskDone();
+            }
+        }
+
+        private void taskDone() {
+            if (pending.decrementAndGet() == 0) {
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
+        }
+
+        private void runTask(WriteTask task) {
+            try {
+                task.run();
+            }
+            catch (IOException | RuntimeException e) {
+                if (failure == null) failure = e instanceof IOException ? (IOException)e : new IOException(e);
+            }
+        }
+
+        void throwIfFailed() throws IOException {
+            if (failure != null) throw failure;
+        }
+
+        void awaitAll() throws InterruptedIOException {
+            synchronized (this) {
+                while (pending.get() > 0) {
+                    try {
+                        wait();
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException();
+                    }
+                }
+            }
+        }
+    }
+
+    /** A file written chunk by chunk at fixed offsets; closed once the last chunk is written. */
+    private static class LargeFile {
+        private final Batch batch;
+        private final File file;
+        private final ExtractionLedger.Record record;
+        private final String ledgerPath;
+        private final FileChannel channel;
+        private final AtomicInteger references = new AtomicInteger(1);
+        private long size;
+        private long crc;
+
+        LargeFile(Batch batch, File file, ExtractionLedger.Record record, String ledgerPath) throws IOException {
+            this.batch = batch;
+            this.file = file;
+            this.record = record;
+            this.ledgerPath = ledgerPath;
+            FileUtils.detachHardlink(file);
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        void write(byte[] buffer, int length, long position) {
+            references.incrementAndGet();
+            batch.run(() -> {
+                try {
+                    ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, length);
+                    long offset = position;
+                    while (byteBuffer.hasRemaining()) offset += channel.write(byteBuffer, offset);
+                }
+                finally {
+                    batch.releaseBuffer(buffer);
+                    release();
+                }
+            });
+        }
+
+        /** Drops one reference; the reader holds one until it has queued every chunk. */
+        void release() throws IOException {
+            if (references.decrementAndGet() > 0) return;
+            channel.close();
+            chmod(file);
+            if (record != null && batch.failure == null) {
+                putEntry(record, ExtractionLedger.Entry.file(ledgerPath, size, file.lastModified(), crc));
+            }
+        }
+    }
+}
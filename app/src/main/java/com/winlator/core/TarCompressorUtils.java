@@ -1,14 +1,13 @@
 package com.winlator.core;
 
 import android.content.Context;
+import android.content.pm.PackageManager;
 import android.content.res.AssetManager;
 import android.net.Uri;
 import android.util.Log;
 
-import org.apache.commons.compress.archivers.ArchiveInputStream;
 import org.apache.commons.compress.archivers.ArchiveOutputStream;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
-import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
 import org.apache.commons.compress.archivers.tar.TarConstants;
 import org.apache.commons.compress.compressors.xz.XZCompressorInputStream;
@@ -25,10 +24,20 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 public abstract class TarCompressorUtils {
     public enum Type {XZ, ZSTD}
 
+    private static volatile ParallelTarExtractor extractor = ParallelTarExtractor.createDefault();
+
+    private interface SourceOpener {
+        InputStream open() throws IOException;
+    }
+
     private static void addFile(ArchiveOutputStream tar, File file, String entryName) {
         try {
             tar.putArchiveEntry(tar.createArchiveEntry(file, entryName));
@@ -164,57 +173,123 @@ public abstract class TarCompressorUtils {
         }
     }
 
-    private static boolean extract(Type type, InputStream source, File destination, OnExtractFileListener onExtractFileListener) {
-        if (source == null) return false;
-        try (InputStream inStream = getCompressorInputStream(type, source);
-             ArchiveInputStream tar = new TarArchiveInputStream(inStream)) {
-            TarArchiveEntry entry;
-            while ((entry = (TarArchiveEntry)tar.getNextEntry()) != null) {
-                if (!tar.canReadEntryData(entry)) continue;
-
-                // Skip macOS metadata files (._{filename}) and __MACOSX directories
-                String entryName = entry.getName();
-                String fileName = new File(entryName).getName();
-                if(isMacPrefixFile(entryName, fileName))
-                    continue;
-
-                File file = new File(destination, entryName);
-
-                if (onExtractFileListener != null) {
-                    file = onExtractFileListener.onExtractFile(file, entry.getSize());
-                    if (file == null) continue;
-                }
+    public static ParallelTarExtractor getExtractor() {
+        return extractor;
+    }
+
+    /** Replaces the engine used by all extractions, e.g. to change its parallelism. */
+    public static void setExtractor(ParallelTarExtractor newExtractor) {
+        ParallelTarExtractor oldExtractor = extractor;
+        extractor = newExtractor;
+        if (oldExtractor != newExtractor) oldExtractor.shutdown();
+    }
+
+    /** Extracts the archive on an archive thread of the extractor, alongside other extractions. */
+    public static Future<Boolean> extractAsync(Type type, File source, File destination) {
+        return extractor.submit(() -> extract(type, source, destination));
+    }
 
-                if (entry.isDirectory()) {
-                    if (!file.isDirectory()) file.mkdirs();
+    public static Future<Boolean> extractAsync(Type type, AssetManager assetManager, String assetFile, File destination) {
+        return extractor.submit(() -> extract(type, assetManager, assetFile, destination));
+    }
+
+    /** Waits for every extraction and returns whether all of them succeeded. */
+    public static boolean awaitAll(List<Future<Boolean>> extractions) {
+        boolean success = true;
+        for (Future<Boolean> extraction : extractions) {
+            try {
+                if (!extraction.get()) success = false;
+            }
+            catch (ExecutionException e) {
+                Log.e("TarCompressorUtils", "Extraction failed: " + e.getCause());
+                success = false;
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return success;
+    }
+
+    /**
+     * Extracts an asset through the {@link ExtractionLedger} of the destination: when the
+     * same asset of the same app build was extracted before, only files that went missing
+     * or changed on disk are written again.
+     */
+    public static boolean extractIncremental(Type type, Context context, String assetFile, File destination, OnExtractFileListener onExtractFileListener) {
+        long appUpdateTime;
+        try {
+            appUpdateTime = context.getPackageManager().getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+        }
+        catch (PackageManager.NameNotFoundException e) {
+            return extract(type, context, assetFile, destination, onExtractFileListener);
+        }
+        String identity = "asset:" + appUpdateTime + listenerIdentity(onExtractFileListener);
+        return extractIncremental(type, () -> context.getAssets().open(assetFile), "asset:" + assetFile, identity, destination, onExtractFileListener);
+    }
+
+    /** Like {@link #extractIncremental(Type, Context, String, File, OnExtractFileListener)} for an archive file. */
+    public static boolean extractIncremental(Type type, File source, File destination, OnExtractFileListener onExtractFileListener) {
+        if (source == null || !source.isFile()) return false;
+        String identity = "file:" + source.length() + ":" + source.lastModified() + listenerIdentity(onExtractFileListener);
+        return extractIncremental(type, () -> new BufferedInputStream(new FileInputStream(source), StreamUtils.BUFFER_SIZE), "file:" + source.getAbsolutePath(), identity, destination, onExtractFileListener);
+    }
+
+    // A listener can redirect or skip entries, so a record only applies to the same listener
+    private static String listenerIdentity(OnExtractFileListener onExtractFileListener) {
+        return onExtractFileListener != null ? ":" + onExtractFileListener.getClass().getName() : "";
+    }
+
+    private static boolean extractIncremental(Type type, SourceOpener opener, String archiveKey, String identity, File destination, OnExtractFileListener onExtractFileListener) {
+        synchronized (ExtractionLedger.lockFor(destination)) {
+            long startTime = System.currentTimeMillis();
+            ExtractionLedger ledger = ExtractionLedger.load(destination);
+            ExtractionLedger.Record record = ledger.getRecord(archiveKey, identity);
+            boolean success;
+
+            try {
+                if (record != null) {
+                    Set<String> divergent = ledger.findDivergent(record);
+                    long verifyMillis = System.currentTimeMillis() - startTime;
+                    int entryCount = record.getEntries().size();
+                    if (divergent.isEmpty()) {
+                        Log.i("TarCompressorUtils", archiveKey + " is up to date (" + entryCount + " entries verified in " + verifyMillis + " ms, saved ~" + Math.max(0, record.extractMillis - verifyMillis) + " ms)");
+                        ledger.save();
+                        return true;
+                    }
+
+                    Log.i("TarCompressorUtils", archiveKey + ": rewriting " + divergent.size() + " of " + entryCount + " entries that are missing or changed");
+                    success = extract(type, opener.open(), destination, onExtractFileListener, ledger, record, divergent);
                 }
                 else {
-                    if (entry.isSymbolicLink()) {
-                        FileUtils.symlink(entry.getLinkName(), file.getAbsolutePath());
-                    }
-                    else {
-                        try (BufferedOutputStream outStream = new BufferedOutputStream(new FileOutputStream(file), StreamUtils.BUFFER_SIZE)) {
-                            if (!StreamUtils.copy(tar, outStream)) return false;
-                        }
-                    }
+                    record = new ExtractionLedger.Record(identity);
+                    success = extract(type, opener.open(), destination, onExtractFileListener, ledger, record, null);
+                    record.extractMillis = System.currentTimeMillis() - startTime;
+                    Log.i("TarCompressorUtils", archiveKey + " fully extracted in " + record.extractMillis + " ms");
                 }
-
-                FileUtils.chmod(file, 0771);
             }
-            return true;
-        }
-        catch (IOException e) {
-            e.printStackTrace();
-            return false;
+            catch (IOException e) {
+                success = false;
+            }
+
+            if (success) ledger.putRecord(archiveKey, record);
+            else ledger.removeRecord(archiveKey);
+            ledger.save();
+            return success;
         }
     }
 
-    //! Detects Mac Prefixes - Some builds are done with Macs and it trips up extraction algorithm
-    private static boolean isMacPrefixFile(String entryName, String fileName) {
-        return fileName.startsWith("._") || entryName.contains("__MACOSX/");
+    private static boolean extract(Type type, InputStream source, File destination, OnExtractFileListener onExtractFileListener) {
+        return extract(type, source, destination, onExtractFileListener, null, null, null);
+    }
+
+    private static boolean extract(Type type, InputStream source, File destination, OnExtractFileListener onExtractFileListener,
+                                   ExtractionLedger ledger, ExtractionLedger.Record record, Set<String> onlyPaths) {
+        return extractor.extract(type, source, destination, onExtractFileListener, ledger, record, onlyPaths);
     }
 
-    private static InputStream getCompressorInputStream(Type type, InputStream source) throws IOException {
+    static InputStream getCompressorInputStream(Type type, InputStream source) throws IOException {
         if (type == Type.XZ) {
             return new XZCompressorInputStream(source);
         }
@@ -4,74 +4,87 @@ import android.util.Log;
 
 import com.winlator.math.Mathf;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.Closeable;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Comparator;
-import java.util.Iterator;
+import java.util.HashMap;
 import java.util.Locale;
-import java.util.function.ToIntFunction;
 
+/**
+ * Edits a Wine .reg file in memory. The file is read once and split into key blocks that
+ * are indexed by their path; a block's lines are only parsed into values the first time
+ * the key is accessed. Untouched keys and untouched lines inside edited keys keep their
+ * original text, and all changes are written back in a single atomic replace on close().
+ */
 public class WineRegistryEditor implements Closeable {
     private final File file;
-    private final File cloneFile;
+    private final String text;
+    private final ArrayList<Key> keys = new ArrayList<>();
+    private final HashMap<String, Key> keyIndex = new HashMap<>();
+    private int preambleEnd;
     private boolean modified = false;
     private boolean createKeyIfNotExist = true;
-    private int lastParentKeyPosition = 0;
-    private String lastParentKey = "";
-
-    public static class Location {
-        public final int end;
-        public int mbCount;
-        public final int offset;
-        public final int start;
-        private Object tag;
-
-        public Location(int offset, int start, int end) {
-            this.offset = offset;
+    private final boolean readFailed;
+
+    /**
+     * One line group of a key: the header line, a metadata or blank line, or a value
+     * including its continuation lines. Untouched lines are kept as offsets into the
+     * original text and replaced lines carry their new text.
+     */
+    private static class Line {
+        private final String name;
+        private final int start;
+        private final int end;
+        private String replacement;
+
+        private Line(String name, int start, int end) {
+            this.name = name;
             this.start = start;
             this.end = end;
         }
 
-        public int length() {
-            return this.end - this.start;
+        private Line(String name, String replacement) {
+            this(name, 0, 0);
+            this.replacement = replacement;
         }
+    }
 
-        public String toString() {
-            return this.offset + "," + this.start + "," + this.end;
-        }
+    private static class Key {
+        private final String name;
+        private final int start;
+        private final int end;
+        private ArrayList<Line> lines;
+        private boolean dirty;
 
-        public int[] toIntArray() {
-            return new int[]{this.offset, this.start, this.end, this.mbCount};
-        }
-
-        public boolean equals(Object obj) {
-            if (!(obj instanceof Location)) {
-                return false;
-            }
-            Location other = (Location) obj;
-            return this.offset == other.offset && this.start == other.start && this.end == other.end;
+        private Key(String name, int start, int end) {
+            this.name = name;
+            this.start = start;
+            this.end = end;
         }
     }
 
     public WineRegistryEditor(File file) {
         this.file = file;
-        cloneFile = FileUtils.createTempFile(file.getParentFile(), FileUtils.getBasename(file.getPath()));
-        if (!file.isFile()) {
+        String content = "";
+        boolean failed = false;
+        if (file.isFile()) {
             try {
-                cloneFile.createNewFile();
+                content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
             }
             catch (IOException e) {
                 Log.e("WineRegistryEditor", "Failed to set up editor: " + e);
+                failed = true;
             }
         }
-        else FileUtils.copy(file, cloneFile);
+        text = content;
+        readFailed = failed;
+        indexKeys();
     }
 
     private static String escape(String str) {
@@ -82,83 +95,187 @@ public class WineRegistryEditor implements Closeable {
         return str.replace("\\\"", "\"").replace("\\\\", "\\");
     }
 
-    private static boolean lineHasName(String line) {
-        int index;
-        return (index = line.indexOf('"')) != -1 &&
-                (index = line.indexOf('"', index)) != -1 &&
-                (index = line.indexOf('=', index)) != -1;
+    private static String valueName(String name) {
+        return name != null ? "\""+escape(name)+"\"" : "@";
     }
 
-    @Override
-    public void close() {
-        if (modified && cloneFile.exists()) {
-            cloneFile.renameTo(file);
+    private void indexKeys() {
+        int length = text.length();
+        int lineStart = 0;
+        Key current = null;
+        int currentStart = -1;
+        String currentName = null;
+        preambleEnd = length;
+
+        while (lineStart < length) {
+            int lineEnd = text.indexOf('\n', lineStart);
+            lineEnd = lineEnd != -1 ? lineEnd + 1 : length;
+
+            if (text.charAt(lineStart) == '[') {
+                if (currentStart != -1) addKey(new Key(currentName, currentStart, lineStart));
+                else preambleEnd = lineStart;
+
+                int nameEnd = text.lastIndexOf(']', lineEnd - 1);
+                currentName = text.substring(lineStart + 1, nameEnd > lineStart ? nameEnd : lineEnd).trim();
+                currentStart = lineStart;
+            }
+            lineStart = lineEnd;
         }
-        else cloneFile.delete();
+
+        if (currentStart != -1) addKey(new Key(currentName, currentStart, length));
     }
 
-    private void resetLastParentKeyPositionIfNeed(String newKey) {
-        int lastIndex = newKey.lastIndexOf("\\");
-        if (lastIndex == -1) {
-            lastParentKeyPosition = 0;
-            lastParentKey = "";
-            return;
+    private void addKey(Key key) {
+        keys.add(key);
+        keyIndex.putIfAbsent(key.name, key);
+    }
+
+    private ArrayList<Line> getLines(Key key) {
+        if (key.lines != null) return key.lines;
+
+        ArrayList<Line> lines = new ArrayList<>();
+        int lineStart = key.start;
+        boolean header = true;
+        while (lineStart < key.end) {
+            int lineEnd = text.indexOf('\n', lineStart);
+            lineEnd = lineEnd != -1 && lineEnd < key.end ? lineEnd + 1 : key.end;
+
+            String name = null;
+            char first = text.charAt(lineStart);
+            if (!header && (first == '"' || first == '@')) {
+                name = parseValueName(lineStart, lineEnd);
+                // hex values wrap with a trailing backslash
+                while (name != null && lineEnd < key.end && endsWithContinuation(lineStart, lineEnd)) {
+                    int nextEnd = text.indexOf('\n', lineEnd);
+                    lineEnd = nextEnd != -1 && nextEnd < key.end ? nextEnd + 1 : key.end;
+                }
+            }
+
+            lines.add(new Line(name, lineStart, lineEnd));
+            header = false;
+            lineStart = lineEnd;
         }
 
-        String parentKey = newKey.substring(0, lastIndex);
-        if (!parentKey.equals(lastParentKey)) lastParentKeyPosition = 0;
-        lastParentKey = parentKey;
+        key.lines = lines;
+        return lines;
     }
 
-    public void setCreateKeyIfNotExist(boolean createKeyIfNotExist) {
-        this.createKeyIfNotExist = createKeyIfNotExist;
+    private String parseValueName(int lineStart, int lineEnd) {
+        if (text.charAt(lineStart) == '@') {
+            return lineStart + 1 < lineEnd && text.charAt(lineStart + 1) == '=' ? "@" : null;
+        }
+
+        for (int i = lineStart + 1; i < lineEnd; i++) {
+            char c = text.charAt(i);
+            if (c == '\\') i++;
+            else if (c == '"') {
+                return i + 1 < lineEnd && text.charAt(i + 1) == '=' ? text.substring(lineStart, i + 1) : null;
+            }
+        }
+        return null;
     }
 
-    private Location createKey(String key) {
-        lastParentKeyPosition = 0;
-        Location location = getParentKeyLocation(key);
-        boolean success = false;
-        int offset = 0;
-        int totalLength = 0;
+    private boolean endsWithContinuation(int lineStart, int lineEnd) {
+        int i = lineEnd - 1;
+        while (i >= lineStart && (text.charAt(i) == '\n' || text.charAt(i) == '\r')) i--;
+        return i >= lineStart && text.charAt(i) == '\\';
+    }
 
-        char[] buffer = new char[StreamUtils.BUFFER_SIZE];
-        File tempFile = FileUtils.createTempFile(file.getParentFile(), FileUtils.getBasename(file.getPath()));
+    private String lineText(Line line) {
+        return line.replacement != null ? line.replacement : text.substring(line.start, line.end);
+    }
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(cloneFile), StreamUtils.BUFFER_SIZE);
-             BufferedWriter writer = new BufferedWriter(new FileWriter(tempFile), StreamUtils.BUFFER_SIZE)) {
+    private static boolean isBlank(String lineText) {
+        return lineText.trim().isEmpty();
+    }
 
-            int length;
-            for (int i = 0, end = location != null ? location.end+1 : (int)cloneFile.length(); i < end; i += length) {
-                length = Math.min(buffer.length, end - i);
-                reader.read(buffer, 0, length);
-                writer.write(buffer, 0, length);
-                totalLength += length;
-            }
+    @Override
+    public void close() {
+        if (!modified) return;
+        // Writing the edits over a file that could not be read would drop everything else in it
+        if (readFailed) {
+            Log.e("WineRegistryEditor", "Not saving changes to " + file + ", it could not be read");
+            return;
+        }
 
-            offset = totalLength;
-            long ticks1601To1970 = 86400L * (369 * 365 + 89) * 10000000;
-            long currentTime = System.currentTimeMillis() + ticks1601To1970;
-            String content = "\n["+escape(key)+"] "+((currentTime - ticks1601To1970) / 1000) +
-                    String.format(Locale.ENGLISH, "\n#time=%x%08x", currentTime >> 32, (int)currentTime)+"\n";
-            writer.write(content);
-            totalLength += content.length() - 1;
+        File tempFile = FileUtils.createTempFile(file.getAbsoluteFile().getParentFile(), FileUtils.getBasename(file.getPath()));
+        boolean success = false;
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8), StreamUtils.BUFFER_SIZE)) {
+            writer.write(text, 0, preambleEnd);
+            char lastChar = preambleEnd > 0 ? text.charAt(preambleEnd - 1) : '\n';
+
+            for (Key key : keys) {
+                if (!key.dirty) {
+                    writer.write(text, key.start, key.end - key.start);
+                    if (key.end > key.start) lastChar = text.charAt(key.end - 1);
+                    continue;
+                }
 
-            while ((length = reader.read(buffer)) != -1) writer.write(buffer, 0, length);
+                for (Line line : key.lines) {
+                    String lineText = lineText(line);
+                    if (lineText.isEmpty()) continue;
+                    if (lastChar != '\n') writer.write('\n');
+                    writer.write(lineText);
+                    lastChar = lineText.charAt(lineText.length() - 1);
+                }
+            }
             success = true;
         }
         catch (IOException e) {
-            Log.e("WineRegistryEditor", "Failed to create key: " + e);
+            Log.e("WineRegistryEditor", "Failed to write registry: " + e);
         }
 
-        if (success) {
-            modified = true;
-            tempFile.renameTo(cloneFile);
-            return new Location(offset, totalLength, totalLength);
+        if (success && tempFile.renameTo(file)) modified = false;
+        else tempFile.delete();
+    }
+
+    public void setCreateKeyIfNotExist(boolean createKeyIfNotExist) {
+        this.createKeyIfNotExist = createKeyIfNotExist;
+    }
+
+    private Key createKey(String key) {
+        long ticks1601To1970 = 86400L * (369 * 365 + 89) * 10000000;
+        long currentTime = System.currentTimeMillis() + ticks1601To1970;
+        String header = "["+escape(key)+"] "+((currentTime - ticks1601To1970) / 1000) +
+                String.format(Locale.ENGLISH, "\n#time=%x%08x", currentTime >> 32, (int)currentTime)+"\n";
+
+        Key newKey = new Key(escape(key), 0, 0);
+        newKey.lines = new ArrayList<>();
+        newKey.lines.add(new Line(null, header));
+        newKey.lines.add(new Line(null, "\n"));
+        newKey.dirty = true;
+
+        // keep the new key next to its closest existing ancestor, Wine re-sorts keys on load anyway
+        int position = keys.size();
+        String parent = key;
+        int lastIndex;
+        while ((lastIndex = parent.lastIndexOf('\\')) != -1) {
+            parent = parent.substring(0, lastIndex);
+            Key parentKey = keyIndex.get(escape(parent));
+            if (parentKey != null) {
+                position = keys.indexOf(parentKey) + 1;
+                break;
+            }
         }
-        else {
-            tempFile.delete();
-            return null;
+
+        keys.add(position, newKey);
+        keyIndex.put(newKey.name, newKey);
+        modified = true;
+        return newKey;
+    }
+
+    private Key getKey(String key, boolean create) {
+        Key result = keyIndex.get(escape(key));
+        if (result == null && create && createKeyIfNotExist) result = createKey(key);
+        return result;
+    }
+
+    private Line getValueLine(Key key, String name) {
+        String valueName = valueName(name);
+        for (Line line : getLines(key)) {
+            if (valueName.equals(line.name)) return line;
         }
+        return null;
     }
 
     public String getStringValue(String key, String name) {
@@ -181,14 +298,12 @@ public class WineRegistryEditor implements Closeable {
     }
 
     public void setStringValues(String key, String[]... items) {
-        String[][] escapedItems = new String[items.length][];
-        for (int i = 0; i < items.length; i++) {
-            String[] strArr = new String[2];
-            strArr[0] = items[i][0];
-            strArr[1] = items[i][1] != null ? "\"" + escape(items[i][1]) + "\"" : "\"\"";
-            escapedItems[i] = strArr;
+        Key registryKey = getKey(key, true);
+        if (registryKey == null) return;
+
+        for (String[] item : items) {
+            setRawValue(registryKey, item[0], item[1] != null ? "\"" + escape(item[1]) + "\"" : "\"\"");
         }
-        setRawValues(key, escapedItems);
     }
 
     public Integer getDwordValue(String key, String name) {
@@ -225,199 +340,52 @@ public class WineRegistryEditor implements Closeable {
     }
 
     private String getRawValue(String key, String name) {
-        lastParentKeyPosition = 0;
-        Location keyLocation = getKeyLocation(key);
-        if (keyLocation == null) return null;
+        Key registryKey = getKey(key, false);
+        if (registryKey == null) return null;
 
-        Location valueLocation = getValueLocation(keyLocation, name);
-        if (valueLocation == null) return null;
-        boolean success = false;
-        char[] buffer = new char[valueLocation.length()];
+        Line line = getValueLine(registryKey, name);
+        if (line == null) return null;
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(cloneFile), StreamUtils.BUFFER_SIZE)) {
-            reader.skip(valueLocation.start);
-            success = reader.read(buffer) == buffer.length;
-        }
-        catch (IOException e) {
-            Log.e("WineRegistryEditor", "Failed to get raw value: " + e);
-        }
-        return success ? unescape(new String(buffer)) : null;
+        String lineText = lineText(line);
+        int end = lineText.length();
+        if (end > 0 && lineText.charAt(end - 1) == '\n') end--;
+        return unescape(lineText.substring(line.name.length() + 1, end));
     }
 
     private void setRawValue(String key, String name, String value) {
-        resetLastParentKeyPositionIfNeed(key);
-
-        Location keyLocation = getKeyLocation(key);
-        if (keyLocation == null) {
-            if (createKeyIfNotExist) {
-                keyLocation = createKey(key);
-            }
-            else return;
-        }
-
-        Location valueLocation = getValueLocation(keyLocation, name);
-        char[] buffer = new char[StreamUtils.BUFFER_SIZE];
-        boolean success = false;
-
-        File tempFile = FileUtils.createTempFile(file.getParentFile(), FileUtils.getBasename(file.getPath()));
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(cloneFile), StreamUtils.BUFFER_SIZE);
-             BufferedWriter writer = new BufferedWriter(new FileWriter(tempFile), StreamUtils.BUFFER_SIZE)) {
-
-            int length;
-            for (int i = 0, end = valueLocation != null ? valueLocation.start : keyLocation.end; i < end; i += length) {
-                length = Math.min(buffer.length, end - i);
-                reader.read(buffer, 0, length);
-                writer.write(buffer, 0, length);
-            }
-
-            if (valueLocation == null) {
-                writer.write("\n"+(name != null ? "\""+escape(name)+"\"" : "@")+"="+value);
-            }
-            else {
-                writer.write(value);
-                reader.skip(valueLocation.length());
-            }
-
-            while ((length = reader.read(buffer)) != -1) writer.write(buffer, 0, length);
-            success = true;
-        }
-        catch (IOException e) {
-            Log.e("WineRegistryEditor", "Failed to set raw value: " + e);
-        }
-
-        if (success) {
-            modified = true;
-            tempFile.renameTo(cloneFile);
-        }
-        else tempFile.delete();
+        Key registryKey = getKey(key, true);
+        if (registryKey != null) setRawValue(registryKey, name, value);
     }
 
-    private void setRawValues(String key, String[]... items) {
-        int i;
-        String str;
-        Location keyLocation = getKeyLocation(key);
-        if (keyLocation == null) {
-            if (this.createKeyIfNotExist) {
-                keyLocation = createKey(key);
-            } else {
-                return;
-            }
-        }
-        ArrayList<Location> valueLocations = new ArrayList<>();
-        int i2 = 0;
-        while (true) {
-            i = -1;
-            if (i2 >= items.length) {
-                break;
-            }
-            Location valueLocation = getValueLocation(keyLocation, items[i2][0]);
-            if (valueLocation == null) {
-                valueLocation = new Location(0, (Integer.MAX_VALUE - items.length) + i2, -1);
-            }
-            valueLocation.tag = items[i2];
-            valueLocations.add(valueLocation);
-            i2++;
-        }
-        valueLocations.sort(Comparator.comparingInt(new ToIntFunction() {
-            @Override
-            public final int applyAsInt(Object obj) {
-                return ((WineRegistryEditor.Location) obj).start;
-            }
-        }));
-        char[] buffer = new char[65536];
-        boolean success = false;
-        File tempFile = FileUtils.createTempFile(this.file.getParentFile(), FileUtils.getBasename(this.file.getPath()));
-        try {
-            BufferedReader reader = new BufferedReader(new FileReader(this.cloneFile), 65536);
-            try {
-                BufferedWriter writer = new BufferedWriter(new FileWriter(tempFile), 65536);
-                int position = 0;
-                try {
-                    Iterator<Location> it = valueLocations.iterator();
-                    while (it.hasNext()) {
-                        Location valueLocation2 = it.next();
-                        if (valueLocation2.end != i) {
-                            int i3 = position;
-                            while (true) {
-                                int i4 = valueLocation2.start;
-                                if (i3 >= i4) {
-                                    break;
-                                }
-                                int length = Math.min(buffer.length, i4 - i3);
-                                reader.read(buffer, 0, length);
-                                writer.write(buffer, 0, length);
-                                position += length;
-                                i3 += length;
-                            }
-                            writer.write(((String[]) valueLocation2.tag)[1]);
-                            reader.skip(valueLocation2.length());
-                            position += valueLocation2.length();
-                            i = -1;
-                        }
-                    }
-                    int i5 = position;
-                    while (true) {
-                        int i6 = keyLocation.end;
-                        if (i5 >= i6) {
-                            break;
-                        }
-                        int length2 = Math.min(buffer.length, i6 - i5);
-                        reader.read(buffer, 0, length2);
-                        writer.write(buffer, 0, length2);
-                        i5 += length2;
-                    }
-                    Iterator<Location> it2 = valueLocations.iterator();
-                    while (it2.hasNext()) {
-                        Location valueLocation3 = it2.next();
-                        if (valueLocation3.end == -1) {
-                            String[] item = (String[]) valueLocation3.tag;
-                            StringBuilder sb = new StringBuilder();
-                            sb.append("\n");
-                            if (item[0] != null) {
-                                str = "\"" + escape(item[0]) + "\"";
-                            } else {
-                                str = "@";
-                            }
-                            sb.append(str);
-                            sb.append("=");
-                            sb.append(item[1]);
-                            writer.write(sb.toString());
-                        }
-                    }
-                    while (true) {
-                        int length3 = reader.read(buffer);
-                        if (length3 == -1) {
-                            break;
-                        } else {
-                            writer.write(buffer, 0, length3);
-                        }
-                    }
-                    success = true;
-                    writer.close();
-                    reader.close();
-                } finally {
-                }
-            } finally {
-            }
-        } catch (IOException e) {
-        }
-        if (success) {
-            this.modified = true;
-            tempFile.renameTo(this.cloneFile);
-        } else {
-            tempFile.delete();
+    private void setRawValue(Key key, String name, String value) {
+        String valueName = valueName(name);
+        Line line = getValueLine(key, name);
+        if (line != null) {
+            String lineText = lineText(line);
+            String newText = valueName+"="+value+(lineText.endsWith("\n") ? "\n" : "");
+            if (newText.equals(lineText)) return;
+            line.replacement = newText;
         }
+        else {
+            // new values go after the last non-blank line, ahead of the separator before the next key
+            ArrayList<Line> lines = key.lines;
+            int index = lines.size();
+            while (index > 1 && isBlank(lineText(lines.get(index - 1)))) index--;
+            lines.add(index, new Line(valueName, valueName+"="+value+"\n"));
+        }
+        key.dirty = true;
+        modified = true;
     }
 
     public void removeValue(String key, String name) {
-        lastParentKeyPosition = 0;
-        Location keyLocation = getKeyLocation(key);
-        if (keyLocation == null) return;
-
-        Location valueLocation = getValueLocation(keyLocation, name);
-        if (valueLocation == null) return;
-        removeRegion(valueLocation);
+        Key registryKey = getKey(key, false);
+        if (registryKey == null) return;
+
+        Line line = getValueLine(registryKey, name);
+        if (line == null) return;
+        registryKey.lines.remove(line);
+        registryKey.dirty = true;
+        modified = true;
     }
 
     public boolean removeKey(String key) {
@@ -425,148 +393,23 @@ public class WineRegistryEditor implements Closeable {
     }
 
     public boolean removeKey(String key, boolean removeTree) {
-        lastParentKeyPosition = 0;
+        String name = escape(key);
+        String prefix = name + "\\\\";
         boolean removed = false;
-        if (removeTree) {
-            Location location;
-            while ((location = getKeyLocation(key, true)) != null) {
-                if (removeRegion(location)) removed = true;
-            }
-        }
-        else {
-            Location location = getKeyLocation(key, false);
-            if (location != null && removeRegion(location)) removed = true;
-        }
-        return removed;
-    }
-
-    private boolean removeRegion(Location location) {
-        char[] buffer = new char[StreamUtils.BUFFER_SIZE];
-        boolean success = false;
-
-        File tempFile = FileUtils.createTempFile(file.getParentFile(), FileUtils.getBasename(file.getPath()));
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(cloneFile), StreamUtils.BUFFER_SIZE);
-             BufferedWriter writer = new BufferedWriter(new FileWriter(tempFile), StreamUtils.BUFFER_SIZE)) {
 
-            int length = 0;
-            for (int i = 0; i < location.offset; i += length) {
-                length = Math.min(buffer.length, location.offset - i);
-                reader.read(buffer, 0, length);
-                writer.write(buffer, 0, length);
+        for (int i = keys.size() - 1; i >= 0; i--) {
+            Key registryKey = keys.get(i);
+            if (registryKey.name.equals(name) || (removeTree && registryKey.name.startsWith(prefix))) {
+                keys.remove(i);
+                removed = true;
             }
-
-            boolean skipLine = length > 1 && buffer[length-1] == '\n';
-            reader.skip(location.end - location.offset + (skipLine ? 1 : 0));
-            while ((length = reader.read(buffer)) != -1) writer.write(buffer, 0, length);
-            success = true;
-        }
-        catch (IOException e) {
-            Log.e("WineRegistryEditor", "Failed to remove region: " + e);
         }
 
-        if (success) {
+        if (removed) {
+            keyIndex.clear();
+            for (Key registryKey : keys) keyIndex.putIfAbsent(registryKey.name, registryKey);
             modified = true;
-            tempFile.renameTo(cloneFile);
-        }
-        else tempFile.delete();
-        return success;
-    }
-
-    private Location getKeyLocation(String key) {
-        return getKeyLocation(key, false);
-    }
-
-    private Location getKeyLocation(String key, boolean keyAsPrefix) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(cloneFile), StreamUtils.BUFFER_SIZE)) {
-            int lastIndex = key.lastIndexOf("\\");
-            String parentKey = lastParentKeyPosition == 0 && lastIndex != -1 ? "["+escape(key.substring(0, lastIndex)) : null;
-
-            if (lastParentKeyPosition > 0) reader.skip(lastParentKeyPosition);
-            key = "["+escape(key)+(!keyAsPrefix ? "]" : "");
-            int totalLength = lastParentKeyPosition;
-            int start = -1;
-            int end = -1;
-            int emptyLines = 0;
-            int offset = 0;
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (start == -1) {
-                    if (parentKey != null && line.startsWith(parentKey)) {
-                        lastParentKeyPosition = totalLength;
-                        parentKey = null;
-                    }
-
-                    if (parentKey == null && line.startsWith(key)) {
-                        offset = totalLength - 1;
-                        start = totalLength + line.length() + 1;
-                    }
-                }
-                else {
-                    if (line.startsWith("[")) {
-                        end = Math.max(-1, totalLength - emptyLines - 1);
-                        break;
-                    }
-                    else emptyLines = line.isEmpty() ? emptyLines + 1 : 0;
-                }
-                totalLength += line.length() + 1;
-            }
-
-            if (end == -1) end = totalLength - 1;
-            return start != -1 ? new Location(offset, start, end) : null;
-        }
-        catch (IOException e) {
-            return null;
-        }
-    }
-
-    private Location getParentKeyLocation(String key) {
-        String[] parts = key.split("\\\\");
-        ArrayList<String> stack = new ArrayList<>(Arrays.asList(parts).subList(0, parts.length - 1));
-
-        while (!stack.isEmpty()) {
-            String currentKey = String.join("\\", stack);
-            Location location = getKeyLocation(currentKey, true);
-            if (location != null) return location;
-            stack.remove(stack.size()-1);
-        }
-
-        return null;
-    }
-
-    private Location getValueLocation(Location keyLocation, String name) {
-        if (keyLocation.start == keyLocation.end) return null;
-        try (BufferedReader reader = new BufferedReader(new FileReader(cloneFile), StreamUtils.BUFFER_SIZE)) {
-            reader.skip(keyLocation.start);
-            name = name != null ? "\""+escape(name)+"\"=" : "@=";
-            int totalLength = 0;
-            int start = -1;
-            int end = -1;
-            int offset = 0;
-
-            String line;
-            while ((line = reader.readLine()) != null && totalLength < keyLocation.length()) {
-                if (start == -1) {
-                    if (line.startsWith(name)) {
-                        offset = totalLength - 1;
-                        start = totalLength + name.length();
-                    }
-                }
-                else {
-                    if (line.isEmpty() || lineHasName(line)) {
-                        end = totalLength - 1;
-                        break;
-                    }
-                }
-                totalLength += line.length() + 1;
-            }
-
-            if (end == -1) end = totalLength - 1;
-            return start != -1 ? new Location(keyLocation.start + offset, keyLocation.start + start, keyLocation.start + end) : null;
-        }
-        catch (IOException e) {
-            return null;
         }
+        return removed;
     }
 }
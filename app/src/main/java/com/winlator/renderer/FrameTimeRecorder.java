@@ -0,0 +1,214 @@
+package com.winlator.renderer;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records the time between frames into a fixed log-linear histogram so percentiles and lows
+ * can be reported for a whole session instead of an average. Values below 16 us get a
+ * bucket each, every power of two above that is split into 16 buckets, which keeps the
+ * error of a reported frame time under 7%. Recording is lock-free and allocates nothing,
+ * so it can be called from any render or present thread.
+ */
+public class FrameTimeRecorder {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    /** Gaps this long are pauses (app in background, loading screen) rather than frames. */
+    public static final long MAX_FRAME_TIME_US = 1000000;
+    public static final int BUCKET_COUNT = bucketIndex(MAX_FRAME_TIME_US - 1) + 1;
+    /** A frame taking more than this many times the recent average is counted as a stutter. */
+    private static final int STUTTER_FACTOR = 2;
+    private static final int STUTTER_WARMUP_FRAMES = 30;
+    private static final int BINARY_MAGIC = 0x46544831; // "FTH1"
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong lastFrameNanos = new AtomicLong();
+    private final AtomicLong frameCount = new AtomicLong();
+    private final AtomicLong totalFrameTimeUs = new AtomicLong();
+    private final AtomicLong maxFrameTimeUs = new AtomicLong();
+    private final AtomicLong stutterCount = new AtomicLong();
+    private final AtomicLong pauseCount = new AtomicLong();
+    // Updated without synchronization; a lost update only nudges the stutter threshold
+    private volatile long averageFrameTimeUs = 0;
+
+    public static int bucketIndex(long frameTimeUs) {
+        if (frameTimeUs < SUB_BUCKET_COUNT) return (int)frameTimeUs;
+        int exponent = 63 - Long.numberOfLeadingZeros(frameTimeUs);
+        int subBucket = (int)(frameTimeUs >>> (exponent - SUB_BUCKET_BITS));
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket - SUB_BUCKET_COUNT;
+    }
+
+    public static long bucketLowerBound(int index) {
+        if (index < SUB_BUCKET_COUNT) return index;
+        int exponent = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+        long subBucket = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return subBucket << (exponent - SUB_BUCKET_BITS);
+    }
+
+    /** Records a frame presented at {@code nowNanos}, timed against the previous one. */
+    public void recordFrame(long nowNanos) {
+        long lastNanos = lastFrameNanos.getAndSet(nowNanos);
+        if (lastNanos != 0) recordFrameTime((nowNanos - lastNanos) / 1000);
+    }
+
+    public void recordFrameTime(long frameTimeUs) {
+        if (frameTimeUs < 0) return;
+        if (frameTimeUs >= MAX_FRAME_TIME_US) {
+            pauseCount.incrementAndGet();
+            return;
+        }
+
+        counts.incrementAndGet(bucketIndex(frameTimeUs));
+        long frames = frameCount.incrementAndGet();
+        totalFrameTimeUs.addAndGet(frameTimeUs);
+
+        long max;
+        while (frameTimeUs > (max = maxFrameTimeUs.get())) {
+            if (maxFrameTimeUs.compareAndSet(max, frameTimeUs)) break;
+        }
+
+        long average = averageFrameTimeUs;
+        if (frames > STUTTER_WARMUP_FRAMES && frameTimeUs > average * STUTTER_FACTOR) stutterCount.incrementAndGet();
+        averageFrameTimeUs = average == 0 ? frameTimeUs : average + (frameTimeUs - average) / 16;
+    }
+
+    public void reset() {
+        lastFrameNanos.set(0);
+        for (int i = 0; i < BUCKET_COUNT; i++) counts.set(i, 0);
+        frameCount.set(0);
+        totalFrameTimeUs.set(0);
+        maxFrameTimeUs.set(0);
+        stutterCount.set(0);
+        pauseCount.set(0);
+        averageFrameTimeUs = 0;
+    }
+
+    public long getFrameCount() {
+        return frameCount.get();
+    }
+
+    public Snapshot snapshot() {
+        long[] bucketCounts = new long[BUCKET_COUNT];
+        long frames = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            bucketCounts[i] = counts.get(i);
+            frames += bucketCounts[i];
+        }
+        return new Snapshot(bucketCounts, frames, totalFrameTimeUs.get(), maxFrameTimeUs.get(), stutterCount.get(), pauseCount.get());
+    }
+
+    /** A consistent copy of the histogram for reporting; counts recorded meanwhile are not included. */
+    public static class Snapshot {
+        private final long[] counts;
+        public final long frameCount;
+        public final long totalFrameTimeUs;
+        public final long maxFrameTimeUs;
+        public final long stutterCount;
+        public final long pauseCount;
+
+        private Snapshot(long[] counts, long frameCount, long totalFrameTimeUs, long maxFrameTimeUs, long stutterCount, long pauseCount) {
+            this.counts = counts;
+            this.frameCount = frameCount;
+            this.totalFrameTimeUs = totalFrameTimeUs;
+            this.maxFrameTimeUs = maxFrameTimeUs;
+            this.stutterCount = stutterCount;
+            this.pauseCount = pauseCount;
+        }
+
+        public long getCount(int bucket) {
+            return counts[bucket];
+        }
+
+        /** Midpoint of a bucket, capped by the longest frame seen. */
+        private long bucketValue(int bucket) {
+            long value = (bucketLowerBound(bucket) + bucketLowerBound(bucket + 1) - 1) / 2;
+            return Math.min(value, maxFrameTimeUs);
+        }
+
+        /** Frame time in milliseconds that {@code percentile} percent of the frames did not exceed. */
+        public float getPercentileMs(double percentile) {
+            if (frameCount == 0) return 0;
+            long rank = Math.max(1, (long)Math.ceil(frameCount * percentile / 100.0));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return bucketValue(i) / 1000.0f;
+            }
+            return maxFrameTimeUs / 1000.0f;
+        }
+
+        /** Average frame rate over the slowest {@code percent} percent of the frames, e.g. 1 for the 1% low. */
+        public float getLowFPS(double percent) {
+            if (frameCount == 0) return 0;
+            long wanted = Math.max(1, (long)Math.ceil(frameCount * percent / 100.0));
+            long taken = 0;
+            double sumUs = 0;
+            for (int i = counts.length - 1; i >= 0 && taken < wanted; i--) {
+                long count = Math.min(counts[i], wanted - taken);
+                sumUs += (double)count * bucketValue(i);
+                taken += count;
+            }
+            return sumUs > 0 ? (float)(1000000.0 * taken / sumUs) : 0;
+        }
+
+        public float getAvgFPS() {
+            return totalFrameTimeUs > 0 ? (float)(1000000.0 * frameCount / totalFrameTimeUs) : 0;
+        }
+
+        /** Summary plus the non-empty buckets as [lower bound in us, count] pairs. */
+        public String toJson() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format(Locale.ENGLISH,
+                "{\"frames\": %d, \"avg_fps\": %.1f, \"p50_ms\": %.2f, \"p95_ms\": %.2f, \"p99_ms\": %.2f, \"max_ms\": %.2f, " +
+                "\"low_1_fps\": %.1f, \"low_01_fps\": %.1f, \"stutters\": %d, \"pauses\": %d, \"buckets\": [",
+                frameCount, getAvgFPS(), getPercentileMs(50), getPercentileMs(95), getPercentileMs(99), maxFrameTimeUs / 1000.0f,
+                getLowFPS(1), getLowFPS(0.1), stutterCount, pauseCount));
+            boolean first = true;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] == 0) continue;
+                if (!first) sb.append(", ");
+                sb.append('[').append(bucketLowerBound(i)).append(", ").append(counts[i]).append(']');
+                first = false;
+            }
+            return sb.append("]}").toString();
+        }
+
+        /** Writes the snapshot with only its non-empty buckets; see {@link #readFrom(DataInputStream)}. */
+        public void writeTo(DataOutputStream outputStream) throws IOException {
+            int nonEmpty = 0;
+            for (long count : counts) if (count > 0) nonEmpty++;
+            outputStream.writeInt(BINARY_MAGIC);
+            outputStream.writeLong(totalFrameTimeUs);
+            outputStream.writeLong(maxFrameTimeUs);
+            outputStream.writeLong(stutterCount);
+            outputStream.writeLong(pauseCount);
+            outputStream.writeShort(nonEmpty);
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] == 0) continue;
+                outputStream.writeShort(i);
+                outputStream.writeLong(counts[i]);
+            }
+        }
+
+        public static Snapshot readFrom(DataInputStream inputStream) throws IOException {
+            if (inputStream.readInt() != BINARY_MAGIC) throw new IOException("Not a frame time histogram");
+            long totalFrameTimeUs = inputStream.readLong();
+            long maxFrameTimeUs = inputStream.readLong();
+            long stutterCount = inputStream.readLong();
+            long pauseCount = inputStream.readLong();
+            int nonEmpty = inputStream.readUnsignedShort();
+            long[] counts = new long[BUCKET_COUNT];
+            long frameCount = 0;
+            for (int i = 0; i < nonEmpty; i++) {
+                int bucket = inputStream.readUnsignedShort();
+                if (bucket >= BUCKET_COUNT) throw new IOException("Bad bucket " + bucket);
+                counts[bucket] = inputStream.readLong();
+                frameCount += counts[bucket];
+            }
+            return new Snapshot(counts, frameCount, totalFrameTimeUs, maxFrameTimeUs, stutterCount, pauseCount);
+        }
+    }
+}
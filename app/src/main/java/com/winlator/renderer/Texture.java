@@ -2,8 +2,10 @@ package com.winlator.renderer;
 
 import android.opengl.GLES11Ext;
 import android.opengl.GLES20;
+import android.opengl.GLES30;
 
 // import com.winlator.XrActivity;
+import com.winlator.xserver.DamageRegion;
 import com.winlator.xserver.Drawable;
 
 import java.nio.ByteBuffer;
@@ -16,7 +18,10 @@ public class Texture {
     private int minFilter = GLES20.GL_LINEAR;
     private int format = GLES11Ext.GL_BGRA;
     protected byte unpackAlignment = 4;
-    protected boolean needsUpdate = true;
+    protected volatile boolean needsUpdate = true;
+    private final int[] damageRects = new int[DamageRegion.MAX_RECTS * 4];
+    private ByteBuffer uploadSource;
+    private ByteBuffer uploadView;
 
     protected void generateTextureId() {
         int[] textureIds = new int[1];
@@ -54,13 +59,37 @@ public class Texture {
         if (data == null) return;
 
         if (!isAllocated()) {
+            drawable.getDamageRegion().clear();
             allocateTexture(drawable.width, drawable.height, data);
         }
         else if (needsUpdate) {
+            needsUpdate = false;
+            int numRects = drawable.getDamageRegion().drain(damageRects);
+            if (numRects == 0) return;
+
             GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
-            GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, drawable.width, drawable.height, format, GLES20.GL_UNSIGNED_BYTE, data);
+            if (numRects == 1 && damageRects[2] == drawable.width && damageRects[3] == drawable.height) {
+                GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, drawable.width, drawable.height, format, GLES20.GL_UNSIGNED_BYTE, data);
+            }
+            else {
+                // the X thread rewinds the shared buffer after every draw, so sub-rectangle
+                // uploads position a private view of it instead
+                if (uploadSource != data) {
+                    uploadSource = data;
+                    uploadView = data.duplicate();
+                }
+
+                GLES20.glPixelStorei(GLES30.GL_UNPACK_ROW_LENGTH, drawable.width);
+                for (int i = 0, j = 0; i < numRects; i++, j += 4) {
+                    int x = damageRects[j];
+                    int y = damageRects[j+1];
+                    uploadView.position((y * drawable.width + x) * 4);
+                    GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, x, y, damageRects[j+2], damageRects[j+3], format, GLES20.GL_UNSIGNED_BYTE, uploadView);
+                }
+                GLES20.glPixelStorei(GLES30.GL_UNPACK_ROW_LENGTH, 0);
+                uploadView.position(0);
+            }
             GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
-            needsUpdate = false;
         }
     }
 
@@ -90,6 +119,8 @@ public class Texture {
     }
 
     public void destroy() {
+        uploadSource = null;
+        uploadView = null;
         if (textureId > 0) {
             int[] textureIds = new int[]{textureId};
             GLES20.glDeleteTextures(textureIds.length, textureIds, 0);
@@ -2,111 +2,230 @@ package com.winlator.steampipeserver;
 
 import android.util.Log;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
 
+/**
+ * Answers the steam_api shim running inside Wine. All connections are served by one thread
+ * blocked in a {@link Selector}, so an idle game costs nothing. Messages are a little-endian
+ * int code, followed by a little-endian int argument for {@link RequestCodes#MSG_RESTART_APP};
+ * replies are a single little-endian int. Each client decodes from and replies into its own
+ * reused buffers.
+ */
 public class SteamPipeServer {
+    private static final String TAG = "SteamPipeServer";
     private static final int PORT = 34865;
-    private ServerSocket serverSocket;
-    private boolean running;
+    private static final int INPUT_BUFFER_SIZE = 256;
+    private static final int OUTPUT_BUFFER_SIZE = 256;
+    private final int port;
+    private volatile boolean running;
+    private volatile int localPort = -1;
+    private volatile Selector selector;
+    private Thread thread;
 
-    private int readNetworkInt(DataInputStream input) throws IOException {
-        return Integer.reverseBytes(input.readInt());
+    private static class Client {
+        final SocketChannel channel;
+        final ByteBuffer input = ByteBuffer.allocateDirect(INPUT_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        final ByteBuffer output = ByteBuffer.allocateDirect(OUTPUT_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        boolean closing = false;
+        boolean throttled = false;
+
+        Client(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    public SteamPipeServer() {
+        this(PORT);
+    }
+
+    /** @param port port to listen on, 0 for any free one */
+    public SteamPipeServer(int port) {
+        this.port = port;
     }
 
-    private void writeNetworkInt(DataOutputStream output, int value) throws IOException {
-        output.writeInt(Integer.reverseBytes(value));
+    /** Port the server is bound to, -1 until it is listening. */
+    public int getLocalPort() {
+        return localPort;
     }
 
-    public void start() {
+    public synchronized void start() {
+        if (running) return;
         running = true;
-        new Thread(() -> {
+        thread = new Thread(this::run, TAG);
+        thread.start();
+    }
+
+    private void run() {
+        try (Selector selector = Selector.open();
+             ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            this.selector = selector;
+            serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            serverChannel.bind(new InetSocketAddress(port));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            localPort = serverChannel.socket().getLocalPort();
+            Log.d(TAG, "Server started on port " + localPort);
+
             try {
-                serverSocket = new ServerSocket();
-                serverSocket.setReuseAddress(true);
-                serverSocket.bind(new InetSocketAddress(PORT));
-                Log.d("SteamPipeServer", "Server started on port " + PORT);
-
-                while (running) {
-                    Socket clientSocket = serverSocket.accept();
-                    // clientSocket.setTcpNoDelay(true);
-                    // clientSocket.setSoTimeout(5000);  // 5 second timeout
-                    handleClient(clientSocket);
+                serve(selector, serverChannel);
+            }
+            finally {
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof Client) close((Client)key.attachment(), key);
                 }
-            } catch (IOException e) {
-                Log.e("SteamPipeServer", "Server error", e);
             }
-        }).start();
+        }
+        catch (IOException e) {
+            if (running) Log.e(TAG, "Server error", e);
+        }
+        finally {
+            localPort = -1;
+        }
     }
 
-    private void handleClient(Socket clientSocket) {
-        new Thread(() -> {
-            try {
-                DataInputStream input = new DataInputStream(
-                        new BufferedInputStream(clientSocket.getInputStream()));
-                DataOutputStream output = new DataOutputStream(
-                        new BufferedOutputStream(clientSocket.getOutputStream()));
-
-                while (running && !clientSocket.isClosed()) {
-                    if (input.available() > 0) {
-                        int messageType = readNetworkInt(input);
-                        // Log.d("SteamPipeServer", "Received message: " + messageType);
-
-                        switch (messageType) {
-                            case RequestCodes.MSG_INIT:
-                                Log.d("SteamPipeServer", "Received MSG_INIT");
-                                writeNetworkInt(output, 1);
-                                output.flush();
-                                break;
-                            case RequestCodes.MSG_SHUTDOWN:
-                                Log.d("SteamPipeServer", "Received MSG_SHUTDOWN");
-                                clientSocket.close();
-                                break;
-                            case RequestCodes.MSG_RESTART_APP:
-                                Log.d("SteamPipeServer", "Received MSG_RESTART_APP");
-                                int appId = input.readInt();
-                                writeNetworkInt(output, 0); // Send restart not needed
-                                break;
-                            case RequestCodes.MSG_IS_RUNNING:
-                                Log.d("SteamPipeServer", "Received MSG_IS_RUNNING");
-                                writeNetworkInt(output, 1); // Send Steam running status
-                                break;
-                            case RequestCodes.MSG_REGISTER_CALLBACK:
-                                Log.d("SteamPipeServer", "Received MSG_REGISTER_CALLBACK");
-                                break;
-                            case RequestCodes.MSG_UNREGISTER_CALLBACK:
-                                Log.d("SteamPipeServer", "Received MSG_UNREGISTER_CALLBACK");
-                                break;
-                            case RequestCodes.MSG_RUN_CALLBACKS:
-                                Log.d("SteamPipeServer", "Received MSG_RUN_CALLBACKS");
-                                break;
-                            default:
-                                Log.w("SteamPipeServer", "Unknown message type: " + messageType);
-                                break;
-                        }
-                    }
+    private void serve(Selector selector, ServerSocketChannel serverChannel) throws IOException {
+        while (running) {
+            selector.select();
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                if (!key.isValid()) continue;
+
+                if (key.isAcceptable()) {
+                    accept(serverChannel);
+                    continue;
+                }
+
+                Client client = (Client)key.attachment();
+                try {
+                    if (key.isWritable()) flush(client, key);
+                    if (key.isValid() && key.isReadable()) read(client, key);
+                }
+                catch (IOException e) {
+                    Log.e(TAG, "Client handler error", e);
+                    close(client, key);
                 }
-            } catch (IOException e) {
-                Log.e("SteamPipeServer", "Client handler error", e);
             }
-        }).start();
+        }
+    }
+
+    private void accept(ServerSocketChannel serverChannel) throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.register(selector, SelectionKey.OP_READ, new Client(channel));
+        }
     }
 
-    public void stop() {
+    private void read(Client client, SelectionKey key) throws IOException {
+        if (client.channel.read(client.input) == -1) {
+            close(client, key);
+            return;
+        }
+        decode(client, key);
+    }
+
+    private void decode(Client client, SelectionKey key) throws IOException {
+        client.input.flip();
+        while (!client.closing && client.input.remaining() >= 4) {
+            // Stop decoding while the reply buffer is full; the rest waits for the client to read
+            if (client.output.remaining() < 4) {
+                client.throttled = true;
+                break;
+            }
+            int requestCode = client.input.getInt(client.input.position());
+            int argumentSize = requestCode == RequestCodes.MSG_RESTART_APP ? 4 : 0;
+            if (client.input.remaining() < 4 + argumentSize) break;
+            client.input.position(client.input.position() + 4);
+            handleRequest(client, requestCode);
+        }
+        client.input.compact();
+        flush(client, key);
+    }
+
+    private void handleRequest(Client client, int requestCode) {
+        switch (requestCode) {
+            case RequestCodes.MSG_INIT:
+                Log.d(TAG, "Received MSG_INIT");
+                client.output.putInt(1);
+                break;
+            case RequestCodes.MSG_SHUTDOWN:
+                Log.d(TAG, "Received MSG_SHUTDOWN");
+                client.closing = true;
+                break;
+            case RequestCodes.MSG_RESTART_APP:
+                int appId = client.input.getInt();
+                Log.d(TAG, "Received MSG_RESTART_APP for " + appId);
+                client.output.putInt(0); // Send restart not needed
+                break;
+            case RequestCodes.MSG_IS_RUNNING:
+                client.output.putInt(1); // Send Steam running status
+                break;
+            case RequestCodes.MSG_REGISTER_CALLBACK:
+            case RequestCodes.MSG_UNREGISTER_CALLBACK:
+            case RequestCodes.MSG_RUN_CALLBACKS:
+                break;
+            default:
+                Log.w(TAG, "Unknown message type: " + requestCode);
+                break;
+        }
+    }
+
+    private void flush(Client client, SelectionKey key) throws IOException {
+        boolean pending = false;
+        if (client.output.position() > 0) {
+            client.output.flip();
+            client.channel.write(client.output);
+            pending = client.output.hasRemaining();
+            client.output.compact();
+        }
+
+        if (!pending && client.closing) {
+            close(client, key);
+        }
+        else if (pending) {
+            key.interestOps(SelectionKey.OP_WRITE);
+        }
+        else {
+            key.interestOps(SelectionKey.OP_READ);
+            if (client.throttled) {
+                client.throttled = false;
+                decode(client, key);
+            }
+        }
+    }
+
+    private void close(Client client, SelectionKey key) {
+        key.cancel();
+        try {
+            client.channel.close();
+        }
+        catch (IOException e) {}
+    }
+
+    public synchronized void stop() {
+        if (!running) return;
         running = false;
+        Selector selector = this.selector;
+        if (selector != null) selector.wakeup();
         try {
-            if (serverSocket != null) {
-                serverSocket.close();
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+            thread.join(1000);
         }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+        this.selector = null;
     }
 }
-
@@ -8,12 +8,16 @@ import android.view.View;
 import android.widget.FrameLayout;
 import android.widget.TextView;
 
+import com.winlator.renderer.FrameTimeRecorder;
 import com.winlator.xenvironment.ImageFs;
 
 import app.gamenative.R;
 import timber.log.Timber;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
@@ -37,6 +41,10 @@ public class FrameRating extends FrameLayout implements Runnable {
     private long lastReadingTime = 0;
     private long fpsSum = 0; // Sum of all FPS readings for average calculation
 
+    // Frame time histograms fed by the renderer and the Present extension
+    private FrameTimeRecorder renderFrameTimes;
+    private FrameTimeRecorder presentFrameTimes;
+
     public FrameRating(Context context) {
         this(context, null);
     }
@@ -97,6 +105,17 @@ public class FrameRating extends FrameLayout implements Runnable {
         return (SystemClock.elapsedRealtime() - sessionStartTime) / 1000.0f;
     }
 
+    public void setFrameTimeRecorders(FrameTimeRecorder renderFrameTimes, FrameTimeRecorder presentFrameTimes) {
+        this.renderFrameTimes = renderFrameTimes;
+        this.presentFrameTimes = presentFrameTimes;
+    }
+
+    /** Frame times of the game's presents if it uses the Present extension, of the rendered frames otherwise. */
+    public FrameTimeRecorder.Snapshot getFrameTimeSnapshot() {
+        if (presentFrameTimes != null && presentFrameTimes.getFrameCount() > 0) return presentFrameTimes.snapshot();
+        return renderFrameTimes != null ? renderFrameTimes.snapshot() : null;
+    }
+
     public void writeSessionSummary() {
         if (readingCount == 0) return;
 
@@ -106,6 +125,8 @@ public class FrameRating extends FrameLayout implements Runnable {
         final int max = maxFPS;
         final int min = minFPS == Integer.MAX_VALUE ? 0 : minFPS;
         final float avgFPS = (float) fpsSum / readingCount;
+        final FrameTimeRecorder.Snapshot renderSnapshot = renderFrameTimes != null ? renderFrameTimes.snapshot() : null;
+        final FrameTimeRecorder.Snapshot presentSnapshot = presentFrameTimes != null ? presentFrameTimes.snapshot() : null;
 
         Context context = getContext();
         ImageFs imageFs = ImageFs.find(context);
@@ -114,6 +135,7 @@ public class FrameRating extends FrameLayout implements Runnable {
         SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.ENGLISH);
         String timestamp = dateFormat.format(new Date());
         File fpsLogFile = new File(imageFs.getTmpDir(), "fps_session" + ".json");
+        File frameTimesFile = new File(imageFs.getTmpDir(), "fps_session_frame_times.bin");
         ExecutorService fileWriteExecutor = Executors.newSingleThreadExecutor();
 
         fileWriteExecutor.execute(() -> {
@@ -130,14 +152,26 @@ public class FrameRating extends FrameLayout implements Runnable {
                     "  \"avg_fps\": %.1f,\n" +
                     "  \"max_fps\": %d,\n" +
                     "  \"min_fps\": %d,\n" +
-                    "  \"readings\": %d\n" +
+                    "  \"readings\": %d,\n" +
+                    "  \"render_frame_times\": %s,\n" +
+                    "  \"present_frame_times\": %s\n" +
                     "}\n",
-                    sessionLengthSec, avgFPS, max, min, readingCount);
+                    sessionLengthSec, avgFPS, max, min, readingCount,
+                    renderSnapshot != null ? renderSnapshot.toJson() : "null",
+                    presentSnapshot != null ? presentSnapshot.toJson() : "null");
                 try (FileWriter fw = new FileWriter(fpsLogFile, false)) {
                     fw.write(json);
                     fw.flush();
                 }
                 Timber.d("Session summary written to: %s", fpsLogFile.getAbsolutePath());
+
+                // Full histograms, render first, for offline comparison between sessions
+                if (renderSnapshot != null && presentSnapshot != null) {
+                    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(frameTimesFile)))) {
+                        renderSnapshot.writeTo(out);
+                        presentSnapshot.writeTo(out);
+                    }
+                }
             } catch (IOException e) {
                 Timber.e(e, "Failed to write session summary");
             } finally {
@@ -0,0 +1,100 @@
+package com.winlator.winhandler;
+
+import android.os.FileObserver;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Watches the rumble values that evshim writes into a gamepad memory file. evshim stores
+ * them with pwrite(), which raises an inotify modify event, so the monitor thread sleeps
+ * until that event rings its doorbell instead of polling the mapping. Our own updates of
+ * the mapping go through memory and do not wake it. A slow fallback poll covers events
+ * that are lost, e.g. when the file is recreated under the observer.
+ */
+public class RumbleMonitor {
+    public static final int LOW_FREQ_OFFSET = 32;
+    public static final int HIGH_FREQ_OFFSET = 34;
+    private static final long FALLBACK_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    private final ByteBuffer buffer;
+    private final OnRumbleListener listener;
+    private final AtomicBoolean signaled = new AtomicBoolean();
+    private volatile boolean running = false;
+    private Thread thread;
+    private FileObserver fileObserver;
+    private short lastLowFreq = 0;
+    private short lastHighFreq = 0;
+
+    public interface OnRumbleListener {
+        void onRumble(short lowFreq, short highFreq);
+    }
+
+    public RumbleMonitor(ByteBuffer buffer, OnRumbleListener listener) {
+        this.buffer = buffer;
+        this.listener = listener;
+    }
+
+    /** Rings the doorbell whenever {@code file} is written to. */
+    public void watch(File file) {
+        fileObserver = new FileObserver(file.getPath(), FileObserver.MODIFY) {
+            @Override
+            public void onEvent(int event, String path) {
+                signal();
+            }
+        };
+        fileObserver.startWatching();
+    }
+
+    /** Wakes the monitor to check the rumble values now. */
+    public void signal() {
+        if (signaled.compareAndSet(false, true)) {
+            Thread thread = this.thread;
+            if (thread != null) LockSupport.unpark(thread);
+        }
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        thread = new Thread(this::run, "RumbleMonitor");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        if (!running) return;
+        running = false;
+        if (fileObserver != null) {
+            fileObserver.stopWatching();
+            fileObserver = null;
+        }
+        LockSupport.unpark(thread);
+        try {
+            thread.join(100);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    private void run() {
+        while (running) {
+            signaled.set(false);
+            short lowFreq = buffer.getShort(LOW_FREQ_OFFSET);
+            short highFreq = buffer.getShort(HIGH_FREQ_OFFSET);
+            if (lowFreq != lastLowFreq || highFreq != lastHighFreq) {
+                lastLowFreq = lowFreq;
+                lastHighFreq = highFreq;
+                try {
+                    listener.onRumble(lowFreq, highFreq);
+                }
+                catch (Exception e) {}
+            }
+            if (!signaled.get()) LockSupport.parkNanos(this, FALLBACK_POLL_NANOS);
+        }
+    }
+}
@@ -57,6 +57,7 @@ public class WinHandler {
     private MappedByteBuffer gamepadBuffer;
     private static final short SERVER_PORT = 7947;
     private static final short CLIENT_PORT = 7946;
+    private static final String GAMEPAD_MEM_PATH = "/data/data/app.gamenative/files/imagefs/tmp/gamepad.mem";
     private final ArrayDeque<Runnable> actions;
     private ExternalController currentController;
     private byte dinputMapperType;
@@ -76,13 +77,14 @@ public class WinHandler {
     private final XServerView xServerView;
 
     private InputControlsView inputControlsView;
-    private Thread rumblePollerThread;
-    private short lastLowFreq = 0;  // Use 'short' instead of uint16_t
-    private short lastHighFreq = 0; // Use 'short' instead of uint16_t
+    private RumbleMonitor rumbleMonitor;
     private boolean isRumbling = false;
     private boolean isShowingAssignDialog = false;
     private Context activity;
     private final java.util.Set<Integer> ignoredDeviceIds = new java.util.HashSet<>();
+    // Ports with a gamepad state packet queued; the packet reads the state when it is sent
+    private final java.util.Set<Integer> pendingStatePorts = java.util.concurrent.ConcurrentHashMap.newKeySet();
+    private final byte[] sdlButtons = new byte[15];
 
     // Add method to set InputControlsView
     public void setInputControlsView(InputControlsView view) {
@@ -351,6 +353,12 @@ public class WinHandler {
         synchronized (this.actions) {
             this.actions.notify();
         }
+        // Queued state packets die with the action loop, so their ports must not stay marked
+        pendingStatePorts.clear();
+        if (rumbleMonitor != null) {
+            rumbleMonitor.stop();
+            rumbleMonitor = null;
+        }
     }
 
     private void handleRequest(byte requestCode, final int port) throws IOException {
@@ -520,8 +528,7 @@ public class WinHandler {
         try {
             this.localhost = InetAddress.getLocalHost();
             // Player 1 (currentController) gets the original non-numbered file
-            String p1_mem_path = "/data/data/app.gamenative/files/imagefs/tmp/gamepad.mem";
-            File p1_memFile = new File(p1_mem_path);
+            File p1_memFile = new File(GAMEPAD_MEM_PATH);
             p1_memFile.getParentFile().mkdirs();
             try (RandomAccessFile raf = new RandomAccessFile(p1_memFile, "rw")) {
                 raf.setLength(64);
@@ -566,45 +573,23 @@ public class WinHandler {
             }
         });
 
-        startRumblePoller();
-        running = true;
-        startSendThread();
+        startRumbleMonitor(new File(GAMEPAD_MEM_PATH));
     }
 
-    private void startRumblePoller() {
-        rumblePollerThread = new Thread(() -> {
-            while (running) {
-                // --- MODIFIED: Get the current profile state on EVERY loop iteration ---
-                try {
-                    // Always poll for rumble if gamepad buffer exists, regardless of controller state
-                    // This ensures vibration works with built-in controllers (like Ayn Odin 2)
-                    // even when virtual gamepad mode is disabled
-                    if (gamepadBuffer != null) {
-                        // Read the rumble values from the shared memory file.
-                        short lowFreq = gamepadBuffer.getShort(32);
-                        short highFreq = gamepadBuffer.getShort(34);
-                        // Check if the rumble state has changed
-                        if (lowFreq != lastLowFreq || highFreq != lastHighFreq) {
-                            lastLowFreq = lowFreq;
-                            lastHighFreq = highFreq;
-                            if (lowFreq == 0 && highFreq == 0) {
-                                stopVibration();
-                            } else {
-                                startVibration(lowFreq, highFreq);
-                            }
-                        }
-                    }
-                } catch (Exception e) {
-                    continue;
-                }
-                try {
-                    Thread.sleep(20); // Poll for new commands 50 times per second
-                } catch (InterruptedException e) {
-                    break;
-                }
+    private void startRumbleMonitor(File memFile) {
+        // Always watch for rumble if gamepad buffer exists, regardless of controller state
+        // This ensures vibration works with built-in controllers (like Ayn Odin 2)
+        // even when virtual gamepad mode is disabled
+        if (gamepadBuffer == null) return;
+        rumbleMonitor = new RumbleMonitor(gamepadBuffer, (lowFreq, highFreq) -> {
+            if (lowFreq == 0 && highFreq == 0) {
+                stopVibration();
+            } else {
+                startVibration(lowFreq, highFreq);
             }
         });
-        rumblePollerThread.start();
+        rumbleMonitor.watch(memFile);
+        rumbleMonitor.start();
     }
 
     private void startVibration(short lowFreq, short highFreq) {
@@ -678,7 +663,11 @@ public class WinHandler {
         Iterator<Integer> it = this.gamepadClients.iterator();
         while (it.hasNext()) {
             final int port = it.next().intValue();
+            // A queued packet already carries the latest state, so fast stick motion
+            // cannot pile up packets behind it
+            if (!pendingStatePorts.add(port)) continue;
             addAction(() -> {
+                pendingStatePorts.remove(port);
                 this.sendData.rewind();
                 sendData.put(RequestCodes.GET_GAMEPAD_STATE);
                 sendData.put((byte)(enabled ? 1 : 0));
@@ -811,7 +800,6 @@ public class WinHandler {
         buffer.putShort((short)lAxis);
         buffer.putShort((short)rAxis);
         // --- Buttons and D-Pad are perfect. No changes here. ---
-        byte[] sdlButtons = new byte[15];
         sdlButtons[0] = state.isPressed(0) ? (byte)1 : (byte)0;  // A
         sdlButtons[1] = state.isPressed(1) ? (byte)1 : (byte)0;  // B
         sdlButtons[2] = state.isPressed(2) ? (byte)1 : (byte)0;  // X
@@ -851,7 +839,6 @@ public class WinHandler {
         gamepadBuffer.putShort((short)rAxis);
 
         // Buttons & D-Pad
-        byte[] sdlButtons = new byte[15];
         sdlButtons[0] = state.isPressed(0) ? (byte)1 : (byte)0;  // A
         sdlButtons[1] = state.isPressed(1) ? (byte)1 : (byte)0;  // B
         sdlButtons[2] = state.isPressed(2) ? (byte)1 : (byte)0;  // X
@@ -0,0 +1,65 @@
+package com.winlator.xconnector;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Bounded pool of direct buffers bucketed by power-of-two capacity. Connection streams
+ * borrow from it when they grow and give buffers back when they shrink or disconnect,
+ * so request bursts on one client do not keep allocating fresh direct memory.
+ */
+public class ByteBufferPool {
+    private static final int MAX_SIZE_CLASSES = 31;
+    private final ArrayDeque<ByteBuffer>[] freeBuffers;
+    private final int maxPooledBytes;
+    private int pooledBytes = 0;
+    private int allocationCount = 0;
+
+    @SuppressWarnings("unchecked")
+    public ByteBufferPool(int maxPooledBytes) {
+        this.maxPooledBytes = maxPooledBytes;
+        freeBuffers = new ArrayDeque[MAX_SIZE_CLASSES];
+    }
+
+    public static int roundToSizeClass(int capacity) {
+        if (capacity <= 1) return 1;
+        int highestOneBit = Integer.highestOneBit(capacity - 1) << 1;
+        return highestOneBit > 0 ? highestOneBit : capacity;
+    }
+
+    public synchronized ByteBuffer acquire(int minCapacity) {
+        int capacity = roundToSizeClass(minCapacity);
+        int sizeClass = Integer.numberOfTrailingZeros(capacity);
+        if (sizeClass < MAX_SIZE_CLASSES) {
+            ArrayDeque<ByteBuffer> buffers = freeBuffers[sizeClass];
+            ByteBuffer buffer = buffers != null ? buffers.poll() : null;
+            if (buffer != null) {
+                pooledBytes -= buffer.capacity();
+                buffer.clear();
+                return buffer;
+            }
+        }
+
+        allocationCount++;
+        return ByteBuffer.allocateDirect(capacity);
+    }
+
+    public synchronized void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) return;
+        int capacity = buffer.capacity();
+        if (Integer.bitCount(capacity) != 1 || pooledBytes + capacity > maxPooledBytes) return;
+
+        int sizeClass = Integer.numberOfTrailingZeros(capacity);
+        if (freeBuffers[sizeClass] == null) freeBuffers[sizeClass] = new ArrayDeque<>();
+        freeBuffers[sizeClass].push(buffer);
+        pooledBytes += capacity;
+    }
+
+    public synchronized int getPooledBytes() {
+        return pooledBytes;
+    }
+
+    public synchronized int getAllocationCount() {
+        return allocationCount;
+    }
+}
@@ -15,6 +15,9 @@ public class Client {
     protected Thread pollThread;
     protected int shutdownFd;
     protected boolean connected;
+    protected int handledRequestCount;
+    protected boolean handlingRequests;
+    private boolean releasePending;
 
     public Client(XConnectorEpoll connector, ClientSocket clientSocket) {
         this.connector = connector;
@@ -23,7 +26,7 @@ public class Client {
 
     public void createIOStreams() {
         if (inputStream != null || outputStream != null) return;
-        inputStream = new XInputStream(clientSocket, connector.getInitialInputBufferCapacity());
+        inputStream = new XInputStream(clientSocket, connector.getInitialInputBufferCapacity(), connector.getBufferPool());
         outputStream = new XOutputStream(clientSocket, connector.getInitialOutputBufferCapacity());
         inputStream.setByteOrder(ByteOrder.LITTLE_ENDIAN);
         outputStream.setByteOrder(ByteOrder.LITTLE_ENDIAN);
@@ -37,6 +40,37 @@ public class Client {
         return outputStream;
     }
 
+    public int getAllocationCount() {
+        int allocationCount = 0;
+        if (inputStream != null) allocationCount += inputStream.getAllocationCount();
+        if (outputStream != null) allocationCount += outputStream.getAllocationCount();
+        return allocationCount;
+    }
+
+    public int getHandledRequestCount() {
+        return handledRequestCount;
+    }
+
+    public int getWriteCount() {
+        return outputStream != null ? outputStream.getWriteCount() : 0;
+    }
+
+    protected void releaseIOStreams() {
+        // A handler can kill the connection from inside the request loop, which still
+        // decodes from the input buffer, so the buffer goes back to the pool once it exits
+        if (handlingRequests) {
+            releasePending = true;
+            return;
+        }
+        releasePending = false;
+        if (inputStream != null) inputStream.release();
+    }
+
+    protected void finishHandlingRequests() {
+        handlingRequests = false;
+        if (releasePending) releaseIOStreams();
+    }
+
     public Object getTag() {
         return tag;
     }
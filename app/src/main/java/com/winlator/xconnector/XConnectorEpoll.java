@@ -7,6 +7,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 
 public class XConnectorEpoll implements Runnable {
+    private static final int MAX_POOLED_BUFFER_BYTES = 8 * 1024 * 1024;
     private final ConnectionHandler connectionHandler;
     private final int epollFd;
     private Thread epollThread;
@@ -17,9 +18,11 @@ public class XConnectorEpoll implements Runnable {
     private boolean multithreadedClients = false;
     private boolean canReceiveAncillaryMessages = false;
     private boolean monitorClients = true;
+    private boolean corkClientOutput = false;
     private int initialInputBufferCapacity = 128;
     private int initialOutputBufferCapacity = 128;
     private final SparseArray<Client> connectedClients = new SparseArray<>();
+    private final ByteBufferPool bufferPool = new ByteBufferPool(MAX_POOLED_BUFFER_BYTES);
 
     private native boolean addFdToEpoll(int i, int i2);
 
@@ -132,11 +135,21 @@ public class XConnectorEpoll implements Runnable {
         try {
             if (inputStream != null) {
                 if (inputStream.readMoreData(this.canReceiveAncillaryMessages) > 0) {
-                    int activePosition = 0;
-                    while (this.running && this.requestHandler.handleRequest(client)) {
-                        activePosition = inputStream.getActivePosition();
+                    XOutputStream outputStream = this.corkClientOutput ? client.getOutputStream() : null;
+                    if (outputStream != null) outputStream.cork();
+                    client.handlingRequests = true;
+                    try {
+                        int activePosition = 0;
+                        while (this.running && client.connected && this.requestHandler.handleRequest(client)) {
+                            activePosition = inputStream.getActivePosition();
+                            client.handledRequestCount++;
+                        }
+                        inputStream.setActivePosition(activePosition);
+                    }
+                    finally {
+                        client.finishHandlingRequests();
+                        if (outputStream != null) outputStream.uncork();
                     }
-                    inputStream.setActivePosition(activePosition);
                     return;
                 }
                 killConnection(client);
@@ -165,11 +178,16 @@ public class XConnectorEpoll implements Runnable {
                 }
                 this.connectionHandler.handleConnectionShutdown(client);
                 client.pollThread = null;
+                client.releaseIOStreams();
+            } else {
+                // Killed from its own poll thread, which exits once connected is false
+                client.releaseIOStreams();
             }
             closeFd(client.shutdownFd);
         } else {
             this.connectionHandler.handleConnectionShutdown(client);
             removeFdFromEpoll(this.epollFd, client.clientSocket.fd);
+            client.releaseIOStreams();
         }
         closeFd(client.clientSocket.fd);
         this.connectedClients.remove(client.clientSocket.fd);
@@ -187,6 +205,10 @@ public class XConnectorEpoll implements Runnable {
         closeFd(this.epollFd);
     }
 
+    public ByteBufferPool getBufferPool() {
+        return this.bufferPool;
+    }
+
     public int getInitialInputBufferCapacity() {
         return this.initialInputBufferCapacity;
     }
@@ -211,6 +233,10 @@ public class XConnectorEpoll implements Runnable {
         this.canReceiveAncillaryMessages = canReceiveAncillaryMessages;
     }
 
+    public void setCorkClientOutput(boolean corkClientOutput) {
+        this.corkClientOutput = corkClientOutput;
+    }
+
     public int getConnectedClientsCount() {
         return this.connectedClients.size();
     }
@@ -7,8 +7,18 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 
 public class XInputStream {
+    private static final int SHRINK_AFTER_IDLE_READS = 64;
+    private static final int MAX_CACHED_VIEWS = 32;
     private ByteBuffer activeBuffer;
+    private boolean active = false;
     private ByteBuffer buffer;
+    private final ByteBufferPool bufferPool;
+    private final int initialCapacity;
+    private final ByteBuffer[] cachedViews = new ByteBuffer[MAX_CACHED_VIEWS];
+    private final int[] cachedViewOffsets = new int[MAX_CACHED_VIEWS];
+    private byte[] stringBytes = new byte[64];
+    private int idleReads = 0;
+    private int allocationCount = 0;
     public final ClientSocket clientSocket;
 
     public XInputStream(int initialCapacity) {
@@ -16,12 +26,40 @@ public class XInputStream {
     }
 
     public XInputStream(ClientSocket clientSocket, int initialCapacity) {
+        this(clientSocket, initialCapacity, null);
+    }
+
+    public XInputStream(ClientSocket clientSocket, int initialCapacity, ByteBufferPool bufferPool) {
         this.clientSocket = clientSocket;
-        this.buffer = ByteBuffer.allocateDirect(initialCapacity);
+        this.bufferPool = bufferPool;
+        this.initialCapacity = initialCapacity;
+        setBuffer(acquireBuffer(initialCapacity));
     }
 
     public int readMoreData(boolean canReceiveAncillaryMessages) throws IOException {
-        if (activeBuffer != null) {
+        prepareForRead();
+        int bytesRead = canReceiveAncillaryMessages ? clientSocket.recvAncillaryMsg(buffer) : clientSocket.read(buffer);
+        onDataRead(bytesRead);
+        return bytesRead;
+    }
+
+    /**
+     * Appends as much of data as fits, as if it had been read from the socket. Lets the
+     * decoding path be driven without a connection.
+     */
+    int readMoreData(ByteBuffer data) {
+        prepareForRead();
+        int bytesRead = Math.min(data.remaining(), buffer.remaining());
+        int limit = data.limit();
+        data.limit(data.position() + bytesRead);
+        buffer.put(data);
+        data.limit(limit);
+        onDataRead(bytesRead);
+        return bytesRead;
+    }
+
+    private void prepareForRead() {
+        if (active) {
             if (!activeBuffer.hasRemaining()) {
                 buffer.clear();
             }
@@ -30,19 +68,21 @@ public class XInputStream {
                 buffer.position(activeBuffer.position()).limit(newLimit);
                 buffer.compact();
             }
-            activeBuffer = null;
+            active = false;
         }
 
+        shrinkInputBufferIfIdle();
         growInputBufferIfNecessary();
-        int bytesRead = canReceiveAncillaryMessages ? clientSocket.recvAncillaryMsg(buffer) : clientSocket.read(buffer);
+    }
 
+    private void onDataRead(int bytesRead) {
         if (bytesRead > 0) {
-            int position = buffer.position();
-            buffer.flip();
-            activeBuffer = buffer.slice().order(buffer.order());
-            buffer.limit(buffer.capacity()).position(position);
+            // unread data is always compacted to the start of the buffer, so the
+            // active view only needs its bounds reset instead of a new slice
+            activeBuffer.limit(buffer.position());
+            activeBuffer.position(0);
+            active = true;
         }
-        return bytesRead;
     }
 
     public int getAncillaryFd() {
@@ -51,16 +91,68 @@ public class XInputStream {
 
     private void growInputBufferIfNecessary() {
         if (buffer.position() == buffer.capacity()) {
-            ByteBuffer newBuffer = ByteBuffer.allocateDirect(buffer.capacity() * 2).order(buffer.order());
-            buffer.rewind();
-            newBuffer.put(buffer);
-            buffer = newBuffer;
+            resizeBuffer(buffer.capacity() * 2);
+            idleReads = 0;
         }
     }
 
+    private void shrinkInputBufferIfIdle() {
+        int capacity = buffer.capacity();
+        if (capacity <= initialCapacity) return;
+
+        if (buffer.position() < capacity / 4) {
+            if (++idleReads >= SHRINK_AFTER_IDLE_READS) {
+                resizeBuffer(Math.max(initialCapacity, capacity / 2));
+                idleReads = 0;
+            }
+        }
+        else idleReads = 0;
+    }
+
+    private void resizeBuffer(int newCapacity) {
+        ByteBuffer oldBuffer = buffer;
+        ByteBuffer newBuffer = acquireBuffer(newCapacity);
+        int position = oldBuffer.position();
+        oldBuffer.flip();
+        newBuffer.put(oldBuffer);
+        setBuffer(newBuffer);
+        if (bufferPool != null) bufferPool.release(oldBuffer);
+        buffer.position(position);
+    }
+
+    private ByteBuffer acquireBuffer(int capacity) {
+        if (bufferPool != null) return bufferPool.acquire(capacity);
+        allocationCount++;
+        return ByteBuffer.allocateDirect(capacity);
+    }
+
+    private void setBuffer(ByteBuffer newBuffer) {
+        ByteOrder byteOrder = buffer != null ? buffer.order() : ByteOrder.BIG_ENDIAN;
+        buffer = newBuffer.order(byteOrder);
+        activeBuffer = buffer.duplicate().order(byteOrder);
+        allocationCount++;
+        for (int i = 0; i < MAX_CACHED_VIEWS; i++) cachedViews[i] = null;
+    }
+
+    public void release() {
+        active = false;
+        if (bufferPool != null) bufferPool.release(buffer);
+        buffer = ByteBuffer.allocateDirect(0);
+        activeBuffer = buffer.duplicate();
+        for (int i = 0; i < MAX_CACHED_VIEWS; i++) cachedViews[i] = null;
+    }
+
+    public int getAllocationCount() {
+        return allocationCount;
+    }
+
+    public int getCapacity() {
+        return buffer.capacity();
+    }
+
     public void setByteOrder(ByteOrder byteOrder) {
         buffer.order(byteOrder);
-        if (activeBuffer != null) activeBuffer.order(byteOrder);
+        activeBuffer.order(byteOrder);
     }
 
     public int getActivePosition() {
@@ -107,21 +199,54 @@ public class XInputStream {
         activeBuffer.get(result);
     }
 
+    /**
+     * Returns a view of the next length bytes starting at index 0. Views are cached per
+     * buffer offset and reused by later calls, so callers must consume the returned
+     * buffer before reading the next request.
+     */
     public ByteBuffer readByteBuffer(int length) {
-        ByteBuffer newBuffer = activeBuffer.slice().order(activeBuffer.order());
-        newBuffer.limit(length);
-        activeBuffer.position(activeBuffer.position() + length);
-        return newBuffer;
+        int offset = activeBuffer.position();
+        ByteBuffer view = getViewAt(offset);
+        view.clear();
+        view.limit(length);
+        view.order(activeBuffer.order());
+        activeBuffer.position(offset + length);
+        return view;
+    }
+
+    private ByteBuffer getViewAt(int offset) {
+        int slot = offset & (MAX_CACHED_VIEWS - 1);
+        ByteBuffer view = cachedViews[slot];
+        if (view != null && cachedViewOffsets[slot] == offset) return view;
+
+        int position = buffer.position();
+        int limit = buffer.limit();
+        buffer.limit(buffer.capacity()).position(offset);
+        view = buffer.slice();
+        buffer.limit(limit).position(position);
+
+        cachedViews[slot] = view;
+        cachedViewOffsets[slot] = offset;
+        allocationCount++;
+        return view;
     }
 
     public String readString8(int length) {
-        byte[] bytes = new byte[length];
-        read(bytes);
-        String str = new String(bytes, XServer.LATIN1_CHARSET);
+        if (length > stringBytes.length) {
+            stringBytes = new byte[ByteBufferPool.roundToSizeClass(length)];
+            allocationCount++;
+        }
+        activeBuffer.get(stringBytes, 0, length);
+        String str = new String(stringBytes, 0, length, XServer.LATIN1_CHARSET);
+        allocationCount++;
         if ((-length & 3) > 0) skip(-length & 3);
         return str;
     }
 
+    public void skipString8(int length) {
+        skip(length + (-length & 3));
+    }
+
     public void skip(int length) {
         activeBuffer.position(activeBuffer.position() + length);
     }
@@ -9,10 +9,15 @@ import java.util.concurrent.locks.ReentrantLock;
 
 public class XOutputStream {
     private static final byte[] ZERO = new byte[64];
+    private static final int MAX_CORKED_BYTES = 65536;
     public ByteBuffer buffer;
     public final ClientSocket clientSocket;
     private final ReentrantLock lock = new ReentrantLock();
+    private final OutputStreamLock streamLock = new OutputStreamLock();
     private int ancillaryFd = -1;
+    private boolean corked = false;
+    private int writeCount = 0;
+    private int allocationCount = 0;
 
     public XOutputStream(int initialCapacity) {
         this(null, initialCapacity);
@@ -87,21 +92,58 @@ public class XOutputStream {
             }
             else clientSocket.write(buffer);
 
+            writeCount++;
             buffer.clear();
         }
     }
 
     public XStreamLock lock() {
-        return new OutputStreamLock();
+        lock.lock();
+        return streamLock;
+    }
+
+    /**
+     * Defers flushing until uncork() so that all replies and events produced while the
+     * connector handles one input batch leave in a single write. Messages carrying an
+     * ancillary fd are still flushed immediately.
+     */
+    public void cork() {
+        lock.lock();
+        try {
+            corked = true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public void uncork() throws IOException {
+        lock.lock();
+        try {
+            corked = false;
+            flush();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public int getWriteCount() {
+        return writeCount;
+    }
+
+    public int getAllocationCount() {
+        return allocationCount;
     }
 
     private void ensureSpaceIsAvailable(int length) {
         int position = buffer.position();
         if ((buffer.capacity() - position) >= length) return;
-        ByteBuffer newBuffer = ByteBuffer.allocateDirect(buffer.capacity() + length).order(buffer.order());
-        buffer.rewind();
-        newBuffer.put(buffer).position(position);
+        ByteBuffer newBuffer = ByteBuffer.allocateDirect(Math.max(buffer.capacity() * 2, position + length)).order(buffer.order());
+        buffer.flip();
+        newBuffer.put(buffer);
         buffer = newBuffer;
+        allocationCount++;
     }
 
     public void writeSuccessReply(int sequenceNumber, int replyLength) throws IOException {
@@ -115,14 +157,10 @@ public class XOutputStream {
     }
 
     private class OutputStreamLock implements XStreamLock {
-        public OutputStreamLock() {
-            lock.lock();
-        }
-
         @Override
         public void close() throws IOException {
             try {
-                flush();
+                if (!corked || ancillaryFd != -1 || buffer.position() >= MAX_CORKED_BYTES) flush();
             }
             finally {
                 lock.unlock();
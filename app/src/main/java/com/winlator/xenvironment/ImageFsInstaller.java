@@ -63,27 +63,32 @@ public abstract class ImageFsInstaller {
     public static void installWineFromAssets(final Context context, AssetManager assetManager) {
         String[] versions = context.getResources().getStringArray(R.array.bionic_wine_entries);
         File rootDir = ImageFs.find(context).getRootDir();
+        List<Future<Boolean>> extractions = new ArrayList<>();
         for (String version : versions) {
             File outFile = new File(rootDir, "/opt/" + version);
             outFile.mkdirs();
-            TarCompressorUtils.extract(TarCompressorUtils.Type.XZ, assetManager, version + ".txz", outFile);
+            extractions.add(TarCompressorUtils.extractAsync(TarCompressorUtils.Type.XZ, assetManager, version + ".txz", outFile));
         }
+        TarCompressorUtils.awaitAll(extractions);
     }
 
     public static void installWineFromDownloads(final Context context) {
         String[] versions = context.getResources().getStringArray(R.array.bionic_wine_entries);
         File rootDir = ImageFs.find(context).getRootDir();
         ImageFs imageFs = ImageFs.find(context);
+        // Every version goes into its own directory, so the archives are extracted side by side
+        List<Future<Boolean>> extractions = new ArrayList<>();
         for (String version : versions) {
             File downloaded = new File(imageFs.getFilesDir(), version + ".txz");
             File outFile = new File(rootDir, "/opt/" + version);
             outFile.mkdirs();
-            TarCompressorUtils.extract(
+            extractions.add(TarCompressorUtils.extractAsync(
                 TarCompressorUtils.Type.XZ,
                 downloaded,
                 outFile
-            );
+            ));
         }
+        TarCompressorUtils.awaitAll(extractions);
     }
 
     private static Future<Boolean> installFromAssetsFuture(final Context context, AssetManager assetManager, String containerVariant, Callback<Integer> onProgress) {
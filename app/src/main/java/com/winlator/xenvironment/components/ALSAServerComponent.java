@@ -3,6 +3,8 @@ package com.winlator.xenvironment.components;
 import android.util.Log;
 
 import com.winlator.alsaserver.ALSAClientConnectionHandler;
+import com.winlator.alsaserver.ALSAMixer;
+import com.winlator.alsaserver.AudioTrackSink;
 import com.winlator.alsaserver.ALSARequestHandler;
 import com.winlator.core.KeyValueSet;
 import com.winlator.xconnector.UnixSocketConfig;
@@ -13,6 +15,7 @@ import com.winlator.xenvironment.ImageFs;
 
 public class ALSAServerComponent extends EnvironmentComponent {
     private XConnectorEpoll connector;
+    private ALSAMixer mixer;
     private final ALSAClient.Options options;
     private final UnixSocketConfig socketConfig;
     private volatile boolean isPaused = false;
@@ -30,7 +33,12 @@ public class ALSAServerComponent extends EnvironmentComponent {
         ALSAClient.assignFramesPerBuffer(this.environment.getContext());
         ImageFs imagefs = ImageFs.find(this.environment.getContext());
 
-        XConnectorEpoll xConnectorEpoll = new XConnectorEpoll(this.socketConfig, new ALSAClientConnectionHandler(this.options, imagefs.getVariant()), new ALSARequestHandler());
+        if (this.options.mixer) {
+            this.mixer = new ALSAMixer(ALSAMixer.getNativeSampleRate(this.environment.getContext()), this.options, AudioTrackSink.FACTORY);
+            this.mixer.start();
+        }
+
+        XConnectorEpoll xConnectorEpoll = new XConnectorEpoll(this.socketConfig, new ALSAClientConnectionHandler(this.options, imagefs.getVariant(), this.mixer), new ALSARequestHandler());
         this.connector = xConnectorEpoll;
         xConnectorEpoll.setMultithreadedClients(true);
         this.connector.start();
@@ -44,6 +52,10 @@ public class ALSAServerComponent extends EnvironmentComponent {
             xConnectorEpoll.stop();
             this.connector = null;
         }
+        if (this.mixer != null) {
+            this.mixer.stop();
+            this.mixer = null;
+        }
         isPaused = false;
     }
 
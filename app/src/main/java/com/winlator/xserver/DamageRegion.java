@@ -0,0 +1,159 @@
+package com.winlator.xserver;
+
+/**
+ * Accumulates the dirty rectangles of a drawable between two texture uploads.
+ * Overlapping or touching rectangles are coalesced, and once MAX_RECTS is reached
+ * new damage is merged into the rectangle whose bounds grow the least, so the
+ * list stays small and bounded without allocating.
+ */
+public class DamageRegion {
+    public static final int MAX_RECTS = 16;
+    private final int[] rects = new int[MAX_RECTS * 4];
+    private final int boundsWidth;
+    private final int boundsHeight;
+    private int count = 0;
+    private boolean full = false;
+
+    public DamageRegion(int boundsWidth, int boundsHeight) {
+        this.boundsWidth = boundsWidth;
+        this.boundsHeight = boundsHeight;
+    }
+
+    public synchronized void add(int x, int y, int width, int height) {
+        if (full) return;
+
+        int x0 = Math.max(x, 0);
+        int y0 = Math.max(y, 0);
+        int x1 = Math.min(x + width, boundsWidth);
+        int y1 = Math.min(y + height, boundsHeight);
+        if (x0 >= x1 || y0 >= y1) return;
+
+        if (x0 == 0 && y0 == 0 && x1 == boundsWidth && y1 == boundsHeight) {
+            markFull();
+            return;
+        }
+
+        boolean merged = true;
+        while (merged) {
+            merged = false;
+            for (int i = 0; i < count; i++) {
+                int j = i * 4;
+                int rx0 = rects[j], ry0 = rects[j+1], rx1 = rects[j+2], ry1 = rects[j+3];
+
+                if (rx0 <= x0 && ry0 <= y0 && rx1 >= x1 && ry1 >= y1) return;
+                if (x0 > rx1 || rx0 > x1 || y0 > ry1 || ry0 > y1) continue;
+
+                int ux0 = Math.min(x0, rx0), uy0 = Math.min(y0, ry0);
+                int ux1 = Math.max(x1, rx1), uy1 = Math.max(y1, ry1);
+                long unionArea = (long)(ux1 - ux0) * (uy1 - uy0);
+                long sumArea = (long)(x1 - x0) * (y1 - y0) + (long)(rx1 - rx0) * (ry1 - ry0);
+                if (unionArea > sumArea) continue;
+
+                x0 = ux0; y0 = uy0; x1 = ux1; y1 = uy1;
+                removeAt(i);
+                merged = true;
+                break;
+            }
+        }
+
+        if (x0 == 0 && y0 == 0 && x1 == boundsWidth && y1 == boundsHeight) {
+            markFull();
+            return;
+        }
+
+        if (count == MAX_RECTS) {
+            int best = 0;
+            long bestGrowth = Long.MAX_VALUE;
+            for (int i = 0; i < count; i++) {
+                int j = i * 4;
+                long area = (long)(rects[j+2] - rects[j]) * (rects[j+3] - rects[j+1]);
+                long unionArea = (long)(Math.max(x1, rects[j+2]) - Math.min(x0, rects[j])) * (Math.max(y1, rects[j+3]) - Math.min(y0, rects[j+1]));
+                if (unionArea - area < bestGrowth) {
+                    bestGrowth = unionArea - area;
+                    best = i;
+                }
+            }
+
+            int j = best * 4;
+            int ux0 = Math.min(x0, rects[j]), uy0 = Math.min(y0, rects[j+1]);
+            int ux1 = Math.max(x1, rects[j+2]), uy1 = Math.max(y1, rects[j+3]);
+            removeAt(best);
+            add(ux0, uy0, ux1 - ux0, uy1 - uy0);
+            return;
+        }
+
+        int j = count * 4;
+        rects[j] = x0;
+        rects[j+1] = y0;
+        rects[j+2] = x1;
+        rects[j+3] = y1;
+        count++;
+    }
+
+    public synchronized void markFull() {
+        full = true;
+        count = 0;
+    }
+
+    public synchronized void clear() {
+        full = false;
+        count = 0;
+    }
+
+    public synchronized boolean isEmpty() {
+        return !full && count == 0;
+    }
+
+    public synchronized boolean isFull() {
+        return full;
+    }
+
+    public synchronized int size() {
+        return full ? 1 : count;
+    }
+
+    public synchronized long getArea() {
+        if (full) return (long)boundsWidth * boundsHeight;
+        long area = 0;
+        for (int i = 0, j = 0; i < count; i++, j += 4) area += (long)(rects[j+2] - rects[j]) * (rects[j+3] - rects[j+1]);
+        return area;
+    }
+
+    /**
+     * Copies the accumulated rectangles into dst as (x, y, width, height) quadruples,
+     * clears the region and returns the number of rectangles written. dst must hold
+     * at least MAX_RECTS * 4 ints.
+     */
+    public synchronized int drain(int[] dst) {
+        int written;
+        if (full) {
+            dst[0] = 0;
+            dst[1] = 0;
+            dst[2] = boundsWidth;
+            dst[3] = boundsHeight;
+            written = 1;
+        }
+        else {
+            for (int i = 0, j = 0; i < count; i++, j += 4) {
+                dst[j] = rects[j];
+                dst[j+1] = rects[j+1];
+                dst[j+2] = rects[j+2] - rects[j];
+                dst[j+3] = rects[j+3] - rects[j+1];
+            }
+            written = count;
+        }
+        full = false;
+        count = 0;
+        return written;
+    }
+
+    private void removeAt(int index) {
+        int last = (count - 1) * 4;
+        int j = index * 4;
+        rects[j] = rects[last];
+        rects[j+1] = rects[last+1];
+        rects[j+2] = rects[last+2];
+        rects[j+3] = rects[last+3];
+        count--;
+    }
+}
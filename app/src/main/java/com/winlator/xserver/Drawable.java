@@ -18,6 +18,7 @@ public class Drawable extends XResource {
     private Runnable onDrawListener;
     public final Object renderLock;
     private Texture texture;
+    private final DamageRegion damageRegion;
     private boolean useSharedData;
     public final Visual visual;
     public final short width;
@@ -48,6 +49,7 @@ public class Drawable extends XResource {
         this.width = (short)width;
         this.height = (short)height;
         this.visual = visual;
+        this.damageRegion = new DamageRegion(width, height);
         this.data = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.LITTLE_ENDIAN);
     }
 
@@ -74,6 +76,10 @@ public class Drawable extends XResource {
         this.texture = texture;
     }
 
+    public DamageRegion getDamageRegion() {
+        return damageRegion;
+    }
+
     public ByteBuffer getData() {
         return data;
     }
@@ -109,6 +115,9 @@ public class Drawable extends XResource {
         }
         if (depth == 1) {
             drawBitmap(width, height, data, byteBuffer);
+            this.data.rewind();
+            data.rewind();
+            forceUpdate();
         }
         else {
             if (depth == 24 || depth == 32) {
@@ -121,11 +130,8 @@ public class Drawable extends XResource {
             }
             this.data.rewind();
             data.rewind();
-            forceUpdate();
+            invalidateRect(dstX, dstY, width, height);
         }
-        this.data.rewind();
-        data.rewind();
-        forceUpdate();
     }
 
     public ByteBuffer getImage(short x, short y, short width, short height) {
@@ -163,7 +169,7 @@ public class Drawable extends XResource {
 
             this.data.rewind();
             drawable.data.rewind();
-            forceUpdate();
+            invalidateRect(dstX, dstY, width, height);
         }
     }
 
@@ -182,7 +188,7 @@ public class Drawable extends XResource {
 
         fillRect((short)x, (short)y, (short)width, (short)height, color, this.getStride(), this.data);
         this.data.rewind();
-        forceUpdate();
+        invalidateRect(x, y, width, height);
     }
 
     public void drawLines(int color, int lineWidth, short... points) {
@@ -203,7 +209,9 @@ public class Drawable extends XResource {
         drawLine((short)x0, (short)y0, (short)x1, (short)y1, color, (short)lineWidth, this.getStride(), this.data);
 
         this.data.rewind();
-        forceUpdate();
+        int minX = Math.min(x0, x1);
+        int minY = Math.min(y0, y1);
+        invalidateRect(minX, minY, Math.max(x0, x1) - minX + lineWidth, Math.max(y0, y1) - minY + lineWidth);
     }
 
     public void drawAlphaMaskedBitmap(byte foreRed, byte foreGreen, byte foreBlue, byte backRed, byte backGreen, byte backBlue, Drawable srcDrawable, Drawable maskDrawable) {
@@ -215,13 +223,25 @@ public class Drawable extends XResource {
                 return;
             }
             drawAlphaMaskedBitmap(foreRed, foreGreen, foreBlue, backRed, backGreen, backBlue, byteBuffer, byteBuffer3, byteBuffer2);
-        this.data.rewind();
+            this.data.rewind();
             forceUpdate();
         }
     }
 
     public void forceUpdate() {
         if (!this.offscreenStorage) {
+            damageRegion.markFull();
+            this.texture.setNeedsUpdate(true);
+            Runnable runnable = this.onDrawListener;
+            if (runnable != null) {
+                runnable.run();
+            }
+        }
+    }
+
+    public void invalidateRect(int x, int y, int width, int height) {
+        if (!this.offscreenStorage) {
+            damageRegion.add(x, y, width, height);
             this.texture.setNeedsUpdate(true);
             Runnable runnable = this.onDrawListener;
             if (runnable != null) {
@@ -2,8 +2,6 @@ package com.winlator.xserver;
 
 import com.winlator.xserver.events.Event;
 
-import java.io.IOException;
-
 public class EventListener {
     public final XClient client;
     public final Bitmask eventMask;
@@ -22,11 +20,6 @@ public class EventListener {
     }
 
     public void sendEvent(Event event) {
-        try {
-            event.send(client.getSequenceNumber(), client.getOutputStream());
-        }
-        catch (IOException e) {
-            e.printStackTrace();
-        }
+        client.sendEvent(event);
     }
 }
@@ -17,10 +17,15 @@ public class InputDeviceManager implements Pointer.OnPointerMotionListener, Keyb
     private static final byte MOUSE_WHEEL_DELTA = 120;
     private Window pointWindow;
     private final XServer xServer;
+    // Reused by onPointerMove, which runs for every motion event
+    private final Bitmask motionEventMask = new Bitmask();
+    private final Bitmask motionKeyButMask = new Bitmask();
+    private final MotionNotify motionNotify;
 
     public InputDeviceManager(XServer xServer) {
         this.xServer = xServer;
         pointWindow = xServer.windowManager.rootWindow;
+        motionNotify = new MotionNotify(false, pointWindow, pointWindow, null, (short)0, (short)0, (short)0, (short)0, motionKeyButMask);
         xServer.windowManager.addOnWindowModificationListener(this);
         xServer.windowManager.addOnResourceLifecycleListener(this);
         xServer.pointer.addOnPointerMotionListener(this);
@@ -183,17 +188,21 @@ public class InputDeviceManager implements Pointer.OnPointerMotionListener, Keyb
 
     @Override
     public void onPointerMove(short x, short y) {
-        updatePointWindow();
-        Bitmask eventMask = createPointerEventMask();
-        Window grabWindow = xServer.grabManager.getWindow();
-        Window window = grabWindow == null || xServer.grabManager.isOwnerEvents() ? pointWindow.getAncestorWithEventMask(eventMask) : null;
+        synchronized (motionNotify) {
+            updatePointWindow();
+            Bitmask eventMask = fillPointerEventMask(motionEventMask);
+            Window grabWindow = xServer.grabManager.getWindow();
+            Window window = grabWindow == null || xServer.grabManager.isOwnerEvents() ? pointWindow.getAncestorWithEventMask(eventMask) : null;
 
-        if (grabWindow != null || window != null) {
-            Window eventWindow = window != null ? window : grabWindow;
-            short[] localPoint = eventWindow.rootPointToLocal(x, y);
+            if (grabWindow != null || window != null) {
+                Window eventWindow = window != null ? window : grabWindow;
+                short localX = (short)(x - eventWindow.getRootX());
+                short localY = (short)(y - eventWindow.getRootY());
 
-            Window child = eventWindow.isAncestorOf(pointWindow) ? pointWindow : null;
-            sendEvent(window, eventMask, new MotionNotify(false, xServer.windowManager.rootWindow, eventWindow, child, x, y, localPoint[0], localPoint[1], getKeyButMask()));
+                Window child = eventWindow.isAncestorOf(pointWindow) ? pointWindow : null;
+                fillKeyButMask(motionKeyButMask);
+                sendEvent(window, eventMask, motionNotify.update(false, xServer.windowManager.rootWindow, eventWindow, child, x, y, localX, localY, motionKeyButMask));
+            }
         }
     }
 
@@ -257,7 +266,11 @@ public class InputDeviceManager implements Pointer.OnPointerMotionListener, Keyb
     }
 
     private Bitmask createPointerEventMask() {
-        Bitmask eventMask = new Bitmask();
+        return fillPointerEventMask(new Bitmask());
+    }
+
+    private Bitmask fillPointerEventMask(Bitmask eventMask) {
+        eventMask.clear();
         eventMask.set(Event.POINTER_MOTION);
 
         Bitmask buttonMask = xServer.pointer.getButtonMask();
@@ -284,7 +297,11 @@ public class InputDeviceManager implements Pointer.OnPointerMotionListener, Keyb
     }
 
     public Bitmask getKeyButMask() {
-        Bitmask keyButMask = new Bitmask();
+        return fillKeyButMask(new Bitmask());
+    }
+
+    private Bitmask fillKeyButMask(Bitmask keyButMask) {
+        keyButMask.clear();
         keyButMask.join(xServer.pointer.getButtonMask());
         keyButMask.join(xServer.keyboard.getModifiersMask());
         return keyButMask;
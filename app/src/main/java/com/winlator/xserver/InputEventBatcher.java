@@ -0,0 +1,70 @@
+package com.winlator.xserver;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Flushes the motion held back in the clients' {@link InputEventQueue}s once per display
+ * frame, so that a client waiting for events without sending requests still gets it, and
+ * counts raw against delivered motion events over all clients.
+ */
+public class InputEventBatcher implements Choreographer.FrameCallback {
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final ArrayList<InputEventQueue> scheduledQueues = new ArrayList<>();
+    private InputEventQueue[] flushingQueues = new InputEventQueue[4];
+    private boolean frameCallbackPosted = false;
+    private final AtomicLong rawMotionEventCount = new AtomicLong();
+    private final AtomicLong deliveredMotionEventCount = new AtomicLong();
+    private final Runnable postFrameCallback = () -> Choreographer.getInstance().postFrameCallback(this);
+
+    /** Called by a queue when it starts holding motion. */
+    void schedule(InputEventQueue queue) {
+        synchronized (scheduledQueues) {
+            scheduledQueues.add(queue);
+            if (frameCallbackPosted) return;
+            frameCallbackPosted = true;
+        }
+
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            postFrameCallback.run();
+        }
+        else handler.post(postFrameCallback);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        int queueCount;
+        synchronized (scheduledQueues) {
+            queueCount = scheduledQueues.size();
+            if (flushingQueues.length < queueCount) flushingQueues = new InputEventQueue[queueCount * 2];
+            for (int i = 0; i < queueCount; i++) flushingQueues[i] = scheduledQueues.get(i);
+            scheduledQueues.clear();
+            frameCallbackPosted = false;
+        }
+
+        for (int i = 0; i < queueCount; i++) {
+            flushingQueues[i].flush();
+            flushingQueues[i] = null;
+        }
+    }
+
+    void countRawMotionEvent() {
+        rawMotionEventCount.incrementAndGet();
+    }
+
+    void countDeliveredMotionEvent() {
+        deliveredMotionEventCount.incrementAndGet();
+    }
+
+    public long getRawMotionEventCount() {
+        return rawMotionEventCount.get();
+    }
+
+    public long getDeliveredMotionEventCount() {
+        return deliveredMotionEventCount.get();
+    }
+}
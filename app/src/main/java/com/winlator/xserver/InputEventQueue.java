@@ -0,0 +1,70 @@
+package com.winlator.xserver;
+
+import com.winlator.xserver.events.Event;
+import com.winlator.xserver.events.MotionNotify;
+
+/**
+ * Events on their way to one client. Motion is held back and consecutive motion for the
+ * same window and button/key state is coalesced to the latest position; any other event
+ * first sends the held motion, so the order of motion, buttons and keys is preserved. The
+ * held motion leaves when the client's next request is handled or on the next display
+ * frame, whichever comes first.
+ */
+public class InputEventQueue {
+    public interface Sender {
+        void send(Event event);
+    }
+
+    private final InputEventBatcher batcher;
+    private final Sender sender;
+    private final MotionNotify pendingMotion = new MotionNotify(false, null, null, null, (short)0, (short)0, (short)0, (short)0, new Bitmask());
+    private boolean hasPendingMotion = false;
+    private long rawMotionEventCount = 0;
+    private long deliveredMotionEventCount = 0;
+
+    public InputEventQueue(InputEventBatcher batcher, Sender sender) {
+        this.batcher = batcher;
+        this.sender = sender;
+    }
+
+    public synchronized void queueMotion(MotionNotify motion) {
+        rawMotionEventCount++;
+        batcher.countRawMotionEvent();
+        if (hasPendingMotion && !pendingMotion.canCoalesceWith(motion)) sendPendingMotion();
+
+        pendingMotion.copyFrom(motion);
+        if (!hasPendingMotion) {
+            hasPendingMotion = true;
+            batcher.schedule(this);
+        }
+    }
+
+    public synchronized void send(Event event) {
+        if (hasPendingMotion) sendPendingMotion();
+        sender.send(event);
+    }
+
+    public synchronized void flush() {
+        if (hasPendingMotion) sendPendingMotion();
+    }
+
+    /** Drops held motion of a client that is going away. */
+    public synchronized void clear() {
+        hasPendingMotion = false;
+    }
+
+    public synchronized long getRawMotionEventCount() {
+        return rawMotionEventCount;
+    }
+
+    public synchronized long getDeliveredMotionEventCount() {
+        return deliveredMotionEventCount;
+    }
+
+    private void sendPendingMotion() {
+        hasPendingMotion = false;
+        deliveredMotionEventCount++;
+        batcher.countDeliveredMotionEvent();
+        sender.send(pendingMotion);
+    }
+}
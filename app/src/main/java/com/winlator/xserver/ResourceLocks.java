@@ -0,0 +1,71 @@
+package com.winlator.xserver;
+
+import java.util.EnumMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Read-write locks for the XServer resource managers. Request handlers that mutate a
+ * manager take the exclusive side; the renderer and lookup-only requests take the
+ * shared side so they can run concurrently. A thread holding a shared lock must not
+ * ask for the exclusive lock of the same resource, since read locks cannot be upgraded.
+ */
+public class ResourceLocks {
+    private final EnumMap<XServer.Lockable, ReentrantReadWriteLock> locks = new EnumMap<>(XServer.Lockable.class);
+
+    public ResourceLocks() {
+        for (XServer.Lockable lockable : XServer.Lockable.values()) locks.put(lockable, new ReentrantReadWriteLock());
+    }
+
+    private class SingleXLock implements XLock {
+        private final Lock lock;
+
+        private SingleXLock(Lock lock) {
+            this.lock = lock;
+            lock.lock();
+        }
+
+        @Override
+        public void close() {
+            lock.unlock();
+        }
+    }
+
+    private class MultiXLock implements XLock {
+        private final Lock[] acquiredLocks;
+
+        private MultiXLock(XServer.Lockable[] lockables, boolean shared) {
+            acquiredLocks = new Lock[lockables.length];
+            for (int i = 0; i < lockables.length; i++) {
+                ReentrantReadWriteLock lock = locks.get(lockables[i]);
+                acquiredLocks[i] = shared ? lock.readLock() : lock.writeLock();
+                acquiredLocks[i].lock();
+            }
+        }
+
+        @Override
+        public void close() {
+            for (int i = acquiredLocks.length - 1; i >= 0; i--) acquiredLocks[i].unlock();
+        }
+    }
+
+    public XLock lock(XServer.Lockable lockable) {
+        return new SingleXLock(locks.get(lockable).writeLock());
+    }
+
+    public XLock lock(XServer.Lockable... lockables) {
+        return new MultiXLock(lockables, false);
+    }
+
+    public XLock lockShared(XServer.Lockable lockable) {
+        return new SingleXLock(locks.get(lockable).readLock());
+    }
+
+    public XLock lockShared(XServer.Lockable... lockables) {
+        return new MultiXLock(lockables, true);
+    }
+
+    public boolean isHeldExclusively(XServer.Lockable lockable) {
+        return locks.get(lockable).isWriteLockedByCurrentThread();
+    }
+}
@@ -146,32 +146,32 @@ public class Window extends XResource {
     }
 
     public String getName() {
-        Property property = getProperty(Atom.getId("WM_NAME"));
+        Property property = getProperty(Atom.WM_NAME);
         return property != null ? property.toString() : "";
     }
 
     public String getClassName() {
-        Property property = getProperty(Atom.getId("WM_CLASS"));
+        Property property = getProperty(Atom.WM_CLASS);
         return property != null ? property.toString() : "";
     }
 
     public int getWMHintsValue(WMHints wmHints) {
-        Property property = getProperty(Atom.getId("WM_HINTS"));
+        Property property = getProperty(Atom.WM_HINTS);
         return property != null ? property.getInt(wmHints.ordinal()) : 0;
     }
 
     public int getProcessId() {
-        Property property = getProperty(Atom.getId("_NET_WM_PID"));
+        Property property = getProperty(Atom.NET_WM_PID);
         return property != null ? property.getInt(0) : 0;
     }
 
     public boolean isWoW64() {
-        Property property = getProperty(Atom.getId("_NET_WM_WOW64"));
+        Property property = getProperty(Atom.NET_WM_WOW64);
         return property != null && property.data.get(0) == 1;
     }
 
     public long getHandle() {
-        Property property = getProperty(Atom.getId("_NET_WM_HWND"));
+        Property property = getProperty(Atom.NET_WM_HWND);
         return property != null ? property.getLong(0) : 0;
     }
 
@@ -244,8 +244,8 @@ public class Window extends XResource {
     }
 
     public boolean hasEventListenerFor(Bitmask mask) {
-        for (EventListener eventListener : eventListeners) {
-            if (eventListener.isInterestedIn(mask)) return true;
+        for (int i = 0; i < eventListeners.size(); i++) {
+            if (eventListeners.get(i).isInterestedIn(mask)) return true;
         }
         return false;
     }
@@ -259,7 +259,8 @@ public class Window extends XResource {
     }
 
     public void sendEvent(Bitmask eventMask, Event event) {
-        for (EventListener eventListener : eventListeners) {
+        for (int i = 0; i < eventListeners.size(); i++) {
+            EventListener eventListener = eventListeners.get(i);
             if (eventListener.isInterestedIn(eventMask)) {
                 eventListener.sendEvent(event);
             }
@@ -275,7 +276,8 @@ public class Window extends XResource {
     }
 
     public void sendEvent(Bitmask eventMask, Event event, XClient client) {
-        for (EventListener eventListener : eventListeners) {
+        for (int i = 0; i < eventListeners.size(); i++) {
+            EventListener eventListener = eventListeners.get(i);
             if (eventListener.isInterestedIn(eventMask) && eventListener.client == client) {
                 eventListener.sendEvent(event);
             }
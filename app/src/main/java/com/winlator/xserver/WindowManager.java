@@ -27,6 +27,7 @@ public class WindowManager extends XResourceManager {
     private Window focusedWindow;
     private FocusRevertTo focusRevertTo = FocusRevertTo.NONE;
     private final ArrayList<OnWindowModificationListener> onWindowModificationListeners = new ArrayList<>();
+    private final WindowSpatialIndex pointIndex;
 
     public interface OnWindowModificationListener {
         default void onMapWindow(Window window) {}
@@ -51,6 +52,7 @@ public class WindowManager extends XResourceManager {
         rootWindow = new Window(id, drawable, 0, 0, screenInfo.width, screenInfo.height, null);
         rootWindow.attributes.setMapped(true);
         windows.put(id, rootWindow);
+        pointIndex = new WindowSpatialIndex(rootWindow);
     }
 
     public Window getWindow(int id) {
@@ -85,6 +87,7 @@ public class WindowManager extends XResourceManager {
         triggerOnFreeResourceListener(window);
         if (window == focusedWindow) revertFocus();
         parent.removeChild(window);
+        pointIndex.invalidate();
     }
 
     public void mapWindow(Window window) {
@@ -283,16 +286,11 @@ public class WindowManager extends XResourceManager {
         Window oldParent = window.getParent();
         if (oldParent != null) oldParent.removeChild(window);
         newParent.addChild(window);
+        pointIndex.invalidate();
     }
 
     public Window findPointWindow(short rootX, short rootY) {
-        return findPointWindow(rootWindow, rootX, rootY);
-    }
-
-    private Window findPointWindow(Window window, short rootX, short rootY) {
-        if (!(window.attributes.isMapped() && window.containsPoint(rootX, rootY))) return null;
-        Window child = window.getChildByCoords(rootX, rootY);
-        return child != null ? findPointWindow(child, rootX, rootY) : window;
+        return pointIndex.findPointWindow(rootX, rootY);
     }
 
     public void addOnWindowModificationListener(OnWindowModificationListener onWindowModificationListener) {
@@ -304,18 +302,21 @@ public class WindowManager extends XResourceManager {
     }
 
     private void triggerOnMapWindow(Window window) {
+        pointIndex.invalidate();
         for (int i = onWindowModificationListeners.size()-1; i >= 0; i--) {
             onWindowModificationListeners.get(i).onMapWindow(window);
         }
     }
 
     private void triggerOnUnmapWindow(Window window) {
+        pointIndex.invalidate();
         for (int i = onWindowModificationListeners.size()-1; i >= 0; i--) {
             onWindowModificationListeners.get(i).onUnmapWindow(window);
         }
     }
 
     private void triggerOnChangeWindowZOrder(Window window) {
+        pointIndex.invalidate();
         for (int i = onWindowModificationListeners.size()-1; i >= 0; i--) {
             onWindowModificationListeners.get(i).onChangeWindowZOrder(window);
         }
@@ -328,6 +329,7 @@ public class WindowManager extends XResourceManager {
     }
 
     protected void triggerOnUpdateWindowGeometry(Window window, boolean resized) {
+        pointIndex.invalidate();
         for (int i = onWindowModificationListeners.size()-1; i >= 0; i--) {
             onWindowModificationListeners.get(i).onUpdateWindowGeometry(window, resized);
         }
@@ -0,0 +1,204 @@
+package com.winlator.xserver;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Answers which viewable window is at a root point without walking the window tree.
+ *
+ * Every viewable window is flattened into its root rectangle clipped by its ancestors and
+ * ranked in a pre-order walk that visits siblings from bottom to top, so where two of
+ * these rectangles overlap the one with the higher rank is the window the tree walk would
+ * reach. The rectangles are kept in a segment tree over their distinct x edges; each tree
+ * node resolves the rectangles spanning it into y bands owned by the topmost of them. A
+ * query descends to the slab of the point doing one binary search per level, without
+ * allocating. The index is rebuilt lazily on the first query after {@link #invalidate()}.
+ */
+public class WindowSpatialIndex {
+    private final Window rootWindow;
+    private boolean valid = false;
+    private Window[] windows = new Window[16];
+    /** x0, y0, x1, y1 of each ranked window, clipped and in root coordinates. */
+    private int[] rects = new int[64];
+    private int windowCount = 0;
+    private int[] xs = new int[0];
+    private int slabCount = 0;
+    /** Start of each y band of a tree node followed by the end of the last one. */
+    private int[][] nodeBands = new int[0][];
+    /** Rank owning each y band of a tree node, -1 if none. */
+    private int[][] nodeOwners = new int[0][];
+
+    public WindowSpatialIndex(Window rootWindow) {
+        this.rootWindow = rootWindow;
+    }
+
+    public synchronized void invalidate() {
+        valid = false;
+    }
+
+    public synchronized Window findPointWindow(short rootX, short rootY) {
+        if (!valid) rebuild();
+        if (slabCount == 0 || rootX < xs[0] || rootX >= xs[slabCount]) return null;
+
+        int slab = upperBound(xs, slabCount + 1, rootX) - 1;
+        int best = -1;
+        int node = 1;
+        int start = 0;
+        int end = slabCount;
+        while (true) {
+            int[] bands = nodeBands[node];
+            if (bands != null && rootY >= bands[0] && rootY < bands[bands.length - 1]) {
+                int owner = nodeOwners[node][upperBound(bands, bands.length, rootY) - 1];
+                if (owner > best) best = owner;
+            }
+            if (end - start == 1) break;
+            int mid = (start + end) >>> 1;
+            if (slab < mid) {
+                node = node * 2;
+                end = mid;
+            }
+            else {
+                node = node * 2 + 1;
+                start = mid;
+            }
+        }
+        return best >= 0 ? windows[best] : null;
+    }
+
+    private void rebuild() {
+        Arrays.fill(windows, 0, windowCount, null);
+        windowCount = 0;
+        if (rootWindow.attributes.isMapped()) {
+            addWindow(rootWindow, 0, 0, Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+        }
+
+        int[] edges = new int[windowCount * 2];
+        for (int i = 0; i < windowCount; i++) {
+            edges[i * 2] = rects[i * 4];
+            edges[i * 2 + 1] = rects[i * 4 + 2];
+        }
+        Arrays.sort(edges);
+        int edgeCount = unique(edges, edges.length);
+        xs = edgeCount == edges.length ? edges : Arrays.copyOf(edges, edgeCount);
+        slabCount = Math.max(0, edgeCount - 1);
+
+        int nodeCount = slabCount > 0 ? 4 * slabCount : 0;
+        int[] nodeSizes = new int[nodeCount];
+        int[][] nodeRanks = new int[nodeCount][];
+        for (int pass = 0; pass < 2; pass++) {
+            for (int rank = 0; rank < windowCount; rank++) {
+                int from = Arrays.binarySearch(xs, rects[rank * 4]);
+                int to = Arrays.binarySearch(xs, rects[rank * 4 + 2]);
+                insert(nodeSizes, nodeRanks, pass == 1, rank, from, to, 1, 0, slabCount);
+            }
+            if (pass == 0) {
+                for (int node = 0; node < nodeCount; node++) {
+                    if (nodeSizes[node] > 0) nodeRanks[node] = new int[nodeSizes[node]];
+                    nodeSizes[node] = 0;
+                }
+            }
+        }
+
+        nodeBands = new int[nodeCount][];
+        nodeOwners = new int[nodeCount][];
+        for (int node = 0; node < nodeCount; node++) {
+            if (nodeRanks[node] != null) resolveBands(node, nodeRanks[node]);
+        }
+        valid = true;
+    }
+
+    private void addWindow(Window window, int parentRootX, int parentRootY, int clipX0, int clipY0, int clipX1, int clipY1) {
+        int x = parentRootX + window.getX();
+        int y = parentRootY + window.getY();
+        int x0 = Math.max(clipX0, x);
+        int y0 = Math.max(clipY0, y);
+        int x1 = Math.min(clipX1, x + window.getWidth());
+        int y1 = Math.min(clipY1, y + window.getHeight());
+        // Nothing below a window is reachable where the window itself is not
+        if (x0 >= x1 || y0 >= y1) return;
+
+        if (windowCount == windows.length) {
+            windows = Arrays.copyOf(windows, windowCount * 2);
+            rects = Arrays.copyOf(rects, windowCount * 8);
+        }
+        windows[windowCount] = window;
+        rects[windowCount * 4] = x0;
+        rects[windowCount * 4 + 1] = y0;
+        rects[windowCount * 4 + 2] = x1;
+        rects[windowCount * 4 + 3] = y1;
+        windowCount++;
+
+        List<Window> children = window.getChildren();
+        for (int i = 0; i < children.size(); i++) {
+            Window child = children.get(i);
+            if (child.attributes.isMapped()) addWindow(child, x, y, x0, y0, x1, y1);
+        }
+    }
+
+    /** Adds {@code rank} to the canonical nodes covering slabs {@code [from, to)}, or only counts it. */
+    private static void insert(int[] nodeSizes, int[][] nodeRanks, boolean store, int rank, int from, int to, int node, int start, int end) {
+        if (to <= start || end <= from) return;
+        if (from <= start && end <= to) {
+            if (store) nodeRanks[node][nodeSizes[node]] = rank;
+            nodeSizes[node]++;
+            return;
+        }
+        int mid = (start + end) >>> 1;
+        insert(nodeSizes, nodeRanks, store, rank, from, to, node * 2, start, mid);
+        insert(nodeSizes, nodeRanks, store, rank, from, to, node * 2 + 1, mid, end);
+    }
+
+    /** Splits the y extent of the node's windows, given in ascending rank, into bands owned by the topmost one. */
+    private void resolveBands(int node, int[] ranks) {
+        int[] ys = new int[ranks.length * 2];
+        for (int i = 0; i < ranks.length; i++) {
+            ys[i * 2] = rects[ranks[i] * 4 + 1];
+            ys[i * 2 + 1] = rects[ranks[i] * 4 + 3];
+        }
+        Arrays.sort(ys);
+        int yCount = unique(ys, ys.length);
+
+        int[] owners = new int[yCount - 1];
+        Arrays.fill(owners, -1);
+        for (int rank : ranks) {
+            int from = Arrays.binarySearch(ys, 0, yCount, rects[rank * 4 + 1]);
+            int to = Arrays.binarySearch(ys, 0, yCount, rects[rank * 4 + 3]);
+            Arrays.fill(owners, from, to, rank);
+        }
+
+        int bandCount = 1;
+        for (int i = 1; i < owners.length; i++) {
+            if (owners[i] != owners[bandCount - 1]) {
+                owners[bandCount] = owners[i];
+                ys[bandCount] = ys[i];
+                bandCount++;
+            }
+        }
+        ys[bandCount] = ys[yCount - 1];
+        nodeBands[node] = Arrays.copyOf(ys, bandCount + 1);
+        nodeOwners[node] = Arrays.copyOf(owners, bandCount);
+    }
+
+    private static int unique(int[] sorted, int length) {
+        if (length == 0) return 0;
+        int count = 1;
+        for (int i = 1; i < length; i++) {
+            if (sorted[i] != sorted[count - 1]) sorted[count++] = sorted[i];
+        }
+        return count;
+    }
+
+    /** Index of the first of the {@code length} sorted values greater than {@code value}. */
+    private static int upperBound(int[] sorted, int length, int value) {
+        int low = 0;
+        int high = length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] <= value) {
+                low = mid + 1;
+            }
+            else high = mid;
+        }
+        return low;
+    }
+}
@@ -5,6 +5,7 @@ import androidx.collection.ArrayMap;
 import com.winlator.xconnector.XInputStream;
 import com.winlator.xconnector.XOutputStream;
 import com.winlator.xserver.events.Event;
+import com.winlator.xserver.events.MotionNotify;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -21,11 +22,13 @@ public class XClient implements XResourceManager.OnResourceLifecycleListener {
     private final XOutputStream outputStream;
     private final ArrayMap<Window, EventListener> eventListeners = new ArrayMap<>();
     private final ArrayList<XResource> resources = new ArrayList<>();
+    private final InputEventQueue inputEventQueue;
 
     public XClient(XServer xServer, XInputStream inputStream, XOutputStream outputStream) {
         this.xServer = xServer;
         this.inputStream = inputStream;
         this.outputStream = outputStream;
+        this.inputEventQueue = new InputEventQueue(xServer.inputEventBatcher, this::writeEvent);
 
         try (XLock lock = xServer.lockAll()) {
             resourceIDBase = xServer.resourceIDs.get();
@@ -50,6 +53,22 @@ public class XClient implements XResourceManager.OnResourceLifecycleListener {
     }
 
     public void sendEvent(Event event) {
+        if (event instanceof MotionNotify) {
+            inputEventQueue.queueMotion((MotionNotify)event);
+        }
+        else inputEventQueue.send(event);
+    }
+
+    /** Sends the motion held back for this client, called before each request is handled. */
+    public void flushInputEvents() {
+        inputEventQueue.flush();
+    }
+
+    public InputEventQueue getInputEventQueue() {
+        return inputEventQueue;
+    }
+
+    private void writeEvent(Event event) {
         try {
             event.send(sequenceNumber, outputStream);
         }
@@ -72,6 +91,7 @@ public class XClient implements XResourceManager.OnResourceLifecycleListener {
     }
 
     public void freeResources() {
+        inputEventQueue.clear();
         try (XLock lock = xServer.lockAll()) {
             while (!resources.isEmpty()) {
                 XResource resource = resources.remove(resources.size()-1);
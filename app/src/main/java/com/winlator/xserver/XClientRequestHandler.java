@@ -36,6 +36,7 @@ public class XClientRequestHandler implements RequestHandler {
         XOutputStream outputStream = client.getOutputStream();
 
         if (xClient.isAuthenticated()) {
+            xClient.flushInputEvents();
             return handleNormalRequest(xClient, inputStream, outputStream);
         }
         else return handleAuthRequest(xClient, inputStream, outputStream);
@@ -138,8 +139,8 @@ public class XClientRequestHandler implements RequestHandler {
         int dataLength = inputStream.readShort();
         inputStream.skip(2);
 
-        if (nameLength > 0) inputStream.readString8(nameLength);
-        if (dataLength > 0) inputStream.readString8(dataLength);
+        if (nameLength > 0) inputStream.skipString8(nameLength);
+        if (dataLength > 0) inputStream.skipString8(dataLength);
 
         try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER)) {
             sendServerInformation(client, outputStream);
@@ -181,7 +182,7 @@ public class XClientRequestHandler implements RequestHandler {
                     }
                     break;
                 case ClientOpcodes.GET_WINDOW_ATTRIBUTES:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER)) {
+                    try (XLock lock = client.xServer.lockShared(XServer.Lockable.WINDOW_MANAGER)) {
                         WindowRequests.getWindowAttributes(client, inputStream, outputStream);
                     }
                     break;
@@ -221,12 +222,12 @@ public class XClientRequestHandler implements RequestHandler {
                     }
                     break;
                 case ClientOpcodes.GET_GEOMETRY:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.DRAWABLE_MANAGER)) {
+                    try (XLock lock = client.xServer.lockShared(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.DRAWABLE_MANAGER)) {
                         WindowRequests.getGeometry(client, inputStream, outputStream);
                     }
                     break;
                 case ClientOpcodes.QUERY_TREE:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER)) {
+                    try (XLock lock = client.xServer.lockShared(XServer.Lockable.WINDOW_MANAGER)) {
                         WindowRequests.queryTree(client, inputStream, outputStream);
                     }
                     break;
@@ -257,7 +258,7 @@ public class XClientRequestHandler implements RequestHandler {
                     }
                     break;
                 case ClientOpcodes.GET_SELECTION_OWNER:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER)) {
+                    try (XLock lock = client.xServer.lockShared(XServer.Lockable.WINDOW_MANAGER)) {
                         SelectionRequests.getSelectionOwner(client, inputStream, outputStream);
                     }
                     break;
@@ -282,7 +283,7 @@ public class XClientRequestHandler implements RequestHandler {
                     }
                     break;
                 case ClientOpcodes.TRANSLATE_COORDINATES:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER)) {
+                    try (XLock lock = client.xServer.lockShared(XServer.Lockable.WINDOW_MANAGER)) {
                         WindowRequests.translateCoordinates(client, inputStream, outputStream);
                     }
                     break;
@@ -297,7 +298,7 @@ public class XClientRequestHandler implements RequestHandler {
                     }
                     break;
                 case ClientOpcodes.GET_INPUT_FOCUS:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER)) {
+                    try (XLock lock = client.xServer.lockShared(XServer.Lockable.WINDOW_MANAGER)) {
                         WindowRequests.getInputFocus(client, inputStream, outputStream);
                     }
                     break;
@@ -376,7 +377,7 @@ public class XClientRequestHandler implements RequestHandler {
                     }
                     break;
                 case ClientOpcodes.GET_IMAGE:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.PIXMAP_MANAGER, XServer.Lockable.DRAWABLE_MANAGER)) {
+                    try (XLock lock = client.xServer.lockShared(XServer.Lockable.PIXMAP_MANAGER, XServer.Lockable.DRAWABLE_MANAGER)) {
                         DrawRequests.getImage(client, inputStream, outputStream);
                     }
                     break;
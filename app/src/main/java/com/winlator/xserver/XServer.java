@@ -4,6 +4,7 @@ import android.util.Log;
 import android.util.SparseArray;
 
 import com.winlator.core.CursorLocker;
+import com.winlator.renderer.FrameTimeRecorder;
 import com.winlator.renderer.GLRenderer;
 import com.winlator.winhandler.WinHandler;
 import com.winlator.xserver.extensions.BigReqExtension;
@@ -14,8 +15,6 @@ import com.winlator.xserver.extensions.PresentExtension;
 import com.winlator.xserver.extensions.SyncExtension;
 
 import java.nio.charset.Charset;
-import java.util.EnumMap;
-import java.util.concurrent.locks.ReentrantLock;
 
 public class XServer {
     public enum Lockable {WINDOW_MANAGER, PIXMAP_MANAGER, DRAWABLE_MANAGER, GRAPHIC_CONTEXT_MANAGER, INPUT_DEVICE, CURSOR_MANAGER, SHMSEGMENT_MANAGER}
@@ -35,13 +34,16 @@ public class XServer {
     public final Pointer pointer = new Pointer(this);
     public final InputDeviceManager inputDeviceManager;
     public final GrabManager grabManager;
+    public final InputEventBatcher inputEventBatcher = new InputEventBatcher();
+    public final FrameTimeRecorder renderFrameTimes = new FrameTimeRecorder();
+    public final FrameTimeRecorder presentFrameTimes = new FrameTimeRecorder();
     private boolean isGrabbed = false;
     private XClient grabbingClient = null;
     public final CursorLocker cursorLocker;
     private SHMSegmentManager shmSegmentManager;
     private GLRenderer renderer;
     private WinHandler winHandler;
-    private final EnumMap<Lockable, ReentrantLock> locks = new EnumMap<>(Lockable.class);
+    private final ResourceLocks locks = new ResourceLocks();
     private boolean relativeMouseMovement = false;
     private boolean simulateTouchScreen = false;
 
@@ -49,7 +51,6 @@ public class XServer {
         Log.d("XServer", "Creating xServer " + screenInfo);
         this.screenInfo = screenInfo;
         cursorLocker = new CursorLocker(this);
-        for (Lockable lockable : Lockable.values()) locks.put(lockable, new ReentrantLock());
 
         pixmapManager = new PixmapManager();
         drawableManager = new DrawableManager(this);
@@ -102,46 +103,24 @@ public class XServer {
         this.shmSegmentManager = shmSegmentManager;
     }
 
-    private class SingleXLock implements XLock {
-        private final ReentrantLock lock;
-
-        private SingleXLock(Lockable lockable) {
-            this.lock = locks.get(lockable);
-            lock.lock();
-        }
-
-        @Override
-        public void close() {
-            lock.unlock();
-        }
+    public XLock lock(Lockable lockable) {
+        return locks.lock(lockable);
     }
 
-    private class MultiXLock implements XLock {
-        private final Lockable[] lockables;
-
-        private MultiXLock(Lockable[] lockables) {
-            this.lockables = lockables;
-            for (Lockable lockable : lockables) locks.get(lockable).lock();
-        }
-
-        @Override
-        public void close() {
-            for (int i = lockables.length - 1; i >= 0; i--) {
-                locks.get(lockables[i]).unlock();
-            }
-        }
+    public XLock lock(Lockable... lockables) {
+        return locks.lock(lockables);
     }
 
-    public XLock lock(Lockable lockable) {
-        return new SingleXLock(lockable);
+    public XLock lockShared(Lockable lockable) {
+        return locks.lockShared(lockable);
     }
 
-    public XLock lock(Lockable... lockables) {
-        return new MultiXLock(lockables);
+    public XLock lockShared(Lockable... lockables) {
+        return locks.lockShared(lockables);
     }
 
     public XLock lockAll() {
-        return new MultiXLock(Lockable.values());
+        return locks.lock(Lockable.values());
     }
 
     public Extension getExtensionByName(String name) {
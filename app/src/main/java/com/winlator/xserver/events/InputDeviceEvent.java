@@ -8,19 +8,24 @@ import com.winlator.xserver.Window;
 import java.io.IOException;
 
 public class InputDeviceEvent extends Event {
-    private final byte detail;
-    private final int timestamp;
-    private final Window root;
-    private final Window event;
-    private final Window child;
-    private final short eventX;
-    private final short eventY;
-    private final short rootX;
-    private final short rootY;
-    private final Bitmask state;
+    private byte detail;
+    private int timestamp;
+    private Window root;
+    private Window event;
+    private Window child;
+    private short eventX;
+    private short eventY;
+    private short rootX;
+    private short rootY;
+    private Bitmask state;
 
     public InputDeviceEvent(int code, byte detail, Window root, Window event, Window child, short rootX, short rootY, short eventX, short eventY, Bitmask state) {
         super(code);
+        set(detail, root, event, child, rootX, rootY, eventX, eventY, state);
+    }
+
+    /** Refills the event so that hot paths can send one instance repeatedly. */
+    protected final void set(byte detail, Window root, Window event, Window child, short rootX, short rootY, short eventX, short eventY, Bitmask state) {
         this.detail = detail;
         this.timestamp = (int)System.currentTimeMillis();
         this.root = root;
@@ -33,6 +38,33 @@ public class InputDeviceEvent extends Event {
         this.state = state;
     }
 
+    /** Copies {@code other} into this event, keeping this event's own state mask. */
+    protected final void copy(InputDeviceEvent other) {
+        detail = other.detail;
+        timestamp = other.timestamp;
+        root = other.root;
+        event = other.event;
+        child = other.child;
+        rootX = other.rootX;
+        rootY = other.rootY;
+        eventX = other.eventX;
+        eventY = other.eventY;
+        state.clear();
+        state.join(other.state);
+    }
+
+    protected final boolean hasSameTargetAndState(InputDeviceEvent other) {
+        return code == other.code && detail == other.detail && root == other.root && event == other.event && state.getBits() == other.state.getBits();
+    }
+
+    public short getRootX() {
+        return rootX;
+    }
+
+    public short getRootY() {
+        return rootY;
+    }
+
     @Override
     public void send(short sequenceNumber, XOutputStream outputStream) throws IOException {
         try (XStreamLock lock = outputStream.lock()) {
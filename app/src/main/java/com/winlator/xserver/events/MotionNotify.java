@@ -7,4 +7,18 @@ public class MotionNotify extends InputDeviceEvent {
     public MotionNotify(boolean detail, Window root, Window event, Window child, short rootX, short rootY, short eventX, short eventY, Bitmask state) {
         super(6, (byte)(detail ? 1 : 0), root, event, child, rootX, rootY, eventX, eventY, state);
     }
+
+    public MotionNotify update(boolean detail, Window root, Window event, Window child, short rootX, short rootY, short eventX, short eventY, Bitmask state) {
+        set((byte)(detail ? 1 : 0), root, event, child, rootX, rootY, eventX, eventY, state);
+        return this;
+    }
+
+    public void copyFrom(MotionNotify other) {
+        copy(other);
+    }
+
+    /** Whether {@code other} may replace this motion, differing only in position and child window. */
+    public boolean canCoalesceWith(MotionNotify other) {
+        return hasSameTargetAndState(other);
+    }
 }
@@ -128,7 +128,9 @@ public class PresentExtension implements Extension {
         Drawable content = window.getContent();
         if (content.visual.depth != pixmap.drawable.visual.depth) throw new BadMatch();
 
-        long ust = System.nanoTime() / 1000;
+        long now = System.nanoTime();
+        client.xServer.presentFrameTimes.recordFrame(now);
+        long ust = now / 1000;
         long msc = ust / FAKE_INTERVAL;
 
         synchronized (content.renderLock) {
@@ -37,6 +37,7 @@ public abstract class AtomRequests {
             throw new BadAtom(id);
         }
         String name = Atom.getName(id);
+        if (name == null) throw new BadAtom(id);
         short length = (short) name.length();
         try (XStreamLock lock = outputStream.lock()){
             outputStream.writeByte(RESPONSE_CODE_SUCCESS);
@@ -22,7 +22,7 @@ public abstract class FontRequests {
     public static void listFonts(XClient client, XInputStream inputStream, XOutputStream outputStream) throws IOException, XRequestError {
         inputStream.skip(2);
         short patternLength = inputStream.readShort();
-        inputStream.readString8(patternLength);
+        inputStream.skipString8(patternLength);
 
         try (XStreamLock lock = outputStream.lock()) {
             outputStream.writeByte(RESPONSE_CODE_SUCCESS);
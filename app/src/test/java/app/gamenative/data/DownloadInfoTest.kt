@@ -0,0 +1,160 @@
+package app.gamenative.data
+
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.random.Random
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class DownloadInfoTest {
+
+    private fun newDownloadInfo() = DownloadInfo(gameId = 1, downloadingAppIds = CopyOnWriteArrayList())
+
+    /** A timestamp on a speed bucket boundary, so expected speeds come out exact. */
+    private val start = System.currentTimeMillis() / 100 * 100
+
+    @Test
+    fun concurrentUpdatesAreCountedExactly() {
+        val info = newDownloadInfo()
+        val threads = 16
+        val updatesPerThread = 200_000
+        val expected = AtomicLong()
+        val go = CountDownLatch(1)
+        val workers = List(threads) { t ->
+            Thread {
+                val random = Random(t)
+                var sum = 0L
+                go.await()
+                repeat(updatesPerThread) { i ->
+                    val bytes = random.nextLong(1, 8193)
+                    info.updateBytesDownloaded(bytes, start + i % 2000)
+                    sum += bytes
+                }
+                expected.addAndGet(sum)
+            }
+        }
+        workers.forEach { it.start() }
+        go.countDown()
+        workers.forEach { it.join() }
+
+        val total = expected.get()
+        assertEquals(total, info.getBytesDownloaded())
+        // Every update landed in the last 2 s of the speed window as well
+        assertEquals(total / 2.0, info.getDownloadSpeed(nowMs = start + 2000)!!, 0.0)
+
+        info.setTotalExpectedBytes(total * 2)
+        assertEquals(2000L, info.getEstimatedTimeRemaining(nowMs = start + 2000))
+    }
+
+    @Test
+    fun speedWindowOnlyCountsRecentBuckets() {
+        val info = newDownloadInfo()
+        info.updateBytesDownloaded(1000, start)
+        // A single bucket says nothing about speed yet
+        assertNull(info.getDownloadSpeed(nowMs = start + 50))
+
+        // The first sample has fallen out of the window by now
+        info.updateBytesDownloaded(1000, start + 40_000)
+        assertEquals(2000.0, info.getDownloadSpeed(nowMs = start + 40_500)!!, 0.0)
+
+        // A late sample older than the whole ring does not count
+        info.updateBytesDownloaded(5000, start + 10_000)
+        assertEquals(2000.0, info.getDownloadSpeed(nowMs = start + 40_500)!!, 0.0)
+        assertEquals(7000L, info.getBytesDownloaded())
+
+        // A stall lowers the speed instead of freezing it
+        assertEquals(500.0, info.getDownloadSpeed(nowMs = start + 42_000)!!, 0.0)
+
+        info.resetSpeedTracking()
+        assertNull(info.getDownloadSpeed(nowMs = start + 40_500))
+        assertEquals(7000L, info.getBytesDownloaded())
+    }
+
+    @Test
+    fun updatesSpanningManySpeedWindowsAreAllCounted() {
+        val info = newDownloadInfo()
+        // 100 simulated minutes of 8 KiB reads every 4 ms
+        for (i in 0 until 1_500_000) info.updateBytesDownloaded(8192, start + i * 4L)
+
+        assertEquals(1_500_000L * 8192, info.getBytesDownloaded())
+        // Only the last 30 s of the 100 minutes count towards the speed
+        assertEquals(8192 * 250.0, info.getDownloadSpeed(nowMs = start + 6_000_000)!!, 0.0)
+    }
+
+    @Test
+    fun listenersAreThrottled() {
+        val info = newDownloadInfo()
+        info.setTotalExpectedBytes(100)
+        info.updateBytesDownloaded(50)
+        val emissions = AtomicInteger()
+        info.addProgressListener { emissions.incrementAndGet() }
+
+        val begin = System.nanoTime()
+        val workers = List(8) {
+            Thread { repeat(50_000) { info.emitProgressChange() } }
+        }
+        workers.forEach { it.start() }
+        workers.forEach { it.join() }
+        val elapsedIntervals = (System.nanoTime() - begin) / 100_000_000
+        val throttled = emissions.get()
+        assertTrue(throttled >= 1)
+        // One emit per interval at most, plus the trailing one of the burst
+        assertTrue(throttled <= elapsedIntervals + 2)
+    }
+
+    @Test
+    fun lastThrottledUpdateIsDeliveredLater() {
+        val info = newDownloadInfo()
+        info.setTotalExpectedBytes(100)
+        val received = LinkedBlockingQueue<Float>()
+        info.addProgressListener { received.put(it) }
+
+        info.updateBytesDownloaded(10)
+        info.emitProgressChange()
+        assertEquals(0.1f, received.poll(2, TimeUnit.SECONDS)!!, 0f)
+
+        // Skipped while the first one is recent, then sent once the interval is over; on a slow
+        // machine the first of them may get through directly, but the last must arrive
+        info.updateBytesDownloaded(20)
+        info.emitProgressChange()
+        info.updateBytesDownloaded(10)
+        info.emitProgressChange()
+        var progress: Float?
+        do {
+            progress = received.poll(2, TimeUnit.SECONDS)
+        } while (progress != null && progress != 0.4f)
+        assertEquals(0.4f, progress)
+    }
+
+    @Test
+    fun finalStatesAreNeverThrottled() {
+        val info = newDownloadInfo()
+        info.setTotalExpectedBytes(100)
+        info.updateBytesDownloaded(50)
+        val emissions = AtomicInteger()
+        var lastProgress = 0f
+        info.addProgressListener { progress ->
+            emissions.incrementAndGet()
+            lastProgress = progress
+        }
+        info.emitProgressChange()
+        assertEquals(1, emissions.get())
+
+        // Completion right after an emission still reaches the listeners at once
+        info.updateBytesDownloaded(50)
+        info.emitProgressChange()
+        assertEquals(2, emissions.get())
+        assertEquals(1f, lastProgress, 0f)
+
+        info.setProgress(-1f)
+        info.setActive(false)
+        info.emitProgressChange()
+        assertEquals(4, emissions.get())
+    }
+}
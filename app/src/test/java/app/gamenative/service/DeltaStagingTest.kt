@@ -0,0 +1,73 @@
+package app.gamenative.service
+
+import java.io.File
+import java.nio.file.Files
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+
+class DeltaStagingTest {
+
+    private lateinit var installDir: File
+
+    @Before
+    fun setUp() {
+        installDir = Files.createTempDirectory("delta-staging").toFile()
+    }
+
+    @After
+    fun tearDown() {
+        installDir.deleteRecursively()
+    }
+
+    private fun installed(path: String, text: String) = File(installDir, path).apply { parentFile!!.mkdirs() }.writeText(text)
+
+    private fun DeltaStaging.stage(path: String, text: String) = stagedFile(path).apply { parentFile!!.mkdirs() }.writeText(text)
+
+    @Test
+    fun commitMovesStagedFilesInAndDeletesRemovedOnes() {
+        installed("Game.exe", "old")
+        installed("old.pak", "dropped")
+        val staging = DeltaStaging(installDir, ".delta")
+        staging.stage("Game.exe", "new")
+        staging.stage("data/new.pak", "added")
+
+        assertTrue(staging.commit(listOf("Game.exe", "data/new.pak"), emptyList(), listOf("old.pak")).isSuccess)
+
+        assertEquals("new", File(installDir, "Game.exe").readText())
+        assertEquals("added", File(installDir, "data/new.pak").readText())
+        assertFalse(File(installDir, "old.pak").exists())
+        assertFalse(staging.dir.exists())
+    }
+
+    @Test
+    fun caseOnlyRenameIsNotDeleted() {
+        installed("Data/Config.ini", "same")
+        val staging = DeltaStaging(installDir, ".delta")
+
+        // The build renamed the file apart from case and kept its content
+        assertTrue(staging.commit(emptyList(), listOf("data/config.ini"), listOf("Data/Config.ini")).isSuccess)
+
+        assertEquals("same", File(installDir, "Data/Config.ini").readText())
+    }
+
+    @Test
+    fun missingStagedFileFailsBeforeTouchingTheInstall() {
+        installed("a.bin", "old a")
+        installed("b.bin", "old b")
+        installed("c.bin", "dropped")
+        val staging = DeltaStaging(installDir, ".delta")
+        staging.stage("a.bin", "new a")
+
+        assertTrue(staging.commit(listOf("a.bin", "b.bin"), emptyList(), listOf("c.bin")).isFailure)
+
+        assertEquals("old a", File(installDir, "a.bin").readText())
+        assertEquals("old b", File(installDir, "b.bin").readText())
+        assertTrue(File(installDir, "c.bin").exists())
+        // What was staged stays for the retry
+        assertTrue(staging.stagedFile("a.bin").isFile)
+    }
+}
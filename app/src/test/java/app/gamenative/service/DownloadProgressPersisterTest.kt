@@ -0,0 +1,176 @@
+package app.gamenative.service
+
+import app.gamenative.data.DownloadInfo
+import java.io.File
+import java.io.IOException
+import java.nio.file.Files
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.random.Random
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+
+class DownloadProgressPersisterTest {
+
+    private lateinit var appDir: File
+    private val snapshotFile get() = File(appDir, "${DownloadProgressPersister.PERSISTENCE_DIR}/${DownloadProgressPersister.PERSISTENCE_FILE}")
+
+    @Before
+    fun setUp() {
+        appDir = Files.createTempDirectory("download-progress").toFile()
+    }
+
+    @After
+    fun tearDown() {
+        appDir.deleteRecursively()
+    }
+
+    private fun waitFor(timeoutMs: Long = 5000, condition: () -> Boolean) {
+        val deadline = System.currentTimeMillis() + timeoutMs
+        while (!condition()) {
+            check(System.currentTimeMillis() < deadline) { "condition not met in $timeoutMs ms" }
+            Thread.sleep(5)
+        }
+    }
+
+    @Test
+    fun coalescesSnapshotsFromManyWorkers() {
+        val persister = DownloadProgressPersister(minIntervalMs = 60_000, minBytes = Long.MAX_VALUE)
+        val bytes = AtomicLong()
+        val path = appDir.path
+        persister.flush(path) { bytes.get() + 1 }
+
+        val workers = List(8) {
+            Thread {
+                repeat(20_000) {
+                    bytes.addAndGet(8192)
+                    persister.snapshot(path) { bytes.get() }
+                }
+            }
+        }
+        workers.forEach { it.start() }
+        workers.forEach { it.join() }
+
+        // All requests wait for the interval as one pending write
+        assertEquals(1, persister.writeCount)
+        persister.flush(path) { bytes.get() }
+        assertEquals(2, persister.writeCount)
+        assertEquals(160_000L * 8192, persister.load(path))
+    }
+
+    @Test
+    fun byteThresholdCutsTheIntervalShort() {
+        val persister = DownloadProgressPersister(minIntervalMs = 60_000, minBytes = 1000)
+        val bytes = AtomicLong(100)
+        val path = appDir.path
+
+        // Nothing was written yet, so the first snapshot goes out right away
+        persister.snapshot(path) { bytes.get() }
+        waitFor { persister.load(path) == 100L }
+
+        bytes.set(500)
+        persister.snapshot(path) { bytes.get() }
+        assertEquals(1, persister.writeCount)
+
+        bytes.set(1500)
+        persister.snapshot(path) { bytes.get() }
+        waitFor { persister.load(path) == 1500L }
+        assertEquals(2, persister.writeCount)
+    }
+
+    @Test
+    fun snapshotsReadWhileWritingAreNeverTorn() {
+        val persister = DownloadProgressPersister(minIntervalMs = 2, minBytes = 256L * 1024)
+        val bytes = AtomicLong()
+        val path = appDir.path
+        val running = AtomicBoolean(true)
+        val workers = List(4) { t ->
+            Thread {
+                val random = Random(t)
+                while (running.get()) {
+                    bytes.addAndGet(random.nextLong(1, 8193))
+                    persister.snapshot(path) { bytes.get() }
+                }
+            }
+        }
+        workers.forEach { it.start() }
+
+        // Whatever is on disk at any instant while writes keep going is a whole count
+        var previous = 0L
+        val random = Random(7)
+        repeat(200) {
+            Thread.sleep(random.nextLong(0, 3))
+            val text = if (snapshotFile.exists()) snapshotFile.readText() else "0"
+            val reachedBy = bytes.get()
+            val persisted = text.trim().toLongOrNull()
+            assertNotNull("torn snapshot: '$text'", persisted)
+            assertTrue(persisted!! <= reachedBy)
+            assertTrue(persisted >= previous)
+            previous = persisted
+        }
+        running.set(false)
+        workers.forEach { it.join() }
+        assertTrue(previous > 0L)
+        waitFor { persister.load(path) == bytes.get() }
+    }
+
+    @Test
+    fun crashBeforeTheRenameLeavesThePreviousSnapshotToResumeFrom() {
+        val crash = AtomicBoolean(false)
+        val persister = DownloadProgressPersister(minIntervalMs = 60_000, minBytes = Long.MAX_VALUE) {
+            if (crash.get()) throw IOException("simulated crash")
+        }
+        val path = appDir.path
+        persister.flush(path) { 1000L }
+
+        // The new count is synced to the temp file, then the process dies before renaming it
+        crash.set(true)
+        persister.flush(path) { 2000L }
+        assertEquals("2000", File(snapshotFile.parentFile, "${DownloadProgressPersister.PERSISTENCE_FILE}.tmp").readText())
+        assertEquals("1000", snapshotFile.readText())
+
+        // Resuming picks the committed count up and keeps persisting from there
+        val resumed = DownloadProgressPersister(minIntervalMs = 60_000, minBytes = Long.MAX_VALUE)
+        val resumedBytes = AtomicLong(resumed.load(path))
+        assertEquals(1000L, resumedBytes.get())
+        resumedBytes.addAndGet(500)
+        resumed.flush(path) { resumedBytes.get() }
+        assertEquals(1500L, resumed.load(path))
+    }
+
+    @Test
+    fun nothingIsWrittenIntoADeletedInstall() {
+        val persister = DownloadProgressPersister(minIntervalMs = 60_000, minBytes = Long.MAX_VALUE)
+        appDir.deleteRecursively()
+        persister.flushAsync(appDir.path) { 1L }.get()
+        persister.flush(appDir.path) { 2L }
+        assertFalse(appDir.exists())
+    }
+
+    @Test
+    fun cancelFlushesAndCompletionClearsForGood() {
+        val info = DownloadInfo(gameId = 1, downloadingAppIds = CopyOnWriteArrayList())
+        info.setPersistencePath(appDir.path)
+        info.updateBytesDownloaded(12_345)
+        info.persistProgressSnapshot()
+        info.updateBytesDownloaded(1)
+        // The cancel flush runs in the background and a load waits for it
+        info.cancel()
+        assertEquals(12_346L, DownloadInfo(gameId = 1, downloadingAppIds = CopyOnWriteArrayList()).loadPersistedBytesDownloaded(appDir.path))
+
+        // A snapshot still queued when the download completes must not bring the file back
+        val persister = DownloadProgressPersister(minIntervalMs = 100, minBytes = Long.MAX_VALUE)
+        persister.flush(appDir.path) { 1L }
+        persister.snapshot(appDir.path) { 2L }
+        persister.clear(appDir.path)
+        Thread.sleep(300)
+        assertFalse(snapshotFile.exists())
+        assertEquals(0L, persister.load(appDir.path))
+    }
+}
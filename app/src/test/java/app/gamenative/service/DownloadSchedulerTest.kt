@@ -0,0 +1,211 @@
+package app.gamenative.service
+
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.coroutines.cancellation.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withContext
+import kotlinx.coroutines.withTimeout
+import kotlinx.coroutines.yield
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import org.junit.Assert.*
+import org.junit.Ignore
+import org.junit.Test
+
+class DownloadSchedulerTest {
+
+    @Test
+    fun `a slow item only holds its own slot`() = runBlocking {
+        val release = CompletableDeferred<Unit>()
+        val others = AtomicInteger()
+        val scheduler = DownloadScheduler(maxConcurrency = 3)
+
+        // Item 0 is only released once every other item finished, which a batch barrier would never allow
+        val result = withTimeout(10_000) {
+            scheduler.runAll((0 until 12).toList()) { index ->
+                if (index == 0) {
+                    release.await()
+                } else if (others.incrementAndGet() == 11) {
+                    release.complete(Unit)
+                }
+                Result.success(Unit)
+            }
+        }
+
+        assertTrue(result.isSuccess)
+        assertEquals(3, scheduler.peakConcurrency)
+    }
+
+    @Test
+    fun `first failure is returned and stops remaining work`() = runBlocking {
+        val started = AtomicInteger()
+        val scheduler = DownloadScheduler(maxConcurrency = 2)
+
+        val result = withContext(Dispatchers.IO) {
+            scheduler.runAll((0 until 20).toList()) { index ->
+                started.incrementAndGet()
+                if (index == 3) Result.failure<Unit>(IllegalStateException("chunk 3 failed")) else Result.success(Unit)
+            }
+        }
+
+        assertEquals("chunk 3 failed", result.exceptionOrNull()?.message)
+        assertTrue(started.get() < 20)
+    }
+
+    @Test
+    fun `cancellation is reported as CancellationException`() = runBlocking {
+        val completed = AtomicInteger()
+        val scheduler = DownloadScheduler(maxConcurrency = 2)
+
+        val result = scheduler.runAll(
+            items = (0 until 10).toList(),
+            isCancelled = { completed.get() >= 4 },
+            onItemComplete = { _, _, _ -> completed.incrementAndGet() },
+        ) { Result.success(Unit) }
+
+        assertTrue(result.exceptionOrNull() is CancellationException)
+        assertEquals(4, completed.get())
+    }
+
+    @Test
+    fun `per-host limit and priority order are respected`() = runBlocking {
+        val running = mutableMapOf("a" to AtomicInteger(), "b" to AtomicInteger())
+        val peak = mutableMapOf("a" to AtomicInteger(), "b" to AtomicInteger())
+        val started = mutableListOf<Int>()
+        val hostLookups = AtomicInteger()
+        val scheduler = DownloadScheduler(maxConcurrency = 4, maxPerHost = 2)
+
+        val result = scheduler.runAll(
+            items = (0 until 12).toList(),
+            hostOf = {
+                hostLookups.incrementAndGet()
+                if (it % 2 == 0) "a" else "b"
+            },
+            priorityOf = { -it.toLong() },
+        ) { item ->
+            synchronized(started) { started.add(item) }
+            val host = if (item % 2 == 0) "a" else "b"
+            val now = running.getValue(host).incrementAndGet()
+            peak.getValue(host).accumulateAndGet(now, ::maxOf)
+            yield()
+            running.getValue(host).decrementAndGet()
+            Result.success(Unit)
+        }
+
+        assertTrue(result.isSuccess)
+        assertEquals(2, peak.getValue("a").get())
+        assertEquals(2, peak.getValue("b").get())
+        assertEquals(4, scheduler.peakConcurrency)
+        // The four highest priority items (largest index) fill the first slots
+        assertEquals(setOf(8, 9, 10, 11), started.take(4).toSet())
+        assertEquals(12, hostLookups.get())
+    }
+
+    @Test
+    fun `single host above its limit does not block other hosts`() = runBlocking {
+        val releaseA = CompletableDeferred<Unit>()
+        val finishedB = AtomicInteger()
+        val scheduler = DownloadScheduler(maxConcurrency = 4, maxPerHost = 2)
+
+        // Host a holds both of its slots until every host b item is done
+        val result = withTimeout(10_000) {
+            scheduler.runAll(
+                items = (0 until 20).toList(),
+                hostOf = { if (it < 10) "a" else "b" },
+            ) { item ->
+                if (item < 10) {
+                    releaseA.await()
+                } else if (finishedB.incrementAndGet() == 10) {
+                    releaseA.complete(Unit)
+                }
+                Result.success(Unit)
+            }
+        }
+
+        assertTrue(result.isSuccess)
+        assertEquals(10, finishedB.get())
+    }
+
+    @Test
+    fun `cancellation raised inside the work is a failure, not a hang`() = runBlocking {
+        val scheduler = DownloadScheduler(maxConcurrency = 2)
+
+        val result = withTimeout(10_000) {
+            scheduler.runAll((0 until 4).toList()) { index ->
+                if (index == 1) throw CancellationException("timed out")
+                Result.success(Unit)
+            }
+        }
+
+        assertEquals("timed out", result.exceptionOrNull()?.message)
+    }
+
+    @Test
+    fun `tuner climbs while throughput improves and backs off when it drops`() {
+        val second = 1_000_000_000L
+        val tuner = ConcurrencyTuner(initialLimit = 4, minLimit = 2, maxLimit = 6, windowNanos = second)
+        tuner.start(0, 0)
+
+        assertEquals(5, tuner.sample(100, second))          // first window probes upward
+        assertEquals(6, tuner.sample(250, 2 * second))      // 150 > 100: keep climbing
+        assertEquals(6, tuner.sample(400, 3 * second))      // 150 within tolerance: hold
+        assertEquals(5, tuner.sample(500, 4 * second))      // 100 < 150: reverse
+        assertEquals(5, tuner.sample(550, 4 * second + 10)) // window not elapsed yet
+    }
+
+    @Ignore("Benchmark; run manually")
+    @Test
+    fun `benchmark scheduler against chunked batches with slow responses`() {
+        val parallelism = 6
+        val slowDelayMs = 400L
+        val items = (0 until 24).toList()
+        val httpClient = OkHttpClient.Builder()
+            .connectionPool(okhttp3.ConnectionPool(16, 1, TimeUnit.MINUTES))
+            .build()
+        val mockWebServer = MockWebServer()
+        // Every sixth chunk is slow, so each fixed-size batch contains exactly one straggler
+        mockWebServer.dispatcher = object : Dispatcher() {
+            override fun dispatch(request: RecordedRequest): MockResponse {
+                val index = request.requestUrl!!.pathSegments.last().toInt()
+                val response = MockResponse().setBody("chunk-$index")
+                return if (index % parallelism == 0) response.setBodyDelay(slowDelayMs, TimeUnit.MILLISECONDS) else response
+            }
+        }
+        mockWebServer.start()
+
+        fun fetch(index: Int): Result<String> {
+            val request = Request.Builder().url(mockWebServer.url("/chunks/$index")).build()
+            httpClient.newCall(request).execute().use { response ->
+                return Result.success(response.body.string())
+            }
+        }
+
+        try {
+            var start = System.nanoTime()
+            runBlocking(Dispatchers.IO) {
+                items.chunked(parallelism).forEach { batch ->
+                    batch.map { async { fetch(it) } }.awaitAll()
+                }
+            }
+            val batchedMs = (System.nanoTime() - start) / 1_000_000
+
+            val scheduler = DownloadScheduler(maxConcurrency = parallelism)
+            start = System.nanoTime()
+            val result = runBlocking(Dispatchers.IO) { scheduler.runAll(items) { fetch(it) } }
+            val scheduledMs = (System.nanoTime() - start) / 1_000_000
+
+            println("chunked batches: ${batchedMs}ms, scheduler: ${scheduledMs}ms for ${items.size} chunks (${result.isSuccess})")
+        } finally {
+            mockWebServer.shutdown()
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package app.gamenative.service.epic
+
+import app.gamenative.service.epic.manifest.ChunkInfo
+import app.gamenative.service.epic.manifest.ChunkPart
+import app.gamenative.service.epic.manifest.FileManifest
+import java.io.File
+import java.nio.file.Files
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+
+/**
+ * Unit tests for EpicChunkWriter using a synthetic manifest where chunks are shared
+ * between files and files span several chunks.
+ */
+class EpicChunkWriterTest {
+
+    private lateinit var installDir: File
+
+    // Every byte of the two chunks is distinct so misplaced ranges show up in comparisons
+    private val chunkA = IntArray(4) { 0xA }
+    private val chunkB = IntArray(4) { 0xB }
+    private val chunkAData = ByteArray(100) { (it + 1).toByte() }
+    private val chunkBData = ByteArray(100) { (it + 101).toByte() }
+
+    // first.bin = A[10..40) + B[0..50), second.bin = A[60..100), empty.bin has no parts
+    private val files = listOf(
+        FileManifest(
+            filename = "first.bin",
+            fileSize = 80,
+            chunkParts = mutableListOf(ChunkPart(chunkA, 10, 30, 0), ChunkPart(chunkB, 0, 50, 30)),
+        ),
+        FileManifest(
+            filename = "data/second.bin",
+            fileSize = 40,
+            chunkParts = mutableListOf(ChunkPart(chunkA, 60, 40, 0)),
+        ),
+        FileManifest(filename = "empty.bin", fileSize = 0),
+    )
+
+    @Before
+    fun setup() {
+        installDir = Files.createTempDirectory("epic-writer").toFile()
+    }
+
+    @After
+    fun tearDown() {
+        installDir.deleteRecursively()
+    }
+
+    private fun writeChunk(writer: EpicChunkWriter, guid: IntArray, data: ByteArray, step: Int): List<FileManifest> {
+        val guidStr = ChunkInfo(guid = guid).guidStr
+        writer.openChunk(guidStr).use { sink ->
+            var offset = 0
+            while (offset < data.size) {
+                val length = minOf(step, data.size - offset)
+                sink.write(data, offset, length)
+                offset += length
+            }
+        }
+        return writer.completeChunk(guidStr)
+    }
+
+    @Test
+    fun `chunks are written to every referencing file range`() {
+        val writer = EpicChunkWriter(installDir, files)
+        writer.prepareFiles()
+
+        assertEquals(80L, File(installDir, "first.bin").length())
+        assertEquals(40L, File(installDir, "data/second.bin").length())
+        assertTrue(File(installDir, "empty.bin").exists())
+
+        // Odd write sizes make part boundaries fall inside a write
+        val finishedByB = writeChunk(writer, chunkB, chunkBData, 7)
+        assertTrue(finishedByB.isEmpty())
+        val finishedByA = writeChunk(writer, chunkA, chunkAData, 13)
+        assertEquals(setOf("first.bin", "data/second.bin"), finishedByA.map { it.filename }.toSet())
+        assertEquals(0, writer.pendingFileCount)
+
+        assertArrayEquals(
+            chunkAData.copyOfRange(10, 40) + chunkBData.copyOfRange(0, 50),
+            File(installDir, "first.bin").readBytes(),
+        )
+        assertArrayEquals(chunkAData.copyOfRange(60, 100), File(installDir, "data/second.bin").readBytes())
+    }
+
+    @Test
+    fun `completing a chunk twice does not release its files twice`() {
+        val writer = EpicChunkWriter(installDir, files)
+        writer.prepareFiles()
+
+        writeChunk(writer, chunkA, chunkAData, 100)
+        assertEquals(1, writer.pendingFileCount)
+        assertTrue(writer.completeChunk(ChunkInfo(guid = chunkA).guidStr).isEmpty())
+        assertEquals(1, writer.pendingFileCount)
+    }
+
+    @Test
+    fun `chunks are ordered by first use and unreferenced chunks are dropped`() {
+        val unused = ChunkInfo(guid = IntArray(4) { 0xC })
+        val writer = EpicChunkWriter(installDir, files)
+
+        val ordered = writer.orderByFirstUse(listOf(unused, ChunkInfo(guid = chunkB), ChunkInfo(guid = chunkA)))
+
+        assertEquals(listOf(ChunkInfo(guid = chunkA).guidStr, ChunkInfo(guid = chunkB).guidStr), ordered.map { it.guidStr })
+    }
+
+    @Test
+    fun `journal resumes with already written chunks`() {
+        val journal = File(installDir, ".chunks_done_test")
+        val firstAttempt = EpicChunkWriter(installDir, files, journal)
+        firstAttempt.prepareFiles()
+        writeChunk(firstAttempt, chunkA, chunkAData, 64)
+
+        val resumed = EpicChunkWriter(installDir, files, journal)
+        resumed.prepareFiles()
+        assertEquals(setOf(ChunkInfo(guid = chunkA).guidStr), resumed.loadJournal())
+        assertEquals(1, resumed.pendingFileCount)
+
+        writeChunk(resumed, chunkB, chunkBData, 64)
+        assertEquals(0, resumed.pendingFileCount)
+        assertArrayEquals(
+            chunkAData.copyOfRange(10, 40) + chunkBData.copyOfRange(0, 50),
+            File(installDir, "first.bin").readBytes(),
+        )
+
+        resumed.deleteJournal()
+        assertFalse(journal.exists())
+    }
+
+    @Test
+    fun `journal of another manifest is discarded`() {
+        val journal = File(installDir, ".chunks_done_test")
+        val firstAttempt = EpicChunkWriter(installDir, files, journal, journalKey = "old")
+        firstAttempt.prepareFiles()
+        writeChunk(firstAttempt, chunkA, chunkAData, 64)
+
+        val resumed = EpicChunkWriter(installDir, files, journal, journalKey = "new")
+        assertTrue(resumed.loadJournal().isEmpty())
+        assertFalse(journal.exists())
+        assertEquals(2, resumed.pendingFileCount)
+    }
+}
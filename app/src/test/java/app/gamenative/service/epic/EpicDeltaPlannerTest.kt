@@ -0,0 +1,210 @@
+package app.gamenative.service.epic
+
+import app.gamenative.service.epic.manifest.BinaryManifest
+import app.gamenative.service.epic.manifest.ChunkDataList
+import app.gamenative.service.epic.manifest.ChunkInfo
+import app.gamenative.service.epic.manifest.ChunkPart
+import app.gamenative.service.epic.manifest.EpicDeltaPlanner
+import app.gamenative.service.epic.manifest.EpicManifest
+import app.gamenative.service.epic.manifest.FileManifest
+import app.gamenative.service.epic.manifest.FileManifestList
+import app.gamenative.service.epic.manifest.ReusedRange
+import java.io.File
+import java.nio.file.Files
+import java.security.MessageDigest
+import kotlin.random.Random
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+
+/**
+ * Unit tests for EpicDeltaPlanner and EpicDeltaPatcher on synthetic manifests, where every
+ * chunk holds 100 random bytes and is 60 bytes to download.
+ */
+class EpicDeltaPlannerTest {
+
+    private lateinit var installDir: File
+
+    private class Part(val chunk: Int, val offset: Int, val size: Int)
+
+    private fun guid(chunk: Int) = intArrayOf(chunk, chunk, chunk, chunk)
+
+    private fun chunkData(chunk: Int) = Random(chunk).nextBytes(100)
+
+    private fun contentOf(parts: List<Part>): ByteArray {
+        return parts.fold(ByteArray(0)) { content, p -> content + chunkData(p.chunk).copyOfRange(p.offset, p.offset + p.size) }
+    }
+
+    private fun sha1(bytes: ByteArray) = MessageDigest.getInstance("SHA-1").digest(bytes)
+
+    private fun fileOf(name: String, vararg parts: Part): FileManifest {
+        var fileOffset = 0L
+        val chunkParts = parts.map { p -> ChunkPart(guid(p.chunk), p.offset, p.size, fileOffset).also { fileOffset += p.size } }
+        return FileManifest(filename = name, hash = sha1(contentOf(parts.toList())), chunkParts = chunkParts.toMutableList(), fileSize = fileOffset)
+    }
+
+    private fun manifestOf(vararg files: FileManifest): EpicManifest = BinaryManifest().apply {
+        val chunks = files.flatMap { file -> file.chunkParts.map { it.guid[0] } }.distinct()
+        chunkDataList = ChunkDataList(elements = chunks.map { ChunkInfo(guid = guid(it), windowSize = 100, fileSize = 60) }.toMutableList())
+        fileManifestList = FileManifestList(elements = files.toMutableList())
+    }
+
+    private fun install(manifest: EpicManifest, dir: File = installDir) {
+        for (file in manifest.fileManifestList!!.elements) {
+            val parts = file.chunkParts.map { Part(it.guid[0], it.offset, it.size) }
+            File(dir, file.filename).apply { parentFile!!.mkdirs() }.writeBytes(contentOf(parts))
+        }
+    }
+
+    // a.bin stays, b.bin keeps its start but gets a new tail, c.bin goes away
+    // and d.bin is new but made of data b.bin and c.bin already hold
+    private val oldManifest = manifestOf(
+        fileOf("a.bin", Part(1, 0, 100)),
+        fileOf("data/b.bin", Part(2, 0, 100), Part(3, 0, 50)),
+        fileOf("c.bin", Part(4, 0, 100)),
+    )
+    private val newManifest = manifestOf(
+        fileOf("a.bin", Part(1, 0, 100)),
+        fileOf("data/b.bin", Part(2, 0, 100), Part(5, 0, 80)),
+        fileOf("d.bin", Part(3, 0, 50), Part(4, 20, 40)),
+    )
+
+    @Before
+    fun setup() {
+        installDir = Files.createTempDirectory("epic-delta").toFile()
+    }
+
+    @After
+    fun tearDown() {
+        installDir.deleteRecursively()
+    }
+
+    @Test
+    fun `only chunks missing from the install are downloaded`() {
+        val plan = EpicDeltaPlanner.plan(oldManifest, newManifest)
+
+        assertEquals(listOf("a.bin"), plan.unchangedFiles.map { it.filename })
+        assertEquals(listOf("c.bin"), plan.removedFiles.map { it.filename })
+        assertEquals(listOf(ChunkInfo(guid = guid(5))), plan.downloadChunks)
+
+        val patches = plan.patchedFiles.associateBy { it.file.filename }
+        assertEquals(listOf(ReusedRange("data/b.bin", 0, 0, 100)), patches.getValue("data/b.bin").reused)
+        assertEquals(listOf(5), patches.getValue("data/b.bin").downloadParts.map { it.guid[0] })
+        assertEquals(
+            listOf(ReusedRange("data/b.bin", 100, 0, 50), ReusedRange("c.bin", 20, 50, 40)),
+            patches.getValue("d.bin").reused,
+        )
+        assertTrue(patches.getValue("d.bin").downloadParts.isEmpty())
+
+        // Chunks 1 to 5 make up the new version, only chunk 5 is fetched
+        assertEquals(300L, plan.fullDownloadSize)
+        assertEquals(60L, plan.downloadSize)
+        assertEquals(240L, plan.savedDownloadBytes)
+        assertEquals(190L, plan.reusedBytes)
+    }
+
+    @Test
+    fun `windows the install does not fully hold are downloaded`() {
+        val updated = manifestOf(fileOf("e.bin", Part(3, 40, 50), Part(3, 0, 40)))
+        val plan = EpicDeltaPlanner.plan(oldManifest, updated)
+
+        val patch = plan.patchedFiles.single()
+        // b.bin only has bytes 0 to 50 of chunk 3
+        assertEquals(listOf(ReusedRange("data/b.bin", 100, 50, 40)), patch.reused)
+        assertEquals(listOf(40), patch.downloadParts.map { it.offset })
+        assertEquals(listOf(3), plan.downloadChunks.map { it.guid[0] })
+    }
+
+    @Test
+    fun `adjacent windows of one source merge into a single copy`() {
+        val split = manifestOf(fileOf("copy.bin", Part(1, 0, 30), Part(1, 30, 70)))
+        val plan = EpicDeltaPlanner.plan(oldManifest, split)
+
+        // A copy of a.bin under a new chunk layout still needs no download
+        assertEquals(listOf(ReusedRange("a.bin", 0, 0, 100)), plan.patchedFiles.single().reused)
+        assertTrue(plan.downloadChunks.isEmpty())
+    }
+
+    @Test
+    fun `files missing from disk are neither kept nor used as a source`() {
+        val plan = EpicDeltaPlanner.plan(oldManifest, newManifest) { it.filename != "data/b.bin" }
+
+        val patches = plan.patchedFiles.associateBy { it.file.filename }
+        assertTrue(patches.getValue("data/b.bin").reused.isEmpty())
+        assertEquals(listOf(ReusedRange("c.bin", 20, 50, 40)), patches.getValue("d.bin").reused)
+        assertEquals(setOf(2, 3, 5), plan.downloadChunks.map { it.guid[0] }.toSet())
+    }
+
+    @Test
+    fun `patching an install yields the new version`() {
+        install(oldManifest)
+        val untouched = File(installDir, "a.bin")
+        untouched.setLastModified(1_000_000L)
+        val plan = EpicDeltaPlanner.plan(oldManifest, newManifest)
+
+        val patcher = EpicDeltaPatcher(installDir, plan)
+        patcher.copyReusedRanges()
+        val writer = EpicChunkWriter(installDir, patcher.stagedFiles)
+        writer.prepareFiles()
+        for (chunk in plan.downloadChunks) {
+            writer.openChunk(chunk.guidStr).use { it.write(chunkData(chunk.guid[0]), 0, 100) }
+            writer.completeChunk(chunk.guidStr)
+        }
+        assertEquals(0, writer.pendingFileCount)
+        assertTrue(patcher.commit().isSuccess)
+
+        val expected = File(installDir, "expected")
+        install(newManifest, expected)
+        for (file in newManifest.fileManifestList!!.elements) {
+            assertArrayEquals(File(expected, file.filename).readBytes(), File(installDir, file.filename).readBytes())
+        }
+        assertEquals(1_000_000L, untouched.lastModified())
+        assertFalse(File(installDir, "c.bin").exists())
+        assertFalse(File(installDir, EpicDeltaPatcher.STAGING_DIR).exists())
+    }
+
+    @Test
+    fun `a corrupt source fails verification and leaves the install alone`() {
+        install(oldManifest)
+        val original = File(installDir, "data/b.bin").readBytes()
+        // Same size, so the planner still trusts it
+        File(installDir, "c.bin").writeBytes(ByteArray(100))
+        val plan = EpicDeltaPlanner.plan(oldManifest, newManifest)
+
+        val patcher = EpicDeltaPatcher(installDir, plan)
+        patcher.copyReusedRanges()
+        val writer = EpicChunkWriter(installDir, patcher.stagedFiles)
+        writer.prepareFiles()
+        writer.openChunk(ChunkInfo(guid = guid(5)).guidStr).use { it.write(chunkData(5), 0, 100) }
+
+        assertTrue(patcher.commit().exceptionOrNull() is EpicDeltaPatcher.VerificationException)
+        assertArrayEquals(original, File(installDir, "data/b.bin").readBytes())
+        assertFalse(File(installDir, "d.bin").exists())
+        assertTrue(File(installDir, "c.bin").exists())
+    }
+
+    @Test
+    fun `a source deleted after planning is a verification failure`() {
+        install(oldManifest)
+        val plan = EpicDeltaPlanner.plan(oldManifest, newManifest)
+        File(installDir, "c.bin").delete()
+
+        assertThrows(EpicDeltaPatcher.VerificationException::class.java) {
+            EpicDeltaPatcher(installDir, plan).copyReusedRanges()
+        }
+    }
+
+    @Test
+    fun `a file rewritten at the same size is not intact`() {
+        install(oldManifest)
+        val b = oldManifest.fileManifestList!!.elements.first { it.filename == "data/b.bin" }
+        assertTrue(EpicDeltaPatcher.isIntact(installDir, b))
+
+        File(installDir, "data/b.bin").writeBytes(ByteArray(150))
+        assertFalse(EpicDeltaPatcher.isIntact(installDir, b))
+        // so it is downloaded again instead of kept or copied from
+        val plan = EpicDeltaPlanner.plan(oldManifest, newManifest) { EpicDeltaPatcher.isIntact(installDir, it) }
+        assertTrue(plan.patchedFiles.single { it.file.filename == "data/b.bin" }.reused.isEmpty())
+    }
+}
@@ -0,0 +1,147 @@
+package app.gamenative.service.gog
+
+import app.gamenative.service.gog.api.DepotFile
+import app.gamenative.service.gog.api.FileChunk
+import app.gamenative.service.gog.api.GOGDeltaPlanner
+import java.io.File
+import java.nio.file.Files
+import java.security.MessageDigest
+import kotlin.random.Random
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+/**
+ * Delta updates of Gen 2 installs: trusting installed files by their recorded size and
+ * modification time, and re-downloading chunks whose installed copy changed anyway.
+ */
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [28])
+class GOGDeltaPlannerTest {
+
+    private lateinit var installDir: File
+
+    // Chunk n of the depot, 128 to 240 bytes long so offsets differ per chunk
+    private fun chunkBytes(n: Int) = Random(n * 31).nextBytes(128 + n * 16 % 128)
+
+    private fun md5(bytes: ByteArray) = MessageDigest.getInstance("MD5").digest(bytes).joinToString("") { "%02x".format(it) }
+
+    private fun chunk(n: Int): FileChunk {
+        val data = chunkBytes(n)
+        return FileChunk(compressedMd5 = "z$n", md5 = md5(data), size = data.size.toLong(), compressedSize = data.size / 2L)
+    }
+
+    private fun chunkId(chunk: FileChunk) = chunk.compressedMd5.removePrefix("z").toInt()
+
+    private fun depotFile(path: String, vararg chunks: Int): DepotFile {
+        val content = chunks.fold(ByteArray(0)) { acc, n -> acc + chunkBytes(n) }
+        return DepotFile(path, chunks.map { chunk(it) }, md5(content), null, emptyList(), "1207658924")
+    }
+
+    private fun contentOf(file: DepotFile) = file.chunks.fold(ByteArray(0)) { acc, c -> acc + chunkBytes(chunkId(c)) }
+
+    private fun writeBuild(files: List<DepotFile>, dir: File = installDir) {
+        for (file in files) File(dir, file.path).apply { parentFile!!.mkdirs() }.writeBytes(contentOf(file))
+    }
+
+    /** What GOGDownloadManager passes to the planner: the recorded files whose size and mtime still match. */
+    private fun planFromRecord(newFiles: List<DepotFile>) = GOGManifestUtils.readInstalledFiles(installDir)!!.let { installed ->
+        val intactPaths = installed.filter { it.isIntact(installDir) }.mapTo(HashSet()) { it.file.path }
+        GOGDeltaPlanner.plan(installed.map { it.file }, newFiles) { it.path in intactPaths }
+    }
+
+    // Build 1 ships a launcher, two data packs and a readme; build 2 rewrites the tail of
+    // pack0, moves the readme into docs/ and adds pack2 out of chunks pack1 already holds
+    private val build1 = listOf(
+        depotFile("Launcher.exe", 1),
+        depotFile("data/pack0.dat", 2, 3, 4),
+        depotFile("data/pack1.dat", 5, 6),
+        depotFile("readme.txt", 7),
+    )
+    private val build2 = listOf(
+        depotFile("Launcher.exe", 1),
+        depotFile("data/pack0.dat", 2, 3, 8),
+        depotFile("data/pack1.dat", 5, 6),
+        depotFile("data/pack2.dat", 6, 5),
+        depotFile("docs/readme.txt", 7),
+    )
+
+    @Before
+    fun setup() {
+        installDir = Files.createTempDirectory("gog-delta").toFile()
+    }
+
+    @After
+    fun tearDown() {
+        installDir.deleteRecursively()
+    }
+
+    @Test
+    fun `the install record round-trips and skips files that were never written`() {
+        writeBuild(build1.filter { it.path != "readme.txt" })
+        GOGManifestUtils.writeInstalledFiles(installDir, build1)
+
+        val record = GOGManifestUtils.readInstalledFiles(installDir)!!
+        assertEquals(listOf("Launcher.exe", "data/pack0.dat", "data/pack1.dat"), record.map { it.file.path })
+        assertEquals(build1.take(3).map { it.chunks }, record.map { it.file.chunks })
+        assertTrue(record.all { it.isIntact(installDir) })
+    }
+
+    @Test
+    fun `a file touched since the install is neither kept nor copied from`() {
+        writeBuild(build1)
+        GOGManifestUtils.writeInstalledFiles(installDir, build1)
+        // Same bytes, but the mtime no longer matches the record, as after a repair tool ran
+        val pack1 = File(installDir, "data/pack1.dat")
+        pack1.setLastModified(pack1.lastModified() - 60_000)
+
+        val plan = planFromRecord(build2)
+
+        assertEquals(listOf("Launcher.exe"), plan.unchangedFiles.map { it.path })
+        val patches = plan.patchedFiles.associateBy { it.file.path }
+        assertTrue(patches.getValue("data/pack1.dat").chunks.none { it.isReused })
+        assertTrue(patches.getValue("data/pack2.dat").chunks.none { it.isReused })
+        // pack0 keeps its untouched head, the readme moves without a download
+        assertEquals(listOf("data/pack0.dat", "data/pack0.dat", null), patches.getValue("data/pack0.dat").chunks.map { it.sourceFile })
+        assertEquals(listOf("readme.txt"), patches.getValue("docs/readme.txt").chunks.map { it.sourceFile })
+        assertEquals(listOf(5, 6, 8), plan.downloadChunks.map { chunkId(it) }.sorted())
+    }
+
+    @Test
+    fun `chunks changed behind the record are downloaded and their files assembled again`() {
+        writeBuild(build1)
+        GOGManifestUtils.writeInstalledFiles(installDir, build1)
+        // A mod overwrote the second chunk of pack1 and restored size and mtime
+        val pack1 = File(installDir, "data/pack1.dat")
+        val modified = pack1.lastModified()
+        pack1.writeBytes(chunkBytes(5) + ByteArray(chunkBytes(6).size) { 0x55 })
+        pack1.setLastModified(modified)
+
+        val plan = planFromRecord(build2)
+        assertTrue(plan.downloadChunks.none { chunkId(it) == 6 })
+        val patcher = GOGDeltaPatcher(installDir, plan)
+        val downloaded = mutableListOf<Int>()
+        val download = { c: FileChunk -> chunkBytes(chunkId(c)).also { downloaded += chunkId(c) } }
+
+        val stale = plan.patchedFiles.flatMap { patcher.assemble(it, download) }
+        assertEquals(listOf(6), stale.map { chunkId(it) }.distinct())
+
+        // The same steps as applyDeltaUpdate: only files that used a stale chunk are redone
+        val retryPlan = plan.withDownloads(stale)
+        val retry = GOGDeltaPatcher(installDir, retryPlan)
+        val redone = retryPlan.patchedFiles.filter { patch -> patch.chunks.any { chunkId(it.chunk) == 6 } }
+        assertEquals(setOf("data/pack2.dat"), redone.map { it.file.path }.toSet())
+        for (patch in redone) assertTrue(retry.assemble(patch, download).isEmpty())
+        assertTrue(retry.commit().isSuccess)
+
+        assertEquals(listOf(8, 6), downloaded.distinct())
+        assertArrayEquals(contentOf(build2[3]), File(installDir, "data/pack2.dat").readBytes())
+        assertArrayEquals(contentOf(build2[1]), File(installDir, "data/pack0.dat").readBytes())
+        assertArrayEquals(contentOf(build2[4]), File(installDir, "docs/readme.txt").readBytes())
+        assertFalse(File(installDir, "readme.txt").exists())
+    }
+}
@@ -0,0 +1,261 @@
+package app.gamenative.ui.model
+
+import app.gamenative.data.ConfigInfo
+import app.gamenative.data.DepotInfo
+import app.gamenative.data.GOGGame
+import app.gamenative.data.GameSource
+import app.gamenative.data.LibraryItem
+import app.gamenative.data.ManifestInfo
+import app.gamenative.data.SteamApp
+import app.gamenative.enums.AppType
+import app.gamenative.enums.OS
+import app.gamenative.enums.OSArch
+import app.gamenative.ui.enums.SortOption
+import java.util.EnumSet
+import kotlin.random.Random
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Ignore
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+/**
+ * Checks LibraryIndex against a straightforward filter-then-sort over the same synthetic
+ * library of 20k Steam apps, and measures query latency on it when run by hand.
+ */
+@RunWith(RobolectricTestRunner::class)
+class LibraryIndexTest {
+
+    companion object {
+        private const val STEAM_APP_COUNT = 20_000
+        private const val GOG_GAME_COUNT = 500
+        private const val USER_ACCOUNT = 1
+        private const val FAMILY_ACCOUNT = 2
+    }
+
+    private val words = listOf(
+        "dark", "souls", "portal", "space", "legend", "quest", "city", "racing", "tactics", "hollow",
+        "knight", "star", "craft", "empire", "world", "zero", "dawn", "iron", "night", "storm",
+    )
+
+    private lateinit var steamApps: List<SteamApp>
+    private lateinit var gogGames: List<GOGGame>
+    private lateinit var installedDirs: Set<String>
+    private lateinit var index: LibraryIndex
+
+    @Before
+    fun setUp() {
+        val random = Random(42)
+        val types = listOf(AppType.game, AppType.game, AppType.game, AppType.application, AppType.tool, AppType.demo)
+        steamApps = (1..STEAM_APP_COUNT).map { id ->
+            val name = List(2 + random.nextInt(3)) { words[random.nextInt(words.size)] }
+                .joinToString(" ") { word -> word.replaceFirstChar { it.uppercase() } } + " $id"
+            SteamApp(
+                id = id,
+                name = name,
+                type = types[random.nextInt(types.size)],
+                ownerAccountId = if (random.nextInt(4) == 0) listOf(FAMILY_ACCOUNT) else listOf(USER_ACCOUNT),
+                config = ConfigInfo(installDir = "dir_$id"),
+                depots = mapOf(id to depot(id, random.nextLong(1, 100) * 1_000_000L)),
+            )
+        }
+        gogGames = (1..GOG_GAME_COUNT).map { id ->
+            GOGGame(id = "gog$id", title = "${words[id % words.size]} chronicles $id", isInstalled = id % 7 == 0)
+        }
+        installedDirs = steamApps.filter { it.id % 50 == 0 }.map { "dir_${it.id}" }.toSet()
+
+        index = LibraryIndex()
+        index.updateSteamApps(steamApps)
+        index.updateGogGames(gogGames)
+        index.updateInstalledDirs(installedDirs)
+    }
+
+    private fun depot(id: Int, size: Long) = DepotInfo(
+        depotId = id,
+        dlcAppId = 0,
+        depotFromApp = 0,
+        sharedInstall = false,
+        osList = EnumSet.of(OS.windows),
+        osArch = OSArch.Arch64,
+        manifests = mapOf("public" to ManifestInfo("public", id.toLong(), size, size)),
+        encryptedManifests = emptyMap(),
+    )
+
+    /** The filtering and sorting the view model used to do on every query. */
+    private fun reference(query: LibraryIndex.Query): List<String> {
+        data class Row(val appId: String, val name: String, val size: Long, val installed: Boolean)
+
+        val steam = steamApps
+            .filter { app -> query.steamOwners.isEmpty() || query.steamOwners.any { app.ownerAccountId.contains(it) } }
+            .filter { it.type in query.steamTypes }
+            .filter { query.includeShared || it.ownerAccountId.contains(query.steamUserAccountId) }
+            .filter { it.name.contains(query.searchQuery, ignoreCase = true) }
+            .filter { !query.installedOnly || "dir_${it.id}" in installedDirs }
+            .map { Row("STEAM_${it.id}", it.name, it.depots.values.sumOf { d -> d.manifests.getValue("public").size }, "dir_${it.id}" in installedDirs) }
+        val gog = gogGames
+            .filter { it.title.contains(query.searchQuery, ignoreCase = true) }
+            .filter { !query.installedOnly || it.isInstalled }
+            .map { Row("GOG_${it.id}", it.title, 0L, it.isInstalled) }
+
+        val comparator: Comparator<Row> = when (query.sortOption) {
+            SortOption.INSTALLED_FIRST, SortOption.RECENTLY_PLAYED ->
+                compareBy<Row> { if (it.installed) 0 else 1 }.thenBy { it.name.lowercase() }
+            SortOption.NAME_ASC -> compareBy { it.name.lowercase() }
+            SortOption.NAME_DESC -> compareByDescending { it.name.lowercase() }
+            SortOption.SIZE_SMALLEST -> compareBy<Row> { it.size }.thenBy { it.name.lowercase() }
+            SortOption.SIZE_LARGEST -> compareByDescending<Row> { it.size }.thenBy { it.name.lowercase() }
+        }
+        return buildList {
+            if (GameSource.STEAM in query.sources) addAll(steam)
+            if (GameSource.GOG in query.sources) addAll(gog)
+        }.sortedWith(comparator).map { it.appId }
+    }
+
+    private val queries = listOf(
+        LibraryIndex.Query(),
+        LibraryIndex.Query(searchQuery = "Ho"),
+        LibraryIndex.Query(searchQuery = "KNIGHT", sortOption = SortOption.NAME_ASC),
+        LibraryIndex.Query(searchQuery = "dark souls", sortOption = SortOption.NAME_DESC),
+        LibraryIndex.Query(searchQuery = "quest", sortOption = SortOption.SIZE_LARGEST, sources = setOf(GameSource.STEAM)),
+        LibraryIndex.Query(sortOption = SortOption.SIZE_SMALLEST, steamTypes = setOf(AppType.game, AppType.demo)),
+        LibraryIndex.Query(installedOnly = true),
+        LibraryIndex.Query(steamOwners = listOf(USER_ACCOUNT), includeShared = false, steamUserAccountId = USER_ACCOUNT),
+        LibraryIndex.Query(searchQuery = "no such game"),
+    )
+
+    @Test
+    fun queriesMatchFilteringAndSortingTheFullList() {
+        for (query in queries) {
+            val expected = reference(query)
+            val result = index.query(query.copy(limit = 50))
+
+            assertEquals("total for $query", expected.size, result.total)
+            assertEquals("page for $query", expected.take(50), result.items.map { it.appId })
+            assertEquals((0 until result.items.size).toList(), result.items.map { it.index })
+        }
+    }
+
+    @Test
+    fun countsAreReportedForUnselectedSources() {
+        val result = index.query(LibraryIndex.Query(sources = setOf(GameSource.GOG)))
+
+        assertEquals(GOG_GAME_COUNT, result.total)
+        assertEquals(GOG_GAME_COUNT, result.counts[GameSource.GOG])
+        assertEquals(GOG_GAME_COUNT / 7, result.installedCounts[GameSource.GOG])
+        assertEquals(steamApps.count { it.type == AppType.game }, result.counts[GameSource.STEAM])
+        assertTrue(result.items.all { it.gameSource == GameSource.GOG })
+    }
+
+    @Test
+    fun updatesOnlyRebuildWhatChanged() {
+        assertFalse(index.updateSteamApps(steamApps.toList()))
+        assertFalse(index.updateInstalledDirs(installedDirs.toList()))
+
+        val renamed = steamApps.toMutableList()
+        renamed[0] = renamed[0].copy(name = "Zzz Renamed Game")
+        assertTrue(index.updateSteamApps(renamed))
+        assertEquals(
+            listOf("STEAM_${renamed[0].id}"),
+            index.query(LibraryIndex.Query(searchQuery = "renamed")).items.map { it.appId },
+        )
+
+        // Installing a game moves it to the front without touching the Steam rows
+        assertTrue(index.updateInstalledDirs(installedDirs + "dir_${renamed[0].id}"))
+        val installed = index.query(LibraryIndex.Query(searchQuery = "renamed")).items.single()
+        assertTrue(installed.isInstalled)
+
+        val custom = LibraryItem(appId = "CUSTOM_GAME_1", name = "My Homebrew", gameSource = GameSource.CUSTOM_GAME)
+        assertTrue(index.updateCustomGames(listOf(custom)))
+        val result = index.query(LibraryIndex.Query(searchQuery = " homebrew "))
+        assertEquals(listOf("CUSTOM_GAME_1"), result.items.map { it.appId })
+        assertEquals(0, index.query(LibraryIndex.Query(searchQuery = "homebrew", includeCustomGames = false)).total)
+    }
+
+    @Test
+    fun rowInsertedInTheMiddleIsPickedUp() {
+        // Reused rows past the old length, as when a purchase lands between existing games
+        gogGames = gogGames.take(1) + GOGGame(id = "purchased", title = "purchased chronicles") + gogGames.drop(1)
+        assertTrue(index.updateGogGames(gogGames))
+
+        val query = LibraryIndex.Query(sources = setOf(GameSource.GOG))
+        assertEquals(reference(query), index.query(query).items.map { it.appId })
+        assertEquals(GOG_GAME_COUNT + 1, index.query(query).total)
+    }
+
+    @Test
+    fun familyMembersSeeSharedAppsFlagged() {
+        val result = index.query(
+            LibraryIndex.Query(steamOwners = listOf(USER_ACCOUNT, FAMILY_ACCOUNT), steamUserAccountId = USER_ACCOUNT, limit = 500),
+        )
+        val shared = steamApps.filter { FAMILY_ACCOUNT in it.ownerAccountId }.map { "STEAM_${it.id}" }.toSet()
+
+        assertTrue(result.items.any { it.isShared })
+        result.items.forEach { assertEquals(it.appId in shared, it.isShared) }
+    }
+
+    @Test
+    fun equalNamesKeepTheirRowOrderInBothDirections() {
+        gogGames = listOf("b", "a", "a", "c", "a").mapIndexed { i, title -> GOGGame(id = "dup$i", title = title) }
+        index.updateGogGames(gogGames)
+
+        for (sort in listOf(SortOption.NAME_ASC, SortOption.NAME_DESC)) {
+            val query = LibraryIndex.Query(sortOption = sort, sources = setOf(GameSource.GOG))
+            assertEquals(reference(query), index.query(query).items.map { it.appId })
+        }
+        val descending = index.query(LibraryIndex.Query(sortOption = SortOption.NAME_DESC, sources = setOf(GameSource.GOG)))
+        assertEquals(listOf("GOG_dup3", "GOG_dup0", "GOG_dup1", "GOG_dup2", "GOG_dup4"), descending.items.map { it.appId })
+    }
+
+    @Test
+    fun everyKeystrokeAndSortMatchesFilteringAndSortingTheFullList() {
+        val keystrokes = listOf("", "d", "da", "dar", "dark", "dark ", "dark s", "dark so", "dark sou", "dark soul", "dark souls")
+
+        for (sort in SortOption.entries) {
+            for (keystroke in keystrokes) {
+                val query = LibraryIndex.Query(searchQuery = keystroke, sortOption = sort)
+                val expected = reference(query)
+                val result = index.query(query.copy(limit = 50))
+
+                assertEquals("total for $query", expected.size, result.total)
+                assertEquals("page for $query", expected.take(50), result.items.map { it.appId })
+            }
+        }
+    }
+
+    @Ignore("Benchmark; run manually")
+    @Test
+    fun benchmarkQueriesOnTwentyThousandApps() {
+        val keystrokes = listOf("", "d", "da", "dar", "dark", "dark ", "dark s", "dark so", "dark sou", "dark soul", "dark souls")
+        val sorts = SortOption.entries
+
+        // Warm up the JIT before measuring
+        repeat(20) { keystrokes.forEach { index.query(LibraryIndex.Query(searchQuery = it, limit = 50)) } }
+
+        var queryCount = 0
+        val indexedNanos = measureNanos {
+            repeat(10) {
+                for (sort in sorts) {
+                    for (keystroke in keystrokes) {
+                        index.query(LibraryIndex.Query(searchQuery = keystroke, sortOption = sort, limit = 50))
+                        queryCount++
+                    }
+                }
+            }
+        }
+        val perQueryMicros = indexedNanos / queryCount / 1_000
+
+        val referenceNanos = measureNanos {
+            keystrokes.forEach { reference(LibraryIndex.Query(searchQuery = it)) }
+        }
+        val perReferenceMicros = referenceNanos / keystrokes.size / 1_000
+
+        println("LibraryIndex: ${perQueryMicros}us per query, full filter and sort: ${perReferenceMicros}us per query ($STEAM_APP_COUNT apps)")
+    }
+
+    private inline fun measureNanos(block: () -> Unit): Long {
+        val start = System.nanoTime()
+        block()
+        return System.nanoTime() - start
+    }
+}
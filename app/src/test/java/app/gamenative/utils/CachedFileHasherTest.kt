@@ -0,0 +1,120 @@
+package app.gamenative.utils
+
+import android.content.Context
+import androidx.room.Room
+import androidx.test.core.app.ApplicationProvider
+import app.gamenative.db.PluviaDatabase
+import `in`.dragonbra.javasteam.util.crypto.CryptoHelper
+import java.io.File
+import java.nio.file.Files
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class CachedFileHasherTest {
+
+    private lateinit var db: PluviaDatabase
+    private lateinit var dir: File
+    private lateinit var hasher: CachedFileHasher
+
+    @Before
+    fun setUp() {
+        val context = ApplicationProvider.getApplicationContext<Context>()
+        db = Room.inMemoryDatabaseBuilder(context, PluviaDatabase::class.java)
+            .allowMainThreadQueries()
+            .build()
+        dir = Files.createTempDirectory("file-hash").toFile()
+        hasher = CachedFileHasher(db.fileHashDao(), parallelism = 4)
+    }
+
+    @After
+    fun tearDown() {
+        db.close()
+        dir.deleteRecursively()
+    }
+
+    @Test
+    fun streamedHashMatchesWholeFileHash() = runBlocking {
+        // Larger than the read buffer so the digest is fed in several pieces
+        val data = ByteArray(200_000) { (it * 31).toByte() }
+        val file = File(dir, "big.sav").apply { writeBytes(data) }
+
+        val hash = hasher.hashAll(listOf(file.toPath())).getValue(file.toPath())
+
+        assertArrayEquals(CryptoHelper.shaHash(data), hash.sha)
+        assertEquals(data.size.toLong(), hash.size)
+        assertEquals(file.lastModified(), hash.lastModified)
+    }
+
+    @Test
+    fun unchangedFilesAreServedFromTheCache() = runBlocking {
+        val files = (0 until 20).map { File(dir, "save_$it.sav").apply { writeText("save $it") } }
+        val paths = files.map { it.toPath() }
+
+        val first = hasher.hashAll(paths)
+        assertEquals(20, hasher.lastHashedCount)
+
+        val second = hasher.hashAll(paths)
+        assertEquals(0, hasher.lastHashedCount)
+        paths.forEach { assertArrayEquals(first.getValue(it).sha, second.getValue(it).sha) }
+
+        // A fresh hasher on the same database still finds the stored hashes
+        CachedFileHasher(db.fileHashDao()).let {
+            it.hashAll(paths)
+            assertEquals(0, it.lastHashedCount)
+        }
+    }
+
+    @Test
+    fun modifiedFilesAreRehashed() = runBlocking {
+        val sameSize = File(dir, "same_size.sav").apply { writeText("aaaa") }
+        val resized = File(dir, "resized.sav").apply { writeText("bbbb") }
+        val untouched = File(dir, "untouched.sav").apply { writeText("cccc") }
+        val paths = listOf(sameSize.toPath(), resized.toPath(), untouched.toPath())
+        hasher.hashAll(paths)
+
+        // Same length, only the modification time gives the change away
+        val mtime = sameSize.lastModified()
+        sameSize.writeText("zzzz")
+        sameSize.setLastModified(mtime + 2_000)
+        // Different length, modification time deliberately left as it was
+        val resizedMtime = resized.lastModified()
+        resized.writeText("bbbbbb")
+        resized.setLastModified(resizedMtime)
+
+        val updated = hasher.hashAll(paths)
+
+        assertEquals(2, hasher.lastHashedCount)
+        assertArrayEquals(CryptoHelper.shaHash("zzzz".toByteArray()), updated.getValue(sameSize.toPath()).sha)
+        assertArrayEquals(CryptoHelper.shaHash("bbbbbb".toByteArray()), updated.getValue(resized.toPath()).sha)
+        assertArrayEquals(CryptoHelper.shaHash("cccc".toByteArray()), updated.getValue(untouched.toPath()).sha)
+
+        val stored = db.fileHashDao().getByPaths(listOf(sameSize.toPath().toAbsolutePath().normalize().toString())).single()
+        assertEquals(mtime + 2_000, stored.lastModified)
+    }
+
+    @Test
+    fun hashesOfDeletedFilesArePruned() = runBlocking {
+        val kept = File(dir, "kept.sav").apply { writeText("kept") }
+        val deleted = File(dir, "deleted.sav").apply { writeText("deleted") }
+        val elsewhere = Files.createTempDirectory("file-hash-other").toFile()
+        val other = File(elsewhere, "other.sav").apply { writeText("other") }
+        hasher.hashAll(listOf(kept.toPath(), deleted.toPath(), other.toPath()))
+
+        deleted.delete()
+        elsewhere.deleteRecursively()
+        hasher.pruneMissing(dir.toPath())
+
+        val keys = listOf(kept, deleted, other).map { it.toPath().toAbsolutePath().normalize().toString() }
+        // Only files under the pruned root are checked
+        assertEquals(setOf(keys[0], keys[2]), db.fileHashDao().getByPaths(keys).map { it.path }.toSet())
+
+        hasher.pruneMissing()
+        assertEquals(listOf(keys[0]), db.fileHashDao().getByPaths(keys).map { it.path })
+    }
+}
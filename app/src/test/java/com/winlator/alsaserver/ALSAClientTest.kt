@@ -0,0 +1,233 @@
+package com.winlator.alsaserver
+
+import java.nio.ByteBuffer
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import kotlin.concurrent.thread
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Ignore
+import org.junit.Test
+
+class ALSAClientTest {
+
+    /**
+     * Sink that plays in real time from a device buffer of [deviceFrames], counting an
+     * underrun whenever the device ran dry before the next write arrived.
+     */
+    private class FakeSink(
+        private val sampleRate: Int,
+        private val frameBytes: Int,
+        private val deviceFrames: Int,
+    ) : AudioSink {
+        private val lock = Object()
+        private var playing = false
+        private var queuedFrames = 0L
+        private var baseFrames = 0L
+        private var baseNanos = 0L
+        private var started = false
+        var underruns = 0
+        var releaseWrites: CountDownLatch? = null
+
+        private fun playedFrames(now: Long): Long {
+            if (!playing) return baseFrames
+            val elapsed = (now - baseNanos) * sampleRate / 1_000_000_000L
+            return minOf(queuedFrames, baseFrames + elapsed)
+        }
+
+        override fun write(data: ByteBuffer, size: Int): Int {
+            releaseWrites?.await()
+            val frames = size / frameBytes
+            while (true) {
+                synchronized(lock) {
+                    val now = System.nanoTime()
+                    if (playing && started && baseFrames + (now - baseNanos) * sampleRate / 1_000_000_000L > queuedFrames) {
+                        underruns++
+                        baseFrames = queuedFrames
+                        baseNanos = now
+                    }
+                    if (queuedFrames + frames - playedFrames(now) <= deviceFrames) {
+                        if (!started) {
+                            started = true
+                            baseNanos = now
+                        }
+                        queuedFrames += frames
+                        data.position(data.position() + size)
+                        return size
+                    }
+                }
+                Thread.sleep(1)
+            }
+        }
+
+        override fun play() {
+            synchronized(lock) {
+                if (!playing) {
+                    playing = true
+                    baseNanos = System.nanoTime()
+                }
+            }
+        }
+
+        override fun pause() = synchronized(lock) {
+            baseFrames = playedFrames(System.nanoTime())
+            playing = false
+        }
+
+        override fun stop() = pause()
+
+        override fun flush() = synchronized(lock) {
+            queuedFrames = 0
+            baseFrames = 0
+            started = false
+        }
+
+        override fun release() {}
+
+        override fun getPlaybackFramePosition(): Long = synchronized(lock) { playedFrames(System.nanoTime()) }
+
+        override fun getUnderrunCount(): Int = underruns
+    }
+
+    private fun createClient(sink: FakeSink, bufferFrames: Int): ALSAClient {
+        val client = ALSAClient(ALSAClient.Options(), "bionic")
+        client.setSinkFactory { _, _, _, _, _ -> sink }
+        client.setChannels(2)
+        client.setDataType(ALSAClient.DataType.S16LE)
+        client.setSampleRate(SAMPLE_RATE)
+        client.setBufferSize(bufferFrames)
+        client.prepare()
+        return client
+    }
+
+    @Test
+    fun ringBufferKeepsOrderAcrossWraparound() {
+        val ring = PCMRingBuffer(1000)
+        assertEquals(1024, ring.capacity())
+        val total = 1_000_000
+        val producer = thread {
+            var next = 0
+            var chunkSize = 1
+            while (next < total) {
+                val chunk = ByteBuffer.allocate(minOf(chunkSize, total - next))
+                for (i in 0 until chunk.capacity()) chunk.put((next + i).toByte())
+                chunk.flip()
+                while (chunk.hasRemaining()) ring.write(chunk)
+                next += chunk.capacity()
+                chunkSize = chunkSize % 700 + 37
+            }
+        }
+
+        val buffer = ByteArray(333)
+        var received = 0
+        while (received < total) {
+            val read = ring.read(buffer, 0, buffer.size)
+            for (i in 0 until read) assertEquals((received + i).toByte(), buffer[i])
+            received += read
+        }
+        producer.join()
+        assertEquals(0, ring.available())
+    }
+
+    @Test
+    fun writesReturnWhileTheSinkIsBlocked() {
+        val sink = FakeSink(SAMPLE_RATE, FRAME_BYTES, deviceFrames = 1024)
+        sink.releaseWrites = CountDownLatch(1)
+        val client = createClient(sink, bufferFrames = 4096)
+
+        // The sink takes nothing until released, so these only return if they never wait on it
+        val period = ByteBuffer.allocate(PERIOD_FRAMES * FRAME_BYTES)
+        repeat(4096 / PERIOD_FRAMES) { client.writeDataToTrack(period) }
+
+        assertEquals(0, client.pointer())
+        assertEquals(0, client.droppedBytes)
+
+        sink.releaseWrites!!.countDown()
+        client.release()
+    }
+
+    /**
+     * Writes [totalFrames] the way the ALSA plugin does, only while the pointer leaves room
+     * for a period, and returns the longest single write in nanoseconds.
+     */
+    private fun streamAtClientPace(client: ALSAClient, bufferFrames: Int, totalFrames: Int): Long {
+        val period = ByteBuffer.allocate(PERIOD_FRAMES * FRAME_BYTES)
+        var writtenFrames = 0
+        var maxWriteNanos = 0L
+        while (writtenFrames < totalFrames) {
+            val pointer = client.pointer()
+            assertTrue("pointer $pointer ahead of $writtenFrames written frames", pointer <= writtenFrames)
+            if (writtenFrames - pointer > bufferFrames - PERIOD_FRAMES) {
+                Thread.sleep(1)
+                continue
+            }
+            val start = System.nanoTime()
+            client.writeDataToTrack(period)
+            maxWriteNanos = maxOf(maxWriteNanos, System.nanoTime() - start)
+            writtenFrames += PERIOD_FRAMES
+        }
+        return maxWriteNanos
+    }
+
+    @Test
+    fun streamingAtClientPaceDropsNothingAndReportsEveryFramePlayed() {
+        val sink = FakeSink(SAMPLE_RATE, FRAME_BYTES, deviceFrames = 1024)
+        val client = createClient(sink, bufferFrames = 4096)
+
+        // About half a second of audio, played in real time
+        val totalFrames = 94 * PERIOD_FRAMES
+        streamAtClientPace(client, bufferFrames = 4096, totalFrames = totalFrames)
+        val deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2)
+        while (client.pointer() < totalFrames && System.nanoTime() < deadline) Thread.sleep(5)
+
+        assertEquals(totalFrames, client.pointer())
+        assertEquals(0, client.droppedBytes)
+        client.release()
+    }
+
+    @Test
+    fun drainWaitsUntilEverythingWrittenWasPlayed() {
+        // Plays a thousand times faster than real time, so only the wait itself is tested
+        val sink = FakeSink(SAMPLE_RATE * 1000, FRAME_BYTES, deviceFrames = 1024)
+        val client = createClient(sink, bufferFrames = 4096)
+
+        val period = ByteBuffer.allocate(PERIOD_FRAMES * FRAME_BYTES)
+        repeat(8) { client.writeDataToTrack(period) }
+        client.drain()
+
+        assertEquals(8 * PERIOD_FRAMES, client.pointer())
+        client.release()
+    }
+
+    @Ignore("Benchmark; run manually")
+    @Test
+    fun benchmarkWriteLatencyAndUnderruns() {
+        val sink = FakeSink(SAMPLE_RATE, FRAME_BYTES, deviceFrames = 1024)
+        val client = createClient(sink, bufferFrames = 4096)
+
+        val maxWriteNanos = streamAtClientPace(client, bufferFrames = 4096, totalFrames = SAMPLE_RATE * 5)
+        client.drain()
+
+        println("max write latency: ${maxWriteNanos / 1000} us, underruns: ${sink.underruns}, dropped: ${client.droppedBytes} bytes")
+        client.release()
+    }
+
+    @Test
+    fun stopDiscardsPendingFrames() {
+        val sink = FakeSink(SAMPLE_RATE, FRAME_BYTES, deviceFrames = 256)
+        val client = createClient(sink, bufferFrames = 4096)
+
+        val period = ByteBuffer.allocate(PERIOD_FRAMES * FRAME_BYTES)
+        repeat(16) { client.writeDataToTrack(period) }
+        client.stop()
+
+        assertEquals(16 * PERIOD_FRAMES, client.pointer())
+        client.release()
+    }
+
+    companion object {
+        private const val SAMPLE_RATE = 48000
+        private const val FRAME_BYTES = 4
+        private const val PERIOD_FRAMES = 256
+    }
+}
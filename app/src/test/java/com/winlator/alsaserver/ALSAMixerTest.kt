@@ -0,0 +1,153 @@
+package com.winlator.alsaserver
+
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import kotlin.math.PI
+import kotlin.math.abs
+import kotlin.math.sin
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Ignore
+import org.junit.Test
+
+class ALSAMixerTest {
+
+    /** Sink that takes everything immediately, so only the mixing itself is measured. */
+    private class NullSink : AudioSink {
+        override fun write(data: ByteBuffer, size: Int): Int {
+            data.position(data.position() + size)
+            return size
+        }
+
+        override fun play() {}
+        override fun pause() {}
+        override fun stop() {}
+        override fun flush() {}
+        override fun release() {}
+        override fun getPlaybackFramePosition(): Long = 0
+        override fun getUnderrunCount(): Int = 0
+    }
+
+    private val mixer = ALSAMixer(SAMPLE_RATE, ALSAClient.Options()) { _, _, _, _, _ -> NullSink() }
+    private val frames = mixer.blockFrames
+    private val bus = FloatArray(frames * ALSAMixer.CHANNELS)
+
+    /** Encodes [samples] (interleaved, -1..1) in [dataType]. */
+    private fun encode(dataType: ALSAClient.DataType, samples: FloatArray): ByteBuffer {
+        val order = when (dataType) {
+            ALSAClient.DataType.S16BE, ALSAClient.DataType.FLOATBE -> ByteOrder.BIG_ENDIAN
+            else -> ByteOrder.LITTLE_ENDIAN
+        }
+        val buffer = ByteBuffer.allocate(samples.size * dataType.byteCount).order(order)
+        for (sample in samples) {
+            when (dataType) {
+                ALSAClient.DataType.U8 -> buffer.put((sample * 127 + 128).toInt().toByte())
+                ALSAClient.DataType.S16LE, ALSAClient.DataType.S16BE -> buffer.putShort((sample * 32767).toInt().toShort())
+                ALSAClient.DataType.FLOATLE, ALSAClient.DataType.FLOATBE -> buffer.putFloat(sample)
+            }
+        }
+        buffer.flip()
+        return buffer
+    }
+
+    private fun addStream(dataType: ALSAClient.DataType, channels: Int, sampleRate: Int, volume: Float = 1.0f): Pair<PCMRingBuffer, MixerStream> {
+        val ring = PCMRingBuffer(1 shl 20)
+        val stream = mixer.addStream(ring, dataType, channels, sampleRate, volume)
+        stream.play()
+        return ring to stream
+    }
+
+    @Test
+    fun everyFormatIsConvertedToTheSameLevel() {
+        for (dataType in ALSAClient.DataType.values()) {
+            val (ring, stream) = addStream(dataType, channels = 1, sampleRate = SAMPLE_RATE)
+            ring.write(encode(dataType, FloatArray(frames) { 0.5f }))
+            mixer.mix(bus, frames)
+            stream.release()
+
+            val tolerance = if (dataType == ALSAClient.DataType.U8) 0.01f else 0.0001f
+            for (sample in bus) assertEquals(dataType.name, 0.5f, sample, tolerance)
+        }
+    }
+
+    @Test
+    fun resampledSineStaysOnPitchAndVolumeIsApplied() {
+        val inputRate = 44100
+        val frequency = 441.0
+        val (ring, stream) = addStream(ALSAClient.DataType.S16LE, channels = 1, sampleRate = inputRate, volume = 0.5f)
+        ring.write(encode(ALSAClient.DataType.S16LE, FloatArray(inputRate) { sin(2 * PI * frequency * it / inputRate).toFloat() }))
+
+        var maxError = 0.0
+        for (block in 0 until 50) {
+            mixer.mix(bus, frames)
+            for (i in 0 until frames) {
+                val expected = 0.5 * sin(2 * PI * frequency * (block * frames + i) / SAMPLE_RATE)
+                maxError = maxOf(maxError, abs(bus[i * 2] - expected))
+                assertEquals(bus[i * 2], bus[i * 2 + 1], 0.0f)
+            }
+        }
+        assertTrue("max error $maxError", maxError < 0.001)
+        assertTrue(abs(50L * frames * inputRate / SAMPLE_RATE - stream.position) <= 1)
+        assertEquals(0, stream.underrunCount)
+        stream.release()
+    }
+
+    @Test
+    fun pausedAndDroppedStreamsAreSilent() {
+        val (ring, stream) = addStream(ALSAClient.DataType.FLOATLE, channels = 2, sampleRate = SAMPLE_RATE)
+        ring.write(encode(ALSAClient.DataType.FLOATLE, FloatArray(frames * 4) { 0.25f }))
+
+        stream.pause()
+        mixer.mix(bus, frames)
+        assertTrue(bus.all { it == 0.0f })
+
+        stream.drop()
+        assertEquals(frames * 2L, stream.position)
+        stream.play()
+        mixer.mix(bus, frames)
+        assertTrue(bus.all { it == 0.0f })
+        assertEquals(0, ring.available())
+        stream.release()
+    }
+
+    @Ignore("Benchmark; run manually")
+    @Test
+    fun benchmarkMixCostPerBlock() {
+        val formats = ALSAClient.DataType.values()
+        val rates = intArrayOf(44100, 48000, 22050, 32000)
+        for (streamCount in listOf(1, 2, 4, 8, 16)) {
+            val streams = (0 until streamCount).map { i ->
+                val dataType = formats[i % formats.size]
+                val channels = 1 + i % 2
+                val sampleRate = rates[i % rates.size]
+                val (ring, stream) = addStream(dataType, channels, sampleRate, volume = 0.5f)
+                val block = encode(dataType, FloatArray((sampleRate / 100 + 2) * channels) { sin(it * 0.01).toFloat() })
+                Triple(ring, stream, block)
+            }
+
+            val warmupBlocks = 200
+            val measuredBlocks = 500
+            var totalNanos = 0L
+            for (blockIndex in 0 until warmupBlocks + measuredBlocks) {
+                for ((ring, _, block) in streams) {
+                    block.rewind()
+                    ring.write(block)
+                }
+                val start = System.nanoTime()
+                mixer.mix(bus, frames)
+                if (blockIndex >= warmupBlocks) totalNanos += System.nanoTime() - start
+            }
+
+            val microsPerBlock = totalNanos / measuredBlocks / 1000.0
+            println("%2d streams: %.1f us per %d ms block".format(streamCount, microsPerBlock, ALSAMixer.BLOCK_MILLIS))
+            for ((_, stream, _) in streams) {
+                assertEquals(0, stream.underrunCount)
+                stream.release()
+            }
+        }
+    }
+
+    companion object {
+        private const val SAMPLE_RATE = 48000
+    }
+}
@@ -0,0 +1,188 @@
+package com.winlator.core
+
+import java.io.File
+import java.nio.file.Files
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.random.Random
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+
+class BlobStoreTest {
+
+    private lateinit var dir: File
+    private lateinit var store: BlobStore
+    private val random = Random(11)
+
+    @Before
+    fun setUp() {
+        dir = Files.createTempDirectory("blob-store").toFile()
+        store = BlobStore(File(dir, "blobs"))
+    }
+
+    @After
+    fun tearDown() {
+        dir.deleteRecursively()
+    }
+
+    private fun source(name: String, content: ByteArray): File {
+        return File(dir, "source/$name").apply {
+            parentFile!!.mkdirs()
+            writeBytes(content)
+        }
+    }
+
+    private fun containerFile(container: Int, name: String) = File(dir, "home/xuser-$container/.wine/drive_c/windows/Fonts/$name")
+
+    private fun blobCount() = File(dir, "blobs/objects").walkTopDown().count { it.isFile }
+
+    @Test
+    fun installedFilesShareOneCountedBlob() {
+        val content = random.nextBytes(100_000)
+        val font = source("tahoma.ttf", content)
+        for (container in 1..3) assertTrue(store.install(font, containerFile(container, "tahoma.ttf")))
+
+        val hash = BlobStore.hash(font)
+        assertEquals(1, blobCount())
+        assertEquals(3, store.getRefCount(hash))
+        for (container in 1..3) assertArrayEquals(content, containerFile(container, "tahoma.ttf").readBytes())
+
+        assertTrue(containerFile(2, "tahoma.ttf").delete())
+        assertEquals(2, store.getRefCount(hash))
+        assertEquals(0, store.gc().removedBlobs)
+
+        containerFile(1, "tahoma.ttf").delete()
+        containerFile(3, "tahoma.ttf").delete()
+        assertEquals(0, store.getRefCount(hash))
+        val report = store.gc()
+        assertEquals(1, report.removedBlobs)
+        assertEquals(100_000L, report.removedBytes)
+        assertEquals(-1, store.getRefCount(hash))
+        assertEquals(0, blobCount())
+    }
+
+    @Test
+    fun dedupeAdoptsNewContentAndLinksKnownContent() {
+        val shared = random.nextBytes(5000)
+        val extracted = (1..2).map { container ->
+            listOf(
+                containerFile(container, "arial.ttf").apply { parentFile!!.mkdirs(); writeBytes(shared) },
+                containerFile(container, "own.ttf").apply { writeBytes(random.nextBytes(300)) },
+            )
+        }
+
+        assertEquals(2, store.dedupe(extracted[0]))
+        assertEquals(2, store.dedupe(extracted[1]))
+        assertEquals(3, blobCount())
+        assertEquals(2, store.getRefCount(BlobStore.hash(containerFile(1, "arial.ttf"))))
+        assertEquals(1, store.getRefCount(BlobStore.hash(containerFile(2, "own.ttf"))))
+        assertArrayEquals(shared, containerFile(2, "arial.ttf").readBytes())
+
+        // Already shared files are left alone
+        assertEquals(0, store.dedupe(extracted[0]))
+    }
+
+    @Test
+    fun rewritingALinkedFileReleasesItsReference() {
+        val content = random.nextBytes(2000)
+        val font = source("cour.ttf", content)
+        store.install(font, containerFile(1, "cour.ttf"))
+        store.install(font, containerFile(2, "cour.ttf"))
+        val hash = BlobStore.hash(font)
+
+        // The tar extractor and FileUtils detach links before writing
+        assertTrue(FileUtils.write(containerFile(1, "cour.ttf"), byteArrayOf(1, 2, 3)))
+        assertEquals(1, store.getRefCount(hash))
+        assertArrayEquals(content, containerFile(2, "cour.ttf").readBytes())
+        assertEquals(hash, BlobStore.hash(store.getBlobFile(hash)))
+    }
+
+    @Test
+    fun verifyEvictsBlobsModifiedThroughALink() {
+        val font = source("times.ttf", random.nextBytes(4000))
+        val hash = BlobStore.hash(font)
+        store.install(font, containerFile(1, "times.ttf"))
+        assertTrue(store.verify().isEmpty())
+
+        // Something wrote in place through a link that was not detached
+        val linked = containerFile(1, "times.ttf")
+        linked.appendBytes(byteArrayOf(42))
+
+        assertEquals(listOf(hash), store.verify())
+        assertFalse(store.contains(hash))
+        assertEquals(4001L, linked.length())
+
+        assertTrue(store.install(font, containerFile(2, "times.ttf")))
+        assertEquals(hash, BlobStore.hash(store.getBlobFile(hash)))
+        assertEquals(1, store.getRefCount(hash))
+    }
+
+    @Test
+    fun concurrentInstallsAndCollectionsKeepRefcountsExact() {
+        val contents = List(4) { random.nextBytes(20_000) }
+        val sources = contents.mapIndexed { i, content -> source("font$i.ttf", content) }
+        val threads = 8
+        val start = CountDownLatch(1)
+        val failures = AtomicInteger()
+        val workers = List(threads) { t ->
+            Thread {
+                start.await()
+                for (i in sources.indices) {
+                    if (!store.install(sources[i], containerFile(t, "font$i.ttf"))) failures.incrementAndGet()
+                    if (t == 0) store.gc()
+                }
+            }
+        }
+        workers.forEach { it.start() }
+        start.countDown()
+        workers.forEach { it.join() }
+
+        assertEquals(0, failures.get())
+        assertEquals(sources.size, blobCount())
+        for (i in sources.indices) {
+            val hash = BlobStore.hash(sources[i])
+            assertEquals(threads, store.getRefCount(hash))
+            for (t in 0 until threads) assertArrayEquals(contents[i], containerFile(t, "font$i.ttf").readBytes())
+        }
+    }
+
+    @Test
+    fun refcountsMatchAModelUnderRandomOperations() {
+        val contents = List(6) { random.nextBytes(random.nextInt(1, 3000)) }
+        val sources = contents.mapIndexed { i, content -> source("font$i.ttf", content) }
+        val hashes = sources.map { BlobStore.hash(it) }
+        // Which content each container file holds
+        val model = mutableMapOf<File, Int>()
+
+        repeat(500) {
+            val container = random.nextInt(5)
+            val index = random.nextInt(contents.size)
+            val file = containerFile(container, "slot${random.nextInt(4)}.ttf")
+            when (random.nextInt(4)) {
+                0, 1 -> {
+                    assertTrue(store.install(sources[index], file))
+                    model[file] = index
+                }
+                2 -> if (model.remove(file) != null) assertTrue(file.delete())
+                3 -> store.gc()
+            }
+
+            for (i in hashes.indices) {
+                val references = model.values.count { it == i }
+                val refCount = store.getRefCount(hashes[i])
+                if (refCount >= 0) assertEquals(references, refCount)
+                else assertEquals(0, references)
+            }
+        }
+
+        for ((file, index) in model) assertArrayEquals(contents[index], file.readBytes())
+        assertTrue(store.verify().isEmpty())
+        store.gc()
+        assertEquals(model.values.toSet().size, blobCount())
+    }
+}
@@ -0,0 +1,117 @@
+package com.winlator.core
+
+import java.io.File
+import java.nio.file.Files
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+
+class ExtractionLedgerTest {
+
+    private lateinit var dir: File
+
+    @Before
+    fun setUp() {
+        dir = Files.createTempDirectory("extraction-ledger").toFile()
+    }
+
+    @After
+    fun tearDown() {
+        dir.deleteRecursively()
+    }
+
+    private fun writeFile(path: String, content: String): ExtractionLedger.Entry {
+        val file = File(dir, path)
+        file.parentFile!!.mkdirs()
+        file.writeText(content)
+        return ExtractionLedger.Entry.file(path, file.length(), file.lastModified(), ExtractionLedger.crc32(file))
+    }
+
+    private fun recordAll(identity: String): ExtractionLedger.Record {
+        val record = ExtractionLedger.Record(identity)
+        record.put(ExtractionLedger.Entry.directory("lib"))
+        record.put(writeFile("lib/a.so", "aaaa"))
+        record.put(writeFile("lib/b.so", "bbbb"))
+        record.put(writeFile("lib/c.so", "cccc"))
+        Files.createSymbolicLink(File(dir, "lib/link.so").toPath(), File("a.so").toPath())
+        record.put(ExtractionLedger.Entry.symlink("lib/link.so", "a.so"))
+        return record
+    }
+
+    private fun saveAndReload(record: ExtractionLedger.Record): ExtractionLedger {
+        val ledger = ExtractionLedger.load(dir)
+        ledger.putRecord("asset:drivers.tzst", record)
+        ledger.save()
+        return ExtractionLedger.load(dir)
+    }
+
+    @Test
+    fun recordsSurviveARoundTripAndStayValid() {
+        val record = recordAll("asset:1")
+        record.extractMillis = 1234
+        val ledger = saveAndReload(record)
+
+        val loaded = ledger.getRecord("asset:drivers.tzst", "asset:1")
+        assertNotNull(loaded)
+        assertEquals(1234L, loaded!!.extractMillis)
+        assertEquals(record.entries.map { it.path }, loaded.entries.map { it.path })
+        assertTrue(ledger.findDivergent(loaded).isEmpty())
+    }
+
+    @Test
+    fun identityMismatchIsTreatedAsNoRecord() {
+        val ledger = saveAndReload(recordAll("asset:1"))
+        assertNull(ledger.getRecord("asset:drivers.tzst", "asset:2"))
+        assertNull(ledger.getRecord("asset:other.tzst", "asset:1"))
+    }
+
+    @Test
+    fun missingAndChangedEntriesAreDivergent() {
+        val ledger = saveAndReload(recordAll("asset:1"))
+        val record = ledger.getRecord("asset:drivers.tzst", "asset:1")!!
+
+        File(dir, "lib/a.so").delete()
+        File(dir, "lib/b.so").writeText("bbbbbb")
+        File(dir, "lib/c.so").apply {
+            writeText("CCCC")
+            setLastModified(lastModified() + 5000)
+        }
+        File(dir, "lib/link.so").delete()
+        Files.createSymbolicLink(File(dir, "lib/link.so").toPath(), File("b.so").toPath())
+
+        assertEquals(setOf("lib/a.so", "lib/b.so", "lib/c.so", "lib/link.so"), ledger.findDivergent(record))
+    }
+
+    @Test
+    fun directoryReplacedByFileIsDivergent() {
+        val record = ExtractionLedger.Record("asset:1")
+        File(dir, "share").mkdirs()
+        record.put(ExtractionLedger.Entry.directory("share"))
+        val ledger = saveAndReload(record)
+
+        File(dir, "share").delete()
+        File(dir, "share").writeText("not a directory")
+
+        assertEquals(setOf("share"), ledger.findDivergent(ledger.getRecord("asset:drivers.tzst", "asset:1")!!))
+    }
+
+    @Test
+    fun touchedFileWithSameContentOnlyUpdatesItsTime() {
+        val ledger = saveAndReload(recordAll("asset:1"))
+        val record = ledger.getRecord("asset:drivers.tzst", "asset:1")!!
+
+        val file = File(dir, "lib/a.so")
+        val touched = file.lastModified() + 5000
+        file.setLastModified(touched)
+
+        assertTrue(ledger.findDivergent(record).isEmpty())
+        ledger.save()
+
+        val reloaded = ExtractionLedger.load(dir).getRecord("asset:drivers.tzst", "asset:1")!!
+        assertEquals(touched, reloaded.entries.first { it.path == "lib/a.so" }.lastModified)
+    }
+}
@@ -0,0 +1,111 @@
+package com.winlator.core
+
+import java.io.File
+import java.io.FileFilter
+import java.nio.file.Files
+import kotlin.random.Random
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Ignore
+import org.junit.Test
+
+class HardlinkCopierTest {
+
+    private lateinit var dir: File
+    private val dllFilter = FileFilter { it.name.endsWith(".dll") }
+
+    @Before
+    fun setUp() {
+        dir = Files.createTempDirectory("hardlink-copier").toFile()
+    }
+
+    @After
+    fun tearDown() {
+        dir.deleteRecursively()
+    }
+
+    /** A small prefix: [dllCount] system DLLs plus a registry and a save file that stay private. */
+    private fun createPrefix(dllCount: Int, dllSize: Int): File {
+        val random = Random(dllCount)
+        val root = File(dir, "src")
+        val system32 = File(root, ".wine/drive_c/windows/system32").apply { mkdirs() }
+        for (i in 0 until dllCount) File(system32, "lib$i.dll").writeBytes(random.nextBytes(dllSize))
+        File(root, ".wine/user.reg").writeText("WINE REGISTRY Version 2\n")
+        File(root, ".wine/drive_c/users/xuser/save.dat").apply { parentFile!!.mkdirs() }.writeBytes(random.nextBytes(1000))
+        return root
+    }
+
+    @Test
+    fun sharesMatchingFilesAndCopiesTheRest() {
+        val src = createPrefix(20, 4096)
+        val dst = File(dir, "dst")
+        val copier = HardlinkCopier(dllFilter, null)
+        assertTrue(copier.copy(src, dst))
+
+        val report = copier.report
+        assertEquals(20, report.linkedFiles)
+        assertEquals(20 * 4096L, report.linkedBytes)
+        assertEquals(2, report.copiedFiles)
+        assertEquals(0, report.failedLinks)
+
+        val srcDll = File(src, ".wine/drive_c/windows/system32/lib0.dll")
+        val dstDll = File(dst, ".wine/drive_c/windows/system32/lib0.dll")
+        assertEquals(2, FileUtils.getLinkCount(dstDll))
+        assertArrayEquals(srcDll.readBytes(), dstDll.readBytes())
+        assertEquals(1, FileUtils.getLinkCount(File(dst, ".wine/user.reg")))
+
+        val scanned = HardlinkCopier.scan(dst)
+        assertEquals(20, scanned.linkedFiles)
+        assertEquals(2, scanned.copiedFiles)
+    }
+
+    @Test
+    fun writesToASharedFileLeaveTheOtherTreeIntact() {
+        val src = createPrefix(3, 4096)
+        val dst = File(dir, "dst")
+        assertTrue(HardlinkCopier(dllFilter, null).copy(src, dst))
+        val original = File(src, ".wine/drive_c/windows/system32/lib0.dll").readBytes()
+
+        // In-place modification after copy-on-first-write
+        val patched = File(dst, ".wine/drive_c/windows/system32/lib0.dll")
+        assertTrue(FileUtils.unshare(patched))
+        assertEquals(1, FileUtils.getLinkCount(patched))
+        assertTrue(FileUtils.writeToBinaryFile(patched.path, 16, 0x7f))
+        assertEquals(0x7f.toByte(), patched.readBytes()[16])
+        assertArrayEquals(original, File(src, ".wine/drive_c/windows/system32/lib0.dll").readBytes())
+
+        // Whole-file rewrites by our own writers detach the link first
+        val rewritten = File(dst, ".wine/drive_c/windows/system32/lib1.dll")
+        val lib1 = File(src, ".wine/drive_c/windows/system32/lib1.dll").readBytes()
+        assertTrue(FileUtils.write(rewritten, byteArrayOf(1, 2, 3)))
+        assertArrayEquals(lib1, File(src, ".wine/drive_c/windows/system32/lib1.dll").readBytes())
+
+        val copied = File(dst, ".wine/drive_c/windows/system32/lib2.dll")
+        val replacement = File(dir, "replacement.dll").apply { writeBytes(byteArrayOf(4, 5, 6)) }
+        assertTrue(FileUtils.copy(replacement, copied))
+        assertArrayEquals(byteArrayOf(4, 5, 6), copied.readBytes())
+        assertFalse(File(src, ".wine/drive_c/windows/system32/lib2.dll").readBytes().contentEquals(byteArrayOf(4, 5, 6)))
+    }
+
+    @Ignore("Benchmark; run manually")
+    @Test
+    fun benchmarkAgainstFullCopy() {
+        val src = createPrefix(400, 64 * 1024)
+
+        var start = System.nanoTime()
+        assertTrue(HardlinkCopier(FileFilter { false }, null).copy(src, File(dir, "copy")))
+        val copyMillis = (System.nanoTime() - start) / 1_000_000
+
+        start = System.nanoTime()
+        val copier = HardlinkCopier(dllFilter, null)
+        assertTrue(copier.copy(src, File(dir, "shared")))
+        val linkMillis = (System.nanoTime() - start) / 1_000_000
+
+        println("400 x 64 KiB: full copy %d ms, hardlinked %d ms, %.1f%% of the bytes shared".format(
+            copyMillis, linkMillis, copier.report.dedupRatio * 100))
+    }
+}
@@ -0,0 +1,193 @@
+package com.winlator.core
+
+import java.io.BufferedInputStream
+import java.io.File
+import java.io.FileInputStream
+import java.nio.file.Files
+import java.util.concurrent.Future
+import kotlin.random.Random
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStream
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Ignore
+import org.junit.Test
+
+class ParallelTarExtractorTest {
+
+    private lateinit var dir: File
+
+    @Before
+    fun setUp() {
+        dir = Files.createTempDirectory("tar-extractor").toFile()
+    }
+
+    @After
+    fun tearDown() {
+        dir.deleteRecursively()
+    }
+
+    /** Writes a zstd tarball of [fileCount] files of about [fileSize] bytes, half random and half zeros. */
+    private fun createTarball(name: String, fileCount: Int, fileSize: Int): Pair<File, Map<String, ByteArray>> {
+        val random = Random(fileCount * 31 + fileSize)
+        val contents = linkedMapOf<String, ByteArray>()
+        val tarball = File(dir, "$name.tzst")
+        TarArchiveOutputStream(ZstdCompressorOutputStream(tarball.outputStream().buffered(), 1)).use { tar ->
+            tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_GNU)
+            for (i in 0 until fileCount) {
+                val directory = "dir${i % 16}/"
+                if (i < 16) {
+                    tar.putArchiveEntry(TarArchiveEntry(directory))
+                    tar.closeArchiveEntry()
+                }
+                val data = ByteArray(fileSize + i % 113)
+                random.nextBytes(data, 0, data.size / 2)
+                val path = "${directory}file$i.bin"
+                contents[path] = data
+
+                val entry = TarArchiveEntry(path)
+                entry.size = data.size.toLong()
+                tar.putArchiveEntry(entry)
+                tar.write(data)
+                tar.closeArchiveEntry()
+            }
+        }
+        return tarball to contents
+    }
+
+    private fun extract(extractor: ParallelTarExtractor, tarball: File, destination: File): Boolean {
+        return extractor.extract(
+            TarCompressorUtils.Type.ZSTD,
+            BufferedInputStream(FileInputStream(tarball), StreamUtils.BUFFER_SIZE),
+            destination,
+            null,
+        )
+    }
+
+    private fun assertExtracted(destination: File, contents: Map<String, ByteArray>) {
+        for ((path, data) in contents) {
+            assertArrayEquals(path, data, File(destination, path).readBytes())
+        }
+    }
+
+    private fun timeMillis(block: () -> Unit): Long {
+        val start = System.nanoTime()
+        block()
+        return maxOf(1, (System.nanoTime() - start) / 1_000_000)
+    }
+
+    @Test
+    fun smallAndLargeFilesAreExtractedIntact() {
+        val (small, smallContents) = createTarball("small", fileCount = 300, fileSize = 3000)
+        val (large, largeContents) = createTarball("large", fileCount = 3, fileSize = 5 * 1024 * 1024 + 17)
+
+        for (writerThreads in listOf(0, 3)) {
+            val extractor = ParallelTarExtractor(1, writerThreads)
+            val smallOut = File(dir, "small-$writerThreads")
+            val largeOut = File(dir, "large-$writerThreads")
+            assertTrue(extract(extractor, small, smallOut))
+            assertTrue(extract(extractor, large, largeOut))
+            assertExtracted(smallOut, smallContents)
+            assertExtracted(largeOut, largeContents)
+            extractor.shutdown()
+        }
+    }
+
+    @Test
+    fun writtenEntriesAreRecordedInTheLedger() {
+        val (tarball, contents) = createTarball("ledger", fileCount = 40, fileSize = 2 * 1024 * 1024)
+        val destination = File(dir, "out").apply { mkdirs() }
+        val extractor = ParallelTarExtractor(1, 4)
+        val ledger = ExtractionLedger.load(destination)
+        val record = ExtractionLedger.Record("test")
+
+        assertTrue(
+            extractor.extract(
+                TarCompressorUtils.Type.ZSTD,
+                FileInputStream(tarball),
+                destination,
+                null,
+                ledger,
+                record,
+                null,
+            ),
+        )
+
+        val files = record.entries.filter { it.type == ExtractionLedger.Entry.TYPE_FILE }
+        assertEquals(contents.keys, files.map { it.path }.toSet())
+        for (entry in files) {
+            assertEquals(contents.getValue(entry.path).size.toLong(), entry.size)
+            assertEquals(ExtractionLedger.crc32(File(destination, entry.path)), entry.crc)
+        }
+        assertTrue(ledger.findDivergent(record).isEmpty())
+        extractor.shutdown()
+    }
+
+    @Test
+    fun everyWriterPoolSizeAndConcurrentArchivesExtractTheSameFiles() {
+        val archives = listOf(
+            "many-small" to createTarball("many-small", fileCount = 2000, fileSize = 4 * 1024),
+            "large" to createTarball("large", fileCount = 4, fileSize = 4 * 1024 * 1024),
+        )
+
+        for ((name, archive) in archives) {
+            val (tarball, contents) = archive
+            for (writerThreads in listOf(0, 2, 4)) {
+                val extractor = ParallelTarExtractor(1, writerThreads)
+                val destination = File(dir, "$name-$writerThreads")
+                assertTrue(extract(extractor, tarball, destination))
+                assertExtracted(destination, contents)
+                destination.deleteRecursively()
+                extractor.shutdown()
+            }
+        }
+
+        // Both archives side by side on one extractor
+        val extractor = ParallelTarExtractor(archives.size, 4)
+        val results: List<Future<Boolean>> = archives.map { (name, archive) ->
+            extractor.submit { extract(extractor, archive.first, File(dir, "concurrent-$name")) }
+        }
+        assertTrue(results.all { it.get() })
+        for ((name, archive) in archives) assertExtracted(File(dir, "concurrent-$name"), archive.second)
+        extractor.shutdown()
+    }
+
+    @Ignore("Benchmark; run manually")
+    @Test
+    fun benchmarkThroughputOfWriterPoolAndConcurrentArchives() {
+        val archives = listOf(
+            "many-small" to createTarball("many-small", fileCount = 4000, fileSize = 4 * 1024),
+            "large" to createTarball("large", fileCount = 8, fileSize = 16 * 1024 * 1024),
+        )
+
+        for ((name, archive) in archives) {
+            val (tarball, contents) = archive
+            val megabytes = contents.values.sumOf { it.size } / (1024.0 * 1024.0)
+            for (writerThreads in listOf(0, 2, 4)) {
+                val extractor = ParallelTarExtractor(1, writerThreads)
+                val destination = File(dir, "$name-$writerThreads")
+                val millis = timeMillis { extract(extractor, tarball, destination) }
+                println("%s, %d writer threads: %.1f MB/s (%d ms)".format(name, writerThreads, megabytes * 1000 / millis, millis))
+                destination.deleteRecursively()
+                extractor.shutdown()
+            }
+        }
+
+        // The same archives back to back on one thread, then side by side
+        val extractor = ParallelTarExtractor(archives.size, 4)
+        val sequentialMillis = timeMillis {
+            for ((name, archive) in archives) extract(extractor, archive.first, File(dir, "sequential-$name"))
+        }
+        val concurrentMillis = timeMillis {
+            archives.map { (name, archive) ->
+                extractor.submit { extract(extractor, archive.first, File(dir, "concurrent-$name")) }
+            }.forEach { it.get() }
+        }
+        println("${archives.size} archives sequentially: $sequentialMillis ms, concurrently: $concurrentMillis ms")
+        extractor.shutdown()
+    }
+}
@@ -0,0 +1,126 @@
+package com.winlator.core
+
+import java.io.File
+import java.nio.file.Files
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+
+class WineRegistryEditorTest {
+
+    private lateinit var dir: File
+    private lateinit var regFile: File
+
+    private val original = """
+        |WINE REGISTRY Version 2
+        |;; All keys relative to \\User\\S-1-5-21
+        |
+        |#arch=win64
+        |
+        |[Control Panel\\Desktop] 1690000000
+        |#time=1d9a
+        |"Wallpaper"="C:\\bg.bmp"
+        |"FontSmoothing"="2"
+        |
+        |[Software\\Wine\\Direct3D] 1690000000
+        |#time=1d9a
+        |"csmt"=dword:00000003
+        |"Blob"=hex:01,02,\
+        |  03,04
+        |"renderer"="gl"
+        |
+        |[Software\\Wine\\DllOverrides] 1690000000
+        |"d3d9"="native"
+        |
+    """.trimMargin()
+
+    @Before
+    fun setUp() {
+        dir = Files.createTempDirectory("wine-registry").toFile()
+        regFile = File(dir, "user.reg")
+        regFile.writeText(original)
+    }
+
+    @After
+    fun tearDown() {
+        dir.deleteRecursively()
+    }
+
+    @Test
+    fun readsDoNotRewriteTheFile() {
+        val lastModified = regFile.lastModified()
+        WineRegistryEditor(regFile).use { editor ->
+            assertEquals("C:\\bg.bmp", editor.getStringValue("Control Panel\\Desktop", "Wallpaper"))
+            assertEquals(3, editor.getDwordValue("Software\\Wine\\Direct3D", "csmt"))
+            assertEquals("gl", editor.getStringValue("Software\\Wine\\Direct3D", "renderer"))
+            assertNull(editor.getStringValue("Software\\Missing", "value"))
+        }
+
+        assertEquals(original, regFile.readText())
+        assertEquals(lastModified, regFile.lastModified())
+        assertEquals(listOf("user.reg"), dir.list()!!.toList())
+    }
+
+    @Test
+    fun editsAreAppliedInPlaceAndUntouchedTextIsPreserved() {
+        WineRegistryEditor(regFile).use { editor ->
+            editor.setStringValue("Software\\Wine\\Direct3D", "renderer", "vulkan")
+            editor.setDwordValue("Software\\Wine\\Direct3D", "VideoPciDeviceID", 0x1234)
+            editor.removeValue("Control Panel\\Desktop", "Wallpaper")
+            assertEquals("vulkan", editor.getStringValue("Software\\Wine\\Direct3D", "renderer"))
+        }
+
+        val expected = original
+            .replace("\"Wallpaper\"=\"C:\\\\bg.bmp\"\n", "")
+            .replace("\"renderer\"=\"gl\"\n", "\"renderer\"=\"vulkan\"\n\"VideoPciDeviceID\"=dword:00001234\n")
+        assertEquals(expected, regFile.readText())
+        assertEquals(listOf("user.reg"), dir.list()!!.toList())
+    }
+
+    @Test
+    fun multiLineValuesAreReplacedAsAWhole() {
+        WineRegistryEditor(regFile).use { editor ->
+            editor.setHexValue("Software\\Wine\\Direct3D", "Blob", byteArrayOf(0x0a))
+        }
+
+        val text = regFile.readText()
+        assertTrue(text.contains("\"Blob\"=hex:0a\n\"renderer\"=\"gl\"\n"))
+        assertFalse(text.contains("03,04"))
+    }
+
+    @Test
+    fun newKeysAreCreatedNextToTheirParentUnlessDisabled() {
+        WineRegistryEditor(regFile).use { editor ->
+            editor.setStringValue("Software\\Wine\\Direct3D\\Child", "name", "value")
+            editor.setCreateKeyIfNotExist(false)
+            editor.setStringValue("Software\\NotCreated", "name", "value")
+        }
+
+        WineRegistryEditor(regFile).use { editor ->
+            assertEquals("value", editor.getStringValue("Software\\Wine\\Direct3D\\Child", "name"))
+            assertNull(editor.getStringValue("Software\\NotCreated", "name"))
+        }
+
+        val text = regFile.readText()
+        assertTrue(text.indexOf("[Software\\\\Wine\\\\Direct3D\\\\Child]") in text.indexOf("\"renderer\"")..text.indexOf("[Software\\\\Wine\\\\DllOverrides]"))
+    }
+
+    @Test
+    fun removeKeyOnlyRemovesDescendantsWhenAskedTo() {
+        WineRegistryEditor(regFile).use { editor ->
+            editor.setStringValue("Software\\Wine\\Direct3D\\Child", "name", "value")
+            assertFalse(editor.removeKey("Software\\Wine\\Direct"))
+            assertTrue(editor.removeKey("Software\\Wine\\Direct3D"))
+            assertEquals("value", editor.getStringValue("Software\\Wine\\Direct3D\\Child", "name"))
+            assertTrue(editor.removeKey("Software\\Wine", true))
+            assertNull(editor.getStringValue("Software\\Wine\\Direct3D\\Child", "name"))
+            assertNull(editor.getStringValue("Software\\Wine\\DllOverrides", "d3d9"))
+        }
+
+        assertEquals(original.substringBefore("[Software\\\\Wine\\\\Direct3D]"), regFile.readText())
+    }
+}
@@ -0,0 +1,96 @@
+package com.winlator.renderer
+
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class FrameTimeRecorderTest {
+
+    /** 60 fps with a 30 fps hiccup every 100 frames and a 100 ms hitch every 1000. */
+    private fun recordSession(recorder: FrameTimeRecorder) {
+        for (i in 1..10_000) {
+            val frameTimeUs = when {
+                i % 1000 == 500 -> 100_000L
+                i % 100 == 50 -> 33_000L
+                else -> 16_667L
+            }
+            recorder.recordFrameTime(frameTimeUs)
+        }
+    }
+
+    @Test
+    fun bucketsCoverEveryFrameTimeWithinSevenPercent() {
+        var frameTimeUs = 0L
+        while (frameTimeUs < FrameTimeRecorder.MAX_FRAME_TIME_US) {
+            val bucket = FrameTimeRecorder.bucketIndex(frameTimeUs)
+            val lower = FrameTimeRecorder.bucketLowerBound(bucket)
+            val upper = FrameTimeRecorder.bucketLowerBound(bucket + 1)
+            assertTrue("$frameTimeUs in [$lower, $upper)", frameTimeUs in lower until upper)
+            assertTrue(upper - lower <= maxOf(1L, lower / 16))
+            frameTimeUs += 1 + frameTimeUs / 50
+        }
+        assertTrue(FrameTimeRecorder.BUCKET_COUNT < 300)
+    }
+
+    @Test
+    fun reportsPercentilesLowsAndStutters() {
+        val recorder = FrameTimeRecorder()
+        recordSession(recorder)
+        val snapshot = recorder.snapshot()
+
+        assertEquals(10_000L, snapshot.frameCount)
+        assertEquals(16.67f, snapshot.getPercentileMs(50.0), 16.67f * 0.07f)
+        assertEquals(16.67f, snapshot.getPercentileMs(95.0), 16.67f * 0.07f)
+        assertEquals(33f, snapshot.getPercentileMs(99.5), 33f * 0.07f)
+        assertEquals(100f, snapshot.getPercentileMs(100.0), 0.01f)
+        // The 0.1% low is the 10 hitches, the 1% low adds 90 of the hiccups
+        assertEquals(10f, snapshot.getLowFPS(0.1), 10f * 0.07f)
+        assertEquals(1_000_000f / ((10 * 100_000f + 90 * 33_000f) / 100), snapshot.getLowFPS(1.0), 2f)
+        assertEquals(10L, snapshot.stutterCount)
+    }
+
+    @Test
+    fun longGapsCountAsPausesAndFramesAreTimedBetweenCalls() {
+        val recorder = FrameTimeRecorder()
+        recorder.recordFrame(1_000_000_000L)
+        recorder.recordFrame(1_016_000_000L)
+        recorder.recordFrame(5_000_000_000L)
+        val snapshot = recorder.snapshot()
+        assertEquals(1L, snapshot.frameCount)
+        assertEquals(1L, snapshot.pauseCount)
+        assertEquals(16f, snapshot.getPercentileMs(50.0), 16f * 0.07f)
+    }
+
+    @Test
+    fun concurrentRecordingLosesNoFrames() {
+        val recorder = FrameTimeRecorder()
+        val threads = List(4) { t ->
+            Thread { for (i in 0 until 100_000) recorder.recordFrameTime(1000L + (i * 7 + t) % 50_000) }
+        }
+        threads.forEach { it.start() }
+        threads.forEach { it.join() }
+
+        val snapshot = recorder.snapshot()
+        assertEquals(400_000L, snapshot.frameCount)
+        assertEquals(400_000L, (0 until FrameTimeRecorder.BUCKET_COUNT).sumOf { snapshot.getCount(it) })
+        assertEquals(50_999L, snapshot.maxFrameTimeUs)
+    }
+
+    @Test
+    fun binaryExportRoundTrips() {
+        val recorder = FrameTimeRecorder()
+        recordSession(recorder)
+        val snapshot = recorder.snapshot()
+
+        val bytes = ByteArrayOutputStream()
+        DataOutputStream(bytes).use { snapshot.writeTo(it) }
+        val restored = FrameTimeRecorder.Snapshot.readFrom(DataInputStream(ByteArrayInputStream(bytes.toByteArray())))
+
+        assertTrue(bytes.size() < 100)
+        assertEquals(snapshot.toJson(), restored.toJson())
+    }
+}
@@ -0,0 +1,159 @@
+package com.winlator.steampipeserver
+
+import java.io.DataInputStream
+import java.io.OutputStream
+import java.lang.management.ManagementFactory
+import java.net.InetSocketAddress
+import java.net.Socket
+import java.net.SocketTimeoutException
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Ignore
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+/**
+ * Talks to the server the way the steam_api shim does, from many fake clients at once. The
+ * ignored benchmark measures round trips and the CPU the server burns between requests.
+ */
+@RunWith(RobolectricTestRunner::class)
+class SteamPipeServerTest {
+
+    private val server = SteamPipeServer(0)
+    private val clients = mutableListOf<FakeClient>()
+
+    private inner class FakeClient {
+        val socket = Socket().apply {
+            tcpNoDelay = true
+            soTimeout = 2000
+            connect(InetSocketAddress("127.0.0.1", server.localPort))
+        }
+        private val output: OutputStream = socket.getOutputStream()
+        private val input = DataInputStream(socket.getInputStream())
+
+        fun send(vararg values: Int) {
+            val buffer = ByteBuffer.allocate(values.size * 4).order(ByteOrder.LITTLE_ENDIAN)
+            values.forEach { buffer.putInt(it) }
+            output.write(buffer.array())
+        }
+
+        fun sendBytes(bytes: ByteArray) {
+            for (b in bytes) {
+                output.write(b.toInt())
+                output.flush()
+                Thread.sleep(1)
+            }
+        }
+
+        fun receive(): Int = Integer.reverseBytes(input.readInt())
+
+        fun isClosedByServer(): Boolean = try {
+            input.read() == -1
+        }
+        catch (e: SocketTimeoutException) {
+            false
+        }
+    }
+
+    private fun connect(): FakeClient = FakeClient().also { clients.add(it) }
+
+    @Before
+    fun setUp() {
+        server.start()
+        val deadline = System.currentTimeMillis() + 5000
+        while (server.localPort <= 0) {
+            check(System.currentTimeMillis() < deadline) { "server did not start" }
+            Thread.sleep(5)
+        }
+    }
+
+    @After
+    fun tearDown() {
+        clients.forEach { it.socket.close() }
+        server.stop()
+    }
+
+    @Test
+    fun answersEveryRequestCode() {
+        val client = connect()
+        client.send(RequestCodes.MSG_INIT)
+        assertEquals(1, client.receive())
+        client.send(RequestCodes.MSG_IS_RUNNING)
+        assertEquals(1, client.receive())
+        client.send(RequestCodes.MSG_RESTART_APP, 480)
+        assertEquals(0, client.receive())
+
+        // Requests without a reply, including unknown ones, leave the stream in sync
+        client.send(RequestCodes.MSG_REGISTER_CALLBACK, RequestCodes.MSG_RUN_CALLBACKS, RequestCodes.MSG_UNREGISTER_CALLBACK, 99)
+        client.send(RequestCodes.MSG_IS_RUNNING)
+        assertEquals(1, client.receive())
+
+        client.send(RequestCodes.MSG_SHUTDOWN)
+        assertTrue(client.isClosedByServer())
+    }
+
+    @Test
+    fun decodesSplitAndBatchedMessages() {
+        val client = connect()
+        val restart = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putInt(RequestCodes.MSG_RESTART_APP).putInt(730).array()
+        client.sendBytes(restart)
+        assertEquals(0, client.receive())
+
+        // More replies than fit in the reply buffer at once
+        client.send(*IntArray(1000) { RequestCodes.MSG_IS_RUNNING })
+        repeat(1000) { assertEquals(1, client.receive()) }
+    }
+
+    @Test
+    fun servesManyClientsIndependently() {
+        val manyClients = List(100) { connect() }
+        manyClients.forEach { it.send(RequestCodes.MSG_INIT) }
+        manyClients.forEach { assertEquals(1, it.receive()) }
+
+        // One client leaving does not disturb the others
+        manyClients[0].send(RequestCodes.MSG_SHUTDOWN)
+        assertTrue(manyClients[0].isClosedByServer())
+        for (client in manyClients.drop(1).reversed()) {
+            client.send(RequestCodes.MSG_IS_RUNNING, RequestCodes.MSG_RESTART_APP, 480)
+            assertEquals(1, client.receive())
+            assertEquals(0, client.receive())
+        }
+    }
+
+    @Ignore("Benchmark; run manually")
+    @Test
+    fun benchmarkIdleCpuAndRoundTrips() {
+        val idleClients = List(100) { connect() }
+        idleClients.forEach { it.send(RequestCodes.MSG_INIT) }
+        idleClients.forEach { assertEquals(1, it.receive()) }
+
+        val serverThread = Thread.getAllStackTraces().keys.first { it.name == "SteamPipeServer" }
+        val threadMXBean = ManagementFactory.getThreadMXBean()
+        val cpuBefore = threadMXBean.getThreadCpuTime(serverThread.id)
+        Thread.sleep(1000)
+        val cpuMillis = (threadMXBean.getThreadCpuTime(serverThread.id) - cpuBefore) / 1_000_000
+        println("100 idle clients: %d ms of server CPU in 1 s".format(cpuMillis))
+
+        val pingClients = idleClients.take(16)
+        val latencies = LongArray(16 * 500)
+        var i = 0
+        repeat(500) {
+            for (client in pingClients) {
+                val start = System.nanoTime()
+                client.send(RequestCodes.MSG_IS_RUNNING)
+                assertEquals(1, client.receive())
+                latencies[i++] = (System.nanoTime() - start) / 1000
+            }
+        }
+
+        latencies.sort()
+        val p50 = latencies[latencies.size / 2]
+        val p99 = latencies[latencies.size * 99 / 100]
+        println("round trip over %d requests: p50 %d us, p99 %d us, max %d us".format(latencies.size, p50, p99, latencies.last()))
+    }
+}
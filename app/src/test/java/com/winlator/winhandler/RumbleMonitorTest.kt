@@ -0,0 +1,151 @@
+package com.winlator.winhandler
+
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import kotlin.random.Random
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Ignore
+import org.junit.Test
+
+/**
+ * Plays the Wine side of the gamepad memory file: rumble commands are written with a
+ * positional write at offset 32 like evshim's pwrite(), followed by the doorbell that the
+ * inotify modify event rings on a device. The ignored benchmark prints a latency
+ * histogram for the monitor next to one for the 20 ms poller it replaced.
+ */
+class RumbleMonitorTest {
+
+    companion object {
+        private const val COMMANDS = 200
+    }
+
+    private lateinit var memFile: File
+    private lateinit var raf: RandomAccessFile
+    private lateinit var mapping: MappedByteBuffer
+    private val received = LinkedBlockingQueue<Pair<Int, Long>>()
+
+    @Before
+    fun setUp() {
+        memFile = File.createTempFile("gamepad", ".mem")
+        raf = RandomAccessFile(memFile, "rw")
+        raf.setLength(64)
+        mapping = raf.channel.map(FileChannel.MapMode.READ_WRITE, 0, 64)
+        mapping.order(ByteOrder.LITTLE_ENDIAN)
+    }
+
+    @After
+    fun tearDown() {
+        raf.close()
+        memFile.delete()
+    }
+
+    private fun onRumble(lowFreq: Short, highFreq: Short) {
+        received.put((lowFreq.toInt() and 0xffff) to System.nanoTime())
+    }
+
+    /** Writes a rumble command the way evshim does and returns when it was written. */
+    private fun writeRumble(lowFreq: Int, highFreq: Int): Long {
+        val command = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN)
+        command.putShort(lowFreq.toShort()).putShort(highFreq.toShort()).flip()
+        val start = System.nanoTime()
+        raf.channel.write(command, RumbleMonitor.LOW_FREQ_OFFSET.toLong())
+        return start
+    }
+
+    /** Sends [COMMANDS] rumble commands at random intervals and returns their latencies in microseconds. */
+    private fun measureLatencies(ringDoorbell: () -> Unit): LongArray {
+        val random = Random(7)
+        return LongArray(COMMANDS) { i ->
+            Thread.sleep(random.nextLong(1, 6))
+            val lowFreq = 1000 + i
+            val start = writeRumble(lowFreq, 0)
+            ringDoorbell()
+            val (value, time) = received.poll(2, TimeUnit.SECONDS) ?: throw AssertionError("command $i was not delivered")
+            assertEquals(lowFreq, value)
+            (time - start) / 1000
+        }
+    }
+
+    private fun printHistogram(name: String, latencies: LongArray) {
+        val bounds = longArrayOf(100, 500, 1000, 2000, 5000, 10000, 20000)
+        val counts = IntArray(bounds.size + 1)
+        for (latency in latencies) counts[bounds.indexOfFirst { latency < it }.let { if (it < 0) bounds.size else it }]++
+        val sorted = latencies.sorted()
+        println("%s: p50 %d us, p99 %d us, max %d us".format(name, sorted[sorted.size / 2], sorted[sorted.size * 99 / 100], sorted.last()))
+        for (i in counts.indices) {
+            val label = if (i < bounds.size) "< %5d us".format(bounds[i]) else ">= %4d us".format(bounds.last())
+            println("  %s %4d %s".format(label, counts[i], "#".repeat(counts[i] * 60 / latencies.size)))
+        }
+    }
+
+    @Test
+    fun doorbellDeliversRumbleWithoutPolling() {
+        val monitor = RumbleMonitor(mapping, ::onRumble)
+        monitor.start()
+        try {
+            // Every command arrives, in order, each before the next one is written
+            measureLatencies { monitor.signal() }
+        }
+        finally {
+            monitor.stop()
+        }
+    }
+
+    @Test
+    fun fallbackPollPicksUpMissedEvents() {
+        val monitor = RumbleMonitor(mapping, ::onRumble)
+        monitor.start()
+        try {
+            writeRumble(4242, 0)
+            val (value, _) = received.poll(2, TimeUnit.SECONDS) ?: throw AssertionError("change was not picked up")
+            assertEquals(4242, value)
+        }
+        finally {
+            monitor.stop()
+        }
+    }
+
+    @Ignore("Benchmark; run manually")
+    @Test
+    fun benchmarkAgainstTwentyMillisecondPolling() {
+        val running = AtomicBoolean(true)
+        var lastLowFreq: Short = 0
+        val poller = Thread {
+            while (running.get()) {
+                val lowFreq = mapping.getShort(RumbleMonitor.LOW_FREQ_OFFSET)
+                if (lowFreq != lastLowFreq) {
+                    lastLowFreq = lowFreq
+                    onRumble(lowFreq, mapping.getShort(RumbleMonitor.HIGH_FREQ_OFFSET))
+                }
+                Thread.sleep(20)
+            }
+        }
+        poller.start()
+        val pollingLatencies = measureLatencies {}
+        running.set(false)
+        poller.join()
+        printHistogram("20 ms polling", pollingLatencies)
+
+        writeRumble(0, 0)
+        received.clear()
+
+        val monitor = RumbleMonitor(mapping, ::onRumble)
+        monitor.start()
+        val doorbellLatencies = try {
+            measureLatencies { monitor.signal() }
+        }
+        finally {
+            monitor.stop()
+        }
+        printHistogram("doorbell", doorbellLatencies)
+    }
+}
@@ -0,0 +1,96 @@
+package com.winlator.xconnector
+
+import java.lang.management.ManagementFactory
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+
+class XInputStreamTest {
+
+    private val threadBean = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+
+    private fun allocatedBytes(): Long = threadBean!!.getThreadAllocatedBytes(Thread.currentThread().id)
+
+    // Ten 12-byte requests followed by a PutImage-like request with a 64-byte payload
+    private fun batch(): ByteBuffer {
+        val data = ByteBuffer.allocate(10 * 12 + 8 + 64).order(ByteOrder.LITTLE_ENDIAN)
+        for (i in 0 until 10) {
+            data.put(i.toByte()).put(0).putShort(3).putInt(i).putInt(-i)
+        }
+        data.put(72).put(0).putShort(18).putInt(64)
+        for (i in 0 until 64) data.put(i.toByte())
+        data.flip()
+        return data
+    }
+
+    private fun decode(input: XInputStream): Long {
+        var sum = 0L
+        while (input.available() >= 4) {
+            val opcode = input.readUnsignedByte()
+            input.skip(1)
+            val length = input.readUnsignedShort()
+            if (opcode == 72) {
+                val payload = input.readByteBuffer(input.readInt())
+                sum += payload.getLong(0) + payload.get(63)
+            }
+            else {
+                sum += input.readInt() + input.readUnsignedInt() + length
+            }
+        }
+        return sum
+    }
+
+    @Test
+    fun decodingRequestBatchesIsAllocationFree() {
+        assumeTrue(threadBean != null && threadBean.isThreadAllocatedMemorySupported)
+        threadBean!!.isThreadAllocatedMemoryEnabled = true
+
+        val input = XInputStream(null, 4096, ByteBufferPool(1 shl 20))
+        input.setByteOrder(ByteOrder.LITTLE_ENDIAN)
+        val data = batch()
+        var expected = 0L
+        repeat(1000) {
+            input.readMoreData(data.rewind() as ByteBuffer)
+            expected = decode(input)
+        }
+
+        val allocationCount = input.allocationCount
+        val before = allocatedBytes()
+        var sum = 0L
+        for (i in 0 until 100_000) {
+            input.readMoreData(data.rewind() as ByteBuffer)
+            sum += decode(input)
+        }
+        val allocated = allocatedBytes() - before
+
+        assertEquals(expected * 100_000, sum)
+        assertEquals(allocationCount, input.allocationCount)
+        // 1.1 million requests; anything per request would be megabytes
+        assertTrue("decoding allocated $allocated bytes", allocated < 64 * 1024)
+    }
+
+    @Test
+    fun partialRequestsAreCompactedToTheStartOfTheBuffer() {
+        val input = XInputStream(null, 64, ByteBufferPool(1 shl 20))
+        input.setByteOrder(ByteOrder.LITTLE_ENDIAN)
+        val data = batch()
+
+        data.limit(14)
+        input.readMoreData(data)
+        assertEquals(0, input.readUnsignedByte())
+        input.skip(3)
+        assertEquals(0, input.readInt())
+        assertEquals(0, input.readInt())
+        assertEquals(2, input.available())
+
+        data.limit(data.capacity())
+        input.readMoreData(data)
+        assertEquals(1, input.readUnsignedByte())
+        input.skip(3)
+        assertEquals(1, input.readInt())
+        assertEquals(-1, input.readInt())
+    }
+}
@@ -0,0 +1,66 @@
+package com.winlator.xserver
+
+import kotlin.concurrent.thread
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Ignore
+import org.junit.Test
+
+class AtomTest {
+
+    @Test
+    fun predefinedAtomsKeepProtocolIds() {
+        assertEquals(Atom.WM_HINTS, Atom.getId("WM_HINTS"))
+        assertEquals(39, Atom.WM_NAME)
+        assertEquals(67, Atom.WM_CLASS)
+        assertEquals("WM_TRANSIENT_FOR", Atom.getName(68))
+        assertEquals(0, Atom.getId(null))
+        assertFalse(Atom.isValid(0))
+    }
+
+    @Test
+    fun internAtom_isStableAndUnknownNamesAreNotCreated() {
+        val id = Atom.internAtom("_ATOM_TEST_STABLE")
+        assertEquals(id, Atom.internAtom("_ATOM_TEST_STABLE"))
+        assertEquals("_ATOM_TEST_STABLE", Atom.getName(id))
+        assertTrue(Atom.isValid(id))
+
+        assertEquals(-1, Atom.getId("_ATOM_TEST_NEVER_INTERNED"))
+        assertNull(Atom.getName(Int.MAX_VALUE))
+    }
+
+    @Test
+    fun concurrentInternAssignsOneIdPerName() {
+        val ids = Array(4) { IntArray(500) }
+        val threads = (0 until 4).map { t ->
+            thread { for (i in 0 until 500) ids[t][i] = Atom.internAtom("_ATOM_TEST_CONCURRENT_$i") }
+        }
+        threads.forEach { it.join() }
+
+        for (i in 0 until 500) {
+            for (t in 1 until 4) assertEquals(ids[0][i], ids[t][i])
+            assertEquals("_ATOM_TEST_CONCURRENT_$i", Atom.getName(ids[0][i]))
+        }
+    }
+
+    // Interns 500 atoms into the process-wide table, so it stays out of regular runs
+    @Ignore("Benchmark; run manually")
+    @Test
+    fun benchmarkLookupsWithHundredsOfAppAtoms() {
+        val names = (0 until 500).map { "_ATOM_TEST_APP_$it" }
+        names.forEach { Atom.internAtom(it) }
+
+        val iterations = 200_000
+        var checksum = 0L
+        val start = System.nanoTime()
+        for (i in 0 until iterations) {
+            checksum += Atom.getId(names[i % names.size])
+            checksum += Atom.getName(Atom.WM_NAME)!!.length
+        }
+        val elapsedNanos = System.nanoTime() - start
+
+        println("checksum $checksum, atom lookups: ${iterations * 2L * 1_000_000_000L / elapsedNanos.coerceAtLeast(1)} ops/s")
+    }
+}
@@ -0,0 +1,81 @@
+package com.winlator.xserver
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class DamageRegionTest {
+
+    private fun drain(region: DamageRegion): List<List<Int>> {
+        val rects = IntArray(DamageRegion.MAX_RECTS * 4)
+        val count = region.drain(rects)
+        return (0 until count).map { i -> rects.slice(i * 4 until i * 4 + 4) }
+    }
+
+    @Test
+    fun add_clipsToBoundsAndIgnoresEmptyRects() {
+        val region = DamageRegion(100, 50)
+        region.add(90, 40, 20, 20)
+        region.add(10, 10, 0, 5)
+        region.add(-5, -5, 3, 3)
+
+        assertEquals(listOf(listOf(90, 40, 10, 10)), drain(region))
+        assertTrue(region.isEmpty)
+    }
+
+    @Test
+    fun add_coalescesOverlappingAndAdjacentRects() {
+        val region = DamageRegion(100, 100)
+        region.add(0, 0, 10, 10)
+        region.add(10, 0, 10, 10)
+        region.add(5, 5, 2, 2)
+
+        assertEquals(listOf(listOf(0, 0, 20, 10)), drain(region))
+    }
+
+    @Test
+    fun add_keepsDistantRectsSeparate() {
+        val region = DamageRegion(1920, 1080)
+        region.add(0, 0, 16, 16)
+        region.add(1900, 1060, 20, 20)
+
+        assertEquals(2, region.size())
+        assertEquals(16L * 16 + 20 * 20, region.area)
+    }
+
+    @Test
+    fun add_staysBoundedWhenManyRectsAreDamaged() {
+        val region = DamageRegion(1000, 1000)
+        for (i in 0 until 100) region.add((i * 97) % 990, (i * 53) % 990, 4, 4)
+
+        assertTrue(region.size() <= DamageRegion.MAX_RECTS)
+        val rects = drain(region)
+        for (i in 0 until 100) {
+            val x = (i * 97) % 990
+            val y = (i * 53) % 990
+            assertTrue(rects.any { (rx, ry, rw, rh) -> x >= rx && y >= ry && x + 4 <= rx + rw && y + 4 <= ry + rh })
+        }
+    }
+
+    @Test
+    fun markFull_reportsWholeBoundsAndAbsorbsFurtherDamage() {
+        val region = DamageRegion(64, 32)
+        region.add(1, 1, 2, 2)
+        region.markFull()
+        region.add(5, 5, 2, 2)
+
+        assertTrue(region.isFull)
+        assertEquals(listOf(listOf(0, 0, 64, 32)), drain(region))
+        assertFalse(region.isFull)
+    }
+
+    @Test
+    fun add_coveringBoundsBecomesFull() {
+        val region = DamageRegion(64, 32)
+        region.add(0, 0, 64, 16)
+        region.add(0, 16, 64, 16)
+
+        assertTrue(region.isFull)
+    }
+}
@@ -0,0 +1,81 @@
+package com.winlator.xserver
+
+import com.winlator.xserver.events.ButtonPress
+import com.winlator.xserver.events.Event
+import com.winlator.xserver.events.InputDeviceEvent
+import com.winlator.xserver.events.MotionNotify
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class InputEventQueueTest {
+
+    private val root = Window(1, null, 0, 0, 1920, 1080, null)
+    private val window = Window(2, null, 100, 100, 800, 600, null)
+    private val batcher = InputEventBatcher()
+    /** What the client received, as "<type> <rootX>,<rootY>"; events are snapshotted since motion is reused. */
+    private val sent = mutableListOf<String>()
+    private val queue = InputEventQueue(batcher) { event: Event ->
+        val inputEvent = event as InputDeviceEvent
+        val type = if (event is MotionNotify) "motion" else "button"
+        sent.add("$type ${inputEvent.rootX},${inputEvent.rootY}")
+    }
+    private val motion = MotionNotify(false, root, window, null, 0, 0, 0, 0, Bitmask())
+
+    private fun move(x: Int, y: Int, state: Int = 0) {
+        queue.queueMotion(motion.update(false, root, window, null, x.toShort(), y.toShort(), (x - 100).toShort(), (y - 100).toShort(), Bitmask(state)))
+    }
+
+    @Test
+    fun consecutiveMotionIsCoalescedToTheLatestPosition() {
+        for (i in 0 until 1000) move(100 + i % 500, 200)
+        assertEquals(emptyList<String>(), sent)
+
+        queue.flush()
+        assertEquals(listOf("motion 599,200"), sent)
+        assertEquals(1000L, queue.rawMotionEventCount)
+        assertEquals(1L, queue.deliveredMotionEventCount)
+        assertEquals(1000L, batcher.rawMotionEventCount)
+        assertEquals(1L, batcher.deliveredMotionEventCount)
+    }
+
+    @Test
+    fun otherEventsKeepTheirPlaceBetweenMotion() {
+        move(110, 110)
+        move(120, 120)
+        queue.send(ButtonPress(1, root, window, null, 120, 120, 20, 20, Bitmask()))
+        move(130, 130)
+        move(140, 140)
+        queue.flush()
+
+        assertEquals(listOf("motion 120,120", "button 120,120", "motion 140,140"), sent)
+    }
+
+    @Test
+    fun motionWithDifferentStateIsNotMerged() {
+        move(110, 110)
+        move(120, 120, state = Pointer.Button.BUTTON_LEFT.flag())
+        move(130, 130, state = Pointer.Button.BUTTON_LEFT.flag())
+        queue.flush()
+
+        assertEquals(listOf("motion 110,110", "motion 130,130"), sent)
+        assertEquals(2L, queue.deliveredMotionEventCount)
+    }
+
+    @Test
+    fun heldMotionIsDeliveredOnTheNextFrame() {
+        val otherSent = mutableListOf<Event>()
+        val otherQueue = InputEventQueue(batcher) { otherSent.add(it) }
+        move(110, 110)
+        otherQueue.queueMotion(motion)
+
+        batcher.doFrame(0)
+        assertEquals(listOf("motion 110,110"), sent)
+        assertEquals(1, otherSent.size)
+
+        batcher.doFrame(0)
+        assertEquals(1, sent.size)
+    }
+}
@@ -0,0 +1,106 @@
+package com.winlator.xserver
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.concurrent.thread
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class ResourceLocksTest {
+
+    @Test
+    fun sharedLookupsDoNotWaitForRenderer() {
+        val locks = ResourceLocks()
+        val rendererHolding = CountDownLatch(1)
+        val releaseRenderer = CountDownLatch(1)
+
+        val renderer = thread {
+            locks.lockShared(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.DRAWABLE_MANAGER).use {
+                rendererHolding.countDown()
+                releaseRenderer.await()
+            }
+        }
+        rendererHolding.await()
+
+        val lookupDone = CountDownLatch(1)
+        thread {
+            locks.lockShared(XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER).use {
+                lookupDone.countDown()
+            }
+        }
+        assertTrue(lookupDone.await(1, TimeUnit.SECONDS))
+
+        releaseRenderer.countDown()
+        renderer.join()
+    }
+
+    @Test
+    fun exclusiveLockWaitsForSharedHolders() {
+        val locks = ResourceLocks()
+        val shared = locks.lockShared(XServer.Lockable.DRAWABLE_MANAGER)
+
+        val acquired = AtomicBoolean(false)
+        val writer = thread {
+            locks.lock(XServer.Lockable.DRAWABLE_MANAGER).use {
+                acquired.set(locks.isHeldExclusively(XServer.Lockable.DRAWABLE_MANAGER))
+            }
+        }
+        writer.join(100)
+        assertFalse(acquired.get())
+
+        shared.close()
+        writer.join()
+        assertTrue(acquired.get())
+    }
+
+    @Test
+    fun rendererAndClientsAllFinishTheirWorkUnderContention() {
+        val locks = ResourceLocks()
+        val start = CountDownLatch(1)
+        val frames = AtomicLong()
+        val lookups = AtomicLong()
+        val mutations = AtomicLong()
+
+        val renderer = thread {
+            start.await()
+            repeat(OPERATIONS) {
+                locks.lockShared(XServer.Lockable.DRAWABLE_MANAGER).use { frames.incrementAndGet() }
+            }
+        }
+        // Client 0 takes the drawable manager exclusively every 64 requests
+        val clients = (0 until 4).map { index ->
+            thread {
+                start.await()
+                repeat(OPERATIONS) { i ->
+                    if (index == 0 && i % 64 == 0) {
+                        locks.lock(XServer.Lockable.PIXMAP_MANAGER, XServer.Lockable.DRAWABLE_MANAGER).use { mutations.incrementAndGet() }
+                    }
+                    else {
+                        locks.lockShared(XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER).use { lookups.incrementAndGet() }
+                    }
+                }
+            }
+        }
+        start.countDown()
+
+        // Nobody is starved or deadlocked: every thread gets through all of its work
+        (clients + renderer).forEach { it.join(TimeUnit.SECONDS.toMillis(30)) }
+        assertTrue((clients + renderer).none { it.isAlive })
+        val expectedMutations = (OPERATIONS + 63) / 64
+        assertEquals(OPERATIONS.toLong(), frames.get())
+        assertEquals(expectedMutations.toLong(), mutations.get())
+        assertEquals(4L * OPERATIONS - expectedMutations, lookups.get())
+        // and every lock taken was given back
+        locks.lock(XServer.Lockable.PIXMAP_MANAGER, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER).use {
+            assertTrue(locks.isHeldExclusively(XServer.Lockable.DRAWABLE_MANAGER))
+        }
+    }
+
+    companion object {
+        private const val OPERATIONS = 20_000
+    }
+}
@@ -0,0 +1,128 @@
+package com.winlator.xserver
+
+import kotlin.random.Random
+import org.junit.Assert.assertSame
+import org.junit.Ignore
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+/**
+ * Checks WindowSpatialIndex against the recursive tree walk it replaced and compares the
+ * cost of both on a few hundred windows.
+ */
+@RunWith(RobolectricTestRunner::class)
+class WindowSpatialIndexTest {
+
+    companion object {
+        private const val SCREEN_WIDTH = 1920
+        private const val SCREEN_HEIGHT = 1080
+        private const val WINDOW_COUNT = 300
+    }
+
+    private val random = Random(42)
+
+    private fun createWindowTree(count: Int): Pair<Window, List<Window>> {
+        val root = Window(1, null, 0, 0, SCREEN_WIDTH, SCREEN_HEIGHT, null)
+        root.attributes.setMapped(true)
+        val windows = mutableListOf(root)
+        for (id in 2..count + 1) {
+            // Mostly top-level windows, the rest nested up to a few levels deep
+            val parent = if (random.nextInt(3) == 0) windows.random(random) else root
+            val window = if (parent === root) {
+                Window(id, null, random.nextInt(-100, SCREEN_WIDTH), random.nextInt(-100, SCREEN_HEIGHT), random.nextInt(1, 800), random.nextInt(1, 600), null)
+            }
+            else {
+                Window(id, null, random.nextInt(-50, 300), random.nextInt(-50, 300), random.nextInt(0, 400), random.nextInt(0, 300), null)
+            }
+            window.attributes.setMapped(random.nextInt(10) < 8)
+            parent.addChild(window)
+            windows.add(window)
+        }
+        return root to windows
+    }
+
+    private fun walkTree(window: Window, x: Short, y: Short): Window? {
+        if (!(window.attributes.isMapped && window.containsPoint(x, y))) return null
+        val child = window.getChildByCoords(x, y)
+        return if (child != null) walkTree(child, x, y) else window
+    }
+
+    private fun assertMatchesTreeWalk(root: Window, index: WindowSpatialIndex) {
+        repeat(20_000) {
+            val x = random.nextInt(-50, SCREEN_WIDTH + 50).toShort()
+            val y = random.nextInt(-50, SCREEN_HEIGHT + 50).toShort()
+            assertSame("at $x,$y", walkTree(root, x, y), index.findPointWindow(x, y))
+        }
+    }
+
+    @Test
+    fun findsTheSameWindowAsTheTreeWalk() {
+        val (root, windows) = createWindowTree(WINDOW_COUNT)
+        val index = WindowSpatialIndex(root)
+        assertMatchesTreeWalk(root, index)
+
+        repeat(50) {
+            val window = windows[random.nextInt(1, windows.size)]
+            when (random.nextInt(3)) {
+                0 -> {
+                    window.setX((window.x + random.nextInt(-200, 200)).toShort())
+                    window.setY((window.y + random.nextInt(-200, 200)).toShort())
+                }
+                1 -> window.attributes.setMapped(!window.attributes.isMapped)
+                2 -> window.parent.moveChildAbove(window, null)
+            }
+            index.invalidate()
+            assertMatchesTreeWalk(root, index)
+        }
+    }
+
+    @Test
+    fun findsNothingOutsideTheRootWindow() {
+        val (root, _) = createWindowTree(10)
+        val index = WindowSpatialIndex(root)
+        assertSame(null, index.findPointWindow(-1, 0))
+        assertSame(null, index.findPointWindow(0, SCREEN_HEIGHT.toShort()))
+
+        root.attributes.setMapped(false)
+        index.invalidate()
+        assertSame(null, index.findPointWindow(10, 10))
+    }
+
+    @Ignore("Benchmark; run manually")
+    @Test
+    fun benchmarkPointQueries() {
+        val (root, _) = createWindowTree(WINDOW_COUNT)
+        val index = WindowSpatialIndex(root)
+        val points = ShortArray(8192) {
+            if (it % 2 == 0) random.nextInt(SCREEN_WIDTH).toShort() else random.nextInt(SCREEN_HEIGHT).toShort()
+        }
+        val queries = 200_000
+
+        fun measure(find: (Short, Short) -> Window?): Double {
+            var found = 0
+            repeat(queries) { find(points[0], points[1]) }
+            val start = System.nanoTime()
+            for (i in 0 until queries) {
+                val p = (i * 2) % points.size
+                if (find(points[p], points[p + 1]) != null) found++
+            }
+            val nanos = (System.nanoTime() - start).toDouble() / queries
+            check(found > 0)
+            return nanos
+        }
+
+        val walkNanos = measure { x, y -> walkTree(root, x, y) }
+        val indexNanos = measure { x, y -> index.findPointWindow(x, y) }
+
+        val rebuilds = 200
+        val start = System.nanoTime()
+        repeat(rebuilds) {
+            index.invalidate()
+            index.findPointWindow(0, 0)
+        }
+        val rebuildMicros = (System.nanoTime() - start) / rebuilds / 1000.0
+
+        println("%d windows: tree walk %.0f ns, index %.0f ns per query, rebuild %.0f us".format(WINDOW_COUNT, walkNanos, indexNanos, rebuildMicros))
+    }
+}